@@ -10,6 +10,8 @@
  * Características:
  * - LittleFS para almacenamiento persistente
  * - BLE para control desde Android
+ * - Peticiones con ID ("#id:CMD:...") y respuestas etiquetadas
+ * - WiFi softAP + UDP para subidas/descargas rápidas (CMD:WIFI)
  * - LoRa para recepción de archivos desde TX
  * - Protocolo con ACK para confiabilidad
  * - Configuración dinámica de parámetros LoRa
@@ -32,6 +34,9 @@
 #include <BLE2902.h>
 #include <ArduinoJson.h>
 #include <mbedtls/base64.h>
+#include <mbedtls/sha256.h>
+#include <WiFi.h>
+#include <WiFiUdp.h>
 
 // ════════════════════════════════════════════════════════════════════════
 // 🔧 CONFIGURACIÓN - PINES HELTEC V3
@@ -57,11 +62,15 @@
 // ════════════════════════════════════════════════════════════════════════
 
 #define CHUNK_SIZE_BLE 200         // Chunks para BLE (bytes)
+#define HASH_SEGMENT_SIZE 4000     // Segmento CRC32C por defecto de CMD:HASH
 #define CHUNK_SIZE_LORA 240        // Chunks para LoRa (bytes)
 #define MAX_FILENAME_LENGTH 64
 #define RX_TIMEOUT 30000           // Timeout de recepción (30s)
 #define METADATA_MAGIC_1 0x4C      // Magic byte 1
 #define METADATA_MAGIC_2 0x4D      // Magic byte 2
+#define LINK_CONFIG_MAGIC_1 0x4C   // Cambio de intervalo de ACK ("LC")
+#define LINK_CONFIG_MAGIC_2 0x43
+#define LINK_CONFIG_REPLY_DELAY 250 // El TX escucha 200 ms después de transmitir
 
 // ════════════════════════════════════════════════════════════════════════
 // 🌐 VARIABLES GLOBALES - RADIO LORA
@@ -74,6 +83,7 @@ float currentBW = 125.0;           // Bandwidth en kHz
 int currentSF = 9;                 // Spreading Factor
 int currentCR = 7;                 // Coding Rate (4/7)
 int currentACKInterval = 5;        // ACK cada N fragmentos
+int rxACKInterval = 5;             // Intervalo del archivo en curso (el TX puede cambiarlo)
 int currentPower = 17;             // Potencia en dBm
 
 // Estado de recepción LoRa
@@ -88,6 +98,10 @@ uint16_t lastFragmentIndex = 0;
 File receivingFileHandle;
 unsigned long lastPacketTime = 0;
 unsigned long receptionStartTime = 0;
+unsigned long receptionStartMicros = 0;
+
+// Reenvío en vivo de fragmentos por BLE (CMD:RX_STREAM)
+bool rxStreaming = false;
 
 // Estadísticas
 int16_t avgRSSI = 0;
@@ -95,6 +109,131 @@ float avgSNR = 0;
 int rssiCount = 0;
 uint16_t duplicatePackets = 0;
 
+// ════════════════════════════════════════════════════════════════════════
+// 📟 TELEMETRÍA BINARIA (CMD:TELEMETRY)
+// ════════════════════════════════════════════════════════════════════════
+
+// Registro fijo por fragmento en PROGRESS_UUID (little endian, 24 bytes).
+// Sustituye a RX_STATUS en texto y al byte de porcentaje
+#define TELEMETRY_VERSION 1
+#define TELEMETRY_KIND_TX 1
+#define TELEMETRY_KIND_RX 2
+#define TELEMETRY_FLAG_LAST 0x01
+
+struct __attribute__((packed)) TelemetryRecord {
+  uint8_t version;
+  uint8_t kind;
+  uint8_t percentage;
+  uint8_t flags;
+  uint16_t fragmentIndex;
+  uint16_t fragmentTotal;
+  uint32_t bytes;
+  uint16_t retries;          // fragmentos duplicados
+  int16_t rssi;              // dBm del último paquete recibido
+  int16_t snrCentiDb;        // SNR × 100
+  uint16_t reserved;
+  uint32_t elapsedMicros;    // desde el inicio de la transferencia
+};
+static_assert(sizeof(TelemetryRecord) == 24, "TelemetryRecord debe ocupar 24 bytes");
+
+bool telemetryEnabled = false;
+
+// ════════════════════════════════════════════════════════════════════════
+// 🏷️ PETICIONES CON ID ("#id:CMD:...")
+// ════════════════════════════════════════════════════════════════════════
+
+// Mientras handleCommand atiende una petición con ID, cada sendResponse
+// de esa misma tarea sale como "#id:respuesta". Lo que envían otras
+// tareas (loop, TX LoRa) a la vez sigue sin etiqueta
+String requestTag = "";
+TaskHandle_t requestTagTask = NULL;
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - SUBIDAS/DESCARGAS RÁPIDAS (CMD:WIFI)
+// ════════════════════════════════════════════════════════════════════════
+
+// SoftAP propio + servidor UDP de archivos para la app (UdpLink).
+// Cabecera de wifi_udp_tx2 {magic, testId, seq, tx_us} + tipo:
+// CTRL = comando de texto, DATA = chunk, SACK = acumulado + bitmap
+#define WIFI_AP_PREFIX "Heltec-RX-"
+#define WIFI_AP_PASS "12345678"
+#define UDP_FILE_PORT 12346
+#define UDP_MAGIC 0xDCF1
+#define UDP_TYPE_CTRL 1
+#define UDP_TYPE_DATA 2
+#define UDP_TYPE_SACK 3
+#define UDP_CHUNK_SIZE 1024
+#define UDP_WINDOW_MIN 4
+#define UDP_WINDOW_INITIAL 16
+#define UDP_WINDOW_MAX 64           // lo que cubre el bitmap del SACK
+#define UDP_GAP_MIN_US 300
+#define UDP_GAP_INITIAL_US 1000
+#define UDP_GAP_MAX_US 5000
+#define UDP_RTO_MIN_US 200000
+#define UDP_SACK_EVERY 8
+#define UDP_SACK_DELAY_MS 20
+#define UDP_IDLE_TIMEOUT_MS 10000
+#define UDP_BURST 8                 // paquetes nuevos por vuelta de loop()
+
+struct __attribute__((packed)) UdpHeader {
+  uint16_t magic;
+  uint16_t testId;           // id de la transferencia (lo elige la app)
+  uint32_t seq;              // CTRL: nº de comando, DATA/SACK: nº de chunk
+  uint32_t tx_us;
+  uint8_t type;
+};
+static_assert(sizeof(UdpHeader) == 13, "UdpHeader debe ocupar 13 bytes");
+
+struct __attribute__((packed)) UdpSack {
+  uint32_t cumulative;       // chunks [0, cumulative) recibidos
+  uint64_t bitmap;           // bit i = chunk cumulative + 1 + i
+  uint32_t echo_us;          // tx_us del último DATA (RTT)
+};
+
+enum UdpMode {
+  UDP_IDLE,
+  UDP_RECEIVING,             // subida desde la app
+  UDP_SENDING                // descarga hacia la app
+};
+
+WiFiUDP fileUdp;
+bool wifiActive = false;
+volatile int8_t wifiRequest = -1;    // 1 = encender, 0 = apagar (lo atiende loop)
+String wifiSsid = "";
+IPAddress udpPeerIP;
+uint16_t udpPeerPort = 0;
+
+// Último comando: los duplicados reciben la misma respuesta
+uint16_t udpTransferId = 0;
+uint32_t udpCtrlSeq = 0;
+String udpCtrlReply = "";
+
+UdpMode udpMode = UDP_IDLE;
+File udpFile;
+String udpFilename = "";
+uint32_t udpFileSize = 0;
+uint32_t udpChunkCount = 0;
+uint32_t udpCumulative = 0;          // primer chunk sin recibir / sin confirmar
+unsigned long udpLastActivity = 0;
+
+// Recepción
+uint8_t* udpReceived = NULL;         // bitmap de chunks recibidos
+uint16_t udpSinceSack = 0;
+uint32_t udpEchoMicros = 0;
+
+// Envío (ventana y separación AIMD, como UdpLink)
+uint32_t udpNextChunk = 0;
+uint16_t udpWindow = UDP_WINDOW_INITIAL;
+uint32_t udpGapMicros = UDP_GAP_INITIAL_US;
+uint32_t udpNextSendMicros = 0;
+uint32_t udpSrttMicros = 0;
+uint32_t udpLastProgressMicros = 0;
+uint32_t udpLastLossMicros = 0;
+uint32_t udpSentMicros[UDP_WINDOW_MAX];
+
+uint8_t udpRxBuffer[sizeof(UdpHeader) + UDP_CHUNK_SIZE];
+uint8_t udpTxBuffer[sizeof(UdpHeader) + UDP_CHUNK_SIZE];
+
 // ════════════════════════════════════════════════════════════════════════
 // 🌐 VARIABLES GLOBALES - BLE
 // ════════════════════════════════════════════════════════════════════════
@@ -133,8 +272,11 @@ void applyLoRaConfig();
 
 // BLE - Comandos
 void handleCommand(String command);
+void dispatchCommand(String command);
 void sendResponse(String response);
 void sendProgress(uint8_t percentage);
+void sendTelemetry(uint8_t kind, uint16_t index, uint16_t total, uint32_t bytes,
+                   uint16_t retries, unsigned long startMicros, bool last);
 
 // BLE - Gestión de archivos
 void listFiles();
@@ -142,6 +284,11 @@ void deleteFile(String filename);
 void startDownload(String filename);
 void sendFileInChunks(String filename);
 
+// BLE - Integridad
+void sendFileHash(String filename, uint32_t segmentSize);
+void startRangeDownload(String filename, uint32_t offset, uint32_t length);
+void startTailDownload(String filename, uint32_t length);
+
 // LoRa - Configuración
 void setLoRaConfig(String jsonStr);
 void sendCurrentLoRaConfig();
@@ -150,10 +297,27 @@ void sendCurrentLoRaConfig();
 void processLoRaPacket();
 void handleMetadata(uint8_t* data, size_t len);
 void handleDataFragment(uint8_t* data, size_t len);
+void handleLinkConfig(uint8_t* data);
 void sendACK(uint16_t fragmentIndex);
 void completeReception();
 void cancelReception(String reason);
 
+// WiFi UDP
+void startWifi();
+void stopWifi();
+void handleUdp();
+String handleUdpControl(String command);
+String startUdpUpload(String filename, uint32_t fileSize);
+String finishUdpUpload();
+String startUdpDownload(String filename);
+void receiveUdpChunk(uint32_t chunk, uint32_t txMicros, const uint8_t* data, size_t len);
+void sendUdpSack();
+void handleUdpSack(const UdpSack &sack);
+void serviceUdpSender();
+void sendUdpChunk(uint32_t chunk);
+void sendUdpBuffer(uint8_t type, uint32_t seq, size_t len);
+void finishUdpTransfer(bool keepFile);
+
 // Utilidades
 String encodeBase64(uint8_t* data, size_t length);
 size_t decodeBase64(String input, uint8_t* output, size_t maxLen);
@@ -171,6 +335,9 @@ class ServerCallbacks: public BLEServerCallbacks {
 
   void onDisconnect(BLEServer* pServer) {
     deviceConnected = false;
+    telemetryEnabled = false;
+    if (wifiActive) wifiRequest = 0;
+    rxStreaming = false;
     Serial.println("\n❌ Cliente BLE desconectado");
     
     // Limpiar estado de transferencia BLE
@@ -266,8 +433,21 @@ void loop() {
     }
   }
   
+  // WiFi pedido por BLE (CMD:WIFI) y servidor UDP de archivos
+  if (wifiRequest >= 0) {
+    int8_t request = wifiRequest;
+    wifiRequest = -1;
+    if (request == 1) startWifi();
+    else stopWifi();
+  }
+  
+  if (wifiActive) {
+    handleUdp();
+  }
+  
   yield();
-  delay(10);
+  // Sin pausa durante una transferencia UDP (el ritmo lo marca udpGapMicros)
+  if (udpMode == UDP_IDLE) delay(10);
 }
 
 // ════════════════════════════════════════════════════════════════════════
@@ -419,6 +599,24 @@ void applyLoRaConfig() {
 void handleCommand(String command) {
   command.trim();
   
+  // Petición con ID: "#id:CMD:..." (sin ID se atiende igual, sin etiqueta)
+  String tag = "";
+  if (command.startsWith("#")) {
+    int sep = command.indexOf(':');
+    if (sep > 1) {
+      tag = command.substring(0, sep + 1);
+      command = command.substring(sep + 1);
+    }
+  }
+  
+  requestTag = tag;
+  requestTagTask = tag.length() > 0 ? xTaskGetCurrentTaskHandle() : NULL;
+  dispatchCommand(command);
+  requestTagTask = NULL;
+  requestTag = "";
+}
+
+void dispatchCommand(String command) {
   // Comando: LIST
   if (command == "CMD:LIST") {
     Serial.println("📋 Procesando: LIST");
@@ -452,6 +650,69 @@ void handleCommand(String command) {
     sendCurrentLoRaConfig();
   }
   
+  // Comando: HASH:filename:segmentSize
+  else if (command.startsWith("CMD:HASH:")) {
+    String args = command.substring(9);
+    int sep = args.lastIndexOf(':');
+    if (sep > 0) {
+      String filename = args.substring(0, sep);
+      Serial.println("🔐 Procesando: HASH - " + filename);
+      sendFileHash(filename, args.substring(sep + 1).toInt());
+    } else {
+      sendResponse("ERROR:INVALID_HASH_COMMAND");
+    }
+  }
+  
+  // Comando: READ_RANGE:filename:offset:length
+  else if (command.startsWith("CMD:READ_RANGE:")) {
+    String args = command.substring(15);
+    int lengthSep = args.lastIndexOf(':');
+    int offsetSep = lengthSep > 0 ? args.lastIndexOf(':', lengthSep - 1) : -1;
+    if (offsetSep > 0) {
+      String filename = args.substring(0, offsetSep);
+      uint32_t offset = args.substring(offsetSep + 1, lengthSep).toInt();
+      uint32_t length = args.substring(lengthSep + 1).toInt();
+      Serial.println("📥 Procesando: READ_RANGE - " + filename);
+      startRangeDownload(filename, offset, length);
+    } else {
+      sendResponse("ERROR:INVALID_RANGE_COMMAND");
+    }
+  }
+  
+  // Comando: READ_TAIL:filename:length (últimos length bytes)
+  else if (command.startsWith("CMD:READ_TAIL:")) {
+    String args = command.substring(14);
+    int lengthSep = args.lastIndexOf(':');
+    if (lengthSep > 0) {
+      String filename = args.substring(0, lengthSep);
+      uint32_t length = args.substring(lengthSep + 1).toInt();
+      Serial.println("📥 Procesando: READ_TAIL - " + filename);
+      startTailDownload(filename, length);
+    } else {
+      sendResponse("ERROR:INVALID_RANGE_COMMAND");
+    }
+  }
+  
+  // Comando: RX_STREAM:1|0 (reenviar cada fragmento LoRa al teléfono)
+  else if (command.startsWith("CMD:RX_STREAM:")) {
+    rxStreaming = command.substring(14) == "1";
+    Serial.printf("📶 Streaming RX: %s\n", rxStreaming ? "activado" : "desactivado");
+    sendResponse(String("OK:RX_STREAM:") + (rxStreaming ? "1" : "0"));
+  }
+  
+  // Comando: TELEMETRY:1|0 (estado LoRa como registro binario)
+  else if (command.startsWith("CMD:TELEMETRY:")) {
+    telemetryEnabled = command.substring(14) == "1";
+    Serial.printf("📟 Telemetría binaria: %s\n", telemetryEnabled ? "activada" : "desactivada");
+    sendResponse(String("OK:TELEMETRY:") + (telemetryEnabled ? "1" : "0"));
+  }
+  
+  // Comando: WIFI:1|0 (softAP + servidor UDP de archivos, lo atiende loop())
+  else if (command.startsWith("CMD:WIFI:")) {
+    wifiRequest = command.substring(9) == "1" ? 1 : 0;
+    Serial.printf("📶 WiFi: %s\n", wifiRequest == 1 ? "encender" : "apagar");
+  }
+  
   // Comando: PING
   else if (command == "CMD:PING") {
     Serial.println("🏓 Procesando: PING");
@@ -472,6 +733,9 @@ void handleCommand(String command) {
 void sendResponse(String response) {
   if (!deviceConnected || pDataCharacteristic == NULL) return;
   
+  if (requestTagTask != NULL && xTaskGetCurrentTaskHandle() == requestTagTask) {
+    response = requestTag + response;
+  }
   response += "\n";
   pDataCharacteristic->setValue(response.c_str());
   pDataCharacteristic->notify();
@@ -491,6 +755,401 @@ void sendProgress(uint8_t percentage) {
   delay(5);
 }
 
+// ════════════════════════════════════════════════════════════════════════
+// 📟 ENVIAR TELEMETRÍA BLE
+// ════════════════════════════════════════════════════════════════════════
+
+void sendTelemetry(uint8_t kind, uint16_t index, uint16_t total, uint32_t bytes,
+                   uint16_t retries, unsigned long startMicros, bool last) {
+  if (!deviceConnected || pProgressCharacteristic == NULL) return;
+  
+  TelemetryRecord record;
+  record.version = TELEMETRY_VERSION;
+  record.kind = kind;
+  record.percentage = total > 0 ? ((uint32_t)(index + 1) * 100) / total : 0;
+  record.flags = last ? TELEMETRY_FLAG_LAST : 0;
+  record.fragmentIndex = index;
+  record.fragmentTotal = total;
+  record.bytes = bytes;
+  record.retries = retries;
+  record.rssi = (int16_t)radio.getRSSI();
+  record.snrCentiDb = (int16_t)(radio.getSNR() * 100);
+  record.reserved = 0;
+  record.elapsedMicros = micros() - startMicros;
+  
+  pProgressCharacteristic->setValue((uint8_t*)&record, sizeof(record));
+  pProgressCharacteristic->notify();
+  delay(5);
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - SOFTAP
+// ════════════════════════════════════════════════════════════════════════
+
+void startWifi() {
+  if (!wifiActive) {
+    uint64_t mac = ESP.getEfuseMac();
+    char ssid[32];
+    snprintf(ssid, sizeof(ssid), "%s%02X%02X", WIFI_AP_PREFIX,
+             (uint8_t)(mac >> 32), (uint8_t)(mac >> 40));
+
+    // Sin WiFi.setSleep(false): con BLE activo el coexist exige modem sleep
+    WiFi.mode(WIFI_AP);
+    if (!WiFi.softAP(ssid, WIFI_AP_PASS)) {
+      WiFi.mode(WIFI_OFF);
+      sendResponse("ERROR:WIFI_AP_FAILED");
+      return;
+    }
+
+    fileUdp.begin(UDP_FILE_PORT);
+    wifiSsid = ssid;
+    wifiActive = true;
+    Serial.printf("📶 SoftAP %s (%s) - UDP %d\n", ssid,
+                  WiFi.softAPIP().toString().c_str(), UDP_FILE_PORT);
+  }
+
+  sendResponse("OK:WIFI:" + wifiSsid + ":" + WIFI_AP_PASS + ":" +
+               WiFi.softAPIP().toString() + ":" + String(UDP_FILE_PORT));
+}
+
+void stopWifi() {
+  if (udpMode != UDP_IDLE) finishUdpTransfer(false);
+
+  if (wifiActive) {
+    fileUdp.stop();
+    WiFi.softAPdisconnect(true);
+    WiFi.mode(WIFI_OFF);
+    wifiActive = false;
+    Serial.println("📶 SoftAP apagado");
+  }
+  sendResponse("OK:WIFI_OFF");
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - PAQUETES
+// ════════════════════════════════════════════════════════════════════════
+
+void handleUdp() {
+  int packetSize;
+  while ((packetSize = fileUdp.parsePacket()) > 0) {
+    int len = fileUdp.read(udpRxBuffer, sizeof(udpRxBuffer));
+    if (len < (int)sizeof(UdpHeader)) continue;
+
+    UdpHeader header;
+    memcpy(&header, udpRxBuffer, sizeof(header));
+    if (header.magic != UDP_MAGIC) continue;
+
+    const uint8_t* payload = udpRxBuffer + sizeof(UdpHeader);
+    size_t payloadLen = len - sizeof(UdpHeader);
+
+    if (header.type == UDP_TYPE_CTRL) {
+      udpPeerIP = fileUdp.remoteIP();
+      udpPeerPort = fileUdp.remotePort();
+
+      // Duplicado (se perdió la respuesta): repetirla sin re-ejecutar
+      bool duplicate = header.testId == udpTransferId && header.seq == udpCtrlSeq &&
+                       udpCtrlReply.length() > 0;
+      if (!duplicate) {
+        String command = "";
+        for (size_t i = 0; i < payloadLen; i++) command += (char)payload[i];
+        command.trim();
+        Serial.println("📩 Comando UDP: " + command);
+
+        udpTransferId = header.testId;
+        udpCtrlSeq = header.seq;
+        udpCtrlReply = handleUdpControl(command);
+      }
+
+      size_t replyLen = min((size_t)UDP_CHUNK_SIZE, (size_t)udpCtrlReply.length());
+      memcpy(udpTxBuffer + sizeof(UdpHeader), udpCtrlReply.c_str(), replyLen);
+      sendUdpBuffer(UDP_TYPE_CTRL, header.seq, replyLen);
+    }
+    else if (header.testId != udpTransferId) {
+      continue;  // Paquete de una transferencia anterior
+    }
+    else if (header.type == UDP_TYPE_DATA && udpMode == UDP_RECEIVING) {
+      receiveUdpChunk(header.seq, header.tx_us, payload, payloadLen);
+    }
+    else if (header.type == UDP_TYPE_SACK && udpMode == UDP_SENDING &&
+             payloadLen >= sizeof(UdpSack)) {
+      UdpSack sack;
+      memcpy(&sack, payload, sizeof(sack));
+      handleUdpSack(sack);
+    }
+  }
+
+  if (udpMode == UDP_RECEIVING) {
+    // SACK pendiente tras un silencio del emisor
+    if (udpSinceSack > 0 && millis() - udpLastActivity >= UDP_SACK_DELAY_MS) {
+      sendUdpSack();
+    }
+  } else if (udpMode == UDP_SENDING) {
+    serviceUdpSender();
+  }
+
+  if (udpMode != UDP_IDLE && millis() - udpLastActivity > UDP_IDLE_TIMEOUT_MS) {
+    Serial.println("⏱️  Transferencia UDP abandonada");
+    finishUdpTransfer(false);
+  }
+}
+
+String handleUdpControl(String command) {
+  if (command.startsWith("CMD:UPLOAD_START:")) {
+    int sep = command.indexOf(':', 17);
+    if (sep < 0) return "ERROR:INVALID_UPLOAD_COMMAND";
+    return startUdpUpload(command.substring(17, sep), command.substring(sep + 1).toInt());
+  }
+  if (command == "CMD:UPLOAD_END") {
+    return finishUdpUpload();
+  }
+  if (command.startsWith("CMD:DOWNLOAD:")) {
+    return startUdpDownload(command.substring(13));
+  }
+  if (command == "CMD:DOWNLOAD_END") {
+    if (udpMode == UDP_SENDING) finishUdpTransfer(true);
+    return "OK:DOWNLOAD_END";
+  }
+  return "ERROR:UNKNOWN_COMMAND";
+}
+
+void sendUdpBuffer(uint8_t type, uint32_t seq, size_t len) {
+  UdpHeader header;
+  header.magic = UDP_MAGIC;
+  header.testId = udpTransferId;
+  header.seq = seq;
+  header.tx_us = (uint32_t)micros();
+  header.type = type;
+  memcpy(udpTxBuffer, &header, sizeof(header));
+
+  fileUdp.beginPacket(udpPeerIP, udpPeerPort);
+  fileUdp.write(udpTxBuffer, sizeof(header) + len);
+  fileUdp.endPacket();
+}
+
+void finishUdpTransfer(bool keepFile) {
+  if (udpFile) udpFile.close();
+
+  if (!keepFile && udpMode == UDP_RECEIVING && LittleFS.exists(udpFilename)) {
+    LittleFS.remove(udpFilename);
+    Serial.println("🗑️  Archivo UDP incompleto eliminado");
+  }
+
+  if (udpReceived != NULL) {
+    free(udpReceived);
+    udpReceived = NULL;
+  }
+  udpMode = UDP_IDLE;
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - SUBIDA (app → Heltec)
+// ════════════════════════════════════════════════════════════════════════
+
+String startUdpUpload(String filename, uint32_t fileSize) {
+  if (udpMode != UDP_IDLE) finishUdpTransfer(false);  // La app abandonó la anterior
+  if (currentState != STATE_IDLE) return "ERROR:TRANSFER_IN_PROGRESS";
+
+  if (!filename.startsWith("/")) filename = "/" + filename;
+
+  uint32_t freeSpace = LittleFS.totalBytes() - LittleFS.usedBytes();
+  if (fileSize > freeSpace) return "ERROR:NO_SPACE";
+
+  if (LittleFS.exists(filename)) LittleFS.remove(filename);
+
+  udpChunkCount = (fileSize + UDP_CHUNK_SIZE - 1) / UDP_CHUNK_SIZE;
+  udpReceived = (uint8_t*)calloc(udpChunkCount / 8 + 1, 1);
+  if (udpReceived == NULL) return "ERROR:NO_MEMORY";
+
+  udpFile = LittleFS.open(filename, "w");
+  if (!udpFile) {
+    free(udpReceived);
+    udpReceived = NULL;
+    return "ERROR:CREATE_FAILED";
+  }
+
+  udpFilename = filename;
+  udpFileSize = fileSize;
+  udpCumulative = 0;
+  udpSinceSack = 0;
+  udpLastActivity = millis();
+  udpMode = UDP_RECEIVING;
+
+  Serial.printf("✅ Upload UDP iniciado: %s (%u bytes, %u chunks)\n",
+                filename.c_str(), fileSize, udpChunkCount);
+  return "OK:UPLOAD_READY:" + String(UDP_CHUNK_SIZE);
+}
+
+void receiveUdpChunk(uint32_t chunk, uint32_t txMicros, const uint8_t* data, size_t len) {
+  udpLastActivity = millis();
+  udpEchoMicros = txMicros;
+  bool inOrder = chunk == udpCumulative;
+
+  if (chunk < udpChunkCount && !(udpReceived[chunk / 8] & (1 << (chunk % 8)))) {
+    uint32_t offset = chunk * UDP_CHUNK_SIZE;
+    len = min(len, (size_t)(udpFileSize - offset));
+
+    // Fuera de orden: LittleFS rellena el hueco y se sobrescribe después
+    if (udpFile.position() != offset) udpFile.seek(offset);
+    udpFile.write(data, len);
+
+    udpReceived[chunk / 8] |= 1 << (chunk % 8);
+    while (udpCumulative < udpChunkCount &&
+           (udpReceived[udpCumulative / 8] & (1 << (udpCumulative % 8)))) {
+      udpCumulative++;
+    }
+  } else {
+    inOrder = false;  // Duplicado: el emisor necesita saberlo ya
+  }
+
+  // Fuera de orden o duplicado: SACK inmediato para reenviar el hueco
+  if (!inOrder || ++udpSinceSack >= UDP_SACK_EVERY || udpCumulative >= udpChunkCount) {
+    sendUdpSack();
+  }
+}
+
+void sendUdpSack() {
+  UdpSack sack;
+  sack.cumulative = udpCumulative;
+  sack.bitmap = 0;
+  sack.echo_us = udpEchoMicros;
+
+  for (uint8_t i = 0; i < 64; i++) {
+    uint32_t chunk = udpCumulative + 1 + i;
+    if (chunk >= udpChunkCount) break;
+    if (udpReceived[chunk / 8] & (1 << (chunk % 8))) sack.bitmap |= 1ULL << i;
+  }
+
+  memcpy(udpTxBuffer + sizeof(UdpHeader), &sack, sizeof(sack));
+  sendUdpBuffer(UDP_TYPE_SACK, udpCumulative, sizeof(sack));
+  udpSinceSack = 0;
+}
+
+String finishUdpUpload() {
+  if (udpMode != UDP_RECEIVING) return "ERROR:NO_UPLOAD";
+  if (udpCumulative < udpChunkCount) return "ERROR:UPLOAD_INCOMPLETE";
+
+  uint32_t size = udpFileSize;
+  finishUdpTransfer(true);
+
+  Serial.printf("✅ Upload UDP completado: %s (%u bytes)\n", udpFilename.c_str(), size);
+  return "OK:UPLOAD_COMPLETE:" + String(size);
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - DESCARGA (Heltec → app)
+// ════════════════════════════════════════════════════════════════════════
+
+String startUdpDownload(String filename) {
+  if (udpMode != UDP_IDLE) finishUdpTransfer(false);  // La app abandonó la anterior
+
+  if (!filename.startsWith("/")) filename = "/" + filename;
+  if (!LittleFS.exists(filename)) return "ERROR:FILE_NOT_FOUND";
+
+  udpFile = LittleFS.open(filename, "r");
+  if (!udpFile) return "ERROR:OPEN_FAILED";
+
+  udpFilename = filename;
+  udpFileSize = udpFile.size();
+  udpChunkCount = (udpFileSize + UDP_CHUNK_SIZE - 1) / UDP_CHUNK_SIZE;
+  udpCumulative = 0;
+  udpNextChunk = 0;
+  udpWindow = UDP_WINDOW_INITIAL;
+  udpGapMicros = UDP_GAP_INITIAL_US;
+  udpSrttMicros = 0;
+  udpNextSendMicros = micros();
+  udpLastProgressMicros = udpNextSendMicros;
+  udpLastLossMicros = udpNextSendMicros;
+  udpLastActivity = millis();
+  udpMode = UDP_SENDING;
+
+  Serial.printf("📥 Download UDP: %s (%u bytes, %u chunks)\n",
+                filename.c_str(), udpFileSize, udpChunkCount);
+  return "OK:DOWNLOAD_READY:" + String(udpFileSize) + ":" + String(UDP_CHUNK_SIZE);
+}
+
+void sendUdpChunk(uint32_t chunk) {
+  uint32_t offset = chunk * UDP_CHUNK_SIZE;
+  size_t len = min((uint32_t)UDP_CHUNK_SIZE, udpFileSize - offset);
+
+  if (udpFile.position() != offset) udpFile.seek(offset);
+  size_t read = udpFile.read(udpTxBuffer + sizeof(UdpHeader), len);
+
+  udpSentMicros[chunk % UDP_WINDOW_MAX] = micros();
+  sendUdpBuffer(UDP_TYPE_DATA, chunk, read);
+}
+
+void serviceUdpSender() {
+  uint32_t now = micros();
+
+  // Timeout: reenviar el primer chunk sin confirmar
+  uint32_t rto = max((uint32_t)UDP_RTO_MIN_US, udpSrttMicros * 3);
+  if (udpCumulative < udpNextChunk && now - udpLastProgressMicros >= rto) {
+    sendUdpChunk(udpCumulative);
+    udpWindow = UDP_WINDOW_MIN;
+    udpGapMicros = min((uint32_t)UDP_GAP_MAX_US, udpGapMicros * 2);
+    udpLastProgressMicros = now;
+  }
+
+  // Chunks nuevos según el ritmo, sin pasar de la ventana
+  for (uint8_t burst = 0; burst < UDP_BURST; burst++) {
+    if (udpNextChunk >= udpChunkCount || udpNextChunk >= udpCumulative + udpWindow) break;
+
+    now = micros();
+    if ((int32_t)(now - udpNextSendMicros) < 0) break;
+
+    sendUdpChunk(udpNextChunk);
+    udpNextChunk++;
+
+    // Sin acumular "crédito" tras una espera larga
+    if (now - udpNextSendMicros > udpGapMicros) udpNextSendMicros = now;
+    udpNextSendMicros += udpGapMicros;
+  }
+}
+
+void handleUdpSack(const UdpSack &sack) {
+  udpLastActivity = millis();
+  uint32_t now = micros();
+
+  uint32_t rtt = now - sack.echo_us;
+  if (rtt < 5000000) {
+    udpSrttMicros = udpSrttMicros == 0 ? rtt : (udpSrttMicros * 7 + rtt) / 8;
+  }
+
+  uint32_t cumulative = sack.cumulative;  // Copia: campo empaquetado
+  if (cumulative > udpNextChunk) cumulative = udpNextChunk;
+  if (cumulative > udpCumulative) {
+    udpCumulative = cumulative;
+    udpLastProgressMicros = now;
+    if (udpWindow < UDP_WINDOW_MAX) udpWindow++;
+    udpGapMicros = max((uint32_t)UDP_GAP_MIN_US, udpGapMicros * 15 / 16);
+  } else if (cumulative < udpCumulative) {
+    return;  // SACK atrasado: su bitmap es relativo a otro acumulado
+  }
+
+  if (sack.bitmap == 0 || udpCumulative >= udpChunkCount) return;
+
+  // Huecos por debajo del chunk más alto confirmado
+  uint32_t highest = udpCumulative + 1 + (63 - __builtin_clzll(sack.bitmap));
+  uint32_t minAge = max((uint32_t)2000, udpSrttMicros);
+  bool loss = false;
+
+  for (uint32_t chunk = udpCumulative; chunk < highest && chunk < udpNextChunk; chunk++) {
+    bool acked = chunk > udpCumulative &&
+                 (sack.bitmap & (1ULL << (chunk - udpCumulative - 1)));
+    if (!acked && now - udpSentMicros[chunk % UDP_WINDOW_MAX] >= minAge) {
+      sendUdpChunk(chunk);
+      loss = true;
+    }
+  }
+
+  // Una reducción por RTT como mucho
+  if (loss && now - udpLastLossMicros > minAge) {
+    udpWindow = max((uint16_t)UDP_WINDOW_MIN, (uint16_t)(udpWindow * 7 / 10));
+    udpGapMicros = min((uint32_t)UDP_GAP_MAX_US, udpGapMicros * 5 / 4);
+    udpLastLossMicros = now;
+  }
+}
+
 // ════════════════════════════════════════════════════════════════════════
 // 📋 LISTAR ARCHIVOS
 // ════════════════════════════════════════════════════════════════════════
@@ -640,6 +1299,171 @@ void sendFileInChunks(String filename) {
   resetTransferState();
 }
 
+// ════════════════════════════════════════════════════════════════════════
+// 🔐 INTEGRIDAD - HASH (SHA-256 + CRC32C POR SEGMENTO)
+// ════════════════════════════════════════════════════════════════════════
+
+uint32_t crc32cUpdate(uint32_t crc, const uint8_t* data, size_t len) {
+  crc = ~crc;
+  for (size_t i = 0; i < len; i++) {
+    crc ^= data[i];
+    for (uint8_t j = 0; j < 8; j++) {
+      crc = (crc >> 1) ^ (0x82F63B78 & (0 - (crc & 1)));
+    }
+  }
+  return ~crc;
+}
+
+// Una sola lectura del archivo: HASH_SEG se envía según se completa cada
+// segmento y el SHA-256 total va al final en HASH_END
+void sendFileHash(String filename, uint32_t segmentSize) {
+  if (currentState != STATE_IDLE) {
+    sendResponse("ERROR:TRANSFER_IN_PROGRESS");
+    return;
+  }
+  
+  if (!filename.startsWith("/")) filename = "/" + filename;
+  
+  File file = LittleFS.open(filename, "r");
+  if (!file) {
+    sendResponse("ERROR:FILE_NOT_FOUND");
+    return;
+  }
+  
+  if (segmentSize == 0) segmentSize = HASH_SEGMENT_SIZE;
+  
+  uint32_t fileSize = file.size();
+  uint32_t segments = (fileSize + segmentSize - 1) / segmentSize;
+  
+  String cleanName = filename;
+  if (cleanName.startsWith("/")) cleanName = cleanName.substring(1);
+  
+  sendResponse("HASH_START:" + cleanName + ":" + String(fileSize) + ":" +
+               String(segmentSize) + ":" + String(segments));
+  
+  mbedtls_sha256_context sha;
+  mbedtls_sha256_init(&sha);
+  mbedtls_sha256_starts(&sha, 0);
+  
+  uint8_t buffer[256];
+  uint32_t segment = 0;
+  uint32_t segmentFill = 0;
+  uint32_t crc = 0;
+  
+  while (file.available()) {
+    size_t toRead = min((uint32_t)sizeof(buffer), segmentSize - segmentFill);
+    size_t bytesRead = file.read(buffer, toRead);
+    if (bytesRead == 0) break;
+    
+    mbedtls_sha256_update(&sha, buffer, bytesRead);
+    crc = crc32cUpdate(crc, buffer, bytesRead);
+    segmentFill += bytesRead;
+    
+    if (segmentFill == segmentSize || !file.available()) {
+      char hex[9];
+      snprintf(hex, sizeof(hex), "%08x", crc);
+      sendResponse("HASH_SEG:" + String(segment) + ":" + String(hex));
+      segment++;
+      segmentFill = 0;
+      crc = 0;
+    }
+    yield();
+  }
+  file.close();
+  
+  uint8_t digest[32];
+  mbedtls_sha256_finish(&sha, digest);
+  mbedtls_sha256_free(&sha);
+  
+  char hexDigest[65];
+  for (int i = 0; i < 32; i++) {
+    snprintf(hexDigest + i * 2, 3, "%02x", digest[i]);
+  }
+  
+  sendResponse("HASH_END:" + String(hexDigest));
+  Serial.printf("✅ Hash enviado: %s (%u segmentos)\n", cleanName.c_str(), segment);
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📥 DOWNLOAD BLE - RANGO (re-descarga de segmentos dañados, lecturas parciales)
+// ════════════════════════════════════════════════════════════════════════
+
+// length 0 = hasta el final del archivo
+void startRangeDownload(String filename, uint32_t offset, uint32_t length) {
+  if (currentState != STATE_IDLE) {
+    sendResponse("ERROR:TRANSFER_IN_PROGRESS");
+    return;
+  }
+  
+  if (!filename.startsWith("/")) filename = "/" + filename;
+  
+  File file = LittleFS.open(filename, "r");
+  if (!file) {
+    sendResponse("ERROR:FILE_NOT_FOUND");
+    return;
+  }
+  
+  uint32_t fileSize = file.size();
+  // Un archivo vacío admite offset 0: rango de 0 bytes, no un error
+  bool emptyRange = offset == 0 && fileSize == 0;
+  if ((offset >= fileSize && !emptyRange) || !file.seek(offset)) {
+    file.close();
+    sendResponse("ERROR:INVALID_RANGE");
+    return;
+  }
+  if (length == 0 || length > fileSize - offset) length = fileSize - offset;
+  
+  currentState = STATE_DOWNLOADING;
+  currentFilename = filename;
+  expectedFileSize = length;
+  transferredBytes = 0;
+  
+  String cleanName = filename;
+  if (cleanName.startsWith("/")) cleanName = cleanName.substring(1);
+  
+  sendResponse("RANGE_START:" + cleanName + ":" + String(offset) + ":" + String(length));
+  delay(100);
+  
+  uint8_t buffer[CHUNK_SIZE_BLE];
+  uint16_t chunkNum = 0;
+  
+  while (transferredBytes < length) {
+    size_t toRead = min((uint32_t)CHUNK_SIZE_BLE, length - transferredBytes);
+    size_t bytesRead = file.read(buffer, toRead);
+    if (bytesRead == 0) break;
+    
+    sendResponse("CHUNK:" + String(chunkNum) + ":" + encodeBase64(buffer, bytesRead));
+    
+    transferredBytes += bytesRead;
+    chunkNum++;
+    delay(20);
+  }
+  
+  file.close();
+  
+  sendResponse("RANGE_END:" + String(transferredBytes));
+  Serial.printf("✅ Rango enviado: %u bytes desde %u\n", transferredBytes, offset);
+  
+  resetTransferState();
+}
+
+// Final de un archivo (logs que crecen): el offset se calcula aquí
+// para no pedir antes el tamaño. length 0 = archivo completo
+void startTailDownload(String filename, uint32_t length) {
+  if (!filename.startsWith("/")) filename = "/" + filename;
+  
+  File file = LittleFS.open(filename, "r");
+  if (!file) {
+    sendResponse("ERROR:FILE_NOT_FOUND");
+    return;
+  }
+  uint32_t fileSize = file.size();
+  file.close();
+  
+  uint32_t offset = (length == 0 || length >= fileSize) ? 0 : fileSize - length;
+  startRangeDownload(filename, offset, 0);
+}
+
 // ════════════════════════════════════════════════════════════════════════
 // ⚙️  CONFIGURACIÓN LORA - SET
 // ════════════════════════════════════════════════════════════════════════
@@ -727,6 +1551,10 @@ void processLoRaPacket() {
   if (len >= 7 && buffer[0] == METADATA_MAGIC_1 && buffer[1] == METADATA_MAGIC_2) {
     handleMetadata(buffer, len);
   }
+  // CAMBIO DE INTERVALO DE ACK (magic "LC" + intervalo + reservado)
+  else if (len == 4 && buffer[0] == LINK_CONFIG_MAGIC_1 && buffer[1] == LINK_CONFIG_MAGIC_2) {
+    handleLinkConfig(buffer);
+  }
   // FRAGMENTO DE DATOS (índice + total + datos)
   else if (len > 4) {
     handleDataFragment(buffer, len);
@@ -785,6 +1613,7 @@ void handleMetadata(uint8_t* data, size_t len) {
   avgSNR = 0;
   
   expectedFragments = (fileSize + CHUNK_SIZE_LORA - 1) / CHUNK_SIZE_LORA;
+  rxACKInterval = currentACKInterval;
   
   // Eliminar archivo si existe
   if (LittleFS.exists(receivingFileName)) {
@@ -802,11 +1631,14 @@ void handleMetadata(uint8_t* data, size_t len) {
   
   receivingFile = true;
   receptionStartTime = millis();
+  receptionStartMicros = micros();
   lastPacketTime = millis();
   
   Serial.printf("✅ Listo para recibir %u fragmentos\n", expectedFragments);
   
-  sendResponse("RX_START:" + String(fileName) + ":" + String(fileSize));
+  // El tamaño de fragmento permite al teléfono colocar cada RX_FRAG
+  sendResponse("RX_START:" + String(fileName) + ":" + String(fileSize) + ":" +
+               String(CHUNK_SIZE_LORA));
   sendProgress(0);
 }
 
@@ -831,10 +1663,15 @@ void handleDataFragment(uint8_t* data, size_t len) {
     return;
   }
   
-  // Detectar duplicado
-  if (fragmentIndex < lastFragmentIndex) {
+  // Detectar duplicado (el TX reintenta si se perdió el ACK)
+  if (receivedFragments > 0 && fragmentIndex <= lastFragmentIndex) {
     duplicatePackets++;
     Serial.printf("⚠️  Fragmento duplicado: %u (ignorando)\n", fragmentIndex);
+    
+    // Repetir el ACK perdido para que el TX pueda seguir
+    if ((fragmentIndex + 1) % rxACKInterval == 0 || fragmentIndex + 1 == expectedFragments) {
+      sendACK(fragmentIndex + 1);
+    }
     return;
   }
   
@@ -860,27 +1697,58 @@ void handleDataFragment(uint8_t* data, size_t len) {
     Serial.printf("📦 Fragmento %u/%u (%.1f%%) - %u bytes\n", 
                  receivedFragments, expectedFragments, progress, receivedBytes);
     
-    sendProgress(progress);
-    
-    String status = "RX_STATUS:" + String(receivedFragments) + "/" + 
-                   String(expectedFragments) + ":" + String(receivedBytes);
-    sendResponse(status);
+    if (!telemetryEnabled) {
+      sendProgress(progress);
+      
+      String status = "RX_STATUS:" + String(receivedFragments) + "/" + 
+                     String(expectedFragments) + ":" + String(receivedBytes);
+      sendResponse(status);
+    }
   }
   
   // Enviar ACK si es necesario
   bool isLast = (fragmentIndex + 1 == expectedFragments);
-  bool needACK = ((fragmentIndex + 1) % currentACKInterval == 0);
+  bool needACK = ((fragmentIndex + 1) % rxACKInterval == 0);
   
   if (needACK || isLast) {
     sendACK(fragmentIndex + 1);
   }
   
+  // Telemetría binaria: un registro por fragmento, también tras el ACK
+  if (telemetryEnabled) {
+    sendTelemetry(TELEMETRY_KIND_RX, fragmentIndex, expectedFragments, receivedBytes,
+                  duplicatePackets, receptionStartMicros, isLast);
+  }
+  
+  // Streaming: el fragmento sale por BLE después del ACK (no retrasa al TX)
+  if (rxStreaming && deviceConnected) {
+    sendResponse("RX_FRAG:" + String(fragmentIndex) + ":" + encodeBase64(data + 4, dataLen));
+  }
+  
   // ¿Recepción completa?
   if (receivedFragments >= expectedFragments) {
     completeReception();
   }
 }
 
+// ════════════════════════════════════════════════════════════════════════
+// 🎚️ LORA RX - CAMBIO DE INTERVALO DE ACK
+// ════════════════════════════════════════════════════════════════════════
+
+void handleLinkConfig(uint8_t* data) {
+  if (!receivingFile) return;
+  
+  uint8_t ack = data[2];
+  if (ack < 1 || ack > 50) return;
+  
+  rxACKInterval = ack;
+  Serial.printf("🎚️  TX pide ACK cada %u fragmentos\n", ack);
+  
+  // Confirmar (el TX repite el paquete si este ACK se pierde)
+  delay(LINK_CONFIG_REPLY_DELAY);
+  sendACK(0x8000 | ack);
+}
+
 // ════════════════════════════════════════════════════════════════════════
 // 📡 LORA RX - ENVIAR ACK
 // ════════════════════════════════════════════════════════════════════════
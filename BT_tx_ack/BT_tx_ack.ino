@@ -10,6 +10,8 @@
  * Características:
  * - LittleFS para almacenamiento persistente
  * - BLE para control desde Android
+ * - Peticiones con ID ("#id:CMD:...") y respuestas etiquetadas
+ * - WiFi softAP + UDP para subidas/descargas rápidas (CMD:WIFI)
  * - LoRa para transmisión de archivos a RX
  * - Protocolo con ACK para confiabilidad
  * - Configuración dinámica de parámetros LoRa
@@ -31,6 +33,9 @@
 #include <BLE2902.h>
 #include <ArduinoJson.h>
 #include <mbedtls/base64.h>
+#include <mbedtls/sha256.h>
+#include <WiFi.h>
+#include <WiFiUdp.h>
 
 // ════════════════════════════════════════════════════════════════════════
 // 🔧 CONFIGURACIÓN - PINES HELTEC V3
@@ -56,12 +61,19 @@
 // ════════════════════════════════════════════════════════════════════════
 
 #define CHUNK_SIZE_BLE 200         // Chunks para BLE (bytes)
+#define HASH_SEGMENT_SIZE 4000     // Segmento CRC32C por defecto de CMD:HASH
+#define BATCH_MAX_FILES 64         // Archivos por lote (CMD:BATCH_START)
+#define BATCH_MAX_NAME 31          // Nombre máximo en el contenedor
+#define BATCH_MAX_HEADER (8 + BATCH_MAX_FILES * (1 + BATCH_MAX_NAME + 4))
 #define CHUNK_SIZE_LORA 240        // Chunks para LoRa (bytes)
 #define MAX_FILENAME_LENGTH 64
 #define ACK_TIMEOUT_BASE 1200      // Timeout base para ACK (ms)
 #define MAX_RETRIES 3              // Máximo de reintentos por fragmento
 #define METADATA_MAGIC_1 0x4C      // Magic byte 1
 #define METADATA_MAGIC_2 0x4D      // Magic byte 2
+#define LINK_CONFIG_MAGIC_1 0x4C   // Cambio de intervalo de ACK ("LC")
+#define LINK_CONFIG_MAGIC_2 0x43
+#define LINK_CONFIG_ATTEMPTS 2
 
 // ════════════════════════════════════════════════════════════════════════
 // 🌐 VARIABLES GLOBALES - RADIO LORA
@@ -74,6 +86,11 @@ float currentBW = 125.0;           // Bandwidth en kHz
 int currentSF = 9;                 // Spreading Factor
 int currentCR = 7;                 // Coding Rate (4/7)
 int currentACKInterval = 5;        // ACK cada N fragmentos
+
+// Ajuste durante la TX (CMD:SET_LINK, llega desde la tarea BLE)
+volatile int pendingACKInterval = 0;
+volatile int pendingMaxRetries = 0;
+int txMaxRetries = MAX_RETRIES;
 int currentPower = 17;             // Potencia en dBm
 
 // Estado de transmisión LoRa
@@ -85,6 +102,131 @@ unsigned long loraTransmissionStartTime = 0;
 uint16_t totalLoRaPacketsSent = 0;
 uint16_t totalLoRaRetries = 0;
 
+// ════════════════════════════════════════════════════════════════════════
+// 📟 TELEMETRÍA BINARIA (CMD:TELEMETRY)
+// ════════════════════════════════════════════════════════════════════════
+
+// Registro fijo por fragmento en PROGRESS_UUID (little endian, 24 bytes).
+// Sustituye a TX_STATUS en texto y al byte de porcentaje
+#define TELEMETRY_VERSION 1
+#define TELEMETRY_KIND_TX 1
+#define TELEMETRY_KIND_RX 2
+#define TELEMETRY_FLAG_LAST 0x01
+
+struct __attribute__((packed)) TelemetryRecord {
+  uint8_t version;
+  uint8_t kind;
+  uint8_t percentage;
+  uint8_t flags;
+  uint16_t fragmentIndex;
+  uint16_t fragmentTotal;
+  uint32_t bytes;
+  uint16_t retries;          // reintentos acumulados
+  int16_t rssi;              // dBm del último paquete recibido
+  int16_t snrCentiDb;        // SNR × 100
+  uint16_t reserved;
+  uint32_t elapsedMicros;    // desde el inicio de la transferencia
+};
+static_assert(sizeof(TelemetryRecord) == 24, "TelemetryRecord debe ocupar 24 bytes");
+
+bool telemetryEnabled = false;
+
+// ════════════════════════════════════════════════════════════════════════
+// 🏷️ PETICIONES CON ID ("#id:CMD:...")
+// ════════════════════════════════════════════════════════════════════════
+
+// Mientras handleCommand atiende una petición con ID, cada sendResponse
+// de esa misma tarea sale como "#id:respuesta". Lo que envían otras
+// tareas (loop, TX LoRa) a la vez sigue sin etiqueta
+String requestTag = "";
+TaskHandle_t requestTagTask = NULL;
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - SUBIDAS/DESCARGAS RÁPIDAS (CMD:WIFI)
+// ════════════════════════════════════════════════════════════════════════
+
+// SoftAP propio + servidor UDP de archivos para la app (UdpLink).
+// Cabecera de wifi_udp_tx2 {magic, testId, seq, tx_us} + tipo:
+// CTRL = comando de texto, DATA = chunk, SACK = acumulado + bitmap
+#define WIFI_AP_PREFIX "Heltec-TX-"
+#define WIFI_AP_PASS "12345678"
+#define UDP_FILE_PORT 12346
+#define UDP_MAGIC 0xDCF1
+#define UDP_TYPE_CTRL 1
+#define UDP_TYPE_DATA 2
+#define UDP_TYPE_SACK 3
+#define UDP_CHUNK_SIZE 1024
+#define UDP_WINDOW_MIN 4
+#define UDP_WINDOW_INITIAL 16
+#define UDP_WINDOW_MAX 64           // lo que cubre el bitmap del SACK
+#define UDP_GAP_MIN_US 300
+#define UDP_GAP_INITIAL_US 1000
+#define UDP_GAP_MAX_US 5000
+#define UDP_RTO_MIN_US 200000
+#define UDP_SACK_EVERY 8
+#define UDP_SACK_DELAY_MS 20
+#define UDP_IDLE_TIMEOUT_MS 10000
+#define UDP_BURST 8                 // paquetes nuevos por vuelta de loop()
+
+struct __attribute__((packed)) UdpHeader {
+  uint16_t magic;
+  uint16_t testId;           // id de la transferencia (lo elige la app)
+  uint32_t seq;              // CTRL: nº de comando, DATA/SACK: nº de chunk
+  uint32_t tx_us;
+  uint8_t type;
+};
+static_assert(sizeof(UdpHeader) == 13, "UdpHeader debe ocupar 13 bytes");
+
+struct __attribute__((packed)) UdpSack {
+  uint32_t cumulative;       // chunks [0, cumulative) recibidos
+  uint64_t bitmap;           // bit i = chunk cumulative + 1 + i
+  uint32_t echo_us;          // tx_us del último DATA (RTT)
+};
+
+enum UdpMode {
+  UDP_IDLE,
+  UDP_RECEIVING,             // subida desde la app
+  UDP_SENDING                // descarga hacia la app
+};
+
+WiFiUDP fileUdp;
+bool wifiActive = false;
+volatile int8_t wifiRequest = -1;    // 1 = encender, 0 = apagar (lo atiende loop)
+String wifiSsid = "";
+IPAddress udpPeerIP;
+uint16_t udpPeerPort = 0;
+
+// Último comando: los duplicados reciben la misma respuesta
+uint16_t udpTransferId = 0;
+uint32_t udpCtrlSeq = 0;
+String udpCtrlReply = "";
+
+UdpMode udpMode = UDP_IDLE;
+File udpFile;
+String udpFilename = "";
+uint32_t udpFileSize = 0;
+uint32_t udpChunkCount = 0;
+uint32_t udpCumulative = 0;          // primer chunk sin recibir / sin confirmar
+unsigned long udpLastActivity = 0;
+
+// Recepción
+uint8_t* udpReceived = NULL;         // bitmap de chunks recibidos
+uint16_t udpSinceSack = 0;
+uint32_t udpEchoMicros = 0;
+
+// Envío (ventana y separación AIMD, como UdpLink)
+uint32_t udpNextChunk = 0;
+uint16_t udpWindow = UDP_WINDOW_INITIAL;
+uint32_t udpGapMicros = UDP_GAP_INITIAL_US;
+uint32_t udpNextSendMicros = 0;
+uint32_t udpSrttMicros = 0;
+uint32_t udpLastProgressMicros = 0;
+uint32_t udpLastLossMicros = 0;
+uint32_t udpSentMicros[UDP_WINDOW_MAX];
+
+uint8_t udpRxBuffer[sizeof(UdpHeader) + UDP_CHUNK_SIZE];
+uint8_t udpTxBuffer[sizeof(UdpHeader) + UDP_CHUNK_SIZE];
+
 // ════════════════════════════════════════════════════════════════════════
 // 🌐 VARIABLES GLOBALES - BLE
 // ════════════════════════════════════════════════════════════════════════
@@ -108,12 +250,26 @@ enum TransferState {
 
 TransferState currentState = STATE_IDLE;
 String currentFilename = "";
+bool rangeUpload = false;          // UPLOAD_RANGE: el archivo ya existía
 File currentFile;
 uint32_t expectedFileSize = 0;
 uint32_t transferredBytes = 0;
 uint16_t expectedChunks = 0;
 uint16_t receivedChunks = 0;
 
+// Lote: contenedor 'B''F' (cabecera + datos concatenados) que se
+// desempaqueta en LittleFS según llegan los chunks
+bool batchActive = false;
+uint8_t batchHeader[BATCH_MAX_HEADER];
+uint16_t batchHeaderSize = 0;
+uint16_t batchHeaderReceived = 0;
+bool batchTableParsed = false;
+uint16_t batchCount = 0;
+uint16_t batchIndex = 0;
+char batchNames[BATCH_MAX_FILES][BATCH_MAX_NAME + 2];
+uint32_t batchSizes[BATCH_MAX_FILES];
+uint32_t batchRemaining = 0;
+
 // ════════════════════════════════════════════════════════════════════════
 // 📝 DECLARACIÓN DE FUNCIONES
 // ════════════════════════════════════════════════════════════════════════
@@ -126,17 +282,37 @@ void applyLoRaConfig();
 
 // BLE - Comandos
 void handleCommand(String command);
+void dispatchCommand(String command);
 void sendResponse(String response);
 void sendProgress(uint8_t percentage);
+void sendTelemetry(uint8_t kind, uint16_t index, uint16_t total, uint32_t bytes,
+                   uint16_t retries, unsigned long startMicros, bool last);
 
 // BLE - Gestión de archivos
 void listFiles();
 void deleteFile(String filename);
 void startUpload(String filename, uint32_t fileSize);
 void receiveChunk(String base64Data);
+void abortUpload();
+void discardTransfer();
 void startDownload(String filename);
 void sendFileInChunks(String filename);
 
+// BLE - Integridad
+void sendFileHash(String filename, uint32_t segmentSize);
+void startRangeDownload(String filename, uint32_t offset, uint32_t length);
+void startTailDownload(String filename, uint32_t length);
+void startRangeUpload(String filename, uint32_t offset, uint32_t length, uint32_t totalSize);
+
+// BLE - Lotes
+void startBatchUpload(uint32_t totalSize, uint16_t count, uint16_t headerSize);
+bool parseBatchTable();
+bool openNextBatchFile();
+size_t batchWrite(const uint8_t* data, size_t len);
+String batchTempName(uint16_t index);
+void commitBatchFiles();
+void discardBatchFiles();
+
 // LoRa - Configuración
 void setLoRaConfig(String jsonStr);
 void sendCurrentLoRaConfig();
@@ -147,6 +323,25 @@ int getACKTimeout();
 void startLoRaTransmission(String filename);
 void processLoRaTransmission();
 bool sendFileViaLoRa(const char* path);
+bool waitForACK(uint16_t expected);
+bool sendLinkConfig(uint8_t ack);
+void applyLinkParams(int &ackInterval);
+
+// WiFi UDP
+void startWifi();
+void stopWifi();
+void handleUdp();
+String handleUdpControl(String command);
+String startUdpUpload(String filename, uint32_t fileSize);
+String finishUdpUpload();
+String startUdpDownload(String filename);
+void receiveUdpChunk(uint32_t chunk, uint32_t txMicros, const uint8_t* data, size_t len);
+void sendUdpSack();
+void handleUdpSack(const UdpSack &sack);
+void serviceUdpSender();
+void sendUdpChunk(uint32_t chunk);
+void sendUdpBuffer(uint8_t type, uint32_t seq, size_t len);
+void finishUdpTransfer(bool keepFile);
 
 // Utilidades
 String encodeBase64(uint8_t* data, size_t length);
@@ -165,20 +360,18 @@ class ServerCallbacks: public BLEServerCallbacks {
 
   void onDisconnect(BLEServer* pServer) {
     deviceConnected = false;
+    telemetryEnabled = false;
+    if (wifiActive) wifiRequest = 0;
     Serial.println("\n❌ Cliente BLE desconectado");
     
     // Limpiar estado de transferencia BLE
     if (currentState != STATE_IDLE) {
       Serial.println("⚠️  Transferencia BLE interrumpida, limpiando...");
-      if (currentFile) currentFile.close();
-      
-      if (currentState == STATE_UPLOADING && LittleFS.exists(currentFilename)) {
-        LittleFS.remove(currentFilename);
-        Serial.println("🗑️  Archivo incompleto eliminado");
-      }
-      
-      resetTransferState();
+      discardTransfer();
     }
+    
+    batchActive = false;
+    batchTableParsed = false;
   }
 };
 
@@ -259,8 +452,21 @@ void loop() {
     processLoRaTransmission();
   }
   
+  // WiFi pedido por BLE (CMD:WIFI) y servidor UDP de archivos
+  if (wifiRequest >= 0) {
+    int8_t request = wifiRequest;
+    wifiRequest = -1;
+    if (request == 1) startWifi();
+    else stopWifi();
+  }
+  
+  if (wifiActive) {
+    handleUdp();
+  }
+  
   yield();
-  delay(10);
+  // Sin pausa durante una transferencia UDP (el ritmo lo marca udpGapMicros)
+  if (udpMode == UDP_IDLE) delay(10);
 }
 
 // ════════════════════════════════════════════════════════════════════════
@@ -428,6 +634,24 @@ int getACKTimeout() {
 void handleCommand(String command) {
   command.trim();
   
+  // Petición con ID: "#id:CMD:..." (sin ID se atiende igual, sin etiqueta)
+  String tag = "";
+  if (command.startsWith("#")) {
+    int sep = command.indexOf(':');
+    if (sep > 1) {
+      tag = command.substring(0, sep + 1);
+      command = command.substring(sep + 1);
+    }
+  }
+  
+  requestTag = tag;
+  requestTagTask = tag.length() > 0 ? xTaskGetCurrentTaskHandle() : NULL;
+  dispatchCommand(command);
+  requestTagTask = NULL;
+  requestTag = "";
+}
+
+void dispatchCommand(String command) {
   // Comando: LIST
   if (command == "CMD:LIST") {
     Serial.println("📋 Procesando: LIST");
@@ -459,6 +683,28 @@ void handleCommand(String command) {
     receiveChunk(base64Data);
   }
   
+  // Comando: UPLOAD_ABORT (la app no pudo confirmar la escritura de un chunk)
+  else if (command == "CMD:UPLOAD_ABORT") {
+    Serial.println("🛑 Procesando: UPLOAD_ABORT");
+    abortUpload();
+  }
+  
+  // Comando: BATCH_START:totalSize:count:headerSize
+  else if (command.startsWith("CMD:BATCH_START:")) {
+    String args = command.substring(16);
+    int firstSep = args.indexOf(':');
+    int secondSep = firstSep > 0 ? args.indexOf(':', firstSep + 1) : -1;
+    if (secondSep > 0) {
+      uint32_t totalSize = args.substring(0, firstSep).toInt();
+      uint16_t count = args.substring(firstSep + 1, secondSep).toInt();
+      uint16_t headerSize = args.substring(secondSep + 1).toInt();
+      Serial.println("📦 Procesando: BATCH_START");
+      startBatchUpload(totalSize, count, headerSize);
+    } else {
+      sendResponse("ERROR:INVALID_BATCH_COMMAND");
+    }
+  }
+  
   // Comando: DOWNLOAD:filename
   else if (command.startsWith("CMD:DOWNLOAD:")) {
     String filename = command.substring(13);
@@ -473,6 +719,25 @@ void handleCommand(String command) {
     setLoRaConfig(jsonStr);
   }
   
+  // Comando: SET_LINK:ack:reintentos (durante la TX, en el siguiente ACK)
+  else if (command.startsWith("CMD:SET_LINK:")) {
+    String args = command.substring(13);
+    int sep = args.indexOf(':');
+    int ack = sep > 0 ? args.substring(0, sep).toInt() : 0;
+    int retries = sep > 0 ? args.substring(sep + 1).toInt() : 0;
+    
+    if (ack < 1 || ack > 50 || retries < 1 || retries > 10) {
+      sendResponse("ERROR:LINK_INVALID");
+    } else if (!transmitting) {
+      sendResponse("ERROR:LINK_NOT_TRANSMITTING");
+    } else {
+      Serial.printf("🎚️  Procesando: SET_LINK - ACK %d, reintentos %d\n", ack, retries);
+      pendingMaxRetries = retries;
+      pendingACKInterval = ack;
+      sendResponse("OK:LINK_PENDING");
+    }
+  }
+  
   // Comando: GET_LORA_CONFIG (NUEVO)
   else if (command == "CMD:GET_LORA_CONFIG") {
     Serial.println("⚙️  Procesando: GET_LORA_CONFIG");
@@ -486,6 +751,80 @@ void handleCommand(String command) {
     startLoRaTransmission(filename);
   }
   
+  // Comando: HASH:filename:segmentSize
+  else if (command.startsWith("CMD:HASH:")) {
+    String args = command.substring(9);
+    int sep = args.lastIndexOf(':');
+    if (sep > 0) {
+      String filename = args.substring(0, sep);
+      Serial.println("🔐 Procesando: HASH - " + filename);
+      sendFileHash(filename, args.substring(sep + 1).toInt());
+    } else {
+      sendResponse("ERROR:INVALID_HASH_COMMAND");
+    }
+  }
+  
+  // Comando: READ_RANGE:filename:offset:length
+  else if (command.startsWith("CMD:READ_RANGE:")) {
+    String args = command.substring(15);
+    int lengthSep = args.lastIndexOf(':');
+    int offsetSep = lengthSep > 0 ? args.lastIndexOf(':', lengthSep - 1) : -1;
+    if (offsetSep > 0) {
+      String filename = args.substring(0, offsetSep);
+      uint32_t offset = args.substring(offsetSep + 1, lengthSep).toInt();
+      uint32_t length = args.substring(lengthSep + 1).toInt();
+      Serial.println("📥 Procesando: READ_RANGE - " + filename);
+      startRangeDownload(filename, offset, length);
+    } else {
+      sendResponse("ERROR:INVALID_RANGE_COMMAND");
+    }
+  }
+  
+  // Comando: READ_TAIL:filename:length (últimos length bytes)
+  else if (command.startsWith("CMD:READ_TAIL:")) {
+    String args = command.substring(14);
+    int lengthSep = args.lastIndexOf(':');
+    if (lengthSep > 0) {
+      String filename = args.substring(0, lengthSep);
+      uint32_t length = args.substring(lengthSep + 1).toInt();
+      Serial.println("📥 Procesando: READ_TAIL - " + filename);
+      startTailDownload(filename, length);
+    } else {
+      sendResponse("ERROR:INVALID_RANGE_COMMAND");
+    }
+  }
+  
+  // Comando: UPLOAD_RANGE:filename:offset:length:totalSize
+  else if (command.startsWith("CMD:UPLOAD_RANGE:")) {
+    String args = command.substring(17);
+    int totalSep = args.lastIndexOf(':');
+    int lengthSep = totalSep > 0 ? args.lastIndexOf(':', totalSep - 1) : -1;
+    int offsetSep = lengthSep > 0 ? args.lastIndexOf(':', lengthSep - 1) : -1;
+    if (offsetSep > 0) {
+      String filename = args.substring(0, offsetSep);
+      uint32_t offset = args.substring(offsetSep + 1, lengthSep).toInt();
+      uint32_t length = args.substring(lengthSep + 1, totalSep).toInt();
+      uint32_t totalSize = args.substring(totalSep + 1).toInt();
+      Serial.println("📤 Procesando: UPLOAD_RANGE - " + filename);
+      startRangeUpload(filename, offset, length, totalSize);
+    } else {
+      sendResponse("ERROR:INVALID_RANGE_COMMAND");
+    }
+  }
+  
+  // Comando: TELEMETRY:1|0 (estado LoRa como registro binario)
+  else if (command.startsWith("CMD:TELEMETRY:")) {
+    telemetryEnabled = command.substring(14) == "1";
+    Serial.printf("📟 Telemetría binaria: %s\n", telemetryEnabled ? "activada" : "desactivada");
+    sendResponse(String("OK:TELEMETRY:") + (telemetryEnabled ? "1" : "0"));
+  }
+  
+  // Comando: WIFI:1|0 (softAP + servidor UDP de archivos, lo atiende loop())
+  else if (command.startsWith("CMD:WIFI:")) {
+    wifiRequest = command.substring(9) == "1" ? 1 : 0;
+    Serial.printf("📶 WiFi: %s\n", wifiRequest == 1 ? "encender" : "apagar");
+  }
+  
   // Comando: PING
   else if (command == "CMD:PING") {
     Serial.println("🏓 Procesando: PING");
@@ -506,6 +845,9 @@ void handleCommand(String command) {
 void sendResponse(String response) {
   if (!deviceConnected || pDataCharacteristic == NULL) return;
   
+  if (requestTagTask != NULL && xTaskGetCurrentTaskHandle() == requestTagTask) {
+    response = requestTag + response;
+  }
   response += "\n";
   pDataCharacteristic->setValue(response.c_str());
   pDataCharacteristic->notify();
@@ -525,6 +867,401 @@ void sendProgress(uint8_t percentage) {
   delay(5);
 }
 
+// ════════════════════════════════════════════════════════════════════════
+// 📟 ENVIAR TELEMETRÍA BLE
+// ════════════════════════════════════════════════════════════════════════
+
+void sendTelemetry(uint8_t kind, uint16_t index, uint16_t total, uint32_t bytes,
+                   uint16_t retries, unsigned long startMicros, bool last) {
+  if (!deviceConnected || pProgressCharacteristic == NULL) return;
+  
+  TelemetryRecord record;
+  record.version = TELEMETRY_VERSION;
+  record.kind = kind;
+  record.percentage = total > 0 ? ((uint32_t)(index + 1) * 100) / total : 0;
+  record.flags = last ? TELEMETRY_FLAG_LAST : 0;
+  record.fragmentIndex = index;
+  record.fragmentTotal = total;
+  record.bytes = bytes;
+  record.retries = retries;
+  record.rssi = (int16_t)radio.getRSSI();
+  record.snrCentiDb = (int16_t)(radio.getSNR() * 100);
+  record.reserved = 0;
+  record.elapsedMicros = micros() - startMicros;
+  
+  pProgressCharacteristic->setValue((uint8_t*)&record, sizeof(record));
+  pProgressCharacteristic->notify();
+  delay(5);
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - SOFTAP
+// ════════════════════════════════════════════════════════════════════════
+
+void startWifi() {
+  if (!wifiActive) {
+    uint64_t mac = ESP.getEfuseMac();
+    char ssid[32];
+    snprintf(ssid, sizeof(ssid), "%s%02X%02X", WIFI_AP_PREFIX,
+             (uint8_t)(mac >> 32), (uint8_t)(mac >> 40));
+
+    // Sin WiFi.setSleep(false): con BLE activo el coexist exige modem sleep
+    WiFi.mode(WIFI_AP);
+    if (!WiFi.softAP(ssid, WIFI_AP_PASS)) {
+      WiFi.mode(WIFI_OFF);
+      sendResponse("ERROR:WIFI_AP_FAILED");
+      return;
+    }
+
+    fileUdp.begin(UDP_FILE_PORT);
+    wifiSsid = ssid;
+    wifiActive = true;
+    Serial.printf("📶 SoftAP %s (%s) - UDP %d\n", ssid,
+                  WiFi.softAPIP().toString().c_str(), UDP_FILE_PORT);
+  }
+
+  sendResponse("OK:WIFI:" + wifiSsid + ":" + WIFI_AP_PASS + ":" +
+               WiFi.softAPIP().toString() + ":" + String(UDP_FILE_PORT));
+}
+
+void stopWifi() {
+  if (udpMode != UDP_IDLE) finishUdpTransfer(false);
+
+  if (wifiActive) {
+    fileUdp.stop();
+    WiFi.softAPdisconnect(true);
+    WiFi.mode(WIFI_OFF);
+    wifiActive = false;
+    Serial.println("📶 SoftAP apagado");
+  }
+  sendResponse("OK:WIFI_OFF");
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - PAQUETES
+// ════════════════════════════════════════════════════════════════════════
+
+void handleUdp() {
+  int packetSize;
+  while ((packetSize = fileUdp.parsePacket()) > 0) {
+    int len = fileUdp.read(udpRxBuffer, sizeof(udpRxBuffer));
+    if (len < (int)sizeof(UdpHeader)) continue;
+
+    UdpHeader header;
+    memcpy(&header, udpRxBuffer, sizeof(header));
+    if (header.magic != UDP_MAGIC) continue;
+
+    const uint8_t* payload = udpRxBuffer + sizeof(UdpHeader);
+    size_t payloadLen = len - sizeof(UdpHeader);
+
+    if (header.type == UDP_TYPE_CTRL) {
+      udpPeerIP = fileUdp.remoteIP();
+      udpPeerPort = fileUdp.remotePort();
+
+      // Duplicado (se perdió la respuesta): repetirla sin re-ejecutar
+      bool duplicate = header.testId == udpTransferId && header.seq == udpCtrlSeq &&
+                       udpCtrlReply.length() > 0;
+      if (!duplicate) {
+        String command = "";
+        for (size_t i = 0; i < payloadLen; i++) command += (char)payload[i];
+        command.trim();
+        Serial.println("📩 Comando UDP: " + command);
+
+        udpTransferId = header.testId;
+        udpCtrlSeq = header.seq;
+        udpCtrlReply = handleUdpControl(command);
+      }
+
+      size_t replyLen = min((size_t)UDP_CHUNK_SIZE, (size_t)udpCtrlReply.length());
+      memcpy(udpTxBuffer + sizeof(UdpHeader), udpCtrlReply.c_str(), replyLen);
+      sendUdpBuffer(UDP_TYPE_CTRL, header.seq, replyLen);
+    }
+    else if (header.testId != udpTransferId) {
+      continue;  // Paquete de una transferencia anterior
+    }
+    else if (header.type == UDP_TYPE_DATA && udpMode == UDP_RECEIVING) {
+      receiveUdpChunk(header.seq, header.tx_us, payload, payloadLen);
+    }
+    else if (header.type == UDP_TYPE_SACK && udpMode == UDP_SENDING &&
+             payloadLen >= sizeof(UdpSack)) {
+      UdpSack sack;
+      memcpy(&sack, payload, sizeof(sack));
+      handleUdpSack(sack);
+    }
+  }
+
+  if (udpMode == UDP_RECEIVING) {
+    // SACK pendiente tras un silencio del emisor
+    if (udpSinceSack > 0 && millis() - udpLastActivity >= UDP_SACK_DELAY_MS) {
+      sendUdpSack();
+    }
+  } else if (udpMode == UDP_SENDING) {
+    serviceUdpSender();
+  }
+
+  if (udpMode != UDP_IDLE && millis() - udpLastActivity > UDP_IDLE_TIMEOUT_MS) {
+    Serial.println("⏱️  Transferencia UDP abandonada");
+    finishUdpTransfer(false);
+  }
+}
+
+String handleUdpControl(String command) {
+  if (command.startsWith("CMD:UPLOAD_START:")) {
+    int sep = command.indexOf(':', 17);
+    if (sep < 0) return "ERROR:INVALID_UPLOAD_COMMAND";
+    return startUdpUpload(command.substring(17, sep), command.substring(sep + 1).toInt());
+  }
+  if (command == "CMD:UPLOAD_END") {
+    return finishUdpUpload();
+  }
+  if (command.startsWith("CMD:DOWNLOAD:")) {
+    return startUdpDownload(command.substring(13));
+  }
+  if (command == "CMD:DOWNLOAD_END") {
+    if (udpMode == UDP_SENDING) finishUdpTransfer(true);
+    return "OK:DOWNLOAD_END";
+  }
+  return "ERROR:UNKNOWN_COMMAND";
+}
+
+void sendUdpBuffer(uint8_t type, uint32_t seq, size_t len) {
+  UdpHeader header;
+  header.magic = UDP_MAGIC;
+  header.testId = udpTransferId;
+  header.seq = seq;
+  header.tx_us = (uint32_t)micros();
+  header.type = type;
+  memcpy(udpTxBuffer, &header, sizeof(header));
+
+  fileUdp.beginPacket(udpPeerIP, udpPeerPort);
+  fileUdp.write(udpTxBuffer, sizeof(header) + len);
+  fileUdp.endPacket();
+}
+
+void finishUdpTransfer(bool keepFile) {
+  if (udpFile) udpFile.close();
+
+  if (!keepFile && udpMode == UDP_RECEIVING && LittleFS.exists(udpFilename)) {
+    LittleFS.remove(udpFilename);
+    Serial.println("🗑️  Archivo UDP incompleto eliminado");
+  }
+
+  if (udpReceived != NULL) {
+    free(udpReceived);
+    udpReceived = NULL;
+  }
+  udpMode = UDP_IDLE;
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - SUBIDA (app → Heltec)
+// ════════════════════════════════════════════════════════════════════════
+
+String startUdpUpload(String filename, uint32_t fileSize) {
+  if (udpMode != UDP_IDLE) finishUdpTransfer(false);  // La app abandonó la anterior
+  if (currentState != STATE_IDLE) return "ERROR:TRANSFER_IN_PROGRESS";
+
+  if (!filename.startsWith("/")) filename = "/" + filename;
+
+  uint32_t freeSpace = LittleFS.totalBytes() - LittleFS.usedBytes();
+  if (fileSize > freeSpace) return "ERROR:NO_SPACE";
+
+  if (LittleFS.exists(filename)) LittleFS.remove(filename);
+
+  udpChunkCount = (fileSize + UDP_CHUNK_SIZE - 1) / UDP_CHUNK_SIZE;
+  udpReceived = (uint8_t*)calloc(udpChunkCount / 8 + 1, 1);
+  if (udpReceived == NULL) return "ERROR:NO_MEMORY";
+
+  udpFile = LittleFS.open(filename, "w");
+  if (!udpFile) {
+    free(udpReceived);
+    udpReceived = NULL;
+    return "ERROR:CREATE_FAILED";
+  }
+
+  udpFilename = filename;
+  udpFileSize = fileSize;
+  udpCumulative = 0;
+  udpSinceSack = 0;
+  udpLastActivity = millis();
+  udpMode = UDP_RECEIVING;
+
+  Serial.printf("✅ Upload UDP iniciado: %s (%u bytes, %u chunks)\n",
+                filename.c_str(), fileSize, udpChunkCount);
+  return "OK:UPLOAD_READY:" + String(UDP_CHUNK_SIZE);
+}
+
+void receiveUdpChunk(uint32_t chunk, uint32_t txMicros, const uint8_t* data, size_t len) {
+  udpLastActivity = millis();
+  udpEchoMicros = txMicros;
+  bool inOrder = chunk == udpCumulative;
+
+  if (chunk < udpChunkCount && !(udpReceived[chunk / 8] & (1 << (chunk % 8)))) {
+    uint32_t offset = chunk * UDP_CHUNK_SIZE;
+    len = min(len, (size_t)(udpFileSize - offset));
+
+    // Fuera de orden: LittleFS rellena el hueco y se sobrescribe después
+    if (udpFile.position() != offset) udpFile.seek(offset);
+    udpFile.write(data, len);
+
+    udpReceived[chunk / 8] |= 1 << (chunk % 8);
+    while (udpCumulative < udpChunkCount &&
+           (udpReceived[udpCumulative / 8] & (1 << (udpCumulative % 8)))) {
+      udpCumulative++;
+    }
+  } else {
+    inOrder = false;  // Duplicado: el emisor necesita saberlo ya
+  }
+
+  // Fuera de orden o duplicado: SACK inmediato para reenviar el hueco
+  if (!inOrder || ++udpSinceSack >= UDP_SACK_EVERY || udpCumulative >= udpChunkCount) {
+    sendUdpSack();
+  }
+}
+
+void sendUdpSack() {
+  UdpSack sack;
+  sack.cumulative = udpCumulative;
+  sack.bitmap = 0;
+  sack.echo_us = udpEchoMicros;
+
+  for (uint8_t i = 0; i < 64; i++) {
+    uint32_t chunk = udpCumulative + 1 + i;
+    if (chunk >= udpChunkCount) break;
+    if (udpReceived[chunk / 8] & (1 << (chunk % 8))) sack.bitmap |= 1ULL << i;
+  }
+
+  memcpy(udpTxBuffer + sizeof(UdpHeader), &sack, sizeof(sack));
+  sendUdpBuffer(UDP_TYPE_SACK, udpCumulative, sizeof(sack));
+  udpSinceSack = 0;
+}
+
+String finishUdpUpload() {
+  if (udpMode != UDP_RECEIVING) return "ERROR:NO_UPLOAD";
+  if (udpCumulative < udpChunkCount) return "ERROR:UPLOAD_INCOMPLETE";
+
+  uint32_t size = udpFileSize;
+  finishUdpTransfer(true);
+
+  Serial.printf("✅ Upload UDP completado: %s (%u bytes)\n", udpFilename.c_str(), size);
+  return "OK:UPLOAD_COMPLETE:" + String(size);
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📶 WIFI UDP - DESCARGA (Heltec → app)
+// ════════════════════════════════════════════════════════════════════════
+
+String startUdpDownload(String filename) {
+  if (udpMode != UDP_IDLE) finishUdpTransfer(false);  // La app abandonó la anterior
+
+  if (!filename.startsWith("/")) filename = "/" + filename;
+  if (!LittleFS.exists(filename)) return "ERROR:FILE_NOT_FOUND";
+
+  udpFile = LittleFS.open(filename, "r");
+  if (!udpFile) return "ERROR:OPEN_FAILED";
+
+  udpFilename = filename;
+  udpFileSize = udpFile.size();
+  udpChunkCount = (udpFileSize + UDP_CHUNK_SIZE - 1) / UDP_CHUNK_SIZE;
+  udpCumulative = 0;
+  udpNextChunk = 0;
+  udpWindow = UDP_WINDOW_INITIAL;
+  udpGapMicros = UDP_GAP_INITIAL_US;
+  udpSrttMicros = 0;
+  udpNextSendMicros = micros();
+  udpLastProgressMicros = udpNextSendMicros;
+  udpLastLossMicros = udpNextSendMicros;
+  udpLastActivity = millis();
+  udpMode = UDP_SENDING;
+
+  Serial.printf("📥 Download UDP: %s (%u bytes, %u chunks)\n",
+                filename.c_str(), udpFileSize, udpChunkCount);
+  return "OK:DOWNLOAD_READY:" + String(udpFileSize) + ":" + String(UDP_CHUNK_SIZE);
+}
+
+void sendUdpChunk(uint32_t chunk) {
+  uint32_t offset = chunk * UDP_CHUNK_SIZE;
+  size_t len = min((uint32_t)UDP_CHUNK_SIZE, udpFileSize - offset);
+
+  if (udpFile.position() != offset) udpFile.seek(offset);
+  size_t read = udpFile.read(udpTxBuffer + sizeof(UdpHeader), len);
+
+  udpSentMicros[chunk % UDP_WINDOW_MAX] = micros();
+  sendUdpBuffer(UDP_TYPE_DATA, chunk, read);
+}
+
+void serviceUdpSender() {
+  uint32_t now = micros();
+
+  // Timeout: reenviar el primer chunk sin confirmar
+  uint32_t rto = max((uint32_t)UDP_RTO_MIN_US, udpSrttMicros * 3);
+  if (udpCumulative < udpNextChunk && now - udpLastProgressMicros >= rto) {
+    sendUdpChunk(udpCumulative);
+    udpWindow = UDP_WINDOW_MIN;
+    udpGapMicros = min((uint32_t)UDP_GAP_MAX_US, udpGapMicros * 2);
+    udpLastProgressMicros = now;
+  }
+
+  // Chunks nuevos según el ritmo, sin pasar de la ventana
+  for (uint8_t burst = 0; burst < UDP_BURST; burst++) {
+    if (udpNextChunk >= udpChunkCount || udpNextChunk >= udpCumulative + udpWindow) break;
+
+    now = micros();
+    if ((int32_t)(now - udpNextSendMicros) < 0) break;
+
+    sendUdpChunk(udpNextChunk);
+    udpNextChunk++;
+
+    // Sin acumular "crédito" tras una espera larga
+    if (now - udpNextSendMicros > udpGapMicros) udpNextSendMicros = now;
+    udpNextSendMicros += udpGapMicros;
+  }
+}
+
+void handleUdpSack(const UdpSack &sack) {
+  udpLastActivity = millis();
+  uint32_t now = micros();
+
+  uint32_t rtt = now - sack.echo_us;
+  if (rtt < 5000000) {
+    udpSrttMicros = udpSrttMicros == 0 ? rtt : (udpSrttMicros * 7 + rtt) / 8;
+  }
+
+  uint32_t cumulative = sack.cumulative;  // Copia: campo empaquetado
+  if (cumulative > udpNextChunk) cumulative = udpNextChunk;
+  if (cumulative > udpCumulative) {
+    udpCumulative = cumulative;
+    udpLastProgressMicros = now;
+    if (udpWindow < UDP_WINDOW_MAX) udpWindow++;
+    udpGapMicros = max((uint32_t)UDP_GAP_MIN_US, udpGapMicros * 15 / 16);
+  } else if (cumulative < udpCumulative) {
+    return;  // SACK atrasado: su bitmap es relativo a otro acumulado
+  }
+
+  if (sack.bitmap == 0 || udpCumulative >= udpChunkCount) return;
+
+  // Huecos por debajo del chunk más alto confirmado
+  uint32_t highest = udpCumulative + 1 + (63 - __builtin_clzll(sack.bitmap));
+  uint32_t minAge = max((uint32_t)2000, udpSrttMicros);
+  bool loss = false;
+
+  for (uint32_t chunk = udpCumulative; chunk < highest && chunk < udpNextChunk; chunk++) {
+    bool acked = chunk > udpCumulative &&
+                 (sack.bitmap & (1ULL << (chunk - udpCumulative - 1)));
+    if (!acked && now - udpSentMicros[chunk % UDP_WINDOW_MAX] >= minAge) {
+      sendUdpChunk(chunk);
+      loss = true;
+    }
+  }
+
+  // Una reducción por RTT como mucho
+  if (loss && now - udpLastLossMicros > minAge) {
+    udpWindow = max((uint16_t)UDP_WINDOW_MIN, (uint16_t)(udpWindow * 7 / 10));
+    udpGapMicros = min((uint32_t)UDP_GAP_MAX_US, udpGapMicros * 5 / 4);
+    udpLastLossMicros = now;
+  }
+}
+
 // ════════════════════════════════════════════════════════════════════════
 // 📋 LISTAR ARCHIVOS
 // ════════════════════════════════════════════════════════════════════════
@@ -644,12 +1381,18 @@ void receiveChunk(String base64Data) {
     return;
   }
   
-  size_t written = currentFile.write(buffer, decodedLen);
+  size_t written = batchActive ? batchWrite(buffer, decodedLen)
+                               : currentFile.write(buffer, decodedLen);
   if (written != decodedLen) {
-    currentFile.close();
-    LittleFS.remove(currentFilename);
+    bool batchFailed = batchActive;
+    if (currentFile) currentFile.close();
+    if (batchFailed) {
+      discardBatchFiles();
+    } else if (currentFilename.length() > 0 && !rangeUpload) {
+      LittleFS.remove(currentFilename);
+    }
     resetTransferState();
-    sendResponse("ERROR:WRITE_FAILED");
+    sendResponse(batchFailed ? "ERROR:BATCH_INVALID" : "ERROR:WRITE_FAILED");
     return;
   }
   
@@ -658,13 +1401,34 @@ void receiveChunk(String base64Data) {
   
   uint8_t progress = (transferredBytes * 100) / expectedFileSize;
   
-  if (receivedChunks % 10 == 0 || receivedChunks >= expectedChunks) {
+  if (receivedChunks % 10 == 0 || transferredBytes >= expectedFileSize) {
     sendProgress(progress);
   }
   
   sendResponse("ACK:" + String(receivedChunks));
   
-  if (receivedChunks >= expectedChunks || transferredBytes >= expectedFileSize) {
+  if (batchActive && transferredBytes >= expectedFileSize) {
+    bool complete = batchTableParsed && batchIndex >= batchCount;
+    uint16_t files = batchCount;
+    if (currentFile) currentFile.close();
+    if (complete) commitBatchFiles();
+    else discardBatchFiles();
+    
+    Serial.printf("%s Lote BLE: %u archivos, %u bytes\n",
+                  complete ? "✅" : "❌", files, transferredBytes);
+    
+    resetTransferState();
+    if (complete) {
+      sendResponse("OK:BATCH_COMPLETE:" + String(files) + ":" + String(expectedFileSize));
+      sendProgress(100);
+    } else {
+      sendResponse("ERROR:BATCH_INCOMPLETE");
+    }
+    return;
+  }
+  
+  // Por bytes: el teléfono reduce el chunk si el enlace BLE empeora
+  if (transferredBytes >= expectedFileSize) {
     currentFile.flush();
     currentFile.close();
     
@@ -766,6 +1530,389 @@ void sendFileInChunks(String filename) {
   resetTransferState();
 }
 
+// ════════════════════════════════════════════════════════════════════════
+// 🔐 INTEGRIDAD - HASH (SHA-256 + CRC32C POR SEGMENTO)
+// ════════════════════════════════════════════════════════════════════════
+
+uint32_t crc32cUpdate(uint32_t crc, const uint8_t* data, size_t len) {
+  crc = ~crc;
+  for (size_t i = 0; i < len; i++) {
+    crc ^= data[i];
+    for (uint8_t j = 0; j < 8; j++) {
+      crc = (crc >> 1) ^ (0x82F63B78 & (0 - (crc & 1)));
+    }
+  }
+  return ~crc;
+}
+
+// Una sola lectura del archivo: HASH_SEG se envía según se completa cada
+// segmento y el SHA-256 total va al final en HASH_END
+void sendFileHash(String filename, uint32_t segmentSize) {
+  if (currentState != STATE_IDLE) {
+    sendResponse("ERROR:TRANSFER_IN_PROGRESS");
+    return;
+  }
+  
+  if (!filename.startsWith("/")) filename = "/" + filename;
+  
+  File file = LittleFS.open(filename, "r");
+  if (!file) {
+    sendResponse("ERROR:FILE_NOT_FOUND");
+    return;
+  }
+  
+  if (segmentSize == 0) segmentSize = HASH_SEGMENT_SIZE;
+  
+  uint32_t fileSize = file.size();
+  uint32_t segments = (fileSize + segmentSize - 1) / segmentSize;
+  
+  String cleanName = filename;
+  if (cleanName.startsWith("/")) cleanName = cleanName.substring(1);
+  
+  sendResponse("HASH_START:" + cleanName + ":" + String(fileSize) + ":" +
+               String(segmentSize) + ":" + String(segments));
+  
+  mbedtls_sha256_context sha;
+  mbedtls_sha256_init(&sha);
+  mbedtls_sha256_starts(&sha, 0);
+  
+  uint8_t buffer[256];
+  uint32_t segment = 0;
+  uint32_t segmentFill = 0;
+  uint32_t crc = 0;
+  
+  while (file.available()) {
+    size_t toRead = min((uint32_t)sizeof(buffer), segmentSize - segmentFill);
+    size_t bytesRead = file.read(buffer, toRead);
+    if (bytesRead == 0) break;
+    
+    mbedtls_sha256_update(&sha, buffer, bytesRead);
+    crc = crc32cUpdate(crc, buffer, bytesRead);
+    segmentFill += bytesRead;
+    
+    if (segmentFill == segmentSize || !file.available()) {
+      char hex[9];
+      snprintf(hex, sizeof(hex), "%08x", crc);
+      sendResponse("HASH_SEG:" + String(segment) + ":" + String(hex));
+      segment++;
+      segmentFill = 0;
+      crc = 0;
+    }
+    yield();
+  }
+  file.close();
+  
+  uint8_t digest[32];
+  mbedtls_sha256_finish(&sha, digest);
+  mbedtls_sha256_free(&sha);
+  
+  char hexDigest[65];
+  for (int i = 0; i < 32; i++) {
+    snprintf(hexDigest + i * 2, 3, "%02x", digest[i]);
+  }
+  
+  sendResponse("HASH_END:" + String(hexDigest));
+  Serial.printf("✅ Hash enviado: %s (%u segmentos)\n", cleanName.c_str(), segment);
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📥 DOWNLOAD BLE - RANGO (re-descarga de segmentos dañados, lecturas parciales)
+// ════════════════════════════════════════════════════════════════════════
+
+// length 0 = hasta el final del archivo
+void startRangeDownload(String filename, uint32_t offset, uint32_t length) {
+  if (currentState != STATE_IDLE) {
+    sendResponse("ERROR:TRANSFER_IN_PROGRESS");
+    return;
+  }
+  
+  if (!filename.startsWith("/")) filename = "/" + filename;
+  
+  File file = LittleFS.open(filename, "r");
+  if (!file) {
+    sendResponse("ERROR:FILE_NOT_FOUND");
+    return;
+  }
+  
+  uint32_t fileSize = file.size();
+  // Un archivo vacío admite offset 0: rango de 0 bytes, no un error
+  bool emptyRange = offset == 0 && fileSize == 0;
+  if ((offset >= fileSize && !emptyRange) || !file.seek(offset)) {
+    file.close();
+    sendResponse("ERROR:INVALID_RANGE");
+    return;
+  }
+  if (length == 0 || length > fileSize - offset) length = fileSize - offset;
+  
+  currentState = STATE_DOWNLOADING;
+  currentFilename = filename;
+  expectedFileSize = length;
+  transferredBytes = 0;
+  
+  String cleanName = filename;
+  if (cleanName.startsWith("/")) cleanName = cleanName.substring(1);
+  
+  sendResponse("RANGE_START:" + cleanName + ":" + String(offset) + ":" + String(length));
+  delay(100);
+  
+  uint8_t buffer[CHUNK_SIZE_BLE];
+  uint16_t chunkNum = 0;
+  
+  while (transferredBytes < length) {
+    size_t toRead = min((uint32_t)CHUNK_SIZE_BLE, length - transferredBytes);
+    size_t bytesRead = file.read(buffer, toRead);
+    if (bytesRead == 0) break;
+    
+    sendResponse("CHUNK:" + String(chunkNum) + ":" + encodeBase64(buffer, bytesRead));
+    
+    transferredBytes += bytesRead;
+    chunkNum++;
+    delay(20);
+  }
+  
+  file.close();
+  
+  sendResponse("RANGE_END:" + String(transferredBytes));
+  Serial.printf("✅ Rango enviado: %u bytes desde %u\n", transferredBytes, offset);
+  
+  resetTransferState();
+}
+
+// Final de un archivo (logs que crecen): el offset se calcula aquí
+// para no pedir antes el tamaño. length 0 = archivo completo
+void startTailDownload(String filename, uint32_t length) {
+  if (!filename.startsWith("/")) filename = "/" + filename;
+  
+  File file = LittleFS.open(filename, "r");
+  if (!file) {
+    sendResponse("ERROR:FILE_NOT_FOUND");
+    return;
+  }
+  uint32_t fileSize = file.size();
+  file.close();
+  
+  uint32_t offset = (length == 0 || length >= fileSize) ? 0 : fileSize - length;
+  startRangeDownload(filename, offset, 0);
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📤 UPLOAD BLE - RANGO (re-envío de segmentos dañados)
+// ════════════════════════════════════════════════════════════════════════
+
+// Reescribe [offset, offset + length) de un archivo existente; los chunks
+// llegan con CMD:UPLOAD_CHUNK igual que en una subida normal. El rango
+// puede alargar un archivo truncado hasta totalSize (sin dejar huecos),
+// y un rango que cubre todo el archivo lo reescribe desde cero
+void startRangeUpload(String filename, uint32_t offset, uint32_t length, uint32_t totalSize) {
+  if (currentState != STATE_IDLE) {
+    sendResponse("ERROR:TRANSFER_IN_PROGRESS");
+    return;
+  }
+  
+  if (!filename.startsWith("/")) filename = "/" + filename;
+  
+  if (!LittleFS.exists(filename)) {
+    sendResponse("ERROR:FILE_NOT_FOUND");
+    return;
+  }
+  
+  bool rewrite = offset == 0 && length == totalSize;
+  currentFile = LittleFS.open(filename, rewrite ? "w" : "r+");
+  if (!currentFile) {
+    sendResponse("ERROR:OPEN_FAILED");
+    return;
+  }
+  
+  uint32_t fileSize = currentFile.size();
+  uint32_t limit = max(fileSize, totalSize);
+  if (length == 0 || offset > fileSize || offset + length > limit || !currentFile.seek(offset)) {
+    currentFile.close();
+    sendResponse("ERROR:INVALID_RANGE");
+    return;
+  }
+  
+  uint32_t growth = offset + length > fileSize ? offset + length - fileSize : 0;
+  if (growth > LittleFS.totalBytes() - LittleFS.usedBytes()) {
+    currentFile.close();
+    sendResponse("ERROR:NO_SPACE");
+    return;
+  }
+  
+  currentState = STATE_UPLOADING;
+  rangeUpload = true;
+  currentFilename = filename;
+  expectedFileSize = length;
+  transferredBytes = 0;
+  expectedChunks = (length + CHUNK_SIZE_BLE - 1) / CHUNK_SIZE_BLE;
+  receivedChunks = 0;
+  
+  Serial.printf("✅ Upload de rango: %s (%u bytes desde %u)\n", filename.c_str(), length, offset);
+  
+  sendResponse("OK:UPLOAD_READY");
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 📦 UPLOAD BLE - LOTE DE ARCHIVOS
+// ════════════════════════════════════════════════════════════════════════
+
+// Contenedor (little endian):
+//   'B' 'F' version(1) reservado(1) count(2) reservado(2)
+//   count × [ nameLen(1) + nombre + size(4) ]
+//   datos de cada archivo concatenados
+// Los chunks llegan con CMD:UPLOAD_CHUNK y se escriben según llegan
+void startBatchUpload(uint32_t totalSize, uint16_t count, uint16_t headerSize) {
+  if (currentState != STATE_IDLE) {
+    sendResponse("ERROR:TRANSFER_IN_PROGRESS");
+    return;
+  }
+  
+  if (count == 0 || count > BATCH_MAX_FILES ||
+      headerSize < 8 || headerSize > BATCH_MAX_HEADER || totalSize < headerSize) {
+    sendResponse("ERROR:INVALID_BATCH");
+    return;
+  }
+  
+  uint32_t freeSpace = LittleFS.totalBytes() - LittleFS.usedBytes();
+  if (totalSize - headerSize > freeSpace) {
+    sendResponse("ERROR:NO_SPACE");
+    return;
+  }
+  
+  currentState = STATE_UPLOADING;
+  currentFilename = "";
+  expectedFileSize = totalSize;
+  transferredBytes = 0;
+  expectedChunks = (totalSize + CHUNK_SIZE_BLE - 1) / CHUNK_SIZE_BLE;
+  receivedChunks = 0;
+  
+  batchActive = true;
+  batchTableParsed = false;
+  batchHeaderSize = headerSize;
+  batchHeaderReceived = 0;
+  batchCount = count;
+  batchIndex = 0;
+  batchRemaining = 0;
+  
+  Serial.printf("✅ Lote BLE iniciado: %u archivos (%u bytes)\n", count, totalSize);
+  
+  sendResponse("OK:UPLOAD_READY");
+  sendProgress(0);
+}
+
+// Validar la tabla de la cabecera ya recibida completa
+bool parseBatchTable() {
+  if (batchHeader[0] != 'B' || batchHeader[1] != 'F' || batchHeader[2] != 1) return false;
+  
+  uint16_t count = batchHeader[4] | (batchHeader[5] << 8);
+  if (count != batchCount) return false;
+  
+  uint32_t pos = 8;
+  uint32_t payload = 0;
+  for (uint16_t i = 0; i < count; i++) {
+    if (pos >= batchHeaderSize) return false;
+    uint8_t nameLen = batchHeader[pos++];
+    if (nameLen == 0 || nameLen > BATCH_MAX_NAME || pos + nameLen + 4 > batchHeaderSize) return false;
+    
+    batchNames[i][0] = '/';
+    memcpy(&batchNames[i][1], &batchHeader[pos], nameLen);
+    batchNames[i][nameLen + 1] = '\0';
+    if (strchr(&batchNames[i][1], '/') != NULL) return false;
+    pos += nameLen;
+    
+    batchSizes[i] = (uint32_t)batchHeader[pos] | ((uint32_t)batchHeader[pos + 1] << 8) |
+                    ((uint32_t)batchHeader[pos + 2] << 16) | ((uint32_t)batchHeader[pos + 3] << 24);
+    pos += 4;
+    payload += batchSizes[i];
+  }
+  
+  return pos == batchHeaderSize && payload + batchHeaderSize == expectedFileSize;
+}
+
+// Los archivos del lote se escriben con nombre temporal y sólo
+// sustituyen a los existentes cuando el lote llega completo
+String batchTempName(uint16_t index) {
+  return "/.batch" + String(index) + ".tmp";
+}
+
+// Abrir el siguiente archivo con datos (los vacíos se crean directamente)
+bool openNextBatchFile() {
+  while (batchIndex < batchCount) {
+    String name = batchTempName(batchIndex);
+    if (LittleFS.exists(name)) LittleFS.remove(name);
+    
+    currentFile = LittleFS.open(name, "w");
+    if (!currentFile) return false;
+    currentFilename = name;
+    batchRemaining = batchSizes[batchIndex];
+    
+    if (batchRemaining > 0) return true;
+    
+    currentFile.close();
+    currentFilename = "";
+    batchIndex++;
+  }
+  return true;
+}
+
+// Escribir datos del contenedor; devuelve len, o 0 si el lote es inválido
+size_t batchWrite(const uint8_t* data, size_t len) {
+  size_t consumed = 0;
+  
+  while (consumed < len) {
+    // Cabecera: acumular hasta tenerla completa
+    if (!batchTableParsed) {
+      size_t n = min((size_t)(batchHeaderSize - batchHeaderReceived), len - consumed);
+      memcpy(&batchHeader[batchHeaderReceived], data + consumed, n);
+      batchHeaderReceived += n;
+      consumed += n;
+      
+      if (batchHeaderReceived == batchHeaderSize) {
+        if (!parseBatchTable() || !openNextBatchFile()) return 0;
+        batchTableParsed = true;
+      }
+      continue;
+    }
+    
+    // Datos de más tras el último archivo
+    if (batchIndex >= batchCount) return 0;
+    
+    size_t n = min((size_t)batchRemaining, len - consumed);
+    if (currentFile.write(data + consumed, n) != n) return 0;
+    batchRemaining -= n;
+    consumed += n;
+    
+    if (batchRemaining == 0) {
+      currentFile.close();
+      Serial.printf("   📄 %s (%u bytes)\n", batchNames[batchIndex], batchSizes[batchIndex]);
+      currentFilename = "";
+      batchIndex++;
+      if (!openNextBatchFile()) return 0;
+    }
+  }
+  
+  return len;
+}
+
+// Lote completo: renombrar los temporales sobre los nombres finales
+void commitBatchFiles() {
+  for (uint16_t i = 0; i < batchCount; i++) {
+    String tmp = batchTempName(i);
+    if (LittleFS.exists(batchNames[i])) LittleFS.remove(batchNames[i]);
+    if (!LittleFS.rename(tmp, batchNames[i])) {
+      Serial.printf("❌ No se pudo renombrar %s\n", batchNames[i]);
+    }
+  }
+}
+
+// Lote fallido o interrumpido: los archivos existentes quedan intactos
+void discardBatchFiles() {
+  uint16_t opened = batchTableParsed ? min((uint16_t)(batchIndex + 1), batchCount) : 0;
+  for (uint16_t i = 0; i < opened; i++) {
+    String tmp = batchTempName(i);
+    if (LittleFS.exists(tmp)) LittleFS.remove(tmp);
+  }
+}
+
 // ════════════════════════════════════════════════════════════════════════
 // ⚙️  CONFIGURACIÓN LORA - SET
 // ════════════════════════════════════════════════════════════════════════
@@ -879,6 +2026,83 @@ void processLoRaTransmission() {
   currentLoRaFile = "";
 }
 
+// ════════════════════════════════════════════════════════════════════════
+// 📡 LORA TX - ESPERAR ACK
+// ════════════════════════════════════════════════════════════════════════
+
+bool waitForACK(uint16_t expected) {
+  delay(200);
+  receivingACK = true;
+  radio.setDio1Action(setFlag);
+  radio.startReceive();
+  
+  unsigned long start = millis();
+  bool validAck = false;
+  
+  while (millis() - start < getACKTimeout() && !validAck) {
+    if (ackReceived) {
+      ackReceived = false;
+      uint8_t ackBuf[20];
+      
+      if (radio.readData(ackBuf, sizeof(ackBuf)) == RADIOLIB_ERR_NONE) {
+        if (radio.getPacketLength() == 5 && 
+            ackBuf[0] == 'A' && ackBuf[1] == 'C' && ackBuf[2] == 'K') {
+          uint16_t ackNum;
+          memcpy(&ackNum, ackBuf + 3, 2);
+          validAck = (ackNum == expected);
+        }
+        if (!validAck) radio.startReceive();
+      }
+    }
+    delayMicroseconds(5000);
+  }
+  
+  receivingACK = false;
+  return validAck;
+}
+
+// ════════════════════════════════════════════════════════════════════════
+// 🎚️ LORA TX - APLICAR CMD:SET_LINK
+// ════════════════════════════════════════════════════════════════════════
+
+// El RX decide cuándo mandar ACK con su propio intervalo: el cambio se
+// le comunica con un paquete "LC" de 4 bytes y solo se aplica si lo
+// confirma (ACK 0x8000 | intervalo). Un RX antiguo ignora paquetes de
+// 4 bytes y se sigue con el intervalo actual.
+bool sendLinkConfig(uint8_t ack) {
+  uint8_t pkt[4] = {LINK_CONFIG_MAGIC_1, LINK_CONFIG_MAGIC_2, ack, 0};
+  
+  for (int attempt = 0; attempt < LINK_CONFIG_ATTEMPTS; attempt++) {
+    if (radio.transmit(pkt, sizeof(pkt)) == RADIOLIB_ERR_NONE &&
+        waitForACK(0x8000 | ack)) {
+      return true;
+    }
+  }
+  return false;
+}
+
+void applyLinkParams(int &ackInterval) {
+  int ack = pendingACKInterval;
+  int retries = pendingMaxRetries;
+  pendingACKInterval = 0;
+  pendingMaxRetries = 0;
+  
+  if (retries > 0) txMaxRetries = retries;
+  
+  if (ack > 0 && ack != ackInterval) {
+    if (sendLinkConfig(ack)) {
+      ackInterval = ack;
+      Serial.printf("🎚️  ACK cada %d fragmentos (confirmado por RX)\n", ack);
+    } else {
+      // El RX pudo cambiar aunque se perdiera su confirmación: volver al anterior
+      Serial.println("⚠️  RX no confirmó el cambio de intervalo");
+      sendLinkConfig(ackInterval);
+    }
+  }
+  
+  sendResponse("LINK_SET:" + String(ackInterval) + ":" + String(txMaxRetries));
+}
+
 // ════════════════════════════════════════════════════════════════════════
 // 📡 LORA TX - ENVIAR ARCHIVO
 // ════════════════════════════════════════════════════════════════════════
@@ -925,6 +2149,14 @@ bool sendFileViaLoRa(const char* path) {
   uint16_t totalChunks = (totalSize + CHUNK_SIZE_LORA - 1) / CHUNK_SIZE_LORA;
   Serial.printf("📦 Total fragmentos: %u\n\n", totalChunks);
   
+  unsigned long telemetryStart = micros();
+  
+  // Intervalo de ACK y reintentos de este archivo (CMD:SET_LINK los ajusta)
+  int ackInterval = currentACKInterval;
+  txMaxRetries = MAX_RETRIES;
+  pendingACKInterval = 0;
+  pendingMaxRetries = 0;
+  
   for (uint16_t index = 0; index < totalChunks; index++) {
     uint8_t buffer[CHUNK_SIZE_LORA];
     size_t bytesRead = f.read(buffer, CHUNK_SIZE_LORA);
@@ -933,7 +2165,7 @@ bool sendFileViaLoRa(const char* path) {
     bool success = false;
     int retries = 0;
 
-    while (!success && retries < MAX_RETRIES) {
+    while (!success && retries < txMaxRetries) {
       // Crear paquete: índice(2) + total(2) + datos
       uint8_t pkt[4 + bytesRead];
       memcpy(pkt, &index, 2);
@@ -952,45 +2184,18 @@ bool sendFileViaLoRa(const char* path) {
       totalLoRaPacketsSent++;
       
       bool isLast = (index + 1 == totalChunks);
-      bool needACK = ((index + 1) % currentACKInterval == 0);
+      bool needACK = ((index + 1) % ackInterval == 0);
       
       // ═══════════════════════════════════════════════════════════
       // 3. ESPERAR ACK SI ES NECESARIO
       // ═══════════════════════════════════════════════════════════
       
       if (needACK || isLast) {
-        delay(200);
-        receivingACK = true;
-        radio.setDio1Action(setFlag);
-        radio.startReceive();
-        
-        unsigned long start = millis();
-        bool validAck = false;
-        
-        while (millis() - start < getACKTimeout() && !validAck) {
-          if (ackReceived) {
-            ackReceived = false;
-            uint8_t ackBuf[20];
-            
-            if (radio.readData(ackBuf, sizeof(ackBuf)) == RADIOLIB_ERR_NONE) {
-              if (radio.getPacketLength() == 5 && 
-                  ackBuf[0] == 'A' && ackBuf[1] == 'C' && ackBuf[2] == 'K') {
-                uint16_t ackNum;
-                memcpy(&ackNum, ackBuf + 3, 2);
-                if (ackNum == index + 1) {
-                  validAck = true;
-                  success = true;
-                  Serial.printf("✅ ACK %u/%u recibido\n", index + 1, totalChunks);
-                }
-              }
-              if (!validAck) radio.startReceive();
-            }
-          }
-          delayMicroseconds(5000);
+        success = waitForACK(index + 1);
+        if (success) {
+          Serial.printf("✅ ACK %u/%u recibido\n", index + 1, totalChunks);
         }
         
-        receivingACK = false;
-        
         if (!success) {
           retries++;
           totalLoRaRetries++;
@@ -1001,8 +2206,12 @@ bool sendFileViaLoRa(const char* path) {
         success = true;
       }
       
-      // Notificar progreso por BLE
-      if (success && (index + 1) % 10 == 0) {
+      // Notificar progreso por BLE (RSSI/SNR del último ACK)
+      if (success && telemetryEnabled) {
+        sendTelemetry(TELEMETRY_KIND_TX, index, totalChunks,
+                      (uint32_t)index * CHUNK_SIZE_LORA + bytesRead,
+                      totalLoRaRetries, telemetryStart, isLast);
+      } else if (success && (index + 1) % 10 == 0) {
         uint8_t progress = ((index + 1) * 100) / totalChunks;
         sendProgress(progress);
         
@@ -1015,9 +2224,15 @@ bool sendFileViaLoRa(const char* path) {
     if (!success) {
       f.close();
       Serial.printf("❌ Fallo en fragmento %u después de %d reintentos\n", 
-                   index + 1, MAX_RETRIES);
+                   index + 1, txMaxRetries);
       return false;
     }
+    
+    // Fin de ventana (ACK recibido): aplicar lo pedido por el teléfono
+    if ((index + 1) % ackInterval == 0 && index + 1 < totalChunks &&
+        (pendingACKInterval > 0 || pendingMaxRetries > 0)) {
+      applyLinkParams(ackInterval);
+    }
 
     delay(getInterPacketDelay());
   }
@@ -1067,6 +2282,39 @@ size_t decodeBase64(String input, uint8_t* output, size_t maxLen) {
   return outputLen;
 }
 
+// ════════════════════════════════════════════════════════════════════════
+// 🛑 UPLOAD BLE - CANCELAR
+// ════════════════════════════════════════════════════════════════════════
+
+// La app descarta la subida si una escritura no se confirma: el chunk
+// pudo llegar o no, así que el archivo a medias no sirve
+void abortUpload() {
+  if (currentState != STATE_UPLOADING) {
+    sendResponse("ERROR:NOT_UPLOADING");
+    return;
+  }
+  
+  discardTransfer();
+  sendResponse("OK:UPLOAD_ABORTED");
+}
+
+// Cerrar la transferencia en curso y borrar lo que quede a medias
+void discardTransfer() {
+  if (currentFile) currentFile.close();
+  
+  if (batchActive) {
+    discardBatchFiles();
+  } else if (currentState == STATE_UPLOADING && !rangeUpload &&
+             LittleFS.exists(currentFilename)) {
+    // Sólo una subida nueva (UPLOAD_START); una reparación de rango
+    // deja el archivo como estaba para volver a verificarlo
+    LittleFS.remove(currentFilename);
+    Serial.println("🗑️  Archivo incompleto eliminado");
+  }
+  
+  resetTransferState();
+}
+
 // ════════════════════════════════════════════════════════════════════════
 // 🔄 RESETEAR ESTADO DE TRANSFERENCIA BLE
 // ════════════════════════════════════════════════════════════════════════
@@ -1080,4 +2328,12 @@ void resetTransferState() {
   transferredBytes = 0;
   expectedChunks = 0;
   receivedChunks = 0;
+  rangeUpload = false;
+  
+  batchActive = false;
+  batchTableParsed = false;
+  batchHeaderReceived = 0;
+  batchCount = 0;
+  batchIndex = 0;
+  batchRemaining = 0;
 }
\ No newline at end of file
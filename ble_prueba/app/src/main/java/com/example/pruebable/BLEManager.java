@@ -9,21 +9,26 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * ════════════════════════════════════════════════════════════════════════
@@ -36,6 +41,10 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * - Lectura y escritura de características
  * - Notificaciones de datos recibidos
  * - Cola de comandos para evitar saturación
+ * - Ritmo, ventana, chunk y prioridad según el enlace (BleLinkTuner)
+ * - Transport para FileManager: una trama = un comando terminado en \n
+ * - Canal L2CAP CoC para datos masivos si el Heltec publica un PSM
+ * - Peticiones con ID y futuro (RequestTracker): varias en vuelo
  * - Reconexión automática
  * - Manejo robusto de errores
  *
@@ -43,7 +52,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * @date 2025-01-21
  * @version 2.0
  */
-public class BLEManager {
+public class BLEManager implements Transport {
 
     private static final String TAG = "BLEManager";
 
@@ -63,15 +72,34 @@ public class BLEManager {
     private static final UUID PROGRESS_UUID =
             UUID.fromString("beb5483e-36e1-4688-b7f5-ea07361b26aa");
 
+    // PSM del canal L2CAP de datos (uint16 little endian, solo lectura;
+    // firmware sin canal no tiene esta característica)
+    private static final UUID PSM_UUID =
+            UUID.fromString("beb5483e-36e1-4688-b7f5-ea07361b26ab");
+
     // Descriptor para habilitar notificaciones
     private static final UUID CCCD_UUID =
             UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
     // Configuración
     private static final int MAX_MTU = 517; // MTU máximo solicitado
-    private static final int WRITE_DELAY = 50; // Delay entre escrituras (ms)
     private static final int RECONNECT_DELAY = 3000; // Delay para reconexión (ms)
     private static final int MAX_RECONNECT_ATTEMPTS = 3;
+    private static final long QUEUE_PUT_TIMEOUT = 30000; // Espera máxima por sitio en la cola (ms)
+    private static final int RSSI_INTERVAL = 1000; // Lectura de RSSI durante transferencias (ms)
+    private static final int ACTIVITY_WINDOW = 3000; // Tráfico reciente que cuenta como transferencia (ms)
+    private static final int PSM_READ_DELAY = 300; // Tras habilitar notificaciones (ms)
+    private static final int PSM_READ_ATTEMPTS = 3;
+    private static final long REQUEST_TIMEOUT = 5000; // Respuesta completa a una petición (ms)
+    private static final long WRITE_CONFIRM_TIMEOUT = 2000; // Espera por onCharacteristicWrite (ms)
+    private static final int MAX_WRITE_RETRIES = 10; // Reintentos de un comando que el stack no aceptó
+    private static final int WRITE_RETRY_DELAY = 20; // Pausa extra por reintento (ms)
+    private static final int WRITE_ROUND_TRIP = 30; // Escritura con respuesta estimada (ms)
+
+    // Resultado de writeCharacteristic
+    private static final int WRITE_STARTED = 0;
+    private static final int WRITE_RETRY = 1;
+    private static final int WRITE_DROPPED = 2;
 
     // ════════════════════════════════════════════════════════════════════
     // 🌐 VARIABLES DE INSTANCIA
@@ -90,22 +118,83 @@ public class BLEManager {
     private BluetoothGattCharacteristic cmdCharacteristic;
     private BluetoothGattCharacteristic dataCharacteristic;
     private BluetoothGattCharacteristic progressCharacteristic;
+    private BluetoothGattCharacteristic psmCharacteristic;
+
+    // Plano de datos L2CAP (null = todo por GATT)
+    private volatile BleL2capChannel l2capChannel;
+    private int psmReadAttempts;
 
     // Estado de conexión
     private boolean isConnected = false;
     private boolean isConnecting = false;
     private int reconnectAttempts = 0;
 
-    // Cola de comandos
-    private Queue<String> commandQueue = new ConcurrentLinkedQueue<>();
-    private boolean isWriting = false;
+    // Cola de comandos: acotada, PING/GET_LORA_CONFIG antes que la sesión (ver CommandQueue)
+    private final CommandQueue commandQueue =
+            new CommandQueue(CommandQueue.DEFAULT_BULK_CAPACITY);
+    private volatile boolean isWriting = false;
+
+    // Comando escrito y aún sin onCharacteristicWrite (solo vuelve a la
+    // cola si el stack no lo aceptó: si salió, reenviarlo duplicaría un chunk)
+    private String inFlightCommand;
+    private int writeRetries = 0;
+
+    // Escrituras dadas por perdidas cuya confirmación aún debe el stack
+    private int staleConfirmations = 0;
+
+    // Ajuste según el enlace: RSSI + fallos de escritura + retransmisiones
+    private final BleLinkTuner linkTuner = new BleLinkTuner(this::onLinkLevelChanged);
+    private volatile long lastActivity;
+
+    // Muestras de RSSI desde resetRssiAverage() (para el historial)
+    private int rssiSum = 0;
+    private int rssiSamples = 0;
+
+    // Encola en orden los comandos que no cupieron (sendCommandAsync)
+    private final ExecutorService enqueueExecutor = Executors.newSingleThreadExecutor();
+
+    // Peticiones con ID en vuelo (request), resueltas por su respuesta
+    private final RequestTracker requests = new RequestTracker();
 
     // Buffer para datos recibidos
     private StringBuilder dataBuffer = new StringBuilder();
 
+    // Receptor de tramas de Transport (hilo BLE, antes que el callback)
+    private volatile Transport.Sink sink;
+
+    // Cookie de la sección de traza de la escritura GATT en vuelo
+    private volatile int writeCookie;
+
     // Handler para operaciones asíncronas
     private Handler handler = new Handler(Looper.getMainLooper());
 
+    // Progreso (PROGRESS_UUID) coalescido: como mucho un post pendiente,
+    // que entrega el último porcentaje recibido
+    private volatile int latestProgress;
+    private final AtomicBoolean progressPosted = new AtomicBoolean(false);
+    private final Runnable deliverProgress = () -> {
+        progressPosted.set(false);
+        if (callback != null) {
+            callback.onProgress(latestProgress);
+        }
+    };
+
+    // Telemetría binaria (LoRaTelemetry), coalescida igual que el progreso:
+    // el hilo BLE decodifica en latestTelemetry y el principal copia a
+    // deliveredTelemetry antes de entregarla (sin objetos por notificación)
+    private final LoRaTelemetry latestTelemetry = new LoRaTelemetry();
+    private final LoRaTelemetry deliveredTelemetry = new LoRaTelemetry();
+    private final AtomicBoolean telemetryPosted = new AtomicBoolean(false);
+    private final Runnable deliverTelemetry = () -> {
+        telemetryPosted.set(false);
+        synchronized (latestTelemetry) {
+            deliveredTelemetry.copyFrom(latestTelemetry);
+        }
+        if (callback != null) {
+            callback.onTelemetry(deliveredTelemetry);
+        }
+    };
+
     // ════════════════════════════════════════════════════════════════════
     // 📞 INTERFACE DE CALLBACKS
     // ════════════════════════════════════════════════════════════════════
@@ -136,6 +225,13 @@ public class BLEManager {
          */
         void onProgress(int percentage);
 
+        /**
+         * Se llamó cuando llega un registro de telemetría binaria
+         * @param telemetry Registro reutilizado: copiar lo que se quiera guardar
+         */
+        default void onTelemetry(LoRaTelemetry telemetry) {
+        }
+
         /**
          * Se llamó cuando ocurre un error
          * @param error Mensaje de error
@@ -247,9 +343,14 @@ public class BLEManager {
         isConnecting = false;
         reconnectAttempts = MAX_RECONNECT_ATTEMPTS; // Prevenir reconexión
 
-        // Limpiar cola de comandos
-        commandQueue.clear();
+        // Limpiar cola de comandos (despierta a productores bloqueados)
+        commandQueue.close();
+        handler.removeCallbacks(writeDelayElapsed);
+        handler.removeCallbacks(writeTimedOut);
+        handler.removeCallbacks(pollRssi);
         isWriting = false;
+        inFlightCommand = null;
+        staleConfirmations = 0;
 
         // Desconectar GATT
         if (bluetoothGatt != null) {
@@ -267,10 +368,14 @@ public class BLEManager {
             bluetoothGatt = null;
         }
 
+        closeL2cap("Desconectado");
+        requests.failAll("Desconectado");
+
         // Limpiar características
         cmdCharacteristic = null;
         dataCharacteristic = null;
         progressCharacteristic = null;
+        psmCharacteristic = null;
 
         Log.d(TAG, "✅ Desconectado");
     }
@@ -291,14 +396,103 @@ public class BLEManager {
             return;
         }
 
-        Log.d(TAG, "📤 Encolando comando: " + command);
+        TransferLog.d(TAG, "📤 Encolando comando: {}", command);
+
+        // El hilo principal vacía la cola: nunca bloquearlo
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            if (!commandQueue.offer(command)) {
+                Log.w(TAG, "⚠️ Cola llena, encolando en segundo plano");
+                sendCommandAsync(command);
+                return;
+            }
+        } else {
+            // Productores en segundo plano: esperan sitio (contrapresión)
+            try {
+                if (!commandQueue.put(command, QUEUE_PUT_TIMEOUT)) {
+                    Log.w(TAG, "⚠️ Comando descartado (cola cerrada o llena)");
+                    TransferLog.event(TransferLog.EV_ERROR, commandQueue.size(), command.length());
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
 
-        // Agregar a cola
-        commandQueue.offer(command);
+        onCommandQueued(command);
+    }
 
-        // Procesar cola si no está escribiendo
+    /**
+     * Enviar comando sin bloquear nunca al llamador
+     *
+     * @return Futuro que se completa con true cuando el comando entra en
+     *         la cola, o false si se descartó (desconexión o timeout)
+     */
+    public CompletableFuture<Boolean> sendCommandAsync(String command) {
+        if (!isConnected) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (commandQueue.offer(command)) {
+            onCommandQueued(command);
+            return CompletableFuture.completedFuture(true);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (commandQueue.put(command, QUEUE_PUT_TIMEOUT)) {
+                    onCommandQueued(command);
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }, enqueueExecutor);
+    }
+
+    /**
+     * Enviar un comando como petición con ID: su respuesta (todas las
+     * líneas hasta la final) resuelve el futuro y no pasa por
+     * onDataReceived
+     *
+     * @param lastPrefix Prefijo de la línea final ("FILES_END"); null si
+     *                   la respuesta es una sola línea
+     * @return Líneas sin ID; falla con RequestTracker.ErrorResponse
+     *         ("ERROR:..."), TimeoutException o IOException (desconexión).
+     *         cancel() deja de esperar la respuesta
+     */
+    public CompletableFuture<List<String>> request(String command, String lastPrefix) {
+        return request(command, lastPrefix, REQUEST_TIMEOUT);
+    }
+
+    public CompletableFuture<List<String>> request(String command, String lastPrefix,
+                                                   long timeoutMs) {
+        if (!isConnected) {
+            CompletableFuture<List<String>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException("No conectado"));
+            return failed;
+        }
+
+        RequestTracker.Request request = requests.register(command, lastPrefix, timeoutMs);
+        sendCommand(request.taggedCommand);
+        return request.future;
+    }
+
+    /**
+     * @return Comandos en espera (control + datos)
+     */
+    public int getQueueSize() {
+        return commandQueue.size();
+    }
+
+    private void onCommandQueued(String command) {
+        int depth = commandQueue.size();
+        TransferLog.event(TransferLog.EV_CMD_QUEUED, depth, command.length());
+        TransferTrace.queueDepth(depth);
+
+        // Procesar cola si no está escribiendo (siempre en el hilo principal)
         if (!isWriting) {
-            processCommandQueue();
+            handler.post(drainQueue);
         }
     }
 
@@ -307,33 +501,142 @@ public class BLEManager {
     // ════════════════════════════════════════════════════════════════════
 
     /**
-     * Procesa la cola de comandos uno por uno con delay
+     * Procesa la cola de comandos de uno en uno: la siguiente escritura
+     * sale cuando el stack confirma la anterior (onCharacteristicWrite),
+     * más la pausa del nivel del enlace
      */
+    private final Runnable drainQueue = this::processCommandQueue;
+
+    private final Runnable writeDelayElapsed = () -> {
+        isWriting = false;
+        processCommandQueue();
+    };
+
+    // Sin confirmación del stack: la escritura pudo llegar, no se reenvía
+    // y su confirmación tardía no cuenta para la siguiente
+    private final Runnable writeTimedOut = () -> {
+        Log.w(TAG, "⚠️ Escritura sin confirmar en " + WRITE_CONFIRM_TIMEOUT + " ms");
+        staleConfirmations++;
+        onWriteFailed();
+    };
+
     private void processCommandQueue() {
-        if (commandQueue.isEmpty() || isWriting) {
+        if (isWriting || commandQueue.isEmpty()) {
             return;
         }
 
         String command = commandQueue.poll();
         if (command == null) return;
+        TransferTrace.queueDepth(commandQueue.size());
 
         isWriting = true;
+        lastActivity = SystemClock.uptimeMillis();
 
-        Log.d(TAG, "✍️ Escribiendo comando: " + command);
+        TransferLog.v(TAG, "✍️ Escribiendo comando");
 
         // Agregar \n al final
         if (!command.endsWith("\n")) {
             command += "\n";
         }
 
-        // Escribir a característica
-        writeCharacteristic(command);
+        inFlightCommand = command;
+        int result = writeCharacteristic(command);
 
-        // Esperar antes del siguiente comando
-        handler.postDelayed(() -> {
+        if (result == WRITE_STARTED) {
+            handler.postDelayed(writeTimedOut, WRITE_CONFIRM_TIMEOUT);
+        } else if (result == WRITE_RETRY) {
+            retryWrite();
+        } else {
+            // Sin GATT o sin permiso: no tiene sentido reintentar
+            inFlightCommand = null;
             isWriting = false;
-            processCommandQueue();
-        }, WRITE_DELAY);
+        }
+    }
+
+    /**
+     * onCharacteristicWrite (hilo principal): la siguiente escritura sale
+     * tras la pausa del nivel del enlace
+     */
+    private void onWriteConfirmed(boolean success) {
+        if (staleConfirmations > 0) {
+            // Llega tarde la de una escritura que ya se dio por perdida
+            staleConfirmations--;
+            Log.w(TAG, "⚠️ Confirmación tardía ignorada");
+            return;
+        }
+        if (!isWriting || inFlightCommand == null) return;
+
+        handler.removeCallbacks(writeTimedOut);
+        if (!success) {
+            onWriteFailed();
+            return;
+        }
+
+        inFlightCommand = null;
+        writeRetries = 0;
+        scheduleNextWrite(linkTuner.getWriteDelay());
+    }
+
+    /**
+     * El stack no aceptó la escritura (ocupado o fallo local): no salió
+     * del teléfono, así que vuelve a la cabeza de la cola
+     */
+    private void retryWrite() {
+        String command = inFlightCommand;
+        inFlightCommand = null;
+        int delay = linkTuner.getWriteDelay();
+
+        if (command != null && writeRetries < MAX_WRITE_RETRIES) {
+            writeRetries++;
+            commandQueue.pushFront(command);
+            delay = Math.max(delay, WRITE_RETRY_DELAY * writeRetries);
+        } else if (command != null) {
+            Log.e(TAG, "❌ Comando descartado tras " + writeRetries + " reintentos");
+            writeRetries = 0;
+            dropCommand(command, "escritura GATT descartada");
+        }
+
+        scheduleNextWrite(delay);
+    }
+
+    /**
+     * La escritura salió pero no se confirmó (timeout o status de error):
+     * el Heltec pudo recibirla y CMD:UPLOAD_CHUNK se añade sin índice, así
+     * que no se reenvía
+     */
+    private void onWriteFailed() {
+        String command = inFlightCommand;
+        inFlightCommand = null;
+        writeRetries = 0;
+
+        if (command != null) {
+            dropCommand(command, "escritura GATT sin confirmar");
+        }
+        scheduleNextWrite(linkTuner.getWriteDelay());
+    }
+
+    /**
+     * Un comando perdido o quizá duplicado; si era un chunk, el archivo ya
+     * no sirve: se cancela la subida aquí (la cola rechaza el resto de
+     * chunks y FileManager falla) y en el Heltec (borra el archivo a medias)
+     */
+    private void dropCommand(String command, String reason) {
+        TransferLog.event(TransferLog.EV_ERROR, commandQueue.size(), command.length());
+        TransferLog.dump(reason);
+        if (!CommandQueue.isBulk(command)) return;
+
+        int dropped = commandQueue.abortSession();
+        Log.e(TAG, "❌ Subida cancelada: " + reason + " (" + dropped + " comandos descartados)");
+        request("CMD:UPLOAD_ABORT", null).whenComplete((lines, error) -> {
+            if (error != null) {
+                Log.w(TAG, "⚠️ UPLOAD_ABORT: " + error.getMessage());
+            }
+        });
+    }
+
+    private void scheduleNextWrite(int delay) {
+        handler.removeCallbacks(writeDelayElapsed);
+        handler.postDelayed(writeDelayElapsed, delay);
     }
 
     // ════════════════════════════════════════════════════════════════════
@@ -344,11 +647,13 @@ public class BLEManager {
      * Escribe datos a la característica CMD_WRITE
      *
      * @param data Datos a escribir
+     * @return WRITE_STARTED (esperar onCharacteristicWrite), WRITE_RETRY
+     *         (stack ocupado o fallo: reintentar) o WRITE_DROPPED
      */
-    private void writeCharacteristic(String data) {
+    private int writeCharacteristic(String data) {
         if (cmdCharacteristic == null || bluetoothGatt == null) {
             Log.e(TAG, "❌ Característica o GATT no disponibles");
-            return;
+            return WRITE_DROPPED;
         }
 
         // Verificar permisos
@@ -357,10 +662,11 @@ public class BLEManager {
                     android.Manifest.permission.BLUETOOTH_CONNECT)
                     != PackageManager.PERMISSION_GRANTED) {
                 Log.e(TAG, "❌ Sin permiso BLUETOOTH_CONNECT");
-                return;
+                return WRITE_DROPPED;
             }
         }
 
+        TransferTrace.begin(TransferTrace.GATT_WRITE);
         try {
             byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
 
@@ -372,8 +678,14 @@ public class BLEManager {
                         BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
                 );
 
-                if (result != BluetoothGatt.GATT_SUCCESS) {
+                if (result != BluetoothStatusCodes.SUCCESS) {
                     Log.e(TAG, "❌ Error escribiendo (nuevo): " + result);
+                    TransferLog.event(TransferLog.EV_WRITE_FAILED, bytes.length, result);
+                    if (result != BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY) {
+                        TransferLog.dump("escritura GATT fallida");
+                    }
+                    linkTuner.onWrite(false);
+                    return WRITE_RETRY;
                 }
             } else {
                 // Android 12 y anteriores
@@ -383,13 +695,23 @@ public class BLEManager {
 
                 if (!success) {
                     Log.e(TAG, "❌ Error escribiendo (legacy)");
+                    TransferLog.event(TransferLog.EV_WRITE_FAILED, bytes.length, -1);
+                    linkTuner.onWrite(false);
+                    return WRITE_RETRY;
                 }
             }
 
-            Log.d(TAG, "✅ Comando escrito: " + data.trim() + " (" + bytes.length + " bytes)");
+            TransferLog.event(TransferLog.EV_CMD_WRITTEN, bytes.length, BluetoothGatt.GATT_SUCCESS);
+            TransferTrace.writeSubmitted(bytes.length);
+            writeCookie = TransferTrace.beginAsync(TransferTrace.GATT_IN_FLIGHT);
+            TransferLog.d(TAG, "✅ Comando escrito ({} bytes)", bytes.length);
+            return WRITE_STARTED;
 
         } catch (Exception e) {
             Log.e(TAG, "❌ Excepción escribiendo: " + e.getMessage());
+            return WRITE_RETRY;
+        } finally {
+            TransferTrace.end();
         }
     }
 
@@ -412,6 +734,8 @@ public class BLEManager {
                 }
             }
 
+            TransferLog.event(TransferLog.EV_CONNECTION, newState, status);
+
             if (newState == BluetoothProfile.STATE_CONNECTED) {
                 Log.d(TAG, "🟢 Conectado a GATT (status: " + status + ")");
 
@@ -425,8 +749,25 @@ public class BLEManager {
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 Log.d(TAG, "🔴 Desconectado de GATT (status: " + status + ")");
 
+                // Desconexión inesperada: volcar lo último que pasó
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    TransferLog.dump("desconexión, status " + status);
+                }
+
                 isConnected = false;
                 isConnecting = false;
+                commandQueue.close();
+                handler.post(() -> {
+                    handler.removeCallbacks(writeDelayElapsed);
+                    handler.removeCallbacks(writeTimedOut);
+                    isWriting = false;
+                    inFlightCommand = null;
+                    staleConfirmations = 0;
+                });
+                handler.removeCallbacks(pollRssi);
+                closeL2cap("GATT desconectado");
+                requests.failAll("GATT desconectado");
+                TransferTrace.reset();
 
                 // Notificar desconexión
                 if (callback != null) {
@@ -458,6 +799,7 @@ public class BLEManager {
          */
         @Override
         public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            TransferLog.event(TransferLog.EV_MTU, mtu, status);
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 Log.d(TAG, "✅ MTU cambiado a: " + mtu);
             } else {
@@ -502,6 +844,7 @@ public class BLEManager {
                 cmdCharacteristic = service.getCharacteristic(CMD_WRITE_UUID);
                 dataCharacteristic = service.getCharacteristic(DATA_READ_UUID);
                 progressCharacteristic = service.getCharacteristic(PROGRESS_UUID);
+                psmCharacteristic = service.getCharacteristic(PSM_UUID);
 
                 if (cmdCharacteristic == null || dataCharacteristic == null) {
                     Log.e(TAG, "❌ Características no encontradas");
@@ -524,8 +867,20 @@ public class BLEManager {
                 }
 
                 // Marcar como conectado
+                commandQueue.open();
                 isConnected = true;
 
+                // Enlace nuevo: parámetros por defecto y muestreo de RSSI
+                linkTuner.reset();
+                handler.post(BLEManager.this::applyLinkLevel);
+                handler.postDelayed(pollRssi, RSSI_INTERVAL);
+
+                // Canal L2CAP de datos (tras las escrituras de los CCCD)
+                if (psmCharacteristic != null) {
+                    psmReadAttempts = 0;
+                    handler.postDelayed(() -> readPsm(gatt), PSM_READ_DELAY);
+                }
+
                 // Notificar conexión exitosa
                 if (callback != null) {
                     handler.post(() -> callback.onConnected());
@@ -547,8 +902,20 @@ public class BLEManager {
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic) {
+            TransferTrace.begin(TransferTrace.NOTIFY);
+            try {
+                handleNotification(characteristic);
+            } finally {
+                TransferTrace.end();
+            }
+        }
 
+        /**
+         * Procesar una notificación (DATA_READ o PROGRESS)
+         */
+        private void handleNotification(BluetoothGattCharacteristic characteristic) {
             UUID uuid = characteristic.getUuid();
+            lastActivity = SystemClock.uptimeMillis();
 
             // Datos recibidos (DATA_READ)
             if (DATA_READ_UUID.equals(uuid)) {
@@ -562,6 +929,8 @@ public class BLEManager {
                 }
 
                 if (data != null && data.length > 0) {
+                    TransferLog.event(TransferLog.EV_NOTIFY, data.length, 0);
+                    TransferTrace.bytesReceived(data.length);
                     String received = new String(data, StandardCharsets.UTF_8);
 
                     // Acumular datos en buffer
@@ -572,12 +941,7 @@ public class BLEManager {
                         String completeMessage = dataBuffer.toString().trim();
                         dataBuffer.setLength(0); // Limpiar buffer
 
-                        Log.d(TAG, "📥 Datos recibidos: " + completeMessage);
-
-                        if (callback != null) {
-                            final String msg = completeMessage;
-                            handler.post(() -> callback.onDataReceived(msg));
-                        }
+                        deliverMessage(completeMessage);
                     }
                 }
             }
@@ -592,17 +956,78 @@ public class BLEManager {
                     data = characteristic.getValue();
                 }
 
-                if (data != null && data.length > 0) {
+                if (data != null && data.length >= LoRaTelemetry.SIZE) {
+                    boolean valid;
+                    synchronized (latestTelemetry) {
+                        valid = latestTelemetry.decode(data);
+                    }
+                    TransferLog.event(TransferLog.EV_PROGRESS, data[4] & 0xFF | (data[5] & 0xFF) << 8,
+                            data.length);
+                    if (valid && callback != null && telemetryPosted.compareAndSet(false, true)) {
+                        handler.post(deliverTelemetry);
+                    }
+                } else if (data != null && data.length == 1) {
+                    // Formato antiguo: un byte de porcentaje
                     int percentage = data[0] & 0xFF; // Convertir a unsigned
 
-                    Log.d(TAG, "📊 Progreso: " + percentage + "%");
-
-                    if (callback != null) {
-                        handler.post(() -> callback.onProgress(percentage));
+                    TransferLog.event(TransferLog.EV_PROGRESS, percentage, 0);
+                    latestProgress = percentage;
+                    if (callback != null && progressPosted.compareAndSet(false, true)) {
+                        handler.post(deliverProgress);
                     }
                 }
             }
         }
+        /**
+         * Escritura GATT confirmada por el stack
+         */
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic,
+                                          int status) {
+            TransferTrace.endAsync(TransferTrace.GATT_IN_FLIGHT, writeCookie);
+            TransferTrace.writeCompleted();
+            boolean success = status == BluetoothGatt.GATT_SUCCESS;
+            linkTuner.onWrite(success);
+
+            // La siguiente escritura sale de aquí, no de un temporizador fijo
+            if (CMD_WRITE_UUID.equals(characteristic.getUuid())) {
+                handler.post(() -> onWriteConfirmed(success));
+            }
+        }
+
+        /**
+         * RSSI leído (pollRssi)
+         */
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                linkTuner.onRssi(rssi);
+                addRssiSample(rssi);
+            }
+        }
+
+        /**Característica leída (PSM del canal L2CAP)*/
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                                         BluetoothGattCharacteristic characteristic,
+                                         byte[] value, int status) {
+            if (PSM_UUID.equals(characteristic.getUuid())) {
+                onPsmRead(status == BluetoothGatt.GATT_SUCCESS ? value : null);
+            }
+        }
+
+        /**Característica leída (Android 12)*/
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                                         BluetoothGattCharacteristic characteristic,
+                                         int status) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) return;
+            if (PSM_UUID.equals(characteristic.getUuid())) {
+                onPsmRead(status == BluetoothGatt.GATT_SUCCESS ? characteristic.getValue() : null);
+            }
+        }
+
         /**Descriptor escrito (para habilitar notificaciones)*/
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt,
@@ -670,6 +1095,244 @@ public class BLEManager {
         }
     }
 
+    // ════════════════════════════════════════════════════════════════════
+    // 📶 AJUSTE SEGÚN EL ENLACE
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Leer el RSSI mientras hay tráfico (se reprograma solo)
+     */
+    private final Runnable pollRssi = new Runnable() {
+        @Override
+        public void run() {
+            if (!isConnected || bluetoothGatt == null) return;
+
+            if (SystemClock.uptimeMillis() - lastActivity < ACTIVITY_WINDOW) {
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S ||
+                        ActivityCompat.checkSelfPermission(context,
+                                android.Manifest.permission.BLUETOOTH_CONNECT)
+                                == PackageManager.PERMISSION_GRANTED) {
+                    bluetoothGatt.readRemoteRssi();
+                }
+            }
+            handler.postDelayed(this, RSSI_INTERVAL);
+        }
+    };
+
+    private synchronized void addRssiSample(int dbm) {
+        rssiSum += dbm;
+        rssiSamples++;
+    }
+
+    /**
+     * Empezar a promediar el RSSI de una transferencia
+     */
+    public synchronized void resetRssiAverage() {
+        rssiSum = 0;
+        rssiSamples = 0;
+    }
+
+    /**
+     * @return RSSI promedio (dBm) desde resetRssiAverage() o null sin muestras
+     */
+    public synchronized Integer getAverageRssi() {
+        return rssiSamples > 0 ? Math.round((float) rssiSum / rssiSamples) : null;
+    }
+
+    private void onLinkLevelChanged(int level) {
+        handler.post(this::applyLinkLevel);
+    }
+
+    /**
+     * Aplicar ventana y prioridad de conexión del nivel actual
+     * (el ritmo y el chunk se leen del tuner en cada uso)
+     */
+    private void applyLinkLevel() {
+        commandQueue.setBulkCapacity(linkTuner.getBulkWindow());
+
+        if (bluetoothGatt == null) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            if (ActivityCompat.checkSelfPermission(context,
+                    android.Manifest.permission.BLUETOOTH_CONNECT)
+                    != PackageManager.PERMISSION_GRANTED) {
+                return;
+            }
+        }
+        bluetoothGatt.requestConnectionPriority(linkTuner.getConnectionPriority());
+        Log.d(TAG, "📶 Enlace " + linkTuner.getLevelName() + ": " +
+                linkTuner.getWriteDelay() + " ms tras escritura, ventana " +
+                linkTuner.getBulkWindow() + ", chunk " + linkTuner.getChunkSize() + " B");
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📥 ENTREGA DE MENSAJES (GATT y L2CAP)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Un mensaje completo del Heltec: al Sink en este hilo y al callback
+     * en el hilo principal
+     */
+    private void deliverMessage(String message) {
+        TransferLog.event(TransferLog.EV_MESSAGE, message.length(), 0);
+        TransferLog.d(TAG, "📥 Datos recibidos: {}", message);
+
+        // Respuesta a una petición con ID: la resuelve RequestTracker
+        if (requests.onLine(message)) {
+            return;
+        }
+
+        Transport.Sink frameSink = sink;
+        if (frameSink != null) {
+            frameSink.onFrame(message.getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (callback != null) {
+            final int cookie = TransferTrace.beginAsync(TransferTrace.UI_POST);
+            handler.post(() -> {
+                TransferTrace.endAsync(TransferTrace.UI_POST, cookie);
+                callback.onDataReceived(message);
+            });
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🚀 CANAL L2CAP (datos masivos)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Leer el PSM (reintenta si el stack está ocupado con otra operación)
+     */
+    private void readPsm(BluetoothGatt gatt) {
+        if (!isConnected || psmCharacteristic == null || gatt != bluetoothGatt) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S &&
+                ActivityCompat.checkSelfPermission(context,
+                        android.Manifest.permission.BLUETOOTH_CONNECT)
+                        != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+
+        if (!gatt.readCharacteristic(psmCharacteristic) &&
+                ++psmReadAttempts < PSM_READ_ATTEMPTS) {
+            handler.postDelayed(() -> readPsm(gatt), PSM_READ_DELAY);
+        }
+    }
+
+    private void onPsmRead(byte[] value) {
+        if (value == null || value.length < 2) {
+            Log.w(TAG, "⚠️ PSM no disponible: datos por GATT");
+            return;
+        }
+
+        int psm = (value[0] & 0xFF) | (value[1] & 0xFF) << 8;
+        if (psm == 0) {
+            Log.d(TAG, "📡 El Heltec no ofrece canal L2CAP: datos por GATT");
+            return;
+        }
+
+        BluetoothDevice device = bluetoothDevice;
+        new Thread(() -> openL2cap(device, psm), "L2capConnect").start();
+    }
+
+    /**
+     * Conectar el socket CoC (bloqueante, hilo propio)
+     */
+    private void openL2cap(BluetoothDevice device, int psm) {
+        try {
+            BleL2capChannel channel = new BleL2capChannel(
+                    device.createInsecureL2capChannel(psm), psm, this::onL2capClosed);
+            channel.setSink(frame ->
+                    deliverMessage(new String(frame, StandardCharsets.UTF_8).trim()));
+            channel.connect();
+
+            if (!isConnected) {
+                channel.close("GATT desconectado");
+                return;
+            }
+            l2capChannel = channel;
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "⚠️ No se pudo abrir L2CAP (PSM " + psm + "): " + e.getMessage() +
+                    "; datos por GATT");
+        }
+    }
+
+    private void onL2capClosed(BleL2capChannel channel, String reason) {
+        if (l2capChannel == channel) {
+            l2capChannel = null;
+            Log.d(TAG, "📡 Datos de vuelta por GATT (" + reason + ")");
+        }
+    }
+
+    private void closeL2cap(String reason) {
+        BleL2capChannel channel = l2capChannel;
+        l2capChannel = null;
+        if (channel != null) {
+            channel.close(reason);
+        }
+    }
+
+    /**
+     * @return Enlace para chunks y datos masivos: el más rápido de los
+     *         abiertos (canal L2CAP o este BLEManager por GATT)
+     */
+    Transport getBulkTransport() {
+        Transport fastest = Transport.fastest(l2capChannel, this);
+        return fastest != null ? fastest : this;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔌 TRANSPORT
+    // ════════════════════════════════════════════════════════════════════
+
+    @Override
+    public String getName() {
+        return "BLE";
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isConnected;
+    }
+
+    /**
+     * @return Trama de un chunk del nivel de enlace actual (no el MTU ATT:
+     *         así el tamaño de chunk sigue lo que decide BleLinkTuner)
+     */
+    @Override
+    public int getMtu() {
+        return UploadSource.frameLength(linkTuner.getChunkSize());
+    }
+
+    @Override
+    public int getCredits() {
+        return commandQueue.bulkRemaining();
+    }
+
+    @Override
+    public long getEstimatedBytesPerSecond() {
+        // Cada escritura espera su confirmación (≈ dos intervalos de conexión) más la pausa
+        return linkTuner.getChunkSize() * 1000L / (WRITE_ROUND_TRIP + linkTuner.getWriteDelay());
+    }
+
+    @Override
+    public CompletableFuture<Boolean> send(byte[] frame) {
+        return sendCommandAsync(new String(frame, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendText(String command) {
+        return sendCommandAsync(command);
+    }
+
+    @Override
+    public void setSink(Transport.Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void onIntegrityCheck(long totalBytes, long resentBytes) {
+        linkTuner.onIntegrityCheck(totalBytes, resentBytes);
+    }
+
     // ════════════════════════════════════════════════════════════════════
     // 📊 GETTERS
     // ════════════════════════════════════════════════════════════════════
@@ -0,0 +1,236 @@
+package com.example.pruebable;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📦 BatchUpload - Varios Archivos en una Sola Subida BLE
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Empaqueta muchos archivos pequeños en un contenedor que el Heltec
+ * desempaqueta en LittleFS mientras llegan los chunks:
+ * - Un único CMD:BATCH_START, un único OK:BATCH_COMPLETE y un solo
+ *   listado al final (en vez de UPLOAD_START + 500 ms + LIST por archivo)
+ * - Los archivos se abren de uno en uno según se van enviando
+ *
+ * Formato (little endian):
+ *   'B' 'F' version(1) reservado(1) count(2) reservado(2)
+ *   count × [ nameLen(1) + nombre UTF-8 + size(4) ]
+ *   payloads concatenados en el mismo orden
+ *
+ * Comando: CMD:BATCH_START:tamañoTotal:count:tamañoCabecera
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class BatchUpload {
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    static final byte MAGIC_1 = 'B';
+    static final byte MAGIC_2 = 'F';
+    static final byte VERSION = 1;
+    static final int HEADER_FIXED_SIZE = 8;
+
+    // Límites del firmware (BATCH_MAX_FILES, nombres de LittleFS)
+    static final int MAX_FILES = 64;
+    static final int MAX_NAME_BYTES = 31;
+
+    // Tamaño máximo de un lote o de una subida individual (LittleFS típico)
+    static final long MAX_BATCH_BYTES = 1500000;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📋 ENTRADAS
+    // ════════════════════════════════════════════════════════════════════
+
+    static class Entry {
+        final Uri uri;
+        final String name;
+        final long size;
+
+        Entry(Uri uri, String name, long size) {
+            this.uri = uri;
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private long payloadSize = 0;
+
+    // ════════════════════════════════════════════════════════════════════
+    // ➕ AÑADIR ARCHIVOS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return null si se añadió, o el motivo por el que no cabe en el lote
+     */
+    String add(Uri uri, String name, long size) {
+        if (entries.size() >= MAX_FILES) {
+            return "máximo " + MAX_FILES + " archivos por lote";
+        }
+        if (name.indexOf('/') >= 0 ||
+                name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+            return "nombre no válido (máx " + MAX_NAME_BYTES + " bytes): " + name;
+        }
+        if (size < 0 || size > 0xFFFFFFFFL) {
+            return "tamaño desconocido: " + name;
+        }
+        if (!names.add(name)) {
+            return "nombre repetido: " + name;
+        }
+
+        entries.add(new Entry(uri, name, size));
+        payloadSize += size;
+        return null;
+    }
+
+    int getCount() {
+        return entries.size();
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📐 CABECERA
+    // ════════════════════════════════════════════════════════════════════
+
+    int headerSize() {
+        int size = HEADER_FIXED_SIZE;
+        for (Entry entry : entries) {
+            size += 1 + entry.name.getBytes(StandardCharsets.UTF_8).length + 4;
+        }
+        return size;
+    }
+
+    long totalSize() {
+        return headerSize() + payloadSize;
+    }
+
+    /**
+     * @return Comando que abre la sesión en el Heltec
+     */
+    String startCommand() {
+        return "CMD:BATCH_START:" + totalSize() + ":" + entries.size() + ":" + headerSize();
+    }
+
+    byte[] buildHeader() {
+        ByteBuffer header = ByteBuffer.allocate(headerSize()).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC_1).put(MAGIC_2).put(VERSION).put((byte) 0);
+        header.putShort((short) entries.size()).putShort((short) 0);
+
+        for (Entry entry : entries) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            header.put((byte) name.length).put(name);
+            header.putInt((int) entry.size);
+        }
+        return header.array();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📖 STREAM DEL CONTENEDOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Cabecera seguida de cada archivo; cada Uri se abre al llegar a él
+     * (para UploadSource)
+     */
+    InputStream openStream(Context context) {
+        Enumeration<InputStream> parts = new Enumeration<InputStream>() {
+            private int next = -1;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < entries.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (next++ < 0) {
+                    return new ByteArrayInputStream(buildHeader());
+                }
+                Entry entry = entries.get(next - 1);
+                try {
+                    InputStream input = context.getContentResolver().openInputStream(entry.uri);
+                    if (input == null) {
+                        throw new IOException("No se pudo abrir " + entry.name);
+                    }
+                    return new ExactLengthInputStream(input, entry);
+                } catch (IOException e) {
+                    // SequenceInputStream.read() lo propaga como excepción de lectura
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+
+        return new SequenceInputStream(parts) {
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                try {
+                    return super.read(buffer, off, len);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+    }
+
+    /**
+     * Entrega exactamente entry.size bytes: si el archivo cambió desde
+     * que se midió, el contenedor quedaría desalineado
+     */
+    private static class ExactLengthInputStream extends FilterInputStream {
+        private final Entry entry;
+        private long remaining;
+
+        ExactLengthInputStream(InputStream input, Entry entry) {
+            super(input);
+            this.entry = entry;
+            this.remaining = entry.size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (remaining == 0) return -1;
+
+            int read = super.read(buffer, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new IOException(entry.name + " es más corto de lo esperado");
+            }
+            remaining -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.pruebable;
+
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🚀 BleL2capChannel - Canal L2CAP CoC para Datos Masivos
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Plano de datos BLE sin GATT: un socket de flujo (LE Credit Based)
+ * sobre el PSM que el Heltec publica en la característica PSM:
+ * - Sin operación ATT ni callback por escritura, sin pausa entre chunks;
+ *   el control de flujo son los créditos L2CAP (write() bloquea)
+ * - Trama = longitud (2 bytes, little endian) + comando del protocolo
+ *   sin "\n", igual en los dos sentidos (UPLOAD_CHUNK, DATA...)
+ * - Hilo lector que entrega cada trama al Sink (BLEManager)
+ *
+ * GATT sigue siendo el plano de control: BLEManager abre este canal solo
+ * para los chunks y los datos de descarga; al cerrarse se vuelve a GATT.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class BleL2capChannel implements Transport {
+
+    private static final String TAG = "BleL2capChannel";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    private static final int LENGTH_SIZE = 2;
+    private static final int MAX_FRAME = 0xFFFF;
+
+    // Tramas aceptadas y aún sin escribir en el socket
+    private static final int MAX_IN_FLIGHT = 16;
+
+    // Lo que da un CoC con 2M PHY y SDU de ~500 B frente a ~15 KB/s de GATT
+    private static final long NOMINAL_BYTES_PER_SECOND = 60_000;
+
+    /**
+     * Cierre del canal (hilo lector o de escritura)
+     */
+    interface CloseListener {
+        void onClosed(BleL2capChannel channel, String reason);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final BluetoothSocket socket;
+    private final int psm;
+    private final CloseListener closeListener;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private OutputStream output;
+    private int mtu;
+
+    private volatile Transport.Sink sink;
+    private volatile boolean open = false;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @param socket Socket de createInsecureL2capChannel, sin conectar
+     */
+    BleL2capChannel(BluetoothSocket socket, int psm, CloseListener closeListener) {
+        this.socket = socket;
+        this.psm = psm;
+        this.closeListener = closeListener;
+    }
+
+    /**
+     * Conectar (bloqueante: llamar desde un hilo de fondo) y arrancar
+     * el lector
+     */
+    void connect() throws IOException {
+        socket.connect();
+        output = socket.getOutputStream();
+
+        // SDU máximo negociado; el protocolo de texto no pasa de MAX_FRAME
+        int sdu = socket.getMaxTransmitPacketSize();
+        mtu = Math.min(MAX_FRAME, (sdu > LENGTH_SIZE ? sdu : MAX_FRAME) - LENGTH_SIZE);
+        open = true;
+
+        Thread reader = new Thread(this::readLoop, "L2capRx");
+        reader.setDaemon(true);
+        reader.start();
+        Log.d(TAG, "🚀 Canal L2CAP abierto (PSM " + psm + ", trama " + mtu + " B)");
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔌 TRANSPORT
+    // ════════════════════════════════════════════════════════════════════
+
+    @Override
+    public String getName() {
+        return "L2CAP";
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public int getCredits() {
+        return open ? Math.max(0, MAX_IN_FLIGHT - inFlight.get()) : 0;
+    }
+
+    @Override
+    public long getEstimatedBytesPerSecond() {
+        return NOMINAL_BYTES_PER_SECOND;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> send(byte[] frame) {
+        if (!open || frame.length > mtu) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        inFlight.incrementAndGet();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    // Cabecera y datos en una sola escritura: un SDU por trama
+                    byte[] packet = new byte[LENGTH_SIZE + frame.length];
+                    packet[0] = (byte) frame.length;
+                    packet[1] = (byte) (frame.length >>> 8);
+                    System.arraycopy(frame, 0, packet, LENGTH_SIZE, frame.length);
+
+                    output.write(packet);
+                    TransferTrace.bytesSent(packet.length);
+                    return true;
+                } catch (IOException e) {
+                    close("Error escribiendo: " + e.getMessage());
+                    return false;
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }, writer);
+        } catch (RejectedExecutionException e) {
+            // close() apagó el escritor entre la comprobación y el envío
+            inFlight.decrementAndGet();
+            return CompletableFuture.completedFuture(false);
+        }
+    }
+
+    @Override
+    public void setSink(Transport.Sink sink) {
+        this.sink = sink;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📥 LECTURA
+    // ════════════════════════════════════════════════════════════════════
+
+    private void readLoop() {
+        try {
+            InputStream input = socket.getInputStream();
+            DataInputStream data = new DataInputStream(input);
+            byte[] header = new byte[LENGTH_SIZE];
+
+            while (open) {
+                data.readFully(header);
+                int length = (header[0] & 0xFF) | (header[1] & 0xFF) << 8;
+                byte[] frame = new byte[length];
+                data.readFully(frame);
+                TransferTrace.bytesReceived(LENGTH_SIZE + length);
+
+                Transport.Sink frameSink = sink;
+                if (frameSink != null) {
+                    frameSink.onFrame(frame);
+                }
+            }
+        } catch (IOException e) {
+            close(open ? "Canal cerrado: " + e.getMessage() : "Cerrado");
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔚 CIERRE
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Cerrar el canal (idempotente); avisa una sola vez al listener
+     */
+    void close(String reason) {
+        synchronized (this) {
+            if (!open) {
+                closeQuietly();
+                return;
+            }
+            open = false;
+        }
+
+        Log.d(TAG, "🔚 Canal L2CAP cerrado: " + reason);
+        writer.shutdown();
+        closeQuietly();
+        if (closeListener != null) {
+            closeListener.onClosed(this, reason);
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
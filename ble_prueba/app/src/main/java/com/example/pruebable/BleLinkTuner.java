@@ -0,0 +1,199 @@
+package com.example.pruebable;
+
+import android.bluetooth.BluetoothGatt;
+import android.util.Log;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📶 BleLinkTuner - Ajuste de la Transferencia BLE según el Enlace
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Clasifica el enlace en cuatro niveles a partir de:
+ * - RSSI leído periódicamente durante las transferencias (readRemoteRssi)
+ * - Tasa de escrituras GATT fallidas
+ * - Tasa de retransmisión (bytes re-enviados tras verificar el hash)
+ *
+ * Cada nivel fija el ritmo de escritura, la ventana de chunks en cola,
+ * el tamaño de chunk de subida y la prioridad de conexión. Lejos del
+ * Heltec se envía menos y más despacio en vez de acabar en timeouts.
+ *
+ * Los eventos llegan desde el hilo BLE y el principal (synchronized);
+ * los getters se leen sin bloquear.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class BleLinkTuner {
+
+    private static final String TAG = "BleLinkTuner";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    static final int LEVEL_NEAR = 0;
+    static final int LEVEL_MID = 1;
+    static final int LEVEL_FAR = 2;
+    static final int LEVEL_EDGE = 3;
+
+    private static final String[] LEVEL_NAMES = {"cerca", "media", "lejos", "límite"};
+
+    // RSSI (dBm) por debajo del cual se baja a LEVEL_MID, LEVEL_FAR, LEVEL_EDGE
+    private static final int[] RSSI_THRESHOLDS = {-65, -78, -88};
+
+    // Para volver a subir de nivel hay que superar el umbral por este margen
+    private static final int RSSI_HYSTERESIS = 4;
+
+    // Suavizado (EWMA) de RSSI y de tasas de fallo
+    private static final double RSSI_ALPHA = 0.3;
+    private static final double WRITE_ALPHA = 0.05;
+    private static final double RETRANSMIT_ALPHA = 0.5;
+
+    // Cada 5 % de fallos o retransmisión empeora un nivel (máximo dos)
+    private static final double PENALTY_STEP = 0.05;
+    private static final int MAX_PENALTY = 2;
+
+    // Parámetros por nivel (cerca → límite)
+    private static final int[] WRITE_DELAYS = {0, 10, 30, 60};     // ms tras confirmar cada escritura
+    private static final int[] BULK_WINDOWS = {32, 16, 8, 4};      // chunks en cola
+    private static final int[] CHUNK_SIZES = {200, 200, 160, 96};  // ≤ CHUNK_SIZE_BLE del firmware
+    private static final int[] PRIORITIES = {
+            BluetoothGatt.CONNECTION_PRIORITY_HIGH,
+            BluetoothGatt.CONNECTION_PRIORITY_HIGH,
+            BluetoothGatt.CONNECTION_PRIORITY_BALANCED,
+            BluetoothGatt.CONNECTION_PRIORITY_BALANCED
+    };
+
+    /**
+     * Cambio de nivel (hilo de quien reportó el evento)
+     */
+    interface Listener {
+        void onLevelChanged(int level);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final Listener listener;
+
+    private double rssi = Double.NaN;
+    private int rssiLevel = LEVEL_MID;
+    private double writeFailureRate = 0;
+    private double retransmitRate = 0;
+
+    private volatile int level = LEVEL_MID;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    BleLinkTuner(Listener listener) {
+        this.listener = listener;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📥 MUESTRAS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * RSSI leído con readRemoteRssi (dBm)
+     */
+    synchronized void onRssi(int dbm) {
+        rssi = Double.isNaN(rssi) ? dbm : rssi + RSSI_ALPHA * (dbm - rssi);
+
+        // Bajar en cuanto se cruza un umbral, subir solo con margen
+        while (rssiLevel < LEVEL_EDGE && rssi < RSSI_THRESHOLDS[rssiLevel]) {
+            rssiLevel++;
+        }
+        while (rssiLevel > LEVEL_NEAR && rssi >= RSSI_THRESHOLDS[rssiLevel - 1] + RSSI_HYSTERESIS) {
+            rssiLevel--;
+        }
+        update();
+    }
+
+    /**
+     * Resultado de una escritura GATT
+     */
+    synchronized void onWrite(boolean success) {
+        writeFailureRate += WRITE_ALPHA * ((success ? 0 : 1) - writeFailureRate);
+        if (!success) update();
+    }
+
+    /**
+     * Verificación de integridad terminada
+     *
+     * @param totalBytes Tamaño de la transferencia
+     * @param resentBytes Bytes que hubo que volver a enviar o pedir
+     */
+    synchronized void onIntegrityCheck(long totalBytes, long resentBytes) {
+        if (totalBytes <= 0) return;
+        double rate = Math.min(1.0, (double) resentBytes / totalBytes);
+        retransmitRate += RETRANSMIT_ALPHA * (rate - retransmitRate);
+        update();
+    }
+
+    /**
+     * Nueva conexión: olvidar el enlace anterior
+     */
+    synchronized void reset() {
+        rssi = Double.NaN;
+        rssiLevel = LEVEL_MID;
+        writeFailureRate = 0;
+        retransmitRate = 0;
+        level = LEVEL_MID;
+    }
+
+    private void update() {
+        double loss = Math.max(writeFailureRate, retransmitRate);
+        int penalty = Math.min(MAX_PENALTY, (int) (loss / PENALTY_STEP));
+        int newLevel = Math.min(LEVEL_EDGE, rssiLevel + penalty);
+
+        if (newLevel != level) {
+            Log.d(TAG, String.format("📶 Enlace %s → %s (RSSI %.0f dBm, fallos %.1f%%, retransmisión %.1f%%)",
+                    LEVEL_NAMES[level], LEVEL_NAMES[newLevel], rssi,
+                    writeFailureRate * 100, retransmitRate * 100));
+            level = newLevel;
+            TransferLog.event(TransferLog.EV_LINK_LEVEL, newLevel, Double.isNaN(rssi) ? 0 : (long) rssi);
+            listener.onLevelChanged(newLevel);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 GETTERS
+    // ════════════════════════════════════════════════════════════════════
+
+    int getLevel() {
+        return level;
+    }
+
+    String getLevelName() {
+        return LEVEL_NAMES[level];
+    }
+
+    /**
+     * @return Pausa tras onCharacteristicWrite antes de la siguiente escritura (ms)
+     */
+    int getWriteDelay() {
+        return WRITE_DELAYS[level];
+    }
+
+    /**
+     * @return Chunks de datos que pueden esperar en la cola
+     */
+    int getBulkWindow() {
+        return BULK_WINDOWS[level];
+    }
+
+    /**
+     * @return Bytes de datos por CMD:UPLOAD_CHUNK
+     */
+    int getChunkSize() {
+        return CHUNK_SIZES[level];
+    }
+
+    int getConnectionPriority() {
+        return PRIORITIES[level];
+    }
+}
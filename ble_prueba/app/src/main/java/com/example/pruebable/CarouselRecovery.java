@@ -0,0 +1,613 @@
+package com.example.pruebable;
+
+import android.content.Context;
+import android.os.Environment;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🛟 CarouselRecovery - Recuperación FEC de Archivos Parciales del Carrusel
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Completa en el teléfono los archivos que carrusel_rx_opt no pudo
+ * reconstruir con su FEC XOR (solo repara 1 chunk por bloque):
+ * - Descarga por WiFi el archivo parcial y "<nombre>.part" (bitmap + paridad)
+ * - Acumula los fragmentos de varias vueltas del carrusel
+ * - Decodifica con eliminación gaussiana en GF(2) combinando la paridad
+ *   XOR de todos los bloques y, si existe, el "<nombre>.fec" con los
+ *   símbolos LT que el RX recibió pero no le bastaron (ver FountainCode),
+ *   así varios huecos por bloque se pueden resolver
+ *
+ * El teléfono debe estar conectado al AP "LoRa-RX-Broadcast". Todos los
+ * métodos son bloqueantes: llamar desde un hilo de fondo.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class CarouselRecovery {
+
+    private static final String TAG = "CarouselRecovery";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // IP del softAP de carrusel_rx_opt
+    static final String DEFAULT_HOST = "192.168.4.1";
+
+    // Deben coincidir con carrusel_tx_opt / carrusel_rx_opt
+    private static final int FEC_BLOCK_SIZE = 8;
+    private static final int INTERLEAVE_STRIDE = 37;
+    static final String PART_EXTENSION = ".part";
+
+    private static final int HEADER_SIZE = 20;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 15000;
+
+    // Fragmentos acumulados entre vueltas
+    private static final String STATE_FOLDER = "carousel";
+    private static final String DOWNLOAD_FOLDER = "HeltecDownloads";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📞 CALLBACK
+    // ════════════════════════════════════════════════════════════════════
+
+    interface RecoveryCallback {
+        void onProgress(String stage);
+
+        /**
+         * @param file Archivo completo en Descargas/HeltecDownloads
+         * @param recovered Chunks reconstruidos en el teléfono
+         */
+        void onComplete(File file, int recovered);
+
+        /**
+         * Aún faltan chunks: los fragmentos quedan guardados para la
+         * siguiente vuelta del carrusel
+         */
+        void onIncomplete(int missing, int totalChunks);
+
+        void onError(String error);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📦 ESTADO PARCIAL
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Contenido de un ".part" más los datos del archivo
+     */
+    static class Partial {
+        long totalSize;
+        int totalChunks;
+        int chunkSize;
+        BitSet received;
+        byte[][] parity;    // null = bloque de paridad no recibido
+        byte[] data;
+
+        int missingCount() {
+            return totalChunks - received.cardinality();
+        }
+
+        int chunkLength(int index) {
+            return (int) Math.min(chunkSize, totalSize - (long) index * chunkSize);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final File stateDir;
+    private final String host;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    CarouselRecovery(Context context, String host) {
+        this.stateDir = new File(context.getFilesDir(), STATE_FOLDER);
+        this.host = host;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🛟 RECUPERAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Descargar lo recibido por el RX en esta vuelta, combinarlo con las
+     * anteriores y decodificar
+     *
+     * @param fileName Nombre del archivo difundido (sin "/")
+     */
+    void recover(String fileName, RecoveryCallback callback) {
+        try {
+            callback.onProgress("Descargando " + fileName + "...");
+            byte[] data = httpGet(fileName);
+            if (data == null) {
+                callback.onError("El RX no tiene " + fileName);
+                return;
+            }
+
+            callback.onProgress("Descargando bitmap y paridad...");
+            byte[] partBytes = httpGet(fileName + PART_EXTENSION);
+            if (partBytes == null) {
+                // Sin .part: el RX lo recibió completo
+                callback.onComplete(saveOutput(fileName, data), 0);
+                return;
+            }
+
+            Partial partial = parsePartial(partBytes);
+            if (data.length < partial.totalSize) {
+                throw new IOException("Archivo parcial truncado: " + data.length + " bytes");
+            }
+            partial.data = data;
+            int roundMissing = partial.missingCount();
+
+            Partial merged = merge(loadState(fileName), partial);
+            int missingBefore = merged.missingCount();
+
+            Log.d(TAG, "🧩 " + fileName + ": faltan " + missingBefore + "/" +
+                    merged.totalChunks + " tras combinar vueltas");
+
+            if (missingBefore > 0) {
+                callback.onProgress("Decodificando " + missingBefore + " chunks...");
+                decode(merged, loadRepairSymbols(fileName, merged));
+            }
+
+            int missing = merged.missingCount();
+            if (missing == 0) {
+                deleteState(fileName);
+                callback.onComplete(saveOutput(fileName, trim(merged)), roundMissing);
+            } else {
+                saveState(fileName, merged);
+                callback.onIncomplete(missing, merged.totalChunks);
+            }
+
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Error recuperando " + fileName + ": " + e.getMessage());
+            callback.onError(e.getMessage());
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔀 COMBINAR VUELTAS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Añadir a "previous" los chunks y bloques de paridad nuevos de "round"
+     */
+    private static Partial merge(Partial previous, Partial round) {
+        if (previous == null ||
+                previous.totalSize != round.totalSize ||
+                previous.totalChunks != round.totalChunks ||
+                previous.chunkSize != round.chunkSize) {
+            return round;
+        }
+
+        int added = 0;
+        for (int i = round.received.nextSetBit(0); i >= 0;
+             i = round.received.nextSetBit(i + 1)) {
+            if (!previous.received.get(i)) {
+                System.arraycopy(round.data, i * round.chunkSize,
+                        previous.data, i * previous.chunkSize, round.chunkLength(i));
+                previous.received.set(i);
+                added++;
+            }
+        }
+        for (int b = 0; b < previous.parity.length; b++) {
+            if (previous.parity[b] == null) {
+                previous.parity[b] = round.parity[b];
+            }
+        }
+
+        Log.d(TAG, "🔀 " + added + " chunks nuevos de esta vuelta");
+        return previous;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🧮 DECODIFICAR (GF(2))
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Ecuación XOR sobre los chunks que faltan
+     */
+    private static class Equation {
+        final BitSet unknowns = new BitSet();
+        final byte[] value;
+
+        Equation(int chunkSize) {
+            value = new byte[chunkSize];
+        }
+    }
+
+    /**
+     * Resolver los chunks que faltan con la paridad de bloque y los
+     * símbolos LT recibidos. Escribe en partial.data los resueltos.
+     */
+    private static void decode(Partial partial, List<Equation> repairEquations) {
+        int[] column = new int[partial.totalChunks];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = partial.received.nextClearBit(0); i < partial.totalChunks;
+             i = partial.received.nextClearBit(i + 1)) {
+            column[i] = missing.size();
+            missing.add(i);
+        }
+
+        List<Equation> rows = new ArrayList<>();
+
+        // Paridad XOR: el bloque b cubre las posiciones de TX b*8..b*8+7
+        for (int b = 0; b < partial.parity.length; b++) {
+            if (partial.parity[b] == null) continue;
+
+            Equation eq = new Equation(partial.chunkSize);
+            System.arraycopy(partial.parity[b], 0, eq.value, 0,
+                    Math.min(partial.parity[b].length, partial.chunkSize));
+
+            int end = Math.min((b + 1) * FEC_BLOCK_SIZE, partial.totalChunks);
+            for (int p = b * FEC_BLOCK_SIZE; p < end; p++) {
+                addChunk(partial, eq, chunkAtPosition(p, partial.totalChunks), column);
+            }
+            if (!eq.unknowns.isEmpty()) rows.add(eq);
+        }
+
+        // Símbolos LT: sus vecinos conocidos ya vienen restados
+        for (Equation eq : repairEquations) {
+            if (!eq.unknowns.isEmpty()) rows.add(eq);
+        }
+
+        int solved = 0;
+        int pivotRow = 0;
+        int[] pivotOf = new int[missing.size()];
+
+        for (int col = 0; col < missing.size(); col++) {
+            pivotOf[col] = -1;
+
+            int found = -1;
+            for (int r = pivotRow; r < rows.size(); r++) {
+                if (rows.get(r).unknowns.get(col)) {
+                    found = r;
+                    break;
+                }
+            }
+            if (found < 0) continue;
+
+            Equation pivot = rows.get(found);
+            rows.set(found, rows.get(pivotRow));
+            rows.set(pivotRow, pivot);
+
+            for (int r = 0; r < rows.size(); r++) {
+                Equation other = rows.get(r);
+                if (r != pivotRow && other.unknowns.get(col)) {
+                    other.unknowns.xor(pivot.unknowns);
+                    xorInto(other.value, pivot.value);
+                }
+            }
+
+            pivotOf[col] = pivotRow;
+            pivotRow++;
+        }
+
+        // Filas con una sola incógnita = chunk resuelto
+        for (int col = 0; col < missing.size(); col++) {
+            if (pivotOf[col] < 0) continue;
+
+            Equation eq = rows.get(pivotOf[col]);
+            if (eq.unknowns.cardinality() != 1) continue;
+
+            int index = missing.get(col);
+            System.arraycopy(eq.value, 0, partial.data, index * partial.chunkSize,
+                    partial.chunkLength(index));
+            partial.received.set(index);
+            solved++;
+        }
+
+        Log.d(TAG, "🧮 Resueltos " + solved + "/" + missing.size() + " chunks (" +
+                rows.size() + " ecuaciones)");
+    }
+
+    /**
+     * Restar un chunk conocido o marcar una incógnita. XOR dos veces del
+     * mismo índice se anula, igual que en el TX.
+     */
+    private static void addChunk(Partial partial, Equation eq, int index, int[] column) {
+        if (partial.received.get(index)) {
+            int offset = index * partial.chunkSize;
+            int length = partial.chunkLength(index);
+            for (int j = 0; j < length; j++) {
+                eq.value[j] ^= partial.data[offset + j];
+            }
+        } else {
+            eq.unknowns.flip(column[index]);
+        }
+    }
+
+    private static void xorInto(byte[] target, byte[] source) {
+        for (int j = 0; j < target.length; j++) {
+            target[j] ^= source[j];
+        }
+    }
+
+    static int chunkAtPosition(int position, int totalChunks) {
+        return (int) (((long) position * INTERLEAVE_STRIDE) % totalChunks);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ⛲ SÍMBOLOS LT ("<nombre>.fec")
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Ecuaciones de los símbolos LT que guardó el RX (finalizeFile solo
+     * deja "<nombre>.fec" si el archivo quedó incompleto)
+     *
+     * @return Lista vacía si no hay .fec o no corresponde a este archivo
+     */
+    private List<Equation> loadRepairSymbols(String fileName, Partial partial)
+            throws IOException {
+        List<Equation> equations = new ArrayList<>();
+
+        byte[] fec = httpGet(fileName + FountainCode.REPAIR_EXTENSION);
+        if (fec == null || fec.length < FountainCode.HEADER_SIZE) return equations;
+
+        ByteBuffer header = ByteBuffer.wrap(fec, 0, FountainCode.HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (header.get() != FountainCode.MAGIC_1 || header.get() != FountainCode.MAGIC_2 ||
+                header.get() != FountainCode.VERSION) {
+            return equations;
+        }
+        header.get();
+        long fileSize = header.getInt() & 0xFFFFFFFFL;
+        int symbolSize = header.getShort() & 0xFFFF;
+        header.getShort();
+        int k = header.getInt();
+        int seed = header.getInt();
+        int repairCount = header.getInt();
+
+        if (fileSize != partial.totalSize || symbolSize != partial.chunkSize ||
+                k != partial.totalChunks) {
+            Log.w(TAG, "⚠️ " + fileName + FountainCode.REPAIR_EXTENSION + " no coincide");
+            return equations;
+        }
+
+        FountainCode code = new FountainCode(k, seed);
+        int[] column = new int[partial.totalChunks];
+        int unknown = 0;
+        for (int i = partial.received.nextClearBit(0); i < partial.totalChunks;
+             i = partial.received.nextClearBit(i + 1)) {
+            column[i] = unknown++;
+        }
+
+        int recordSize = FountainCode.RECORD_HEADER_SIZE + symbolSize;
+        for (int r = 0; r < repairCount; r++) {
+            int offset = FountainCode.HEADER_SIZE + r * recordSize;
+            if (offset + recordSize > fec.length) break;
+
+            ByteBuffer record = ByteBuffer.wrap(fec, offset, FountainCode.RECORD_HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int esi = record.getInt();
+            int degree = record.getShort() & 0xFFFF;
+            if (esi < k || degree == 0 || degree > k) continue;
+
+            Equation eq = new Equation(partial.chunkSize);
+            System.arraycopy(fec, offset + FountainCode.RECORD_HEADER_SIZE, eq.value, 0, symbolSize);
+
+            for (int index : code.neighbors(esi, degree)) {
+                addChunk(partial, eq, index, column);
+            }
+            equations.add(eq);
+        }
+
+        Log.d(TAG, "⛲ " + equations.size() + " símbolos LT utilizables");
+        return equations;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📄 FORMATO ".part"
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Ver savePartialInfo() en carrusel_rx_opt
+     */
+    static Partial parsePartial(byte[] bytes) throws IOException {
+        if (bytes.length < HEADER_SIZE || bytes[0] != 'P' || bytes[1] != 'R') {
+            throw new IOException("Formato .part inválido");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(8);
+
+        Partial partial = new Partial();
+        partial.totalSize = buffer.getInt() & 0xFFFFFFFFL;
+        partial.totalChunks = buffer.getShort() & 0xFFFF;
+        partial.chunkSize = buffer.getShort() & 0xFFFF;
+        int numParityBlocks = buffer.getShort() & 0xFFFF;
+        buffer.getShort();
+
+        if (partial.chunkSize == 0 || partial.totalChunks == 0) {
+            throw new IOException("Cabecera .part vacía");
+        }
+
+        try {
+            byte[] bitmap = new byte[(partial.totalChunks + 7) / 8];
+            buffer.get(bitmap);
+            partial.received = BitSet.valueOf(bitmap);
+            partial.received.clear(partial.totalChunks, bitmap.length * 8);
+
+            partial.parity = new byte[numParityBlocks][];
+            for (int b = 0; b < numParityBlocks; b++) {
+                int length = buffer.getShort() & 0xFFFF;
+                if (length > 0) {
+                    partial.parity[b] = new byte[length];
+                    buffer.get(partial.parity[b]);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Archivo .part truncado");
+        }
+
+        return partial;
+    }
+
+    private static byte[] serializePartial(Partial partial) {
+        int size = HEADER_SIZE + (partial.totalChunks + 7) / 8;
+        for (byte[] block : partial.parity) {
+            size += 2 + (block != null ? block.length : 0);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'P').put((byte) 'R').put((byte) 1).put((byte) 0);
+        buffer.putInt(0);
+        buffer.putInt((int) partial.totalSize);
+        buffer.putShort((short) partial.totalChunks);
+        buffer.putShort((short) partial.chunkSize);
+        buffer.putShort((short) partial.parity.length);
+        buffer.putShort((short) 0);
+
+        byte[] bitmap = new byte[(partial.totalChunks + 7) / 8];
+        byte[] bits = partial.received.toByteArray();
+        System.arraycopy(bits, 0, bitmap, 0, Math.min(bits.length, bitmap.length));
+        buffer.put(bitmap);
+
+        for (byte[] block : partial.parity) {
+            buffer.putShort((short) (block != null ? block.length : 0));
+            if (block != null) buffer.put(block);
+        }
+        return buffer.array();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 💾 ESTADO LOCAL ENTRE VUELTAS
+    // ════════════════════════════════════════════════════════════════════
+
+    private Partial loadState(String fileName) {
+        File part = new File(stateDir, fileName + PART_EXTENSION);
+        File data = new File(stateDir, fileName);
+        if (!part.exists() || !data.exists()) return null;
+
+        try {
+            Partial partial = parsePartial(readFile(part));
+            partial.data = readFile(data);
+            if (partial.data.length < partial.totalSize) return null;
+            return partial;
+        } catch (IOException e) {
+            Log.w(TAG, "⚠️ Estado local descartado: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void saveState(String fileName, Partial partial) throws IOException {
+        if (!stateDir.exists() && !stateDir.mkdirs()) {
+            throw new IOException("No se pudo crear " + stateDir);
+        }
+        writeFile(new File(stateDir, fileName), partial.data);
+        writeFile(new File(stateDir, fileName + PART_EXTENSION), serializePartial(partial));
+        Log.d(TAG, "💾 Fragmentos guardados para la siguiente vuelta");
+    }
+
+    private void deleteState(String fileName) {
+        new File(stateDir, fileName).delete();
+        new File(stateDir, fileName + PART_EXTENSION).delete();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 HTTP
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * GET /download?file=<nombre>
+     *
+     * @return Contenido, o null si el RX responde 404
+     */
+    private byte[] httpGet(String fileName) throws IOException {
+        URL url = new URL("http://" + host + "/download?file=" +
+                URLEncoder.encode(fileName, "UTF-8"));
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) return null;
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " en " + fileName);
+            }
+
+            try (InputStream in = connection.getInputStream()) {
+                return readAll(in);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🛠️ UTILIDADES
+    // ════════════════════════════════════════════════════════════════════
+
+    private static byte[] trim(Partial partial) {
+        if (partial.data.length == partial.totalSize) return partial.data;
+        byte[] exact = new byte[(int) partial.totalSize];
+        System.arraycopy(partial.data, 0, exact, 0, exact.length);
+        return exact;
+    }
+
+    private static File saveOutput(String fileName, byte[] data) throws IOException {
+        File dir = new File(Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_DOWNLOADS), DOWNLOAD_FOLDER);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("No se pudo crear la carpeta");
+        }
+
+        File output = new File(dir, fileName);
+        if (output.exists()) {
+            int dot = fileName.lastIndexOf('.');
+            String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+            String ext = dot > 0 ? fileName.substring(dot) : "";
+            output = new File(dir, base + "_" + System.currentTimeMillis() + ext);
+        }
+
+        writeFile(output, data);
+        Log.d(TAG, "✅ Guardado: " + output.getAbsolutePath());
+        return output;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readAll(in);
+        }
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
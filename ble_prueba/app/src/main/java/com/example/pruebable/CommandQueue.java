@@ -0,0 +1,310 @@
+package com.example.pruebable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🚦 CommandQueue - Cola de Comandos BLE Acotada y con Prioridad
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Sustituye a la ConcurrentLinkedQueue sin límite de BLEManager:
+ * - PRIORIDAD (PING, GET_LORA_CONFIG, UPLOAD_ABORT): poll() la saca
+ *   siempre primero, nunca espera detrás de un archivo entero de chunks
+ * - SESIÓN: el resto (UPLOAD_*, HASH, TX_FILE, LIST, DELETE, READ_*...)
+ *   en una sola cola FIFO junto a los chunks, para que un CMD:HASH
+ *   nunca adelante a los últimos chunks de la subida que verifica
+ * - Los chunks (BULK) tienen capacidad fija: put() bloquea al productor
+ *   cuando está llena (contrapresión), offer() devuelve false sin bloquear
+ * - Los comandos que no son chunks no bloquean nunca (es poco tráfico)
+ *
+ * close() despierta a los productores bloqueados (desconexión).
+ * abortSession() descarta la sesión si un chunk no se confirmó: rechaza
+ * más chunks hasta el siguiente comando de sesión (otra subida).
+ * setBulkCapacity() ajusta la ventana según el enlace (BleLinkTuner).
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class CommandQueue {
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // Chunks de datos en espera (~32 × 300 bytes de Base64)
+    static final int DEFAULT_BULK_CAPACITY = 32;
+
+    // Prefijos que se tratan como datos masivos
+    private static final String[] BULK_PREFIXES = {
+            "CMD:UPLOAD_CHUNK:"
+    };
+
+    // Comandos sin estado de sesión que pueden adelantar a los chunks
+    // (UPLOAD_ABORT adelanta a propósito: la sesión ya se descartó)
+    private static final String[] PRIORITY_COMMANDS = {
+            "CMD:PING",
+            "CMD:GET_LORA_CONFIG",
+            "CMD:UPLOAD_ABORT"
+    };
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private int bulkCapacity;
+    private final ArrayDeque<String> priority = new ArrayDeque<>();
+    private final ArrayDeque<String> session;
+    private int bulkCount = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private boolean closed = false;
+    private boolean bulkRejected = false;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    CommandQueue(int bulkCapacity) {
+        this.bulkCapacity = bulkCapacity;
+        this.session = new ArrayDeque<>(bulkCapacity);
+    }
+
+    /**
+     * @return true si el comando es tráfico masivo (se puede bloquear)
+     */
+    static boolean isBulk(String command) {
+        for (String prefix : BULK_PREFIXES) {
+            if (command.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true si el comando puede adelantar a la sesión en curso
+     *         (también con ID de petición, "#id:CMD:PING")
+     */
+    static boolean isPriority(String command) {
+        String plain = stripRequestId(command);
+        for (String name : PRIORITY_COMMANDS) {
+            if (plain.equals(name)) return true;
+        }
+        return false;
+    }
+
+    private static String stripRequestId(String command) {
+        if (!command.startsWith("#")) return command;
+        int sep = command.indexOf(':');
+        return sep < 0 ? command : command.substring(sep + 1);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ➕ ENCOLAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Encolar sin bloquear
+     *
+     * @return false si es BULK y no hay sitio (o la sesión se descartó),
+     *         o si la cola está cerrada
+     */
+    boolean offer(String command) {
+        lock.lock();
+        try {
+            if (closed) return false;
+            if (!isBulk(command)) {
+                addControl(command);
+                return true;
+            }
+            if (bulkRejected || bulkCount >= bulkCapacity) return false;
+            addBulk(command);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encolar esperando sitio si es BULK (nunca desde el hilo principal:
+     * es quien vacía la cola)
+     *
+     * @param timeoutMs Espera máxima
+     * @return false si se agotó el tiempo, la cola se cerró o la sesión
+     *         se descartó
+     */
+    boolean put(String command, long timeoutMs) throws InterruptedException {
+        lock.lock();
+        try {
+            if (!isBulk(command)) {
+                if (closed) return false;
+                addControl(command);
+                return true;
+            }
+
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (!closed && !bulkRejected && bulkCount >= bulkCapacity) {
+                if (remaining <= 0) return false;
+                remaining = notFull.awaitNanos(remaining);
+            }
+            if (closed || bulkRejected) return false;
+            addBulk(command);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Con el lock tomado
+    private void addControl(String command) {
+        if (isPriority(command)) {
+            priority.addLast(command);
+        } else {
+            // Un comando de sesión empieza otra: vuelven a valer los chunks
+            bulkRejected = false;
+            session.addLast(command);
+        }
+    }
+
+    private void addBulk(String command) {
+        session.addLast(command);
+        bulkCount++;
+    }
+
+    /**
+     * Devolver a la cabeza un comando cuya escritura falló, para que salga
+     * antes que todo lo que llegó después; ya tenía sitio en la ventana
+     */
+    void pushFront(String command) {
+        lock.lock();
+        try {
+            if (closed || (bulkRejected && isBulk(command))) return;
+            if (isPriority(command.trim())) {
+                priority.addFirst(command);
+            } else {
+                session.addFirst(command);
+                if (isBulk(command)) bulkCount++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ➖ SACAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return Siguiente comando (prioridad antes que sesión), o null
+     */
+    String poll() {
+        lock.lock();
+        try {
+            String command = priority.pollFirst();
+            if (command != null) return command;
+
+            command = session.pollFirst();
+            if (command != null && isBulk(command)) {
+                bulkCount--;
+                notFull.signal();
+            }
+            return command;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cambiar la ventana de datos; los chunks ya encolados se mantienen
+     */
+    void setBulkCapacity(int capacity) {
+        lock.lock();
+        try {
+            bulkCapacity = capacity;
+            if (bulkCount < bulkCapacity) notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Chunks de datos que caben ya sin bloquear (0 si está cerrada)
+     */
+    int bulkRemaining() {
+        lock.lock();
+        try {
+            return closed || bulkRejected ? 0 : Math.max(0, bulkCapacity - bulkCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return priority.size() + session.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔄 CICLO DE VIDA
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Vaciar y rechazar nuevos comandos; despierta a los bloqueados
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            priority.clear();
+            session.clear();
+            bulkCount = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Descartar la sesión en curso (un chunk sin confirmar): vacía los
+     * chunks y los comandos que iban detrás, despierta a los productores
+     * y rechaza más chunks hasta el siguiente comando de sesión
+     *
+     * @return Comandos descartados
+     */
+    int abortSession() {
+        lock.lock();
+        try {
+            int dropped = session.size();
+            session.clear();
+            bulkCount = 0;
+            bulkRejected = true;
+            notFull.signalAll();
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Volver a aceptar comandos (nueva conexión)
+     */
+    void open() {
+        lock.lock();
+        try {
+            closed = false;
+            bulkRejected = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -10,17 +10,26 @@ import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
 import android.app.Activity;
+import android.content.ClipData;
+import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.net.Uri;
+import android.net.wifi.WifiManager;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.ParcelFileDescriptor;
 import android.provider.DocumentsContract;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.text.InputType;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -36,12 +45,26 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.android.material.appbar.MaterialToolbar;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 /**
  * ════════════════════════════════════════════════════════════════════════
@@ -71,6 +94,29 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
     private static final int REQUEST_FILE_UPLOAD = 100;
     private static final int REQUEST_FILE_DOWNLOAD = 101;
 
+    private static final int REQUEST_FILE_QUEUE = 102;
+    private static final int REQUEST_FILE_BATCH = 103;
+    private static final int REQUEST_SYNC_FOLDER = 104;
+    private static final int REQUEST_HTTP_PUSH = 105;
+
+    private static final int MENU_EXPORT_HISTORY = 1;
+    private static final int MENU_LORA_QUEUE = 2;
+    private static final int MENU_CAROUSEL_RECOVERY = 3;
+    private static final int MENU_BATCH_UPLOAD = 4;
+    private static final int MENU_FOLDER_SYNC = 5;
+    private static final int MENU_WIFI = 6;
+    private static final int MENU_UDP_BENCHMARK = 7;
+    private static final int MENU_HTTP_PULL = 8;
+    private static final int MENU_HTTP_PUSH = 9;
+    private static final int MENU_DEVICE_HISTORY = 10;
+
+    // Bytes del final de un archivo que se muestran en "Ver final"
+    private static final int TAIL_PREVIEW_BYTES = 4096;
+
+    // Historial del dispositivo: últimos 7 días, como mucho 20 transferencias
+    private static final long HISTORY_WINDOW_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final int HISTORY_ROWS = 20;
+
     // ════════════════════════════════════════════════════════════════════
     // 🎨 COMPONENTES UI
     // ════════════════════════════════════════════════════════════════════
@@ -112,6 +158,58 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
     private boolean isTransmitting = false;
     private LoRaConfig currentLoRaConfig;
 
+    // Recomendador LoRa y datos de la transmisión en curso
+    private LoRaConfigOptimizer loRaOptimizer;
+    private LoRaConfig txConfig;
+    private int txFragmentsSent = 0;
+    private int txRetries = 0;
+    private String txFileName;
+
+    // Cola de transmisión LoRa (varios archivos)
+    private LoRaTxQueue txQueue;
+
+    // Intervalo de ACK y reintentos ajustados durante la TX (CMD:SET_LINK)
+    private LoRaAckController ackController;
+
+    // Subidas y descargas por el softAP del Heltec (CMD:WIFI)
+    private WifiTransport wifiTransport;
+
+    // Benchmark UDP de wifi_udp_tx2 (null si no se está midiendo)
+    private UdpBenchmark udpBenchmark;
+    private WifiManager.MulticastLock multicastLock;
+    private TextView tvBenchmarkStats;
+
+    // Listado en curso (CMD:LIST con ID): uno nuevo cancela el anterior
+    private CompletableFuture<List<String>> pendingListing;
+
+    // Recepción LoRa reenviada en vivo (receptor con CMD:RX_STREAM)
+    private LoRaRxStream rxStream;
+    private boolean rxStreamRequested = false;
+    private boolean rxStreamEnabled = false;
+
+    // Telemetría binaria (CMD:TELEMETRY) y última señal LoRa reportada
+    private boolean telemetryRequested = false;
+    private boolean hasLoRaSignal = false;
+    private int loRaRssi = 0;
+    private float loRaSnr = 0;
+
+    // Sincronización de carpeta (modo elegido antes de escoger la carpeta)
+    private FolderSync folderSync;
+    private FolderSync.Mode pendingSyncMode = FolderSync.Mode.PUSH;
+
+    // Historial de transferencias
+    private TransferHistoryStore historyStore;
+    private long downloadStartTime = 0;
+    private long batchStartTime = 0;
+    private long batchSize = 0;
+
+    // Progreso agregado: los chunks solo actualizan contadores, la UI
+    // se repinta a ritmo fijo (ver ProgressAggregator)
+    private final ProgressAggregator transferProgress = new ProgressAggregator(
+            this::renderTransferProgress, ProgressAggregator.DEFAULT_INTERVAL);
+    private final ProgressAggregator loraProgress = new ProgressAggregator(
+            this::renderLoRaProgress, ProgressAggregator.DEFAULT_INTERVAL);
+
     // ════════════════════════════════════════════════════════════════════
     // 🚀 CICLO DE VIDA - onCreate
     // ════════════════════════════════════════════════════════════════════
@@ -130,7 +228,10 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
 
         Log.d(TAG, "📍 Dispositivo: " + deviceName + " (" + deviceAddress + ")");
 
-        // Configurar ActionBar
+        // Configurar ActionBar (el tema no trae una: la da el MaterialToolbar
+        // del layout, y con ella el menú de opciones)
+        MaterialToolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
         if (getSupportActionBar() != null) {
             getSupportActionBar().setTitle("📂 " + deviceName);
             getSupportActionBar().setDisplayHomeAsUpEnabled(true);
@@ -218,6 +319,28 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
 
         // Inicializar FileManager
         fileManager = new FileManager(this);
+        fileManager.setDownloadCache(new DownloadCache(this, DownloadCache.DEFAULT_BUDGET));
+
+        // Inicializar recomendador LoRa
+        loRaOptimizer = new LoRaConfigOptimizer(this);
+
+        // Inicializar historial de transferencias
+        historyStore = TransferHistoryStore.getInstance(this);
+
+        // Inicializar cola de transmisión LoRa
+        txQueue = new LoRaTxQueue(this, fileManager, bleManager, txQueueListener);
+
+        // Inicializar control adaptativo de ACK LoRa
+        ackController = new LoRaAckController(bleManager);
+
+        // Inicializar transporte WiFi (se activa desde el menú)
+        wifiTransport = new WifiTransport(this, bleManager, fileManager, wifiListener);
+
+        // Inicializar recepción en vivo
+        rxStream = new LoRaRxStream(fileManager, bleManager, rxStreamListener);
+
+        // Inicializar sincronización de carpetas
+        folderSync = new FolderSync(this, fileManager, bleManager, folderSyncListener);
 
         Log.d(TAG, "✅ Managers inicializados");
     }
@@ -272,8 +395,60 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         // Mostrar progreso
         showProgress(true, "Listando archivos...", 0);
 
-        // Enviar comando LIST
-        bleManager.sendCommand("CMD:LIST");
+        // Enviar comando LIST (la respuesta anterior ya no interesa)
+        if (pendingListing != null) {
+            pendingListing.cancel(false);
+        }
+        pendingListing = sendRequest("CMD:LIST", "FILES_END");
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏷️ PETICIONES CON ID
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Enviar un comando como petición (BLEManager.request); su respuesta
+     * se procesa al completarse, en el hilo principal
+     *
+     * @param lastPrefix Prefijo de la línea final; null si es una sola
+     */
+    private CompletableFuture<List<String>> sendRequest(String command, String lastPrefix) {
+        CompletableFuture<List<String>> future = bleManager.request(command, lastPrefix);
+        future.whenComplete((lines, error) ->
+                runOnUiThread(() -> onRequestDone(command, lines, error)));
+        return future;
+    }
+
+    private void onRequestDone(String command, List<String> lines, Throwable error) {
+        if (error == null) {
+            // Las mismas líneas y en el mismo orden que sin ID
+            for (String line : lines) {
+                processReceivedData(line);
+            }
+            return;
+        }
+
+        if (error instanceof CancellationException) {
+            return;
+        }
+
+        if (error instanceof RequestTracker.ErrorResponse) {
+            RequestTracker.ErrorResponse response = (RequestTracker.ErrorResponse) error;
+            if (response.isUnknownCommand()) {
+                // Firmware sin IDs: el comando simple, respuesta por prefijo
+                Log.w(TAG, "⚠️ Sin IDs de petición, reenviando: " + command);
+                bleManager.sendCommand(command);
+            } else {
+                processReceivedData("ERROR:" + response.getError());
+            }
+            return;
+        }
+
+        Log.w(TAG, "⚠️ Petición fallida (" + command + "): " + error.getMessage());
+        if (error instanceof TimeoutException && isConnected) {
+            showProgress(false, "", 0);
+            Toast.makeText(this, "⏱️ Sin respuesta del Heltec", Toast.LENGTH_SHORT).show();
+        }
     }
 
     // ════════════════════════════════════════════════════════════════════
@@ -320,12 +495,143 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                         "Se guardará en Descargas/")
                 .setPositiveButton("📥 Descargar", (dialog, which) -> {
                     showProgress(true, "Descargando " + fileInfo.name + "...", 0);
-                    bleManager.sendCommand("CMD:DOWNLOAD:" + fileInfo.name);
+                    transferProgress.start("Descargando");
+                    downloadStartTime = System.currentTimeMillis();
+                    bleManager.resetRssiAverage();
+
+                    if (wifiTransport.isReady()) {
+                        wifiTransport.download(fileInfo.name, wifiDownloadCallback(fileInfo.name));
+                        return;
+                    }
+
+                    // Consulta la caché (CMD:HASH) antes de CMD:DOWNLOAD
+                    fileManager.requestDownload(fileInfo.name, bleManager, downloadCallback);
                 })
+                .setNeutralButton("👁️ Ver final", (dialog, which) -> showFileTail(fileInfo))
                 .setNegativeButton("Cancelar", null)
                 .show();
     }
 
+    /**
+     * Mostrar los últimos KB de un archivo (logs) sin descargarlo entero
+     */
+    private void showFileTail(FileInfo fileInfo) {
+        showProgress(true, "Leyendo final de " + fileInfo.name + "...", 0);
+        ByteArrayOutputStream tail = new ByteArrayOutputStream(TAIL_PREVIEW_BYTES);
+
+        fileManager.requestTail(fileInfo.name, TAIL_PREVIEW_BYTES, bleManager,
+                new FileManager.RangeCallback() {
+                    @Override
+                    public void onData(long offset, byte[] data) {
+                        tail.write(data, 0, data.length);
+                    }
+
+                    @Override
+                    public void onComplete(long received) {
+                        showProgress(false, "", 0);
+                        String title = received < fileInfo.size
+                                ? "👁️ Últimos " + formatFileSize(received) + " de " + fileInfo.name
+                                : "👁️ " + fileInfo.name;
+
+                        new AlertDialog.Builder(DeviceActivity.this)
+                                .setTitle(title)
+                                .setMessage(new String(tail.toByteArray(), StandardCharsets.UTF_8))
+                                .setPositiveButton("Cerrar", null)
+                                .show();
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        showProgress(false, "", 0);
+                        Toast.makeText(DeviceActivity.this, "❌ Error: " + error,
+                                Toast.LENGTH_LONG).show();
+                    }
+                });
+    }
+
+    /**
+     * Resultado de las descargas BLE (también aciertos de caché)
+     */
+    private final FileManager.DownloadCallback downloadCallback =
+            new FileManager.DownloadCallback() {
+                @Override
+                public void onProgress(int percentage) {
+                    // Lo pinta transferProgress
+                }
+
+                @Override
+                public void onBytesReceived(long received, long total) {
+                    transferProgress.update(received, total);
+                }
+
+                @Override
+                public void onComplete(File file) {
+                    boolean fromCache = fileManager.isLastDownloadFromCache();
+
+                    recordTransfer(TransferHistoryStore.TYPE_BLE_DOWNLOAD,
+                            fileManager.getDownloadFileName(), file.length(),
+                            System.currentTimeMillis() - downloadStartTime,
+                            -1, 0, null, bleManager.getAverageRssi(), true);
+
+                    showProgress(false, "", 0);
+                    Toast.makeText(DeviceActivity.this,
+                            (fromCache ? "⚡ Desde caché: " : "✅ Descargado: ") + file.getName(),
+                            Toast.LENGTH_SHORT).show();
+                }
+
+                @Override
+                public void onError(String error) {
+                    recordTransfer(TransferHistoryStore.TYPE_BLE_DOWNLOAD,
+                            fileManager.getDownloadFileName(), 0,
+                            System.currentTimeMillis() - downloadStartTime,
+                            -1, 0, null, bleManager.getAverageRssi(), false);
+
+                    showProgress(false, "", 0);
+                    Toast.makeText(DeviceActivity.this,
+                            "❌ Error: " + error,
+                            Toast.LENGTH_LONG).show();
+                }
+            };
+
+    /**
+     * Resultado de una descarga por WiFi (sin caché ni verificación BLE)
+     */
+    private FileManager.DownloadCallback wifiDownloadCallback(String fileName) {
+        return new FileManager.DownloadCallback() {
+            @Override
+            public void onProgress(int percentage) {
+                // Lo pinta transferProgress
+            }
+
+            @Override
+            public void onBytesReceived(long received, long total) {
+                transferProgress.update(received, total);
+            }
+
+            @Override
+            public void onComplete(File file) {
+                recordTransfer(TransferHistoryStore.TYPE_WIFI_DOWNLOAD, fileName, file.length(),
+                        System.currentTimeMillis() - downloadStartTime,
+                        -1, 0, null, null, true);
+
+                showProgress(false, "", 0);
+                Toast.makeText(DeviceActivity.this, "📶 Descargado por WiFi: " + file.getName(),
+                        Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onError(String error) {
+                recordTransfer(TransferHistoryStore.TYPE_WIFI_DOWNLOAD, fileName, 0,
+                        System.currentTimeMillis() - downloadStartTime,
+                        -1, 0, null, null, false);
+
+                showProgress(false, "", 0);
+                Toast.makeText(DeviceActivity.this, "❌ Error WiFi: " + error,
+                        Toast.LENGTH_LONG).show();
+            }
+        };
+    }
+
     // ════════════════════════════════════════════════════════════════════
     // 🗑️ ELIMINAR ARCHIVO
     // ════════════════════════════════════════════════════════════════════
@@ -340,7 +646,7 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                         "Esta acción no se puede deshacer.")
                 .setPositiveButton("🗑️ Eliminar", (dialog, which) -> {
                     showProgress(true, "Eliminando...", 0);
-                    bleManager.sendCommand("CMD:DELETE:" + fileInfo.name);
+                    sendRequest("CMD:DELETE:" + fileInfo.name, null);
                 })
                 .setNegativeButton("Cancelar", null)
                 .show();
@@ -363,8 +669,318 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                 processFileUpload(fileUri);
             }
         }
+
+        if (requestCode == REQUEST_FILE_QUEUE && resultCode == Activity.RESULT_OK && data != null) {
+            List<Uri> uris = new ArrayList<>();
+
+            // Selección múltiple llega en ClipData, selección simple en getData()
+            if (data.getClipData() != null) {
+                ClipData clip = data.getClipData();
+                for (int i = 0; i < clip.getItemCount(); i++) {
+                    uris.add(clip.getItemAt(i).getUri());
+                }
+            } else if (data.getData() != null) {
+                uris.add(data.getData());
+            }
+
+            for (Uri uri : uris) {
+                String name = fileManager.getFileName(uri);
+                long size = fileManager.getFileSize(uri);
+                txQueue.enqueueLocal(uri, name, size);
+            }
+
+            Toast.makeText(this, "📡 " + uris.size() + " archivo(s) en cola",
+                    Toast.LENGTH_SHORT).show();
+        }
+
+        if (requestCode == REQUEST_FILE_BATCH && resultCode == Activity.RESULT_OK && data != null) {
+            List<Uri> uris = new ArrayList<>();
+
+            if (data.getClipData() != null) {
+                ClipData clip = data.getClipData();
+                for (int i = 0; i < clip.getItemCount(); i++) {
+                    uris.add(clip.getItemAt(i).getUri());
+                }
+            } else if (data.getData() != null) {
+                uris.add(data.getData());
+            }
+
+            processBatchUpload(uris);
+        }
+
+        if (requestCode == REQUEST_SYNC_FOLDER && resultCode == Activity.RESULT_OK &&
+                data != null && data.getData() != null) {
+            Uri treeUri = data.getData();
+            // Mantener el acceso para las próximas sincronizaciones
+            getContentResolver().takePersistableUriPermission(treeUri,
+                    Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+            folderSync.start(deviceAddress, treeUri, pendingSyncMode);
+        }
+
+        if (requestCode == REQUEST_HTTP_PUSH && resultCode == Activity.RESULT_OK &&
+                data != null && data.getData() != null) {
+            confirmHttpPush(data.getData());
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📡 COLA DE TRANSMISIÓN LORA
+    // ════════════════════════════════════════════════════════════════════
+
+    private void selectFilesForLoRaQueue() {
+        if (!isConnected || !isTxMode) {
+            Toast.makeText(this, "⚠️ Solo disponible en modo TX conectado",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("*/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+
+        startActivityForResult(
+                Intent.createChooser(intent, "Seleccionar archivos para transmitir"),
+                REQUEST_FILE_QUEUE
+        );
+    }
+
+    private final LoRaTxQueue.Listener txQueueListener = new LoRaTxQueue.Listener() {
+        @Override
+        public void onStartTransmission(String fileName) {
+            startLoRaTransmission(fileName);
+        }
+
+        @Override
+        public void onUploadProgress(LoRaTxQueue.Item item, int percentage) {
+            showProgress(true, "Cola: subiendo " + item.name + "... " + percentage + "%",
+                    percentage);
+        }
+
+        @Override
+        public void onQueueChanged() {
+            if (txQueue.isTransmitting()) {
+                tvLoRaProgress.setText(txQueue.summary());
+            }
+            if (!txQueue.isUploading()) {
+                showProgress(false, "", 0);
+            }
+        }
+
+        @Override
+        public void onQueueFinished(int transmitted, int failed) {
+            listFiles();
+
+            new AlertDialog.Builder(DeviceActivity.this)
+                    .setTitle("📡 Cola completada")
+                    .setMessage("Transmitidos: " + transmitted + "\nFallidos: " + failed)
+                    .setPositiveButton("OK", null)
+                    .show();
+        }
+    };
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📦 SUBIDA EN LOTE
+    // ════════════════════════════════════════════════════════════════════
+
+    private void selectFilesForBatch() {
+        if (!isConnected || !isTxMode) {
+            Toast.makeText(this, "⚠️ Solo disponible en modo TX conectado",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("*/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+
+        startActivityForResult(
+                Intent.createChooser(intent, "Seleccionar archivos para el lote"),
+                REQUEST_FILE_BATCH
+        );
+    }
+
+    private void processBatchUpload(List<Uri> uris) {
+        BatchUpload batch = new BatchUpload();
+        for (Uri uri : uris) {
+            String problem = batch.add(uri, fileManager.getFileName(uri),
+                    fileManager.getFileSize(uri));
+            if (problem != null) {
+                Toast.makeText(this, "⚠️ Lote no válido: " + problem,
+                        Toast.LENGTH_LONG).show();
+                return;
+            }
+        }
+
+        // Mismo límite que una subida individual
+        if (batch.getCount() == 0 || batch.totalSize() > BatchUpload.MAX_BATCH_BYTES) {
+            Toast.makeText(this, "⚠️ Lote vacío o muy grande (máx 1.5 MB)",
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle("📦 Subir lote")
+                .setMessage("Archivos: " + batch.getCount() + "\n" +
+                        "Tamaño total: " + formatFileSize(batch.totalSize()))
+                .setPositiveButton("Subir", (dialog, which) -> startBatchUpload(batch))
+                .setNegativeButton("Cancelar", null)
+                .show();
+    }
+
+    private void startBatchUpload(BatchUpload batch) {
+        Log.d(TAG, "📦 Iniciando lote: " + batch.getCount() + " archivos");
+
+        showProgress(true, "Subiendo lote de " + batch.getCount() + " archivos...", 0);
+        transferProgress.start("Lote (" + batch.getCount() + ")");
+        batchStartTime = System.currentTimeMillis();
+        bleManager.resetRssiAverage();
+        batchSize = batch.totalSize();
+
+        bleManager.sendCommand(batch.startCommand());
+
+        new Thread(() -> {
+            try {
+                // Esperar OK:UPLOAD_READY (una sola vez para todo el lote)
+                Thread.sleep(500);
+
+                UploadSource source = new UploadSource(batch.openStream(this), batch.totalSize());
+                fileManager.uploadFileInChunks(source, bleManager.getBulkTransport(),
+                        new FileManager.UploadCallback() {
+                            @Override
+                            public void onProgress(int percentage) {
+                                // Lo pinta transferProgress
+                            }
+
+                            @Override
+                            public void onBytesSent(long sent, long total) {
+                                transferProgress.update(sent, total);
+                            }
+
+                            @Override
+                            public void onComplete() {
+                                // Se espera OK:BATCH_COMPLETE del Heltec
+                            }
+
+                            @Override
+                            public void onError(String error) {
+                                runOnUiThread(() -> {
+                                    showProgress(false, "", 0);
+                                    Toast.makeText(DeviceActivity.this,
+                                            "❌ Error en lote: " + error,
+                                            Toast.LENGTH_LONG).show();
+                                });
+                            }
+                        });
+
+            } catch (Exception e) {
+                Log.e(TAG, "❌ Error en lote: " + e.getMessage());
+                runOnUiThread(() -> {
+                    showProgress(false, "", 0);
+                    Toast.makeText(this, "❌ Error: " + e.getMessage(),
+                            Toast.LENGTH_LONG).show();
+                });
+            }
+        }).start();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📶 RECEPCIÓN LORA EN VIVO
+    // ════════════════════════════════════════════════════════════════════
+
+    private final LoRaRxStream.Listener rxStreamListener = (file, repairedBytes) -> {
+        if (file == null) {
+            Toast.makeText(this, "⚠️ No se pudo copiar la recepción al teléfono",
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+        Log.d(TAG, "📲 Recepción en el teléfono: " + file.getAbsolutePath() +
+                " (" + repairedBytes + " bytes re-pedidos)");
+        Toast.makeText(this, "📲 Ya en Descargas/HeltecDownloads: " + file.getName(),
+                Toast.LENGTH_SHORT).show();
+    };
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔄 SINCRONIZAR CARPETA
+    // ════════════════════════════════════════════════════════════════════
+
+    private void selectFolderForSync() {
+        // Las subidas van en lote (CMD:BATCH_START, solo firmware TX)
+        if (!isConnected || !isTxMode) {
+            Toast.makeText(this, "⚠️ Solo disponible en modo TX conectado",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (folderSync.isActive()) {
+            Toast.makeText(this, "⚠️ Ya hay una sincronización en curso",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        String[] modes = {
+                "➡️ Teléfono → Heltec (espejo)",
+                "🔁 En ambos sentidos"
+        };
+
+        new AlertDialog.Builder(this)
+                .setTitle("🔄 Sincronizar carpeta")
+                .setItems(modes, (dialog, which) -> {
+                    pendingSyncMode = which == 0 ? FolderSync.Mode.PUSH : FolderSync.Mode.TWO_WAY;
+
+                    Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE);
+                    intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION |
+                            Intent.FLAG_GRANT_WRITE_URI_PERMISSION |
+                            Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION);
+                    startActivityForResult(intent, REQUEST_SYNC_FOLDER);
+                })
+                .setNegativeButton("Cancelar", null)
+                .show();
     }
 
+    private final FolderSync.Listener folderSyncListener = new FolderSync.Listener() {
+        @Override
+        public void onPlanReady(FolderSync.Plan plan) {
+            showProgress(false, "", 0);
+
+            new AlertDialog.Builder(DeviceActivity.this)
+                    .setTitle("🔄 Sincronizar carpeta")
+                    .setMessage(plan.summary())
+                    .setPositiveButton("Sincronizar", (dialog, which) -> folderSync.execute())
+                    .setNegativeButton("Cancelar", (dialog, which) -> folderSync.cancel())
+                    .setOnCancelListener(dialog -> folderSync.cancel())
+                    .show();
+        }
+
+        @Override
+        public void onSyncStatus(String status) {
+            showProgress(true, status + "...", 0);
+            transferProgress.start(status);
+        }
+
+        @Override
+        public void onSyncBytes(long done, long total) {
+            transferProgress.update(done, total);
+        }
+
+        @Override
+        public void onSyncFinished(int done, int failed) {
+            showProgress(false, "", 0);
+
+            String message;
+            if (failed > 0) {
+                message = "⚠️ Sincronizado: " + done + " OK, " + failed + " fallidos";
+            } else if (done > 0) {
+                message = "✅ Sincronizado: " + done + " cambio(s)";
+            } else {
+                message = "✅ Carpeta sin cambios";
+            }
+            Toast.makeText(DeviceActivity.this, message, Toast.LENGTH_LONG).show();
+
+            if (done > 0) listFiles();
+        }
+    };
+
     // ════════════════════════════════════════════════════════════════════
     // 📤 PROCESAR SUBIDA DE ARCHIVO
     // ════════════════════════════════════════════════════════════════════
@@ -379,7 +995,7 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
             Log.d(TAG, "📊 Tamaño: " + fileSize + " bytes");
 
             // Verificar tamaño máximo (1.5 MB para LittleFS típico)
-            if (fileSize > 1500000) {
+            if (fileSize > BatchUpload.MAX_BATCH_BYTES) {
                 Toast.makeText(this,
                         "⚠️ Archivo muy grande (máx 1.5 MB)",
                         Toast.LENGTH_LONG).show();
@@ -392,7 +1008,7 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                     .setMessage("¿Subir '" + fileName + "'?\n\n" +
                             "Tamaño: " + formatFileSize(fileSize))
                     .setPositiveButton("📤 Subir", (dialog, which) -> {
-                        startFileUpload(fileUri, fileName, fileSize);
+                        startFileUpload(fileUri, fileName, fileSize, null);
                     })
                     .setNegativeButton("Cancelar", null)
                     .show();
@@ -408,10 +1024,24 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
     // 📤 INICIAR SUBIDA DE ARCHIVO
     // ════════════════════════════════════════════════════════════════════
 
-    private void startFileUpload(Uri fileUri, String fileName, long fileSize) {
+    /**
+     * @param afterUpload Se ejecuta en el hilo principal tras subir (puede ser null)
+     */
+    private void startFileUpload(Uri fileUri, String fileName, long fileSize,
+                                 @Nullable Runnable afterUpload) {
         Log.d(TAG, "📤 Iniciando subida: " + fileName);
 
         showProgress(true, "Subiendo " + fileName + "...", 0);
+        transferProgress.start("Subiendo");
+
+        final long uploadStartTime = System.currentTimeMillis();
+        final TransferDigest[] uploadDigest = new TransferDigest[1];
+        bleManager.resetRssiAverage();
+
+        if (wifiTransport.isReady()) {
+            startWifiUpload(fileUri, fileName, fileSize, uploadStartTime, afterUpload);
+            return;
+        }
 
         // Enviar comando UPLOAD_START
         String command = "CMD:UPLOAD_START:" + fileName + ":" + fileSize;
@@ -423,47 +1053,43 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                 // Esperar confirmación del Heltec
                 Thread.sleep(500);
 
-                // Leer archivo
-                InputStream inputStream = getContentResolver().openInputStream(fileUri);
-                if (inputStream == null) {
-                    runOnUiThread(() -> {
-                        showProgress(false, "", 0);
-                        Toast.makeText(this, "❌ Error leyendo archivo",
-                                Toast.LENGTH_SHORT).show();
-                    });
-                    return;
-                }
+                // Leer archivo (mapeado o por stream, con lectura anticipada)
+                UploadSource source = UploadSource.open(this, fileUri, fileSize);
 
                 // Dividir en chunks y enviar
                 fileManager.uploadFileInChunks(
-                        inputStream,
-                        fileSize,
-                        bleManager,
+                        source,
+                        bleManager.getBulkTransport(),
                         new FileManager.UploadCallback() {
                             @Override
                             public void onProgress(int percentage) {
-                                runOnUiThread(() -> {
-                                    updateProgress(percentage,
-                                            "Subiendo... " + percentage + "%");
-                                });
+                                // Lo pinta transferProgress
                             }
 
                             @Override
-                            public void onComplete() {
-                                runOnUiThread(() -> {
-                                    showProgress(false, "", 0);
-                                    Toast.makeText(DeviceActivity.this,
-                                            "✅ Archivo subido correctamente",
-                                            Toast.LENGTH_SHORT).show();
+                            public void onBytesSent(long sent, long total) {
+                                transferProgress.update(sent, total);
+                            }
 
-                                    // Actualizar lista
-                                    new Handler().postDelayed(() -> listFiles(), 1000);
-                                });
+                            @Override
+                            public void onDigest(TransferDigest digest) {
+                                uploadDigest[0] = digest;
                             }
 
                             @Override
-                            public void onError(String error) {
-                                runOnUiThread(() -> {
+                            public void onComplete() {
+                                runOnUiThread(() -> verifyUploadedFile(fileUri, fileName,
+                                        fileSize, uploadDigest[0], uploadStartTime,
+                                        TransferHistoryStore.TYPE_BLE_UPLOAD, afterUpload));
+                            }
+
+                            @Override
+                            public void onError(String error) {
+                                recordTransfer(TransferHistoryStore.TYPE_BLE_UPLOAD, fileName,
+                                        fileSize, System.currentTimeMillis() - uploadStartTime,
+                                        -1, 0, null, bleManager.getAverageRssi(), false);
+
+                                runOnUiThread(() -> {
                                     showProgress(false, "", 0);
                                     Toast.makeText(DeviceActivity.this,
                                             "❌ Error: " + error,
@@ -473,8 +1099,6 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                         }
                 );
 
-                inputStream.close();
-
             } catch (Exception e) {
                 Log.e(TAG, "❌ Error en upload: " + e.getMessage());
                 runOnUiThread(() -> {
@@ -486,12 +1110,118 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         }).start();
     }
 
+    /**
+     * Subir por el softAP del Heltec; la verificación sigue yendo por BLE
+     */
+    private void startWifiUpload(Uri fileUri, String fileName, long fileSize,
+                                 long uploadStartTime, @Nullable Runnable afterUpload) {
+        final TransferDigest[] uploadDigest = new TransferDigest[1];
+
+        wifiTransport.upload(fileUri, fileName, fileSize, new FileManager.UploadCallback() {
+            @Override
+            public void onProgress(int percentage) {
+                // Lo pinta transferProgress
+            }
+
+            @Override
+            public void onBytesSent(long sent, long total) {
+                transferProgress.update(sent, total);
+            }
+
+            @Override
+            public void onDigest(TransferDigest digest) {
+                uploadDigest[0] = digest;
+            }
+
+            @Override
+            public void onComplete() {
+                runOnUiThread(() -> verifyUploadedFile(fileUri, fileName, fileSize,
+                        uploadDigest[0], uploadStartTime,
+                        TransferHistoryStore.TYPE_WIFI_UPLOAD, afterUpload));
+            }
+
+            @Override
+            public void onError(String error) {
+                recordTransfer(TransferHistoryStore.TYPE_WIFI_UPLOAD, fileName, fileSize,
+                        System.currentTimeMillis() - uploadStartTime,
+                        -1, 0, null, null, false);
+
+                runOnUiThread(() -> {
+                    showProgress(false, "", 0);
+                    Toast.makeText(DeviceActivity.this, "❌ Error WiFi: " + error,
+                            Toast.LENGTH_LONG).show();
+                });
+            }
+        });
+    }
+
+    /**
+     * Comparar lo subido con CMD:HASH antes de darlo por bueno
+     *
+     * @param historyType TYPE_BLE_UPLOAD o TYPE_WIFI_UPLOAD
+     */
+    private void verifyUploadedFile(Uri fileUri, String fileName, long fileSize,
+                                    TransferDigest digest, long uploadStartTime,
+                                    String historyType, @Nullable Runnable afterUpload) {
+        showProgress(true, "🔐 Verificando " + fileName + "...", 100);
+
+        // Subida por BLE: RSSI promedio mientras duró la subida
+        Integer rssi = TransferHistoryStore.TYPE_BLE_UPLOAD.equals(historyType)
+                ? bleManager.getAverageRssi() : null;
+
+        fileManager.verifyUpload(fileUri, fileName, digest, bleManager,
+                new FileManager.UploadCallback() {
+                    @Override
+                    public void onProgress(int percentage) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        recordTransfer(historyType, fileName,
+                                fileSize, System.currentTimeMillis() - uploadStartTime,
+                                -1, 0, null, rssi, true);
+
+                        runOnUiThread(() -> {
+                            showProgress(false, "", 0);
+                            Toast.makeText(DeviceActivity.this,
+                                    "✅ Archivo subido correctamente",
+                                    Toast.LENGTH_SHORT).show();
+
+                            if (afterUpload != null) {
+                                afterUpload.run();
+                                return;
+                            }
+
+                            // Actualizar lista
+                            new Handler().postDelayed(() -> listFiles(), 1000);
+                        });
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        recordTransfer(historyType, fileName,
+                                fileSize, System.currentTimeMillis() - uploadStartTime,
+                                -1, 0, null, rssi, false);
+
+                        runOnUiThread(() -> {
+                            showProgress(false, "", 0);
+                            Toast.makeText(DeviceActivity.this,
+                                    "❌ Error: " + error,
+                                    Toast.LENGTH_LONG).show();
+                        });
+                    }
+                });
+    }
+
     // ════════════════════════════════════════════════════════════════════
     // 🎨 MOSTRAR/OCULTAR PROGRESO
     // ════════════════════════════════════════════════════════════════════
 
     private void showProgress(boolean show, String text, int progress) {
         runOnUiThread(() -> {
+            // Cada fase nueva (o el cierre) detiene el muestreo anterior
+            transferProgress.stop();
+
             if (show) {
                 layoutProgress.setVisibility(View.VISIBLE);
                 progressBar.setProgress(progress);
@@ -513,6 +1243,17 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         });
     }
 
+    /**
+     * Repintado periódico de transferProgress (hilo principal)
+     */
+    private void renderTransferProgress(ProgressAggregator progress) {
+        int percentage = progress.getPercentage();
+        progressBar.setProgress(percentage);
+        tvProgressText.setText(progress.getLabel() + "... " + percentage + "% | " +
+                formatFileSize((long) progress.getRate()) + "/s | ⏱️ " +
+                progress.formatEta());
+    }
+
     // ════════════════════════════════════════════════════════════════════
     // 🎨 HABILITAR/DESHABILITAR BOTONES
     // ════════════════════════════════════════════════════════════════════
@@ -546,16 +1287,27 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
 
         runOnUiThread(() -> {
             isConnected = true;
+            ackController.reset();
             tvConnectionStatus.setText("🟢 Conectado");
             setButtonsEnabled(true);
             Toast.makeText(this, "✅ Conectado a " + deviceName,
                     Toast.LENGTH_SHORT).show();
 
-            // Listar archivos automáticamente
+            // Consultas iniciales en vuelo a la vez (tras escribir los CCCD):
+            // cada respuesta llega a su petición por el ID
             new Handler().postDelayed(() -> {
                 listFiles();
-                // ⬇️ NUEVO - Obtener configuración LoRa
-                bleManager.sendCommand("CMD:GET_LORA_CONFIG");
+                sendRequest("CMD:GET_LORA_CONFIG", "LORA_CONFIG:");
+
+                // Estado LoRa como registro binario en vez de TX/RX_STATUS
+                telemetryRequested = true;
+                sendRequest("CMD:TELEMETRY:1", null);
+
+                // Receptor: recibir cada fragmento LoRa según llega
+                if (!isTxMode) {
+                    rxStreamRequested = true;
+                    sendRequest("CMD:RX_STREAM:1", null);
+                }
             }, 500);
         });
     }
@@ -566,6 +1318,10 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
 
         runOnUiThread(() -> {
             isConnected = false;
+            rxStreamEnabled = false;
+            rxStream.onFailed();
+            ackController.stop();
+            wifiTransport.onDisconnected();
             tvConnectionStatus.setText("🔴 Desconectado");
             setButtonsEnabled(false);
             Toast.makeText(this, "🔴 Desconectado", Toast.LENGTH_SHORT).show();
@@ -577,7 +1333,12 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         Log.d(TAG, "📥 Datos recibidos: " + data);
 
         runOnUiThread(() -> {
-            processReceivedData(data);
+            TransferTrace.begin(TransferTrace.PARSE);
+            try {
+                processReceivedData(data);
+            } finally {
+                TransferTrace.end();
+            }
         });
     }
 
@@ -585,9 +1346,36 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
     public void onProgress(int percentage) {
         Log.d(TAG, "📊 Progreso: " + percentage + "%");
 
-        runOnUiThread(() -> {
+        // Durante una transferencia manda el contador de bytes del agregador
+        if (!transferProgress.isRunning()) {
             updateProgress(percentage, "Progreso: " + percentage + "%");
-        });
+        }
+    }
+
+    /**
+     * Registro binario de PROGRESS_UUID (ya en el hilo principal)
+     */
+    @Override
+    public void onTelemetry(LoRaTelemetry telemetry) {
+        hasLoRaSignal = true;
+        loRaRssi = telemetry.rssi;
+        loRaSnr = telemetry.getSnr();
+
+        if (telemetry.kind == LoRaTelemetry.KIND_TX) {
+            onTxStatus(telemetry.getFragmentsDone(), telemetry.fragmentTotal, telemetry.retries);
+        } else if (telemetry.kind == LoRaTelemetry.KIND_RX) {
+            loraProgress.update(telemetry.getFragmentsDone(), telemetry.fragmentTotal);
+        }
+    }
+
+    /**
+     * Avance de la TX LoRa (TX_STATUS o telemetría)
+     */
+    private void onTxStatus(int fragmentsDone, int total, int retries) {
+        txFragmentsSent = fragmentsDone;
+        txRetries = retries;
+        ackController.onStatus(fragmentsDone, retries);
+        loraProgress.update(fragmentsDone, total);
     }
 
     @Override
@@ -618,6 +1406,15 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         if (data.startsWith("FILES_END")) {
             Log.d(TAG, "📋 Fin de lista (" + fileList.size() + " archivos)");
             fileAdapter.notifyDataSetChanged();
+
+            if (folderSync.isListing()) {
+                Map<String, Long> remoteFiles = new HashMap<>();
+                for (FileInfo file : fileList) {
+                    remoteFiles.put(file.name, file.size);
+                }
+                folderSync.onRemoteListing(remoteFiles);
+                return;
+            }
             showProgress(false, "", 0);
 
             if (fileList.isEmpty()) {
@@ -645,17 +1442,45 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         // Confirmación de eliminación
         if (data.equals("OK:DELETED")) {
             Log.d(TAG, "✅ Archivo eliminado");
+
+            if (folderSync.isDeleting()) {
+                folderSync.onDeleteResult(true);
+                return;
+            }
             showProgress(false, "", 0);
             Toast.makeText(this, "✅ Archivo eliminado", Toast.LENGTH_SHORT).show();
 
-            // Actualizar lista
-            new Handler().postDelayed(() -> listFiles(), 500);
+            // Actualizar lista (el Heltec atiende los comandos en orden)
+            listFiles();
+            return;
+        }
+
+        // Lote completo: un solo aviso y un solo listado
+        if (data.startsWith("OK:BATCH_COMPLETE:")) {
+            String[] parts = data.substring(18).split(":");
+            String files = parts[0];
+            Log.d(TAG, "✅ Lote completado: " + files + " archivos");
+
+            if (folderSync.isUploading()) {
+                folderSync.onBatchResult(true);
+                return;
+            }
+
+            recordTransfer(TransferHistoryStore.TYPE_BLE_UPLOAD, "lote (" + files + " archivos)",
+                    batchSize, System.currentTimeMillis() - batchStartTime,
+                    -1, 0, null, bleManager.getAverageRssi(), true);
+
+            showProgress(false, "", 0);
+            Toast.makeText(this, "✅ Lote subido: " + files + " archivos",
+                    Toast.LENGTH_SHORT).show();
+            listFiles();
             return;
         }
 
         // Upload completo
         if (data.startsWith("OK:UPLOAD_COMPLETE")) {
             Log.d(TAG, "✅ Upload completado");
+            txQueue.onUploadConfirmed();
             // El callback de FileManager ya maneja esto
             return;
         }
@@ -668,6 +1493,8 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                 long fileSize = Long.parseLong(parts[1]);
 
                 Log.d(TAG, "📥 Iniciando descarga: " + fileName + " (" + fileSize + " bytes)");
+                downloadStartTime = System.currentTimeMillis();
+                bleManager.resetRssiAverage();
                 fileManager.startDownload(fileName, fileSize);
             }
             return;
@@ -680,29 +1507,8 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                 int chunkNum = Integer.parseInt(parts[0]);
                 String base64Data = parts[1];
 
-                fileManager.receiveChunk(chunkNum, base64Data,
-                        new FileManager.DownloadCallback() {
-                            @Override
-                            public void onProgress(int percentage) {
-                                updateProgress(percentage, "Descargando... " + percentage + "%");
-                            }
-
-                            @Override
-                            public void onComplete(File file) {
-                                showProgress(false, "", 0);
-                                Toast.makeText(DeviceActivity.this,
-                                        "✅ Descargado: " + file.getName(),
-                                        Toast.LENGTH_SHORT).show();
-                            }
-
-                            @Override
-                            public void onError(String error) {
-                                showProgress(false, "", 0);
-                                Toast.makeText(DeviceActivity.this,
-                                        "❌ Error: " + error,
-                                        Toast.LENGTH_LONG).show();
-                            }
-                        });
+                fileManager.receiveChunk(chunkNum, base64Data, folderSync.isDownloading()
+                        ? folderSync.downloadCallback : downloadCallback);
             }
             return;
         }
@@ -710,7 +1516,41 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         // Download fin
         if (data.startsWith("DOWNLOAD_END:")) {
             Log.d(TAG, "✅ Download completado");
-            fileManager.completeDownload();
+            showProgress(true, "🔐 Verificando integridad...", 100);
+            fileManager.completeDownload(bleManager);
+            return;
+        }
+
+        // Hash del archivo en el Heltec (respuesta a CMD:HASH)
+        if (data.startsWith("HASH_START:")) {
+            fileManager.onHashStart(data.substring(11));
+            return;
+        }
+
+        if (data.startsWith("HASH_SEG:")) {
+            fileManager.onHashSegment(data.substring(9));
+            return;
+        }
+
+        if (data.startsWith("HASH_END:")) {
+            fileManager.onHashEnd(data.substring(9));
+            return;
+        }
+
+        // Lectura parcial o re-descarga de un rango dañado (CMD:READ_RANGE)
+        if (data.startsWith("RANGE_START:")) {
+            if (fileManager.isReadingRange()) {
+                fileManager.onRangeStart(data.substring(12));
+                return;
+            }
+
+            Log.d(TAG, "🔁 Re-descargando rango: " + data.substring(12));
+            showProgress(true, "🔁 Re-descargando rango dañado...", 100);
+            return;
+        }
+
+        if (data.startsWith("RANGE_END:")) {
+            fileManager.completeRange();
             return;
         }
 
@@ -724,8 +1564,61 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         if (data.startsWith("ERROR:")) {
             String error = data.substring(6);
             Log.e(TAG, "❌ Error del Heltec: " + error);
+
+            // Firmware sin CMD:TELEMETRY / CMD:RX_STREAM (en orden de envío)
+            if (error.equals("UNKNOWN_COMMAND") && telemetryRequested) {
+                telemetryRequested = false;
+                Log.w(TAG, "⚠️ El Heltec no soporta telemetría binaria");
+                return;
+            }
+            if (error.equals("UNKNOWN_COMMAND") && rxStreamRequested) {
+                rxStreamRequested = false;
+                Log.w(TAG, "⚠️ El receptor no soporta streaming RX");
+                return;
+            }
+
+            // Respuesta a CMD:SET_LINK (firmware antiguo o TX ya terminada)
+            if (ackController.onError(error)) {
+                return;
+            }
+
+            // Respuesta a CMD:WIFI (firmware sin WiFi o softAP no arrancó)
+            if (wifiTransport.onError(error)) {
+                return;
+            }
+
+            // Respuesta a una lectura parcial (READ_RANGE / READ_TAIL)
+            if (fileManager.isReadingRange()) {
+                fileManager.onRangeError(error);
+                return;
+            }
+
+            // Respuesta a CMD:HASH / READ_RANGE / UPLOAD_RANGE
+            if (fileManager.isVerifying()) {
+                fileManager.onVerifyError(error);
+                return;
+            }
+
+            // Respuesta a un paso de la sincronización de carpeta
+            if (folderSync.isActive() && folderSync.onError(error)) {
+                return;
+            }
+
+            TransferLog.dump("Heltec: " + error);
+
             showProgress(false, "", 0);
 
+            // Errores que afectan a la cola LoRa
+            if (error.equals("ALREADY_TRANSMITTING") ||
+                    (error.equals("FILE_NOT_FOUND") && txQueue.isTransmitting() &&
+                            !txQueue.isUploading())) {
+                isTransmitting = false;
+                showLoRaProgress(false, "", 0);
+                txQueue.onTransmissionFinished(false);
+            } else if (txQueue.isUploading()) {
+                txQueue.onUploadError(error);
+            }
+
             String mensaje = "";
             switch (error) {
                 case "FILE_NOT_FOUND":
@@ -769,6 +1662,31 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         if (data.equals("OK:TX_STARTING")) {
             Log.d(TAG, "📡 Transmisión LoRa iniciada");
             showLoRaProgress(true, "Transmitiendo...", 0);
+            hasLoRaSignal = false;
+            ackController.start(currentLoRaConfig.ackInterval);
+            loraProgress.start("Fragmento");
+            return;
+        }
+
+        // CMD:SET_LINK aceptado: se aplica en el siguiente ACK
+        if (data.equals("OK:LINK_PENDING")) {
+            return;
+        }
+
+        // SoftAP listo: ssid:clave:ip:puerto
+        if (data.startsWith("OK:WIFI:")) {
+            wifiTransport.onWifiInfo(data.substring(8));
+            return;
+        }
+
+        // SoftAP apagado (CMD:WIFI:0)
+        if (data.equals("OK:WIFI_OFF")) {
+            return;
+        }
+
+        // Intervalo de ACK / reintentos efectivos en el TX
+        if (data.startsWith("LINK_SET:")) {
+            ackController.onLinkSet(data.substring(9));
             return;
         }
 
@@ -781,12 +1699,8 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
 
                 String[] progressParts = progress.split("/");
                 if (progressParts.length == 2) {
-                    int current = Integer.parseInt(progressParts[0]);
-                    int total = Integer.parseInt(progressParts[1]);
-                    int percentage = (current * 100) / total;
-
-                    updateLoRaProgress(percentage,
-                            "Fragmento " + progress + " | Reintentos: " + retries);
+                    onTxStatus(Integer.parseInt(progressParts[0]),
+                            Integer.parseInt(progressParts[1]), Integer.parseInt(retries));
                 }
             }
             return;
@@ -795,6 +1709,7 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         // Transmisión LoRa completada
         if (data.startsWith("TX_COMPLETE:")) {
             isTransmitting = false;
+            ackController.stop();
             showLoRaProgress(false, "", 0);
 
             String[] parts = data.substring(12).split(":");
@@ -803,16 +1718,39 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                 String time = parts[1];
                 String speed = parts[2];
 
+                // Registrar resultado para el recomendador
+                if (txConfig != null) {
+                    loRaOptimizer.recordSuccess(deviceAddress, txConfig,
+                            Long.parseLong(size), Double.parseDouble(speed), txRetries);
+                }
+
+                recordTransfer(TransferHistoryStore.TYPE_LORA_TX, txFileName,
+                        Long.parseLong(size), (long) (Double.parseDouble(time) * 1000),
+                        Double.parseDouble(speed), txRetries, txConfig, null, true);
+
                 String message = "✅ Transmisión completada\n\n" +
                         "Tamaño: " + formatFileSize(Long.parseLong(size)) + "\n" +
                         "Tiempo: " + time + " s\n" +
                         "Velocidad: " + speed + " kbps";
 
-                new AlertDialog.Builder(this)
-                        .setTitle("📡 Transmisión Exitosa")
-                        .setMessage(message)
-                        .setPositiveButton("OK", null)
-                        .show();
+                // Con cola activa solo se avisa con Toast para no apilar diálogos
+                if (txQueue.isTransmitting()) {
+                    Toast.makeText(this, "✅ " + txFileName + " transmitido (" +
+                            speed + " kbps)", Toast.LENGTH_SHORT).show();
+                } else {
+                    new AlertDialog.Builder(this)
+                            .setTitle("📡 Transmisión Exitosa")
+                            .setMessage(message)
+                            .setPositiveButton("OK", null)
+                            .show();
+                }
+            }
+
+            // Siguiente archivo de la cola sin esperar
+            if (txQueue.isTransmitting()) {
+                txQueue.onTransmissionFinished(true);
+            } else {
+                txQueue.setExternalTransmission(false);
             }
             return;
         }
@@ -820,9 +1758,24 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         // Transmisión LoRa fallida
         if (data.startsWith("TX_FAILED:")) {
             isTransmitting = false;
+            ackController.stop();
             showLoRaProgress(false, "", 0);
 
             String reason = data.substring(10);
+
+            if (txConfig != null) {
+                loRaOptimizer.recordFailure(deviceAddress, txConfig, txFragmentsSent, txRetries);
+            }
+
+            recordTransfer(TransferHistoryStore.TYPE_LORA_TX, txFileName, 0, 0,
+                    -1, txRetries, txConfig, null, false);
+
+            if (txQueue.isTransmitting()) {
+                txQueue.onTransmissionFinished(false);
+            } else {
+                txQueue.setExternalTransmission(false);
+            }
+
             Toast.makeText(this, "❌ TX fallida: " + reason, Toast.LENGTH_LONG).show();
             return;
         }
@@ -834,13 +1787,42 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                 String filename = parts[0];
                 String size = parts[1];
 
+                if (rxStreamEnabled) {
+                    int fragmentSize = parts.length >= 3 ? Integer.parseInt(parts[2])
+                            : LoRaRxStream.DEFAULT_FRAGMENT_SIZE;
+                    rxStream.start(filename, Long.parseLong(size), fragmentSize);
+                }
+
                 showLoRaProgress(true, "Recibiendo " + filename + "...", 0);
+                hasLoRaSignal = false;
+                loraProgress.start("Fragmento");
                 Toast.makeText(this, "📥 Recibiendo: " + filename,
                         Toast.LENGTH_SHORT).show();
             }
             return;
         }
 
+        // Telemetría binaria activada en el Heltec
+        if (data.startsWith("OK:TELEMETRY:")) {
+            telemetryRequested = false;
+            Log.d(TAG, "📟 Telemetría binaria: " + data.endsWith("1"));
+            return;
+        }
+
+        // Streaming RX activado/desactivado en el receptor
+        if (data.startsWith("OK:RX_STREAM:")) {
+            rxStreamRequested = false;
+            rxStreamEnabled = data.endsWith("1");
+            Log.d(TAG, "📶 Streaming RX: " + rxStreamEnabled);
+            return;
+        }
+
+        // Fragmento LoRa reenviado en vivo
+        if (data.startsWith("RX_FRAG:")) {
+            rxStream.onFragment(data.substring(8));
+            return;
+        }
+
         // Status de recepción LoRa
         if (data.startsWith("RX_STATUS:")) {
             String[] parts = data.substring(10).split(":");
@@ -849,11 +1831,8 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
 
                 String[] progressParts = progress.split("/");
                 if (progressParts.length == 2) {
-                    int current = Integer.parseInt(progressParts[0]);
-                    int total = Integer.parseInt(progressParts[1]);
-                    int percentage = (current * 100) / total;
-
-                    updateLoRaProgress(percentage, "Fragmento " + progress);
+                    loraProgress.update(Integer.parseInt(progressParts[0]),
+                            Integer.parseInt(progressParts[1]));
                 }
             }
             return;
@@ -863,12 +1842,34 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         if (data.startsWith("RX_COMPLETE:")) {
             showLoRaProgress(false, "", 0);
 
+            // El archivo ya está en el teléfono: solo faltan los huecos
+            if (rxStream.isActive()) {
+                if (data.startsWith("RX_COMPLETE:SIZE_MISMATCH:")) rxStream.onFailed();
+                else rxStream.onComplete();
+            }
+
             String[] parts = data.substring(12).split(":");
             if (parts.length >= 3) {
                 String filename = parts[0];
                 String size = parts[1];
                 String time = parts[2];
 
+                // RSSI promedio opcional (RX_COMPLETE:nombre:tamaño:tiempo:rssi)
+                Integer rssi = null;
+                if (parts.length >= 4) {
+                    try {
+                        rssi = Integer.parseInt(parts[3]);
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+
+                long sizeBytes = Long.parseLong(size);
+                double seconds = Double.parseDouble(time);
+                recordTransfer(TransferHistoryStore.TYPE_LORA_RX, filename, sizeBytes,
+                        (long) (seconds * 1000),
+                        seconds > 0 ? (sizeBytes * 8.0) / (seconds * 1000.0) : 0,
+                        0, currentLoRaConfig, rssi, true);
+
                 String message = "✅ Recepción completada\n\n" +
                         "Archivo: " + filename + "\n" +
                         "Tamaño: " + formatFileSize(Long.parseLong(size)) + "\n" +
@@ -889,8 +1890,11 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         // Recepción LoRa fallida
         if (data.startsWith("RX_FAILED:")) {
             showLoRaProgress(false, "", 0);
+            rxStream.onFailed();
 
             String reason = data.substring(10);
+            recordTransfer(TransferHistoryStore.TYPE_LORA_RX, null, 0, 0,
+                    -1, 0, currentLoRaConfig, null, false);
             Toast.makeText(this, "❌ RX fallida: " + reason, Toast.LENGTH_LONG).show();
             return;
         }
@@ -908,10 +1912,619 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
         super.onDestroy();
         Log.d(TAG, "💥 DeviceActivity destruida");
 
+        transferProgress.stop();
+        loraProgress.stop();
+        stopUdpBenchmark();
+
         // Desconectar BLE
         if (bleManager != null) {
             bleManager.disconnect();
         }
+
+        // Guardar registros pendientes del historial
+        if (historyStore != null) {
+            historyStore.flush();
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🗄️ HISTORIAL DE TRANSFERENCIAS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Guardar una transferencia en el historial (inserción asíncrona)
+     *
+     * @param speedKbps Velocidad; si es negativa se calcula con tamaño y duración
+     * @param config Configuración LoRa o null para BLE
+     * @param rssi RSSI promedio o null si no se conoce
+     */
+    private void recordTransfer(String type, String file, long size, long durationMs,
+                                double speedKbps, int retries, LoRaConfig config,
+                                Integer rssi, boolean success) {
+        TransferHistoryStore.Record record =
+                new TransferHistoryStore.Record(deviceAddress, type, file, size);
+        record.durationMs = durationMs;
+        record.speedKbps = speedKbps >= 0 ? speedKbps
+                : durationMs > 0 ? (size * 8.0) / durationMs : 0;
+        record.retries = retries;
+        record.config = config != null ? config.key() : null;
+        record.rssi = rssi;
+        record.success = success;
+
+        historyStore.record(record);
+    }
+
+    @Override
+    public boolean onSupportNavigateUp() {
+        // Flecha atrás de la barra: igual que el botón atrás (onDestroy desconecta)
+        finish();
+        return true;
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_DEVICE_HISTORY, Menu.NONE, "🗂️ Historial del dispositivo");
+        menu.add(Menu.NONE, MENU_EXPORT_HISTORY, Menu.NONE, "📊 Exportar historial");
+        menu.add(Menu.NONE, MENU_LORA_QUEUE, Menu.NONE, "📡 Cola de transmisión LoRa");
+        menu.add(Menu.NONE, MENU_CAROUSEL_RECOVERY, Menu.NONE, "🛟 Recuperar del carrusel RX");
+        menu.add(Menu.NONE, MENU_BATCH_UPLOAD, Menu.NONE, "📦 Subir varios archivos (lote)");
+        menu.add(Menu.NONE, MENU_FOLDER_SYNC, Menu.NONE, "🔄 Sincronizar carpeta");
+        menu.add(Menu.NONE, MENU_WIFI, Menu.NONE, "📶 WiFi rápido (activar/desactivar)");
+        menu.add(Menu.NONE, MENU_UDP_BENCHMARK, Menu.NONE, "📈 Benchmark UDP (wifi_udp_tx2)");
+        menu.add(Menu.NONE, MENU_HTTP_PULL, Menu.NONE, "🌐 Descargar del RX del carrusel (HTTP)");
+        menu.add(Menu.NONE, MENU_HTTP_PUSH, Menu.NONE, "🌐 Subir al TX del carrusel (HTTP)");
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == MENU_DEVICE_HISTORY) {
+            showDeviceHistory();
+            return true;
+        }
+        if (item.getItemId() == MENU_EXPORT_HISTORY) {
+            exportHistory();
+            return true;
+        }
+        if (item.getItemId() == MENU_LORA_QUEUE) {
+            selectFilesForLoRaQueue();
+            return true;
+        }
+        if (item.getItemId() == MENU_CAROUSEL_RECOVERY) {
+            showCarouselRecoveryDialog();
+            return true;
+        }
+        if (item.getItemId() == MENU_BATCH_UPLOAD) {
+            selectFilesForBatch();
+            return true;
+        }
+        if (item.getItemId() == MENU_FOLDER_SYNC) {
+            selectFolderForSync();
+            return true;
+        }
+        if (item.getItemId() == MENU_WIFI) {
+            toggleWifi();
+            return true;
+        }
+        if (item.getItemId() == MENU_UDP_BENCHMARK) {
+            startUdpBenchmark();
+            return true;
+        }
+        if (item.getItemId() == MENU_HTTP_PULL) {
+            showHttpPullDialog();
+            return true;
+        }
+        if (item.getItemId() == MENU_HTTP_PUSH) {
+            selectFileForHttpPush();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Últimas transferencias de este dispositivo y rendimiento de cada
+     * configuración LoRa con él (las consultas se encadenan en el hilo del
+     * historial)
+     */
+    private void showDeviceHistory() {
+        StringBuilder text = new StringBuilder();
+        SimpleDateFormat time = new SimpleDateFormat("dd/MM HH:mm", Locale.US);
+        long since = System.currentTimeMillis() - HISTORY_WINDOW_MS;
+
+        historyStore.queryByDevice(deviceAddress, since, HISTORY_ROWS,
+                cursor -> appendHistoryRow(text, time, cursor), () -> {
+                    if (text.length() == 0) text.append("Sin transferencias en 7 días\n");
+
+                    text.append("\n📡 LoRa TX por configuración:\n");
+                    historyStore.queryConfigSummary(deviceAddress,
+                            TransferHistoryStore.TYPE_LORA_TX,
+                            cursor -> appendConfigRow(text, cursor), () -> {
+                                text.append("\n📡 LoRa RX por configuración:\n");
+                                historyStore.queryConfigSummary(deviceAddress,
+                                        TransferHistoryStore.TYPE_LORA_RX,
+                                        cursor -> appendConfigRow(text, cursor),
+                                        () -> runOnUiThread(() ->
+                                                new AlertDialog.Builder(this)
+                                                        .setTitle("🗂️ Historial del dispositivo")
+                                                        .setMessage(text.toString())
+                                                        .setPositiveButton("OK", null)
+                                                        .show()));
+                            });
+                });
+    }
+
+    private void appendHistoryRow(StringBuilder text, SimpleDateFormat time, Cursor cursor) {
+        boolean success = cursor.getInt(cursor.getColumnIndexOrThrow("success")) == 1;
+        int rssiColumn = cursor.getColumnIndexOrThrow("rssi");
+        String file = cursor.getString(cursor.getColumnIndexOrThrow("file"));
+
+        text.append(success ? "✅ " : "❌ ")
+                .append(time.format(new Date(
+                        cursor.getLong(cursor.getColumnIndexOrThrow("timestamp")))))
+                .append(' ')
+                .append(cursor.getString(cursor.getColumnIndexOrThrow("type")))
+                .append(' ')
+                .append(file != null ? file : "-")
+                .append(" (")
+                .append(formatFileSize(cursor.getLong(cursor.getColumnIndexOrThrow("size"))))
+                .append(String.format(Locale.US, ", %.1f kbps",
+                        cursor.getDouble(cursor.getColumnIndexOrThrow("speed_kbps"))));
+        if (!cursor.isNull(rssiColumn)) {
+            text.append(", ").append(cursor.getInt(rssiColumn)).append(" dBm");
+        }
+        text.append(")\n");
+    }
+
+    private static void appendConfigRow(StringBuilder text, Cursor cursor) {
+        int speedColumn = cursor.getColumnIndexOrThrow("avg_speed");
+        text.append(String.format(Locale.US, "%s: %d envíos, %d fallos, %s, %.1f reintentos\n",
+                cursor.getString(cursor.getColumnIndexOrThrow("config")),
+                cursor.getInt(cursor.getColumnIndexOrThrow("runs")),
+                cursor.getInt(cursor.getColumnIndexOrThrow("failures")),
+                cursor.isNull(speedColumn) ? "sin éxitos"
+                        : String.format(Locale.US, "%.2f kbps", cursor.getDouble(speedColumn)),
+                cursor.getDouble(cursor.getColumnIndexOrThrow("avg_retries"))));
+    }
+
+    private void exportHistory() {
+        File dir = new File(Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_DOWNLOADS), "HeltecDownloads");
+        if (!dir.exists() && !dir.mkdirs()) {
+            Toast.makeText(this, "❌ No se pudo crear la carpeta", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        File output = new File(dir, "historial_" + System.currentTimeMillis() + ".csv");
+
+        historyStore.exportCsv(output, new TransferHistoryStore.ExportCallback() {
+            @Override
+            public void onComplete(File file, int rows) {
+                runOnUiThread(() -> Toast.makeText(DeviceActivity.this,
+                        "✅ " + rows + " transferencias exportadas: " + file.getName(),
+                        Toast.LENGTH_LONG).show());
+            }
+
+            @Override
+            public void onError(String error) {
+                runOnUiThread(() -> Toast.makeText(DeviceActivity.this,
+                        "❌ " + error, Toast.LENGTH_LONG).show());
+            }
+        });
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📶 WIFI RÁPIDO (UDP)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Activar/desactivar el softAP del Heltec; mientras esté listo las
+     * subidas y descargas van por WiFi
+     */
+    private void toggleWifi() {
+        if (!isConnected) {
+            Toast.makeText(this, "⚠️ Conecta primero por BLE", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (wifiTransport.isActive()) {
+            wifiTransport.stop("WiFi desactivado");
+            return;
+        }
+
+        Toast.makeText(this, "📶 Activando WiFi del Heltec...", Toast.LENGTH_SHORT).show();
+        wifiTransport.start();
+    }
+
+    private final WifiTransport.Listener wifiListener = new WifiTransport.Listener() {
+        @Override
+        public void onWifiReady(String ssid) {
+            Toast.makeText(DeviceActivity.this,
+                    "📶 WiFi listo (" + ssid + "): subidas y descargas por WiFi",
+                    Toast.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onWifiStopped(String reason) {
+            Toast.makeText(DeviceActivity.this, "📶 " + reason + " (se usa BLE)",
+                    Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📈 BENCHMARK UDP (wifi_udp_tx2)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Escuchar las pruebas de wifi_udp_tx2 (el teléfono debe estar en la
+     * WiFi "DATACAST_TX") y mostrar sus estadísticas en vivo
+     */
+    private void startUdpBenchmark() {
+        if (udpBenchmark != null) return;
+
+        udpBenchmark = new UdpBenchmark(UdpBenchmark.DEFAULT_PORT, benchmarkListener);
+        try {
+            udpBenchmark.start();
+        } catch (IOException e) {
+            udpBenchmark = null;
+            Toast.makeText(this, "❌ No se pudo abrir el puerto UDP: " + e.getMessage(),
+                    Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        // Muchos teléfonos filtran la difusión WiFi sin este lock
+        WifiManager wifi = (WifiManager) getApplicationContext()
+                .getSystemService(Context.WIFI_SERVICE);
+        multicastLock = wifi.createMulticastLock(TAG);
+        multicastLock.acquire();
+
+        tvBenchmarkStats = new TextView(this);
+        tvBenchmarkStats.setPadding(48, 24, 48, 24);
+        tvBenchmarkStats.setText("Esperando paquetes en el puerto " + UdpBenchmark.DEFAULT_PORT +
+                "...\n(WiFi \"DATACAST_TX\")");
+
+        new AlertDialog.Builder(this)
+                .setTitle("📈 Benchmark UDP")
+                .setView(tvBenchmarkStats)
+                .setCancelable(false)
+                .setPositiveButton("Detener y exportar", (dialog, which) -> {
+                    UdpBenchmark finished = udpBenchmark;
+                    stopUdpBenchmark();
+                    exportUdpBenchmark(finished);
+                })
+                .setNegativeButton("Detener", (dialog, which) -> stopUdpBenchmark())
+                .show();
+    }
+
+    private void stopUdpBenchmark() {
+        if (udpBenchmark == null) return;
+        udpBenchmark.stop();
+        udpBenchmark = null;
+        tvBenchmarkStats = null;
+
+        if (multicastLock != null && multicastLock.isHeld()) {
+            multicastLock.release();
+        }
+        multicastLock = null;
+    }
+
+    private void exportUdpBenchmark(UdpBenchmark benchmark) {
+        File dir = new File(Environment.getExternalStoragePublicDirectory(
+                Environment.DIRECTORY_DOWNLOADS), "HeltecDownloads");
+        if (!dir.exists() && !dir.mkdirs()) {
+            Toast.makeText(this, "❌ No se pudo crear la carpeta", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        File output = new File(dir, "benchmark_udp_" + System.currentTimeMillis() + ".csv");
+
+        new Thread(() -> {
+            try {
+                int tests = benchmark.exportCsv(output);
+                runOnUiThread(() -> Toast.makeText(DeviceActivity.this,
+                        "✅ " + tests + " pruebas exportadas: " + output.getName(),
+                        Toast.LENGTH_LONG).show());
+            } catch (IOException e) {
+                runOnUiThread(() -> Toast.makeText(DeviceActivity.this,
+                        "❌ Error exportando: " + e.getMessage(), Toast.LENGTH_LONG).show());
+            }
+        }).start();
+    }
+
+    private final UdpBenchmark.Listener benchmarkListener = new UdpBenchmark.Listener() {
+        @Override
+        public void onStats(List<UdpBenchmark.TestStats> tests) {
+            StringBuilder text = new StringBuilder();
+            for (UdpBenchmark.TestStats stats : tests) {
+                text.append(String.format(Locale.US,
+                        "🧪 Test %d (%d s)\n" +
+                                "   %.1f kbps (ahora %.1f)\n" +
+                                "   Pérdida %.2f%% · %d dup · %d desorden (máx %d)\n" +
+                                "   Jitter %.0f µs · retardo medio %.0f µs\n\n",
+                        stats.testId, stats.durationMs / 1000,
+                        stats.throughputBps / 1000, stats.windowBps / 1000,
+                        stats.lossPercent(), stats.duplicates, stats.reordered,
+                        stats.maxReorderDepth, stats.jitterUs, stats.avgDelayUs));
+            }
+
+            runOnUiThread(() -> {
+                if (tvBenchmarkStats != null) {
+                    tvBenchmarkStats.setText(text.toString().trim());
+                }
+            });
+        }
+
+        @Override
+        public void onError(String error) {
+            runOnUiThread(() -> Toast.makeText(DeviceActivity.this, "❌ " + error,
+                    Toast.LENGTH_LONG).show());
+        }
+    };
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 HTTP CON LOS NODOS DEL CARRUSEL
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Descargar un archivo recibido por el RX del carrusel (el teléfono
+     * debe estar en la WiFi "LoRa-RX-Broadcast"); repetir con el mismo
+     * nombre reanuda una descarga cortada
+     */
+    private void showHttpPullDialog() {
+        EditText inputName = new EditText(this);
+        inputName.setInputType(InputType.TYPE_CLASS_TEXT);
+        inputName.setHint("archivo.bin");
+
+        new AlertDialog.Builder(this)
+                .setTitle("🌐 Descargar del RX")
+                .setMessage("Descarga por HTTP en " + HttpTransfer.DEFAULT_CONNECTIONS +
+                        " conexiones desde " + CarouselRecovery.DEFAULT_HOST)
+                .setView(inputName)
+                .setPositiveButton("Descargar", (dialog, which) -> {
+                    String name = inputName.getText().toString().trim();
+                    if (name.startsWith("/")) name = name.substring(1);
+                    if (name.isEmpty()) {
+                        Toast.makeText(this, "⚠️ Nombre vacío", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    pullOverHttp(name);
+                })
+                .setNegativeButton("Cancelar", null)
+                .show();
+    }
+
+    private void pullOverHttp(String fileName) {
+        File finalFile = fileManager.createDownloadFile(fileName);
+        if (finalFile == null) {
+            Toast.makeText(this, "❌ No se pudo crear el archivo", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // Nombre fijo mientras se descarga: así se encuentra para reanudar
+        File partial = new File(finalFile.getParentFile(), fileName + ".parcial");
+        HttpTransfer transfer = new HttpTransfer(CarouselRecovery.DEFAULT_HOST,
+                new File(getFilesDir(), "http"));
+        long startTime = System.currentTimeMillis();
+        showProgress(true, "🌐 Descargando " + fileName + "...", 0);
+
+        new Thread(() -> {
+            try {
+                long size = transfer.download(fileName, partial, (done, total) ->
+                        updateProgress(total > 0 ? (int) (done * 100 / total) : 0,
+                                "🌐 " + formatFileSize(done) + " / " + formatFileSize(total)));
+
+                if (!partial.renameTo(finalFile)) {
+                    throw new IOException("No se pudo renombrar " + partial.getName());
+                }
+                recordTransfer(TransferHistoryStore.TYPE_HTTP_DOWNLOAD, fileName, size,
+                        System.currentTimeMillis() - startTime, -1, 0, null, null, true);
+
+                runOnUiThread(() -> {
+                    showProgress(false, "", 0);
+                    Toast.makeText(this, "✅ Descargado: " + finalFile.getName(),
+                            Toast.LENGTH_LONG).show();
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "❌ Error en descarga HTTP: " + e.getMessage());
+                recordTransfer(TransferHistoryStore.TYPE_HTTP_DOWNLOAD, fileName, 0,
+                        System.currentTimeMillis() - startTime, -1, 0, null, null, false);
+
+                runOnUiThread(() -> {
+                    showProgress(false, "", 0);
+                    Toast.makeText(this, "❌ " + e.getMessage() +
+                            " (repite para reanudar)", Toast.LENGTH_LONG).show();
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Subir un archivo al TX del carrusel (WiFi "LoRa-TX-Broadcast")
+     */
+    private void selectFileForHttpPush() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("*/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+
+        startActivityForResult(
+                Intent.createChooser(intent, "Seleccionar archivo para el TX del carrusel"),
+                REQUEST_HTTP_PUSH
+        );
+    }
+
+    /**
+     * Con "Subir + FEC" el teléfono codifica además "<nombre>.fec"
+     * (FountainCode) y lo sube detrás: el TX intercala esos símbolos LT
+     * en cada vuelta del carrusel
+     */
+    private void confirmHttpPush(Uri fileUri) {
+        String fileName = fileManager.getFileName(fileUri);
+        long fileSize = fileManager.getFileSize(fileUri);
+
+        new AlertDialog.Builder(this)
+                .setTitle("🌐 Subir al TX del carrusel")
+                .setMessage("¿Subir '" + fileName + "'?\n\n" +
+                        "Tamaño: " + formatFileSize(fileSize))
+                .setPositiveButton("🌐 Subir", (dialog, which) ->
+                        pushOverHttp(fileUri, false))
+                .setNeutralButton("⛲ Subir + FEC", (dialog, which) ->
+                        pushOverHttp(fileUri, true))
+                .setNegativeButton("Cancelar", null)
+                .show();
+    }
+
+    private void pushOverHttp(Uri fileUri, boolean withRepair) {
+        String fileName = fileManager.getFileName(fileUri);
+        long fileSize = fileManager.getFileSize(fileUri);
+        HttpTransfer transfer = new HttpTransfer(CarouselRecovery.DEFAULT_HOST,
+                new File(getFilesDir(), "http"));
+        long startTime = System.currentTimeMillis();
+        showProgress(true, "🌐 Subiendo " + fileName + "...", 0);
+
+        new Thread(() -> {
+            // Descriptor con lectura posicional: cada conexión lee su segmento
+            try (ParcelFileDescriptor descriptor =
+                         getContentResolver().openFileDescriptor(fileUri, "r")) {
+                if (descriptor == null) {
+                    throw new IOException("No se pudo abrir el archivo");
+                }
+                FileInputStream input = new FileInputStream(descriptor.getFileDescriptor());
+
+                transfer.upload(input.getChannel(), fileSize, fileName, (done, total) ->
+                        updateProgress(total > 0 ? (int) (done * 100 / total) : 0,
+                                "🌐 " + formatFileSize(done) + " / " + formatFileSize(total)));
+
+                if (withRepair) {
+                    pushRepairFile(transfer, fileUri, fileName, fileSize);
+                }
+
+                recordTransfer(TransferHistoryStore.TYPE_HTTP_UPLOAD, fileName, fileSize,
+                        System.currentTimeMillis() - startTime, -1, 0, null, null, true);
+
+                runOnUiThread(() -> {
+                    showProgress(false, "", 0);
+                    Toast.makeText(this, "✅ Subido al TX: " + fileName,
+                            Toast.LENGTH_LONG).show();
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "❌ Error en subida HTTP: " + e.getMessage());
+                recordTransfer(TransferHistoryStore.TYPE_HTTP_UPLOAD, fileName, fileSize,
+                        System.currentTimeMillis() - startTime, -1, 0, null, null, false);
+
+                runOnUiThread(() -> {
+                    showProgress(false, "", 0);
+                    Toast.makeText(this, "❌ " + e.getMessage() +
+                            " (repite para reanudar)", Toast.LENGTH_LONG).show();
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Codificar y subir "<nombre>.fec" (en el hilo de la subida)
+     */
+    private void pushRepairFile(HttpTransfer transfer, Uri fileUri, String fileName,
+                                long fileSize) throws IOException {
+        updateProgress(0, "⛲ Codificando FEC de " + fileName + "...");
+        File repairFile = new File(getCacheDir(), fileName + FountainCode.REPAIR_EXTENSION);
+
+        try {
+            try (InputStream input = getContentResolver().openInputStream(fileUri)) {
+                if (input == null) {
+                    throw new IOException("No se pudo abrir el archivo");
+                }
+                FountainCode.encodeRepairFile(input, fileName, fileSize,
+                        FountainCode.DEFAULT_OVERHEAD, FountainCode.REPAIR_ROUNDS, repairFile);
+            }
+
+            try (FileInputStream repairInput = new FileInputStream(repairFile)) {
+                transfer.upload(repairInput.getChannel(), repairFile.length(),
+                        repairFile.getName(), (done, total) ->
+                                updateProgress(total > 0 ? (int) (done * 100 / total) : 0,
+                                        "⛲ " + formatFileSize(done) + " / " +
+                                                formatFileSize(total)));
+            }
+        } finally {
+            repairFile.delete();
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🛟 RECUPERACIÓN FEC DEL CARRUSEL
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Pedir el nombre del archivo que el RX del carrusel dejó incompleto
+     * (el teléfono debe estar en la WiFi "LoRa-RX-Broadcast")
+     */
+    private void showCarouselRecoveryDialog() {
+        EditText inputName = new EditText(this);
+        inputName.setInputType(InputType.TYPE_CLASS_TEXT);
+        inputName.setHint("archivo.bin");
+
+        new AlertDialog.Builder(this)
+                .setTitle("🛟 Recuperar del carrusel")
+                .setMessage("Descarga fragmentos, bitmap y paridad del RX (" +
+                        CarouselRecovery.DEFAULT_HOST + ") y reconstruye en el teléfono")
+                .setView(inputName)
+                .setPositiveButton("Recuperar", (dialog, which) -> {
+                    String name = inputName.getText().toString().trim();
+                    if (name.startsWith("/")) name = name.substring(1);
+                    if (name.isEmpty()) {
+                        Toast.makeText(this, "⚠️ Nombre vacío", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    recoverFromCarousel(name);
+                })
+                .setNegativeButton("Cancelar", null)
+                .show();
+    }
+
+    private void recoverFromCarousel(String fileName) {
+        showProgress(true, "Recuperando " + fileName + "...", 0);
+
+        CarouselRecovery recovery = new CarouselRecovery(this, CarouselRecovery.DEFAULT_HOST);
+
+        new Thread(() -> recovery.recover(fileName, new CarouselRecovery.RecoveryCallback() {
+            @Override
+            public void onProgress(String stage) {
+                runOnUiThread(() -> showProgress(true, stage, 0));
+            }
+
+            @Override
+            public void onComplete(File file, int recovered) {
+                runOnUiThread(() -> {
+                    showProgress(false, "", 0);
+                    new AlertDialog.Builder(DeviceActivity.this)
+                            .setTitle("✅ Archivo completo")
+                            .setMessage("Guardado en:\n" + file.getAbsolutePath() + "\n\n" +
+                                    "Chunks completados en el teléfono: " + recovered)
+                            .setPositiveButton("OK", null)
+                            .show();
+                });
+            }
+
+            @Override
+            public void onIncomplete(int missing, int totalChunks) {
+                runOnUiThread(() -> {
+                    showProgress(false, "", 0);
+                    new AlertDialog.Builder(DeviceActivity.this)
+                            .setTitle("⚠️ Aún incompleto")
+                            .setMessage("Faltan " + missing + " de " + totalChunks + " chunks.\n\n" +
+                                    "Los fragmentos quedaron guardados: vuelve a recuperar " +
+                                    "tras la siguiente vuelta del carrusel.")
+                            .setPositiveButton("OK", null)
+                            .show();
+                });
+            }
+
+            @Override
+            public void onError(String error) {
+                runOnUiThread(() -> {
+                    showProgress(false, "", 0);
+                    Toast.makeText(DeviceActivity.this, "❌ " + error,
+                            Toast.LENGTH_LONG).show();
+                });
+            }
+        })).start();
     }
 
     // ════════════════════════════════════════════════════════════════════
@@ -1001,77 +2614,6 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
             }
         }
     }
-    /**
-     * ════════════════════════════════════════════════════════════════
-     * ⚙️ CLASE - LoRaConfig
-     * ════════════════════════════════════════════════════════════════
-     */
-    private static class LoRaConfig {
-        int bandwidth;      // 125, 250, 500
-        int spreadingFactor; // 7, 9, 12
-        int codingRate;     // 5, 7, 8
-        int ackInterval;    // 3, 5, 7, 10, 15
-        int power;          // 10, 14, 17, 20
-
-        LoRaConfig() {
-            // Valores por defecto
-            bandwidth = 125;
-            spreadingFactor = 9;
-            codingRate = 7;
-            ackInterval = 5;
-            power = 17;
-        }
-
-        String toJson() {
-            return "{\"bw\":" + bandwidth +
-                    ",\"sf\":" + spreadingFactor +
-                    ",\"cr\":" + codingRate +
-                    ",\"ack\":" + ackInterval +
-                    ",\"power\":" + power + "}";
-        }
-
-        void fromJson(String json) {
-            try {
-                json = json.replace("{", "").replace("}", "").replace("\"", "");
-                String[] pairs = json.split(",");
-
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split(":");
-                    if (keyValue.length == 2) {
-                        String key = keyValue[0].trim();
-                        int value = Integer.parseInt(keyValue[1].trim());
-
-                        switch (key) {
-                            case "bw":
-                                bandwidth = value;
-                                break;
-                            case "sf":
-                                spreadingFactor = value;
-                                break;
-                            case "cr":
-                                codingRate = value;
-                                break;
-                            case "ack":
-                                ackInterval = value;
-                                break;
-                            case "power":
-                                power = value;
-                                break;
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error parseando LoRa config: " + e.getMessage());
-            }
-        }
-
-        @Override
-        public String toString() {
-            return "BW: " + bandwidth + " kHz, SF: " + spreadingFactor +
-                    ", CR: 4/" + codingRate + ", ACK: " + ackInterval +
-                    ", Power: " + power + " dBm";
-        }
-    }
 
     // ════════════════════════════════════════════════════════════════════
     // 🎯 DETECTAR MODO DEL DISPOSITIVO
@@ -1110,6 +2652,8 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
 
     private void showLoRaProgress(boolean show, String text, int progress) {
         runOnUiThread(() -> {
+            loraProgress.stop();
+
             if (show) {
                 layoutLoRaTransmitting.setVisibility(View.VISIBLE);
                 tvLoRaProgress.setText(text);
@@ -1124,11 +2668,19 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
     // 🎨 ACTUALIZAR PROGRESO LORA
     // ════════════════════════════════════════════════════════════════════
 
-    private void updateLoRaProgress(int percentage, String text) {
-        runOnUiThread(() -> {
-            progressBarLoRa.setProgress(percentage);
-            tvLoRaProgress.setText(text);
-        });
+    /**
+     * Repintado periódico de loraProgress (hilo principal)
+     */
+    private void renderLoRaProgress(ProgressAggregator progress) {
+        progressBarLoRa.setProgress(progress.getPercentage());
+        tvLoRaProgress.setText(progress.getLabel() + " " + progress.getDone() + "/" +
+                progress.getTotal() +
+                (isTransmitting ? " | Reintentos: " + txRetries +
+                        " | ACK c/" + ackController.getAckInterval() : "") +
+                String.format(Locale.US, " | %.1f frag/s | ⏱️ ", progress.getRate()) +
+                progress.formatEta() +
+                (hasLoRaSignal ? String.format(Locale.US, " | 📶 %d dBm / %.1f dB",
+                        loRaRssi, loRaSnr) : ""));
     }
 
     // ════════════════════════════════════════════════════════════════════
@@ -1245,7 +2797,7 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                 .setNegativeButton("❌ Cancelar", null)
                 .setNeutralButton("🔄 Obtener Actual", (dialog, which) -> {
                     // Solicitar configuración actual
-                    bleManager.sendCommand("CMD:GET_LORA_CONFIG");
+                    sendRequest("CMD:GET_LORA_CONFIG", "LORA_CONFIG:");
                     Toast.makeText(this, "📡 Solicitando configuración...",
                             Toast.LENGTH_SHORT).show();
                 })
@@ -1278,8 +2830,10 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
             return;
         }
 
-        if (isTransmitting) {
-            Toast.makeText(this, "⚠️ Ya hay una transmisión en progreso",
+        if (isTransmitting || txQueue.hasWork()) {
+            // Ya hay una transmisión: se añade a la cola y sale al terminar
+            txQueue.enqueueRemote(fileInfo.name, fileInfo.size);
+            Toast.makeText(this, "📡 Añadido a la cola: " + fileInfo.name,
                     Toast.LENGTH_SHORT).show();
             return;
         }
@@ -1296,14 +2850,81 @@ public class DeviceActivity extends AppCompatActivity implements BLEManager.BLEC
                         "Configuración: " + currentLoRaConfig.toString() + "\n\n" +
                         "Asegúrate de que el RX tenga la misma configuración.")
                 .setPositiveButton("📡 Transmitir", (dialog, which) -> {
-                    isTransmitting = true;
-                    showLoRaProgress(true, "Iniciando transmisión...", 0);
-
-                    bleManager.sendCommand("CMD:TX_FILE:" + file.name);
+                    txQueue.setExternalTransmission(true);
+                    startLoRaTransmission(file.name);
 
                     Toast.makeText(this, "📡 Transmitiendo...", Toast.LENGTH_SHORT).show();
                 })
                 .setNegativeButton("Cancelar", null)
+                .setNeutralButton("🎯 Optimizar", (dialog, which) -> {
+                    showLoRaRecommendationDialog(file);
+                })
+                .show();
+    }
+
+    /**
+     * Enviar CMD:TX_FILE y preparar el seguimiento de la transmisión
+     *
+     * @param fileName Archivo presente en el Heltec
+     */
+    private void startLoRaTransmission(String fileName) {
+        isTransmitting = true;
+        txConfig = currentLoRaConfig.copy();
+        txFileName = fileName;
+        txFragmentsSent = 0;
+        txRetries = 0;
+        showLoRaProgress(true, "Iniciando transmisión de " + fileName + "...", 0);
+
+        bleManager.sendCommand("CMD:TX_FILE:" + fileName);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🎯 RECOMENDAR CONFIGURACIÓN LORA
+    // ════════════════════════════════════════════════════════════════════
+
+    private void showLoRaRecommendationDialog(FileInfo file) {
+        // Pedir tiempo objetivo
+        EditText inputDeadline = new EditText(this);
+        inputDeadline.setInputType(InputType.TYPE_CLASS_NUMBER);
+        inputDeadline.setHint("Tiempo objetivo (s)");
+
+        new AlertDialog.Builder(this)
+                .setTitle("🎯 Tiempo objetivo")
+                .setMessage("Archivo: " + file.name + " (" + formatFileSize(file.size) + ")")
+                .setView(inputDeadline)
+                .setPositiveButton("Calcular", (dialog, which) -> {
+                    double deadline;
+                    try {
+                        deadline = Double.parseDouble(inputDeadline.getText().toString());
+                    } catch (NumberFormatException e) {
+                        Toast.makeText(this, "⚠️ Tiempo inválido", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+
+                    LoRaConfigOptimizer.Recommendation rec = loRaOptimizer.recommend(
+                            deviceAddress, file.name, file.size, deadline,
+                            currentLoRaConfig.power);
+
+                    String message = "Configuración: " + rec.config.toString() + "\n\n" +
+                            "Tiempo estimado: " + new DecimalFormat("#.#")
+                                    .format(rec.predictedSeconds) + " s\n" +
+                            "Probabilidad de éxito: " + Math.round(rec.successProbability * 100) + "%\n" +
+                            "Muestras en este enlace: " + rec.samples + "\n\n" +
+                            (rec.meetsDeadline ? "✅ Cumple el tiempo objetivo"
+                                    : "⚠️ Ninguna configuración fiable cumple el tiempo objetivo") +
+                            "\n\nRecuerda aplicar la misma configuración en el RX.";
+
+                    new AlertDialog.Builder(this)
+                            .setTitle("🎯 Configuración recomendada")
+                            .setMessage(message)
+                            .setPositiveButton("✅ Aplicar", (d, w) -> {
+                                currentLoRaConfig = rec.config.copy();
+                                applyLoRaConfig();
+                            })
+                            .setNegativeButton("Cancelar", null)
+                            .show();
+                })
+                .setNegativeButton("Cancelar", null)
                 .show();
     }
 
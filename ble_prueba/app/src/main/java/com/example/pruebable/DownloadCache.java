@@ -0,0 +1,196 @@
+package com.example.pruebable;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🗄️ DownloadCache - Caché Local Direccionada por Contenido
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Guarda una copia de cada descarga verificada bajo su SHA-256:
+ * - Antes de descargar se pide CMD:HASH al Heltec
+ * - Si el hash ya está en caché, el archivo se copia localmente en
+ *   milisegundos en vez de minutos por BLE
+ * - Mismo contenido en varios Heltec = una sola entrada
+ * - Expulsión LRU (fecha de último acceso) con presupuesto de tamaño
+ *
+ * El índice es el propio directorio: nombre = hash, lastModified = último
+ * uso. Las escrituras van a un hilo aparte.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class DownloadCache {
+
+    private static final String TAG = "DownloadCache";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    private static final String CACHE_FOLDER = "download_cache";
+
+    // Presupuesto por defecto: 64 MB
+    static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final File dir;
+    private final long budget;
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @param budget Tamaño máximo de la caché en bytes
+     */
+    DownloadCache(Context context, long budget) {
+        this.dir = new File(context.getFilesDir(), CACHE_FOLDER);
+        this.budget = budget;
+
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "❌ No se pudo crear " + dir);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔍 CONSULTAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @param sha256 Hash del archivo en el Heltec (hex)
+     * @return Archivo en caché, o null si no está
+     */
+    File lookup(String sha256) {
+        if (!isValidKey(sha256)) return null;
+
+        File entry = new File(dir, sha256);
+        if (!entry.isFile()) return null;
+
+        // Marcar como usado recientemente
+        entry.setLastModified(System.currentTimeMillis());
+        Log.d(TAG, "⚡ Acierto: " + sha256.substring(0, 12) + "… (" + entry.length() + " bytes)");
+        return entry;
+    }
+
+    /**
+     * Copiar una entrada de caché a su destino final
+     */
+    static void materialize(File entry, File target) throws IOException {
+        copy(entry, target);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ➕ GUARDAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Añadir una descarga verificada (en segundo plano)
+     *
+     * @param sha256 Hash verificado del contenido
+     * @param source Archivo descargado
+     */
+    void put(String sha256, File source) {
+        if (!isValidKey(sha256)) return;
+
+        io.execute(() -> {
+            File entry = new File(dir, sha256);
+            if (entry.isFile()) {
+                entry.setLastModified(System.currentTimeMillis());
+                return;
+            }
+            if (source.length() > budget) return;
+
+            File temp = new File(dir, sha256 + TEMP_SUFFIX);
+            try {
+                copy(source, temp);
+                if (!temp.renameTo(entry)) {
+                    throw new IOException("No se pudo renombrar " + temp.getName());
+                }
+                Log.d(TAG, "🗄️ Guardado en caché: " + sha256.substring(0, 12) + "…");
+                evict();
+            } catch (IOException e) {
+                Log.e(TAG, "❌ Error guardando en caché: " + e.getMessage());
+                temp.delete();
+            }
+        });
+    }
+
+    /**
+     * Borrar las entradas menos usadas hasta cumplir el presupuesto
+     */
+    private void evict() {
+        File[] entries = dir.listFiles();
+        if (entries == null) return;
+
+        long total = 0;
+        for (File entry : entries) {
+            total += entry.length();
+        }
+        if (total <= budget) return;
+
+        Arrays.sort(entries, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+        for (File entry : entries) {
+            if (total <= budget) break;
+            long length = entry.length();
+            if (entry.delete()) {
+                total -= length;
+                Log.d(TAG, "🧹 Expulsado: " + entry.getName());
+            }
+        }
+    }
+
+    /**
+     * Vaciar la caché
+     */
+    void clear() {
+        io.execute(() -> {
+            File[] entries = dir.listFiles();
+            if (entries == null) return;
+            for (File entry : entries) {
+                entry.delete();
+            }
+        });
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🛠️ UTILIDADES
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * La clave viene del Heltec: solo 64 dígitos hex (nunca una ruta)
+     */
+    private static boolean isValidKey(String sha256) {
+        return sha256 != null && sha256.matches("[0-9a-f]{64}");
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        try (InputStream in = new FileInputStream(from);
+             OutputStream out = new FileOutputStream(to)) {
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+}
@@ -5,19 +5,23 @@ import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.OpenableColumns;
 import android.util.Base64;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 
 /**
  * ════════════════════════════════════════════════════════════════════════
@@ -30,7 +34,9 @@ import java.util.Locale;
  * - Upload de archivos al Heltec
  * - Download de archivos del Heltec
  * - Gestión de ACKs y reintentos
- * - Validación de integridad
+ * - Validación de integridad (SHA-256 + CRC32C por segmento, ver
+ *   TransferDigest) con re-envío solo de los rangos dañados
+ * - Caché por contenido (DownloadCache) para no repetir descargas
  * - Guardado en carpeta Descargas/
  *
  * @author alex127845
@@ -46,7 +52,7 @@ public class FileManager {
     // ════════════════════════════════════════════════════════════════════
 
     // Tamaño de chunk en bytes (debe coincidir con el firmware)
-    private static final int CHUNK_SIZE = 200;
+    static final int CHUNK_SIZE = 200;
 
     // Timeout para esperar ACK (ms)
     private static final int ACK_TIMEOUT = 2000;
@@ -57,6 +63,16 @@ public class FileManager {
     // Carpeta de descargas
     private static final String DOWNLOAD_FOLDER = "HeltecDownloads";
 
+    // Espera tras UPLOAD_START / UPLOAD_RANGE antes de enviar chunks (ms)
+    private static final int UPLOAD_START_DELAY = 500;
+
+    // Estados de verificación de integridad
+    private static final int VERIFY_NONE = 0;
+    private static final int VERIFY_DOWNLOAD = 1;
+    private static final int VERIFY_UPLOAD = 2;
+    private static final int VERIFY_LOOKUP = 3;
+    private static final int VERIFY_REMOTE_HASH = 4;
+
     // ════════════════════════════════════════════════════════════════════
     // 🌐 VARIABLES DE INSTANCIA
     // ════════════════════════════════════════════════════════════════════
@@ -68,10 +84,50 @@ public class FileManager {
     private String downloadFileName = "";
     private long downloadFileSize = 0;
     private long downloadBytesReceived = 0;
-    private List<byte[]> downloadChunks = new ArrayList<>();
+    private int downloadChunkCount = 0;
     private int expectedChunks = 0;
     private DownloadCallback downloadCallback;
 
+    // Los chunks se escriben directamente en su posición del archivo
+    private File downloadFile;
+    private RandomAccessFile downloadOutput;
+    private TransferDigest downloadDigest;
+
+    // Verificación de integridad (CMD:HASH)
+    private int verifyState = VERIFY_NONE;
+    private int verifyRetries = 0;
+    private Transport verifyTransport;
+    private TransferDigest.Expected expectedHash;
+
+    // Re-descarga de rangos dañados (CMD:READ_RANGE)
+    private final List<long[]> pendingRanges = new ArrayList<>();
+    private long rangeOffset = -1;
+    private TransferDigest rangeDigest;
+
+    // Caché por contenido: hash pedido antes de CMD:DOWNLOAD
+    private DownloadCache downloadCache;
+    private TransferDigest.Expected lookupHash;
+    private String lookupFileName;
+    private boolean lastDownloadFromCache = false;
+
+    // Hash pedido por otro componente (sincronización de carpetas)
+    private HashCallback remoteHashCallback;
+
+    // Lectura parcial (CMD:READ_RANGE / CMD:READ_TAIL) entregada al llamador
+    private RangeCallback sliceCallback;
+    private long sliceOffset = -1;
+    private long sliceLength = 0;
+    private long sliceReceived = 0;
+
+    // Verificación de subida
+    private Uri verifyUploadUri;
+    private String verifyUploadName;
+    private TransferDigest verifyUploadDigest;
+    private UploadCallback verifyUploadCallback;
+
+    // El estado de verificación vive en el hilo principal (respuestas BLE)
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     // ════════════════════════════════════════════════════════════════════
     // 📞 INTERFACES DE CALLBACKS
     // ════════════════════════════════════════════════════════════════════
@@ -96,6 +152,19 @@ public class FileManager {
          * @param error Mensaje de error
          */
         void onError(String error);
+
+        /**
+         * Hash calculado mientras se leía el archivo (antes de onComplete)
+         * @param digest Digest para verifyUpload
+         */
+        default void onDigest(TransferDigest digest) {
+        }
+
+        /**
+         * Bytes enviados tras cada chunk (para ProgressAggregator.update)
+         */
+        default void onBytesSent(long sent, long total) {
+        }
     }
 
     /**
@@ -108,6 +177,12 @@ public class FileManager {
          */
         void onProgress(int percentage);
 
+        /**
+         * Bytes recibidos tras cada chunk (para ProgressAggregator.update)
+         */
+        default void onBytesReceived(long received, long total) {
+        }
+
         /**
          * Descarga completada exitosamente
          * @param file Archivo descargado
@@ -121,6 +196,42 @@ public class FileManager {
         void onError(String error);
     }
 
+    /**
+     * Callback para lecturas parciales: los datos se entregan según llegan
+     */
+    public interface RangeCallback {
+        /**
+         * RANGE_START recibido: rango real (en modo final o con length 0
+         * lo decide el Heltec)
+         */
+        default void onRangeStart(String fileName, long offset, long length) {
+        }
+
+        /**
+         * Bloque del rango, en orden
+         * @param offset Posición dentro del archivo
+         */
+        void onData(long offset, byte[] data);
+
+        /**
+         * RANGE_END recibido
+         * @param received Bytes entregados
+         */
+        void onComplete(long received);
+
+        void onError(String error);
+    }
+
+    /**
+     * Callback para el hash de un archivo del Heltec
+     */
+    public interface HashCallback {
+        /**
+         * @param sha256 SHA-256 en hex, o null si el Heltec no lo pudo dar
+         */
+        void onHash(String sha256);
+    }
+
     // ════════════════════════════════════════════════════════════════════
     // 🏗️ CONSTRUCTOR
     // ════════════════════════════════════════════════════════════════════
@@ -144,61 +255,75 @@ public class FileManager {
      *
      * @param inputStream Stream del archivo a subir
      * @param fileSize Tamaño total del archivo
-     * @param bleManager Manager BLE para enviar chunks
+     * @param transport Enlace por el que se envían los chunks
      * @param callback Callback para notificar progreso
      */
     public void uploadFileInChunks(InputStream inputStream,
                                    long fileSize,
-                                   BLEManager bleManager,
+                                   Transport transport,
+                                   UploadCallback callback) {
+        uploadFileInChunks(new UploadSource(inputStream, fileSize), transport, callback);
+    }
+
+    /**
+     * Subir archivo al Heltec desde una fuente con lectura anticipada
+     *
+     * Los chunks llegan ya leídos, hasheados y en Base64 (UploadSource):
+     * este hilo solo los entrega al enlace, que marca el ritmo con sus
+     * créditos (la cola BLE bloquea cuando la ventana está llena).
+     *
+     * @param source Fuente del archivo (se cierra al terminar)
+     * @param transport Enlace por el que se envían los chunks
+     * @param callback Callback para notificar progreso
+     */
+    public void uploadFileInChunks(UploadSource source,
+                                   Transport transport,
                                    UploadCallback callback) {
 
+        long fileSize = source.getSize();
+
         Log.d(TAG, "📤 Iniciando upload en chunks");
         Log.d(TAG, "   Tamaño: " + fileSize + " bytes");
 
-        // Calcular número de chunks
-        int totalChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
-        Log.d(TAG, "   Chunks totales: " + totalChunks);
+        // El tamaño de chunk lo decide el enlace en cada momento (su MTU)
+        Log.d(TAG, "   Enlace: " + transport.getName() + " (trama " + transport.getMtu() + " B)");
 
         try {
-            byte[] buffer = new byte[CHUNK_SIZE];
+            source.setChunkSize(() -> UploadSource.chunkSizeFor(transport.getMtu()));
+            source.start();
+
             int chunkNumber = 0;
-            int bytesRead;
             long totalBytesRead = 0;
+            String command;
 
-            // Leer y enviar chunks
-            while ((bytesRead = inputStream.read(buffer)) > 0) {
-
-                // Crear chunk del tamaño exacto leído
-                byte[] chunk = new byte[bytesRead];
-                System.arraycopy(buffer, 0, chunk, 0, bytesRead);
+            // Enviar chunks ya codificados
+            while ((command = source.next()) != null) {
 
-                // Codificar a Base64
-                String base64Chunk = Base64.encodeToString(chunk, Base64.NO_WRAP);
-
-                // Crear comando
-                String command = "CMD:UPLOAD_CHUNK:" + base64Chunk;
-
-                // Enviar comando
-                bleManager.sendCommand(command);
+                // Enviar comando (espera crédito del enlace)
+                sendAndWait(transport, command);
 
+                totalBytesRead += UploadSource.dataLength(command);
                 chunkNumber++;
-                totalBytesRead += bytesRead;
+
+                if (callback != null) {
+                    callback.onBytesSent(totalBytesRead, fileSize);
+                }
 
                 // Calcular progreso
                 int percentage = (int) ((totalBytesRead * 100) / fileSize);
 
                 // Notificar progreso cada 10% o en el último chunk
-                if (percentage % 10 == 0 || chunkNumber >= totalChunks) {
-                    Log.d(TAG, "📦 Chunk " + chunkNumber + "/" + totalChunks +
-                            " (" + percentage + "%) - " + bytesRead + " bytes");
+                TransferLog.event(TransferLog.EV_CHUNK_SENT, chunkNumber, totalBytesRead);
+
+                if (percentage % 10 == 0 || totalBytesRead >= fileSize) {
+                    TransferLog.d(TAG, "📦 Chunk {} ({}%)", chunkNumber, percentage);
 
                     if (callback != null) {
                         callback.onProgress(percentage);
                     }
                 }
 
-                // Pequeña pausa entre chunks para no saturar
-                Thread.sleep(100);
+                // Sin pausa fija: sendAndWait espera sitio en el enlace
             }
 
             Log.d(TAG, "✅ Upload completado: " + chunkNumber + " chunks enviados");
@@ -206,12 +331,18 @@ public class FileManager {
             // Esperar confirmación final del Heltec
             Thread.sleep(500);
 
+            // Hash incremental calculado al leer (sin segunda lectura)
+            TransferDigest digest = source.getDigest();
+            digest.finish();
+
             if (callback != null) {
+                callback.onDigest(digest);
                 callback.onComplete();
             }
 
         } catch (IOException e) {
             Log.e(TAG, "❌ Error leyendo archivo: " + e.getMessage());
+            TransferLog.dump("upload: " + e.getMessage());
             if (callback != null) {
                 callback.onError("Error leyendo archivo: " + e.getMessage());
             }
@@ -222,9 +353,28 @@ public class FileManager {
             }
         } catch (Exception e) {
             Log.e(TAG, "❌ Error en upload: " + e.getMessage());
+            TransferLog.dump("upload: " + e.getMessage());
             if (callback != null) {
                 callback.onError("Error: " + e.getMessage());
             }
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Enviar desde un hilo de fondo esperando crédito del enlace
+     *
+     * @throws IOException Si el enlace descartó la trama (cerrado o lleno)
+     */
+    private static void sendAndWait(Transport transport, String command)
+            throws IOException, InterruptedException {
+        try {
+            if (!transport.sendText(command).get()) {
+                throw new IOException("Enlace " + transport.getName() + " no disponible");
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
         }
     }
 
@@ -232,6 +382,71 @@ public class FileManager {
     // 📥 DOWNLOAD - DESCARGA DE ARCHIVOS
     // ════════════════════════════════════════════════════════════════════
 
+    /**
+     * Activar la caché local de descargas
+     */
+    public void setDownloadCache(DownloadCache cache) {
+        this.downloadCache = cache;
+    }
+
+    /**
+     * Pedir un archivo al Heltec consultando antes la caché
+     *
+     * Envía CMD:HASH; si el contenido ya está en caché se copia sin pasar
+     * por BLE, si no se envía CMD:DOWNLOAD y el hash ya conocido sirve
+     * para verificar la descarga.
+     *
+     * @param callback Recibe onComplete/onError (también en acierto de caché)
+     */
+    public void requestDownload(String fileName, Transport transport,
+                                DownloadCallback callback) {
+        downloadCallback = callback;
+        lastDownloadFromCache = false;
+        lookupHash = null;
+        lookupFileName = fileName;
+        downloadFileName = fileName;
+        verifyTransport = transport;
+
+        if (downloadCache == null) {
+            transport.sendText("CMD:DOWNLOAD:" + fileName);
+            return;
+        }
+
+        verifyState = VERIFY_LOOKUP;
+        requestHash(fileName);
+    }
+
+    /**
+     * Hash recibido: copiar desde caché o descargar por BLE
+     */
+    private void onLookupResult() {
+        verifyState = VERIFY_NONE;
+
+        File cached = downloadCache.lookup(expectedHash.sha256);
+        if (cached != null && cached.length() == expectedHash.size) {
+            File target = createDownloadFile(lookupFileName);
+            if (target != null) {
+                try {
+                    DownloadCache.materialize(cached, target);
+                    lastDownloadFromCache = true;
+                    Log.d(TAG, "⚡ " + lookupFileName + " copiado desde caché");
+
+                    if (downloadCallback != null) {
+                        downloadCallback.onComplete(target);
+                    }
+                    return;
+
+                } catch (IOException e) {
+                    Log.e(TAG, "❌ Error copiando desde caché: " + e.getMessage());
+                    target.delete();
+                }
+            }
+        }
+
+        lookupHash = expectedHash;
+        verifyTransport.sendText("CMD:DOWNLOAD:" + lookupFileName);
+    }
+
     /**
      * Iniciar descarga de archivo del Heltec
      *
@@ -241,15 +456,32 @@ public class FileManager {
     public void startDownload(String fileName, long fileSize) {
         Log.d(TAG, "📥 Iniciando download: " + fileName + " (" + fileSize + " bytes)");
 
+        closeDownloadOutput();
+
         isDownloading = true;
         downloadFileName = fileName;
         downloadFileSize = fileSize;
         downloadBytesReceived = 0;
-        downloadChunks.clear();
+        downloadChunkCount = 0;
+
+        verifyState = VERIFY_NONE;
+        pendingRanges.clear();
+        rangeOffset = -1;
 
         // Calcular chunks esperados
         expectedChunks = (int) Math.ceil((double) fileSize / CHUNK_SIZE);
         Log.d(TAG, "   Chunks esperados: " + expectedChunks);
+
+        // Escribir a disco según llegan los chunks (sin acumular en RAM)
+        downloadDigest = new TransferDigest(fileSize);
+        downloadFile = createDownloadFile(fileName);
+        if (downloadFile != null) {
+            try {
+                downloadOutput = new RandomAccessFile(downloadFile, "rw");
+            } catch (IOException e) {
+                Log.e(TAG, "❌ Error abriendo archivo: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -260,33 +492,63 @@ public class FileManager {
      * @param callback Callback para notificar progreso
      */
     public void receiveChunk(int chunkNumber, String base64Data, DownloadCallback callback) {
+        if (sliceOffset >= 0) {
+            receiveSliceChunk(chunkNumber, base64Data);
+            return;
+        }
+
         if (!isDownloading) {
             Log.w(TAG, "⚠️ Chunk recibido pero no hay download activo");
             return;
         }
 
+        // Guardar callback para uso posterior
+        this.downloadCallback = callback;
+
         try {
             // Decodificar Base64
-            byte[] chunkData = Base64.decode(base64Data, Base64.NO_WRAP);
+            TransferTrace.begin(TransferTrace.DECODE);
+            byte[] chunkData;
+            try {
+                chunkData = Base64.decode(base64Data, Base64.NO_WRAP);
+            } finally {
+                TransferTrace.end();
+            }
 
-            // Guardar chunk
-            downloadChunks.add(chunkData);
+            // Re-descarga: los CHUNK se numeran desde el inicio del rango
+            boolean inRange = rangeOffset >= 0;
+            long offset = (inRange ? rangeOffset : 0) + (long) chunkNumber * CHUNK_SIZE;
+
+            // Escribir en su posición y actualizar el hash
+            if (downloadOutput != null) {
+                TransferTrace.begin(TransferTrace.DISK_WRITE);
+                try {
+                    downloadOutput.seek(offset);
+                    downloadOutput.write(chunkData);
+                } finally {
+                    TransferTrace.end();
+                }
+            }
+            (inRange ? rangeDigest : downloadDigest).update(offset, chunkData, 0, chunkData.length);
+            TransferLog.event(TransferLog.EV_CHUNK_RECEIVED, chunkNumber, offset);
+
+            if (inRange) return;
+
+            downloadChunkCount++;
             downloadBytesReceived += chunkData.length;
 
             // Calcular progreso
             int percentage = (int) ((downloadBytesReceived * 100) / downloadFileSize);
 
             // Log cada 10 chunks o en el último
-            if (downloadChunks.size() % 10 == 0 || downloadChunks.size() >= expectedChunks) {
-                Log.d(TAG, "📦 Chunk " + downloadChunks.size() + "/" + expectedChunks +
-                        " (" + percentage + "%) - " + chunkData.length + " bytes");
+            if (downloadChunkCount % 10 == 0 || downloadChunkCount >= expectedChunks) {
+                TransferLog.d(TAG, "📦 Chunk {}/{} ({}%)", downloadChunkCount, expectedChunks,
+                        percentage);
             }
 
-            // Guardar callback para uso posterior
-            this.downloadCallback = callback;
-
             // Notificar progreso
             if (callback != null) {
+                callback.onBytesReceived(downloadBytesReceived, downloadFileSize);
                 callback.onProgress(percentage);
             }
 
@@ -295,69 +557,544 @@ public class FileManager {
             if (callback != null) {
                 callback.onError("Error decodificando datos");
             }
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Error escribiendo chunk: " + e.getMessage());
+            if (callback != null) {
+                callback.onError("Error escribiendo archivo: " + e.getMessage());
+            }
         }
     }
 
     /**
-     * Completar descarga y guardar archivo
+     * Completar descarga (DOWNLOAD_END) y verificar contra CMD:HASH
+     *
+     * @param transport Enlace para pedir el hash (null = sin verificar)
      */
-    public void completeDownload() {
+    public void completeDownload(Transport transport) {
         if (!isDownloading) {
             Log.w(TAG, "⚠️ completeDownload llamado pero no hay download activo");
             return;
         }
 
         Log.d(TAG, "🏁 Completando download...");
-        Log.d(TAG, "   Chunks recibidos: " + downloadChunks.size());
+        Log.d(TAG, "   Chunks recibidos: " + downloadChunkCount);
         Log.d(TAG, "   Bytes recibidos: " + downloadBytesReceived);
 
-        try {
-            // Crear archivo de salida
-            File outputFile = createDownloadFile(downloadFileName);
+        if (downloadOutput == null) {
+            failDownload("Error guardando archivo: No se pudo crear archivo de salida");
+            return;
+        }
+
+        downloadDigest.finish();
+
+        if (transport == null) {
+            finishDownload(false);
+            return;
+        }
+
+        verifyState = VERIFY_DOWNLOAD;
+        verifyRetries = 0;
+        verifyTransport = transport;
+
+        // Hash ya pedido antes de descargar (consulta de caché)
+        if (lookupHash != null && downloadFileName.equals(lookupFileName)) {
+            expectedHash = lookupHash;
+            lookupHash = null;
+            verifyDownload();
+            return;
+        }
+
+        // Pedir el hash al Heltec
+        expectedHash = null;
+        requestHash(downloadFileName);
+    }
 
-            if (outputFile == null) {
-                throw new IOException("No se pudo crear archivo de salida");
+    /**
+     * Fin de una re-descarga (RANGE_END): comprobar solo sus segmentos
+     */
+    public void completeRange() {
+        if (sliceCallback != null) {
+            finishSlice(null);
+            return;
+        }
+
+        if (verifyState != VERIFY_DOWNLOAD || rangeOffset < 0 || pendingRanges.isEmpty()) {
+            return;
+        }
+
+        rangeDigest.finish();
+        BitSet bad = rangeDigest.mismatchedSegments(expectedHash, rangeOffset);
+        long[] range = pendingRanges.remove(0);
+        rangeOffset = -1;
+
+        if (!bad.isEmpty()) {
+            if (++verifyRetries > MAX_RETRIES) {
+                failDownload("Integridad: rango " + range[0] + "+" + range[1] +
+                        " sigue sin coincidir");
+                return;
             }
+            Log.w(TAG, "⚠️ " + bad.cardinality() + " segmento(s) siguen mal, reintentando");
+            pendingRanges.addAll(0, TransferDigest.toRanges(bad, downloadFileSize));
+        } else {
+            Log.d(TAG, "✅ Rango " + range[0] + "+" + range[1] + " verificado");
+        }
+
+        requestNextRange();
+    }
+
+    private void verifyDownload() {
+        String localSha = downloadDigest.sha256Hex();
+
+        if (localSha != null && localSha.equals(expectedHash.sha256) &&
+                expectedHash.size == downloadFileSize) {
+            Log.d(TAG, "🔐 SHA-256 verificado");
+            verifyTransport.onIntegrityCheck(downloadFileSize, 0);
+            finishDownload(true);
+            return;
+        }
+
+        BitSet bad = downloadDigest.mismatchedSegments(expectedHash, 0);
+        if (bad.isEmpty() || expectedHash.size != downloadFileSize) {
+            failDownload("Integridad: el hash no coincide");
+            return;
+        }
+
+        pendingRanges.clear();
+        pendingRanges.addAll(TransferDigest.toRanges(bad, downloadFileSize));
+        verifyTransport.onIntegrityCheck(downloadFileSize, rangeBytes(pendingRanges));
+        Log.w(TAG, "⚠️ " + bad.cardinality() + " segmento(s) dañados en " +
+                pendingRanges.size() + " rango(s), re-descargando");
+        requestNextRange();
+    }
 
-            // Escribir todos los chunks
-            FileOutputStream fos = new FileOutputStream(outputFile);
+    /**
+     * @return Bytes cubiertos por una lista de rangos [offset, longitud]
+     */
+    private static long rangeBytes(List<long[]> ranges) {
+        long total = 0;
+        for (long[] range : ranges) {
+            total += range[1];
+        }
+        return total;
+    }
+
+    private void requestNextRange() {
+        if (pendingRanges.isEmpty()) {
+            Log.d(TAG, "🔐 Todos los segmentos verificados (CRC32C)");
+            finishDownload(true);
+            return;
+        }
+
+        long[] range = pendingRanges.get(0);
+        rangeOffset = range[0];
+        rangeDigest = new TransferDigest(downloadFileSize, range[0], range[0] + range[1]);
+        verifyTransport.sendText("CMD:READ_RANGE:" + downloadFileName + ":" +
+                range[0] + ":" + range[1]);
+    }
 
-            for (byte[] chunk : downloadChunks) {
-                fos.write(chunk);
+    /**
+     * Descarga correcta: cerrar archivo y notificar
+     *
+     * @param verified true si coincide con el hash del Heltec (entra en caché)
+     */
+    private void finishDownload(boolean verified) {
+        File outputFile = downloadFile;
+        closeDownloadOutput();
+        verifyState = VERIFY_NONE;
+        isDownloading = false;
+
+        if (verified && downloadCache != null) {
+            downloadCache.put(expectedHash.sha256, outputFile);
+        }
+
+        // Verificar tamaño
+        long actualSize = outputFile.length();
+
+        Log.d(TAG, "✅ Archivo guardado: " + outputFile.getAbsolutePath());
+        Log.d(TAG, "   Tamaño esperado: " + downloadFileSize);
+        Log.d(TAG, "   Tamaño real: " + actualSize);
+
+        if (actualSize != downloadFileSize) {
+            Log.w(TAG, "⚠️ Advertencia: Tamaño no coincide");
+        }
+
+        // Notificar completado
+        if (downloadCallback != null) {
+            downloadCallback.onComplete(outputFile);
+        }
+    }
+
+    /**
+     * Descarga fallida o corrupta: borrar el archivo y notificar
+     */
+    private void failDownload(String error) {
+        Log.e(TAG, "❌ " + error);
+        TransferLog.dump("download: " + error);
+
+        File outputFile = downloadFile;
+        closeDownloadOutput();
+        if (outputFile != null) {
+            outputFile.delete();
+        }
+        verifyState = VERIFY_NONE;
+        isDownloading = false;
+
+        if (downloadCallback != null) {
+            downloadCallback.onError(error);
+        }
+    }
+
+    private void closeDownloadOutput() {
+        if (downloadOutput != null) {
+            try {
+                downloadOutput.close();
+            } catch (IOException e) {
+                Log.e(TAG, "❌ Error cerrando archivo: " + e.getMessage());
             }
+            downloadOutput = null;
+        }
+        rangeOffset = -1;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔐 VERIFICACIÓN DE SUBIDA
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Comparar lo subido con el hash del Heltec y re-enviar solo los
+     * rangos dañados (CMD:UPLOAD_RANGE)
+     *
+     * @param uri Archivo original (para releer los rangos dañados)
+     * @param digest Digest recibido en UploadCallback.onDigest
+     * @param callback onComplete = verificado, onError = corrupto
+     */
+    public void verifyUpload(Uri uri, String fileName, TransferDigest digest,
+                             Transport transport, UploadCallback callback) {
+        verifyUploadUri = uri;
+        verifyUploadName = fileName;
+        verifyUploadDigest = digest;
+        verifyUploadCallback = callback;
+
+        verifyState = VERIFY_UPLOAD;
+        verifyRetries = 0;
+        verifyTransport = transport;
+        expectedHash = null;
+        requestHash(fileName);
+    }
+
+    private void verifyUploadResult() {
+        String localSha = verifyUploadDigest.sha256Hex();
+
+        if (localSha != null && localSha.equals(expectedHash.sha256)) {
+            Log.d(TAG, "🔐 Subida verificada (SHA-256)");
+            verifyTransport.onIntegrityCheck(expectedHash.size, 0);
+            finishUploadVerify(null);
+            return;
+        }
+
+        BitSet bad = verifyUploadDigest.mismatchedSegments(expectedHash, 0);
+        if (bad.isEmpty()) {
+            finishUploadVerify("Integridad: el hash no coincide");
+            return;
+        }
+        if (++verifyRetries > MAX_RETRIES) {
+            finishUploadVerify("Integridad: " + bad.cardinality() +
+                    " segmento(s) siguen sin coincidir");
+            return;
+        }
 
-            fos.flush();
-            fos.close();
+        // Con el tamaño local: si el Heltec tiene el archivo truncado, los
+        // rangos lo vuelven a alargar
+        List<long[]> ranges = TransferDigest.toRanges(bad, verifyUploadDigest.size());
+        verifyTransport.onIntegrityCheck(expectedHash.size, rangeBytes(ranges));
+        Log.w(TAG, "⚠️ " + bad.cardinality() + " segmento(s) dañados, re-enviando " +
+                ranges.size() + " rango(s)");
 
-            // Verificar tamaño
-            long actualSize = outputFile.length();
+        new Thread(() -> {
+            try {
+                for (long[] range : ranges) {
+                    resendRange(range[0], range[1]);
+                }
+                Thread.sleep(UPLOAD_START_DELAY);
 
-            Log.d(TAG, "✅ Archivo guardado: " + outputFile.getAbsolutePath());
-            Log.d(TAG, "   Tamaño esperado: " + downloadFileSize);
-            Log.d(TAG, "   Tamaño real: " + actualSize);
+                // expectedHash y verifyState solo se tocan en el hilo
+                // principal, donde llegan HASH_START / HASH_SEG
+                mainHandler.post(() -> requestHash(verifyUploadName));
 
-            if (actualSize != downloadFileSize) {
-                Log.w(TAG, "⚠️ Advertencia: Tamaño no coincide");
+            } catch (IOException | InterruptedException e) {
+                mainHandler.post(() ->
+                        finishUploadVerify("Error re-enviando: " + e.getMessage()));
             }
+        }).start();
+    }
 
-            // Limpiar estado
-            isDownloading = false;
-            downloadChunks.clear();
+    /**
+     * Releer [offset, offset + length) del original y subirlo en su sitio
+     */
+    private void resendRange(long offset, long length)
+            throws IOException, InterruptedException {
+        verifyTransport.sendText("CMD:UPLOAD_RANGE:" + verifyUploadName + ":" +
+                offset + ":" + length + ":" + verifyUploadDigest.size());
+        Thread.sleep(UPLOAD_START_DELAY);
+
+        try (InputStream input = context.getContentResolver().openInputStream(verifyUploadUri)) {
+            if (input == null) {
+                throw new IOException("No se pudo abrir el archivo");
+            }
 
-            // Notificar completado
-            if (downloadCallback != null) {
-                downloadCallback.onComplete(outputFile);
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = input.skip(offset - skipped);
+                if (n <= 0) throw new IOException("No se pudo posicionar en " + offset);
+                skipped += n;
             }
 
-        } catch (IOException e) {
-            Log.e(TAG, "❌ Error guardando archivo: " + e.getMessage());
+            byte[] buffer = new byte[CHUNK_SIZE];
+            long sent = 0;
+            while (sent < length) {
+                // Chunk según el enlace (sus créditos marcan el ritmo)
+                int chunkSize = UploadSource.chunkSizeFor(verifyTransport.getMtu());
+                int read = input.read(buffer, 0, (int) Math.min(chunkSize, length - sent));
+                if (read <= 0) throw new IOException("Fin de archivo inesperado");
+
+                byte[] chunk = new byte[read];
+                System.arraycopy(buffer, 0, chunk, 0, read);
+                sendAndWait(verifyTransport, "CMD:UPLOAD_CHUNK:" + encodeBase64(chunk));
+
+                sent += read;
+            }
+        }
+
+        Log.d(TAG, "📤 Rango re-enviado: " + offset + "+" + length);
+    }
+
+    private void finishUploadVerify(String error) {
+        UploadCallback callback = verifyUploadCallback;
+        verifyState = VERIFY_NONE;
+        verifyUploadCallback = null;
+        verifyUploadUri = null;
+
+        if (callback == null) return;
+        if (error == null) {
+            callback.onComplete();
+        } else {
+            Log.e(TAG, "❌ " + error);
+            callback.onError(error);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ✂️ LECTURAS PARCIALES (CMD:READ_RANGE / CMD:READ_TAIL)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Leer solo un trozo de un archivo del Heltec (sin archivo local)
+     *
+     * @param offset Primer byte
+     * @param length Bytes a leer (0 = hasta el final)
+     */
+    public void requestRange(String fileName, long offset, long length,
+                             Transport transport, RangeCallback callback) {
+        if (!beginSlice(callback)) return;
+        transport.sendText("CMD:READ_RANGE:" + fileName + ":" + offset + ":" + length);
+    }
 
-            isDownloading = false;
-            downloadChunks.clear();
+    /**
+     * Leer los últimos bytes de un archivo (ej: un log que crece)
+     *
+     * @param length Bytes desde el final (0 = archivo completo)
+     */
+    public void requestTail(String fileName, long length,
+                            Transport transport, RangeCallback callback) {
+        if (!beginSlice(callback)) return;
+        transport.sendText("CMD:READ_TAIL:" + fileName + ":" + length);
+    }
 
-            if (downloadCallback != null) {
-                downloadCallback.onError("Error guardando archivo: " + e.getMessage());
+    private boolean beginSlice(RangeCallback callback) {
+        if (isDownloading || verifyState != VERIFY_NONE || sliceCallback != null) {
+            callback.onError("Hay otra transferencia en curso");
+            return false;
+        }
+        sliceCallback = callback;
+        sliceOffset = -1;
+        sliceLength = 0;
+        sliceReceived = 0;
+        return true;
+    }
+
+    /**
+     * RANGE_START:nombre:offset:longitud de una lectura parcial
+     */
+    public void onRangeStart(String args) {
+        if (sliceCallback == null) return;
+
+        int lengthSep = args.lastIndexOf(':');
+        int offsetSep = lengthSep > 0 ? args.lastIndexOf(':', lengthSep - 1) : -1;
+        try {
+            sliceOffset = Long.parseLong(args.substring(offsetSep + 1, lengthSep));
+            sliceLength = Long.parseLong(args.substring(lengthSep + 1));
+        } catch (RuntimeException e) {
+            finishSlice("RANGE_START inválido: " + args);
+            return;
+        }
+
+        Log.d(TAG, "✂️ Rango " + sliceOffset + "+" + sliceLength);
+        sliceCallback.onRangeStart(args.substring(0, Math.max(0, offsetSep)),
+                sliceOffset, sliceLength);
+    }
+
+    private void receiveSliceChunk(int chunkNumber, String base64Data) {
+        TransferTrace.begin(TransferTrace.DECODE);
+        byte[] chunkData;
+        try {
+            chunkData = Base64.decode(base64Data, Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            finishSlice("Error decodificando datos");
+            return;
+        } finally {
+            TransferTrace.end();
+        }
+
+        long offset = sliceOffset + (long) chunkNumber * CHUNK_SIZE;
+        TransferLog.event(TransferLog.EV_CHUNK_RECEIVED, chunkNumber, offset);
+        sliceReceived += chunkData.length;
+        sliceCallback.onData(offset, chunkData);
+    }
+
+    /**
+     * ERROR:* en respuesta a una lectura parcial
+     */
+    public void onRangeError(String error) {
+        finishSlice(error);
+    }
+
+    /**
+     * @param error null si terminó bien
+     */
+    private void finishSlice(String error) {
+        RangeCallback callback = sliceCallback;
+        long received = sliceReceived;
+        long expected = sliceLength;
+        sliceCallback = null;
+        sliceOffset = -1;
+
+        if (callback == null) return;
+
+        if (error == null && received != expected) {
+            error = "Rango incompleto: " + received + "/" + expected + " bytes";
+        }
+        if (error != null) {
+            Log.e(TAG, "❌ " + error);
+            callback.onError(error);
+        } else {
+            Log.d(TAG, "✅ Rango leído: " + received + " bytes");
+            callback.onComplete(received);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔐 RESPUESTAS DE CMD:HASH
+    // ════════════════════════════════════════════════════════════════════
+
+    private void requestHash(String fileName) {
+        expectedHash = null;
+        verifyTransport.sendText("CMD:HASH:" + fileName + ":" + TransferDigest.SEGMENT_SIZE);
+    }
+
+    /**
+     * Pedir solo el SHA-256 de un archivo del Heltec (sin descargarlo)
+     */
+    public void requestRemoteHash(String fileName, Transport transport,
+                                  HashCallback callback) {
+        remoteHashCallback = callback;
+        verifyTransport = transport;
+        verifyState = VERIFY_REMOTE_HASH;
+        requestHash(fileName);
+    }
+
+    private void finishRemoteHash(String sha256) {
+        HashCallback callback = remoteHashCallback;
+        remoteHashCallback = null;
+        verifyState = VERIFY_NONE;
+        if (callback != null) {
+            callback.onHash(sha256);
+        }
+    }
+
+    /**
+     * HASH_START:nombre:tamaño:segmento:segmentos
+     */
+    public void onHashStart(String args) {
+        if (verifyState == VERIFY_NONE) return;
+        try {
+            expectedHash = TransferDigest.Expected.fromStart(args);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "❌ HASH_START inválido: " + args);
+        }
+    }
+
+    /**
+     * HASH_SEG:i:crc32c
+     */
+    public void onHashSegment(String args) {
+        if (expectedHash == null) return;
+        try {
+            expectedHash.addSegment(args);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "❌ HASH_SEG inválido: " + args);
+        }
+    }
+
+    /**
+     * HASH_END:sha256
+     */
+    public void onHashEnd(String sha256) {
+        if (verifyState == VERIFY_NONE) return;
+
+        if (expectedHash == null) {
+            onVerifyError("INVALID_HASH");
+            return;
+        }
+        expectedHash.sha256 = sha256.trim().toLowerCase(Locale.ROOT);
+
+        if (verifyState == VERIFY_REMOTE_HASH) {
+            finishRemoteHash(expectedHash.sha256);
+        } else if (verifyState == VERIFY_LOOKUP) {
+            onLookupResult();
+        } else if (verifyState == VERIFY_DOWNLOAD) {
+            verifyDownload();
+        } else {
+            verifyUploadResult();
+        }
+    }
+
+    /**
+     * ERROR:* recibido mientras se verifica
+     *
+     * Un firmware sin CMD:HASH responde UNKNOWN_COMMAND: la transferencia
+     * se da por buena como antes (solo comprobación de tamaño).
+     */
+    public void onVerifyError(String error) {
+        boolean unsupported = error.equals("UNKNOWN_COMMAND") && expectedHash == null;
+        if (unsupported) {
+            Log.w(TAG, "⚠️ El Heltec no soporta CMD:HASH, sin verificación");
+        }
+
+        if (verifyState == VERIFY_REMOTE_HASH) {
+            finishRemoteHash(null);
+        } else if (verifyState == VERIFY_LOOKUP) {
+            // Sin hash no hay caché: descarga normal
+            verifyState = VERIFY_NONE;
+            if (unsupported) {
+                verifyTransport.sendText("CMD:DOWNLOAD:" + lookupFileName);
+            } else if (downloadCallback != null) {
+                downloadCallback.onError(error);
             }
+        } else if (verifyState == VERIFY_DOWNLOAD) {
+            if (unsupported) finishDownload(false);
+            else failDownload("Integridad: " + error);
+        } else if (verifyState == VERIFY_UPLOAD) {
+            finishUploadVerify(unsupported ? null : "Integridad: " + error);
         }
     }
 
@@ -458,7 +1195,7 @@ public class FileManager {
      * @param fileName Nombre del archivo
      * @return Archivo creado o null si error
      */
-    private File createDownloadFile(String fileName) {
+    File createDownloadFile(String fileName) {
         try {
             // Obtener carpeta de Descargas
             File downloadsDir = Environment.getExternalStoragePublicDirectory(
@@ -565,6 +1302,27 @@ public class FileManager {
         return isDownloading;
     }
 
+    /**
+     * @return true si se espera la respuesta de CMD:HASH o una re-descarga
+     */
+    public boolean isVerifying() {
+        return verifyState != VERIFY_NONE;
+    }
+
+    /**
+     * @return true si hay una lectura parcial (requestRange/requestTail) en curso
+     */
+    public boolean isReadingRange() {
+        return sliceCallback != null;
+    }
+
+    /**
+     * @return true si la última descarga salió de la caché local
+     */
+    public boolean isLastDownloadFromCache() {
+        return lastDownloadFromCache;
+    }
+
     /**
      * @return Nombre del archivo que se está descargando
      */
@@ -586,14 +1344,8 @@ public class FileManager {
     public void cancelDownload() {
         if (isDownloading) {
             Log.w(TAG, "⚠️ Descarga cancelada por usuario");
-
-            isDownloading = false;
-            downloadChunks.clear();
             downloadBytesReceived = 0;
-
-            if (downloadCallback != null) {
-                downloadCallback.onError("Descarga cancelada");
-            }
+            failDownload("Descarga cancelada");
         }
     }
 }
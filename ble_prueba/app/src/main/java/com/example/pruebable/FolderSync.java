@@ -0,0 +1,825 @@
+package com.example.pruebable;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🔄 FolderSync - Espejo entre una Carpeta del Teléfono y LittleFS
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Compara la carpeta elegida (SAF) con el listado del Heltec y ejecuta
+ * solo las operaciones necesarias:
+ * - PUSH: el Heltec queda igual que la carpeta (sube y borra en remoto)
+ * - TWO_WAY: los cambios de cada lado se propagan al otro; si ambos
+ *   cambiaron el mismo archivo gana el teléfono
+ * - Manifiesto por dispositivo y carpeta con tamaño/fecha local y
+ *   tamaño remoto de la última sincronización: una carpeta sin cambios
+ *   cuesta un solo CMD:LIST
+ * - Sin manifiesto y mismo tamaño: SHA-256 local contra CMD:HASH
+ * - Ejecución en una sesión: CMD:DELETE seguidos, todas las subidas en
+ *   un lote (BatchUpload) y las descargas una tras otra
+ *
+ * LittleFS es plano: solo se sincronizan los archivos del primer nivel.
+ * Todos los métodos se llaman desde el hilo principal.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class FolderSync {
+
+    private static final String TAG = "FolderSync";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    private static final String PREFS_NAME = "folder_sync";
+
+    // Espera tras CMD:BATCH_START antes de enviar chunks (igual que DeviceActivity)
+    private static final int UPLOAD_START_DELAY = 500;
+
+    private static final String[] LOCAL_COLUMNS = {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+            DocumentsContract.Document.COLUMN_MIME_TYPE
+    };
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 MODOS, FASES Y PLAN
+    // ════════════════════════════════════════════════════════════════════
+
+    enum Mode { PUSH, TWO_WAY }
+
+    private enum Phase { IDLE, LISTING, HASHING, CONFIRMING, DELETING, UPLOADING, DOWNLOADING }
+
+    /**
+     * Archivo de la carpeta local
+     */
+    static class LocalFile {
+        final String name;
+        final long size;
+        final long modified;
+        final Uri uri;
+
+        LocalFile(String name, long size, long modified, Uri uri) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * Estado de un archivo tras la última sincronización correcta
+     */
+    static class ManifestEntry {
+        final long localSize;
+        final long localModified;
+        final long remoteSize;
+
+        ManifestEntry(long localSize, long localModified, long remoteSize) {
+            this.localSize = localSize;
+            this.localModified = localModified;
+            this.remoteSize = remoteSize;
+        }
+    }
+
+    /**
+     * Operaciones mínimas para dejar ambos lados iguales
+     */
+    static class Plan {
+        final List<LocalFile> uploads = new ArrayList<>();
+        final List<String> downloads = new ArrayList<>();
+        final List<String> remoteDeletes = new ArrayList<>();
+        final List<LocalFile> localDeletes = new ArrayList<>();
+        final List<String> hashChecks = new ArrayList<>();
+        final List<String> conflicts = new ArrayList<>();
+
+        // Iguales sin transferir (se guardan en el manifiesto)
+        final Set<String> unchanged = new HashSet<>();
+
+        int operations() {
+            return uploads.size() + downloads.size() + remoteDeletes.size() + localDeletes.size();
+        }
+
+        boolean isEmpty() {
+            return operations() == 0;
+        }
+
+        /**
+         * @return Resumen para el diálogo de confirmación
+         */
+        String summary() {
+            StringBuilder text = new StringBuilder();
+            text.append("⬆️ Subir: ").append(uploads.size()).append('\n');
+            text.append("⬇️ Descargar: ").append(downloads.size()).append('\n');
+            text.append("🗑️ Borrar en Heltec: ").append(remoteDeletes.size()).append('\n');
+            text.append("🗑️ Borrar en teléfono: ").append(localDeletes.size());
+            if (!conflicts.isEmpty()) {
+                text.append("\n⚠️ Conflictos (gana el teléfono): ").append(conflicts.size());
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Eventos de la sincronización (se entregan en el hilo principal)
+     */
+    interface Listener {
+        /**
+         * Plan calculado: llamar a execute() para aplicarlo
+         */
+        void onPlanReady(Plan plan);
+
+        /**
+         * Paso en curso (para el diálogo de progreso, sin "...")
+         */
+        void onSyncStatus(String status);
+
+        /**
+         * Bytes transferidos del paso en curso
+         */
+        void onSyncBytes(long done, long total);
+
+        /**
+         * Sincronización terminada (también si no había nada que hacer)
+         */
+        void onSyncFinished(int done, int failed);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final Context context;
+    private final FileManager fileManager;
+    private final BLEManager bleManager;
+    private final Listener listener;
+    private final SharedPreferences prefs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private Phase phase = Phase.IDLE;
+    private Mode mode;
+    private Uri treeUri;
+    private String manifestKey;
+
+    private Map<String, LocalFile> local;
+    private Map<String, Long> remote;
+    private Map<String, ManifestEntry> manifest;
+    private Plan plan;
+
+    private int pendingDeletes = 0;
+    private final List<List<LocalFile>> pendingBatches = new ArrayList<>();
+    private List<LocalFile> currentBatch;
+    private int downloadIndex = 0;
+
+    private int done = 0;
+    private final Set<String> failed = new HashSet<>();
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    FolderSync(Context context, FileManager fileManager, BLEManager bleManager,
+               Listener listener) {
+        this.context = context;
+        this.fileManager = fileManager;
+        this.bleManager = bleManager;
+        this.listener = listener;
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ▶️ INICIAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Leer la carpeta local y pedir el listado del Heltec
+     *
+     * @param device Dirección del Heltec (el manifiesto es por dispositivo)
+     * @param treeUri Carpeta elegida con ACTION_OPEN_DOCUMENT_TREE
+     */
+    void start(String device, Uri treeUri, Mode mode) {
+        if (isActive()) return;
+
+        this.mode = mode;
+        this.treeUri = treeUri;
+        this.manifestKey = device + "|" + treeUri;
+        this.done = 0;
+        this.failed.clear();
+
+        try {
+            local = listLocal();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "❌ Error leyendo la carpeta: " + e.getMessage());
+            listener.onSyncFinished(0, 1);
+            return;
+        }
+        manifest = loadManifest();
+
+        Log.d(TAG, "🔄 Sincronizando " + local.size() + " archivo(s) locales (" + mode + ")");
+        phase = Phase.LISTING;
+        listener.onSyncStatus("📋 Comparando con el Heltec");
+        bleManager.sendCommand("CMD:LIST");
+    }
+
+    /**
+     * Listado completo del Heltec (FILES_END)
+     */
+    void onRemoteListing(Map<String, Long> files) {
+        if (phase != Phase.LISTING) return;
+
+        remote = new HashMap<>(files);
+        plan = computePlan(local, remote, manifest, mode);
+        Log.d(TAG, "📐 Plan: " + plan.operations() + " operación(es), " +
+                plan.hashChecks.size() + " por comparar con hash");
+
+        phase = Phase.HASHING;
+        nextHashCheck();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📐 CÁLCULO DEL PLAN
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Comparar ambos lados con el manifiesto de la última sincronización
+     *
+     * Remoto solo da tamaño: un archivo del Heltec cambió si su tamaño
+     * difiere del registrado. Sin manifiesto y con el mismo tamaño se
+     * decide por hash (hashChecks).
+     */
+    static Plan computePlan(Map<String, LocalFile> local, Map<String, Long> remote,
+                            Map<String, ManifestEntry> manifest, Mode mode) {
+        Plan plan = new Plan();
+
+        Set<String> names = new TreeSet<>(local.keySet());
+        names.addAll(remote.keySet());
+
+        for (String name : names) {
+            LocalFile file = local.get(name);
+            Long remoteSize = remote.get(name);
+            ManifestEntry entry = manifest.get(name);
+
+            if (file != null && remoteSize != null) {
+                if (entry == null) {
+                    if (file.size == remoteSize) {
+                        plan.hashChecks.add(name);
+                    } else {
+                        if (mode == Mode.TWO_WAY) plan.conflicts.add(name);
+                        plan.uploads.add(file);
+                    }
+                    continue;
+                }
+
+                boolean localChanged = file.size != entry.localSize ||
+                        file.modified != entry.localModified;
+                boolean remoteChanged = remoteSize != entry.remoteSize;
+
+                if (mode == Mode.PUSH) {
+                    if (localChanged || remoteChanged) plan.uploads.add(file);
+                    else plan.unchanged.add(name);
+                } else if (localChanged) {
+                    if (remoteChanged) plan.conflicts.add(name);
+                    plan.uploads.add(file);
+                } else if (remoteChanged) {
+                    plan.downloads.add(name);
+                } else {
+                    plan.unchanged.add(name);
+                }
+
+            } else if (file != null) {
+                // Solo en el teléfono: nuevo, o borrado en el Heltec
+                if (mode == Mode.TWO_WAY && entry != null) {
+                    plan.localDeletes.add(file);
+                } else {
+                    plan.uploads.add(file);
+                }
+
+            } else {
+                // Solo en el Heltec: nuevo, o borrado en el teléfono
+                if (mode == Mode.PUSH || entry != null) {
+                    plan.remoteDeletes.add(name);
+                } else {
+                    plan.downloads.add(name);
+                }
+            }
+        }
+        return plan;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔐 COMPARAR POR HASH
+    // ════════════════════════════════════════════════════════════════════
+
+    private void nextHashCheck() {
+        if (phase != Phase.HASHING) return;
+
+        if (plan.hashChecks.isEmpty()) {
+            phase = Phase.CONFIRMING;
+            if (plan.isEmpty()) {
+                Log.d(TAG, "✅ Sin cambios");
+                finish();
+            } else {
+                listener.onPlanReady(plan);
+            }
+            return;
+        }
+
+        String name = plan.hashChecks.remove(0);
+        LocalFile file = local.get(name);
+        listener.onSyncStatus("🔐 Comparando " + name);
+
+        new Thread(() -> {
+            String localSha = hashLocal(file);
+            handler.post(() -> fileManager.requestRemoteHash(name, bleManager, remoteSha -> {
+                boolean same = localSha != null && localSha.equals(remoteSha);
+                Log.d(TAG, (same ? "🟰 Igual: " : "≠ Distinto: ") + name);
+                if (same) {
+                    plan.unchanged.add(name);
+                } else {
+                    if (mode == Mode.TWO_WAY) plan.conflicts.add(name);
+                    plan.uploads.add(file);
+                }
+                nextHashCheck();
+            }));
+        }, "FolderSync-hash").start();
+    }
+
+    private String hashLocal(LocalFile file) {
+        TransferDigest digest = new TransferDigest(file.size);
+        byte[] buffer = new byte[8192];
+        long offset = 0;
+
+        try (InputStream input = context.getContentResolver().openInputStream(file.uri)) {
+            if (input == null) return null;
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                digest.update(offset, buffer, 0, read);
+                offset += read;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Error leyendo " + file.name + ": " + e.getMessage());
+            return null;
+        }
+
+        digest.finish();
+        return offset == file.size ? digest.sha256Hex() : null;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ⚙️ EJECUTAR EL PLAN
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Aplicar el plan confirmado: borrados, lote de subidas y descargas
+     */
+    void execute() {
+        if (phase != Phase.CONFIRMING) return;
+
+        phase = Phase.DELETING;
+        pendingDeletes = plan.remoteDeletes.size();
+        if (pendingDeletes > 0) {
+            listener.onSyncStatus("🗑️ Borrando " + pendingDeletes + " archivo(s)");
+            // Todos seguidos: el Heltec responde OK:DELETED a cada uno
+            for (String name : plan.remoteDeletes) {
+                bleManager.sendCommand("CMD:DELETE:" + name);
+            }
+            return;
+        }
+        startUploads();
+    }
+
+    /**
+     * Descartar el plan sin aplicarlo
+     */
+    void cancel() {
+        if (phase == Phase.CONFIRMING) {
+            phase = Phase.IDLE;
+        }
+    }
+
+    /**
+     * OK:DELETED o el ERROR:* de un CMD:DELETE
+     */
+    void onDeleteResult(boolean success) {
+        if (phase != Phase.DELETING || pendingDeletes == 0) return;
+
+        String name = plan.remoteDeletes.get(plan.remoteDeletes.size() - pendingDeletes);
+        if (success) {
+            remote.remove(name);
+            done++;
+        } else {
+            failed.add(name);
+        }
+
+        if (--pendingDeletes == 0) {
+            startUploads();
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ⬆️ SUBIDAS (lotes)
+    // ════════════════════════════════════════════════════════════════════
+
+    private void startUploads() {
+        phase = Phase.UPLOADING;
+        pendingBatches.clear();
+
+        List<LocalFile> group = new ArrayList<>();
+        long groupBytes = 0;
+        for (LocalFile file : plan.uploads) {
+            if (group.size() == BatchUpload.MAX_FILES ||
+                    (!group.isEmpty() && groupBytes + file.size > BatchUpload.MAX_BATCH_BYTES)) {
+                pendingBatches.add(group);
+                group = new ArrayList<>();
+                groupBytes = 0;
+            }
+            group.add(file);
+            groupBytes += file.size;
+        }
+        if (!group.isEmpty()) pendingBatches.add(group);
+
+        nextBatch();
+    }
+
+    private void nextBatch() {
+        if (pendingBatches.isEmpty()) {
+            currentBatch = null;
+            startDownloads();
+            return;
+        }
+
+        currentBatch = pendingBatches.remove(0);
+        BatchUpload batch = new BatchUpload();
+        List<LocalFile> accepted = new ArrayList<>();
+        for (LocalFile file : currentBatch) {
+            String problem = batch.add(file.uri, file.name, file.size);
+            if (problem != null) {
+                Log.w(TAG, "⚠️ Omitido del lote: " + problem);
+                failed.add(file.name);
+            } else {
+                accepted.add(file);
+            }
+        }
+        currentBatch = accepted;
+
+        if (batch.getCount() == 0) {
+            nextBatch();
+            return;
+        }
+
+        listener.onSyncStatus("⬆️ Subiendo " + batch.getCount() + " archivo(s)");
+        bleManager.sendCommand(batch.startCommand());
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(UPLOAD_START_DELAY);
+
+                UploadSource source = new UploadSource(batch.openStream(context),
+                        batch.totalSize());
+                fileManager.uploadFileInChunks(source, bleManager.getBulkTransport(),
+                        new FileManager.UploadCallback() {
+                            @Override
+                            public void onProgress(int percentage) {
+                                // Se informa por bytes
+                            }
+
+                            @Override
+                            public void onBytesSent(long sent, long total) {
+                                listener.onSyncBytes(sent, total);
+                            }
+
+                            @Override
+                            public void onComplete() {
+                                // Se espera OK:BATCH_COMPLETE del Heltec
+                            }
+
+                            @Override
+                            public void onError(String error) {
+                                handler.post(() -> onBatchResult(false));
+                            }
+                        });
+
+            } catch (Exception e) {
+                Log.e(TAG, "❌ Error en lote: " + e.getMessage());
+                handler.post(() -> onBatchResult(false));
+            }
+        }, "FolderSync-upload").start();
+    }
+
+    /**
+     * OK:BATCH_COMPLETE o ERROR:* durante el lote
+     */
+    void onBatchResult(boolean success) {
+        if (phase != Phase.UPLOADING || currentBatch == null) return;
+
+        for (LocalFile file : currentBatch) {
+            if (success) {
+                remote.put(file.name, file.size);
+                done++;
+            } else {
+                failed.add(file.name);
+            }
+        }
+        currentBatch = null;
+        nextBatch();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ⬇️ DESCARGAS
+    // ════════════════════════════════════════════════════════════════════
+
+    private void startDownloads() {
+        phase = Phase.DOWNLOADING;
+        downloadIndex = 0;
+        nextDownload();
+    }
+
+    private void nextDownload() {
+        if (downloadIndex >= plan.downloads.size()) {
+            deleteLocalFiles();
+            finish();
+            return;
+        }
+
+        String name = plan.downloads.get(downloadIndex);
+        listener.onSyncStatus("⬇️ Descargando " + name);
+        fileManager.requestDownload(name, bleManager, downloadCallback);
+    }
+
+    /**
+     * Callback de FileManager para las descargas de la sincronización
+     * (DeviceActivity lo pasa a receiveChunk mientras isDownloading())
+     */
+    final FileManager.DownloadCallback downloadCallback = new FileManager.DownloadCallback() {
+        @Override
+        public void onProgress(int percentage) {
+            // Se informa por bytes
+        }
+
+        @Override
+        public void onBytesReceived(long received, long total) {
+            listener.onSyncBytes(received, total);
+        }
+
+        @Override
+        public void onComplete(File file) {
+            String name = plan.downloads.get(downloadIndex);
+            new Thread(() -> {
+                boolean copied = copyIntoTree(name, file);
+                handler.post(() -> onDownloadResult(name, copied));
+            }, "FolderSync-copy").start();
+        }
+
+        @Override
+        public void onError(String error) {
+            Log.e(TAG, "❌ Error descargando: " + error);
+            onDownloadResult(plan.downloads.get(downloadIndex), false);
+        }
+    };
+
+    private void onDownloadResult(String name, boolean success) {
+        if (phase != Phase.DOWNLOADING) return;
+
+        if (success) done++;
+        else failed.add(name);
+
+        downloadIndex++;
+        nextDownload();
+    }
+
+    /**
+     * Copiar la descarga a la carpeta sincronizada (sobrescribe si existe)
+     */
+    private boolean copyIntoTree(String name, File downloaded) {
+        ContentResolver resolver = context.getContentResolver();
+        try {
+            LocalFile existing = local.get(name);
+            Uri target = existing != null ? existing.uri : DocumentsContract.createDocument(
+                    resolver, treeDocumentUri(), "application/octet-stream", name);
+            if (target == null) {
+                throw new IOException("No se pudo crear " + name);
+            }
+
+            try (InputStream input = new FileInputStream(downloaded);
+                 OutputStream output = resolver.openOutputStream(target, "wt")) {
+                if (output == null) {
+                    throw new IOException("No se pudo escribir " + name);
+                }
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    output.write(buffer, 0, read);
+                }
+            }
+
+            // La copia en HeltecDownloads ya no hace falta
+            downloaded.delete();
+            return true;
+
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "❌ Error copiando " + name + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🗑️ BORRADOS LOCALES
+    // ════════════════════════════════════════════════════════════════════
+
+    private void deleteLocalFiles() {
+        ContentResolver resolver = context.getContentResolver();
+        for (LocalFile file : plan.localDeletes) {
+            try {
+                if (DocumentsContract.deleteDocument(resolver, file.uri)) {
+                    done++;
+                    continue;
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "❌ Error borrando " + file.name + ": " + e.getMessage());
+            }
+            failed.add(file.name);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏁 TERMINAR
+    // ════════════════════════════════════════════════════════════════════
+
+    private void finish() {
+        saveManifest();
+        phase = Phase.IDLE;
+
+        Log.d(TAG, "🏁 Sincronización terminada: " + done + " OK, " + failed.size() + " fallidos");
+        listener.onSyncFinished(done, failed.size());
+    }
+
+    /**
+     * ERROR:* del Heltec mientras la sincronización espera respuesta
+     *
+     * @return true si el error era para la sincronización
+     */
+    boolean onError(String error) {
+        switch (phase) {
+            case LISTING:
+                phase = Phase.IDLE;
+                listener.onSyncFinished(0, 1);
+                return true;
+            case DELETING:
+                // Ya no existe: el objetivo del borrado se cumple igual
+                onDeleteResult(error.equals("FILE_NOT_FOUND"));
+                return true;
+            case UPLOADING:
+                onBatchResult(false);
+                return true;
+            case DOWNLOADING:
+                // CMD:DOWNLOAD rechazado (sin caché no pasa por CMD:HASH)
+                downloadCallback.onError(error);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 💾 MANIFIESTO
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Registrar el estado final: archivos presentes en ambos lados
+     * (los fallidos conservan la entrada anterior para reintentarse)
+     */
+    private void saveManifest() {
+        Map<String, LocalFile> current;
+        try {
+            current = listLocal();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "❌ Error releyendo la carpeta: " + e.getMessage());
+            return;
+        }
+
+        StringBuilder stored = new StringBuilder();
+        for (LocalFile file : current.values()) {
+            Long remoteSize = remote.get(file.name);
+            if (remoteSize == null) continue;
+
+            ManifestEntry entry;
+            if (failed.contains(file.name)) {
+                entry = manifest.get(file.name);
+                if (entry == null) continue;
+            } else {
+                entry = new ManifestEntry(file.size, file.modified, remoteSize);
+            }
+
+            stored.append(file.name).append('\t')
+                    .append(entry.localSize).append('\t')
+                    .append(entry.localModified).append('\t')
+                    .append(entry.remoteSize).append('\n');
+        }
+
+        prefs.edit().putString(manifestKey, stored.toString()).apply();
+    }
+
+    private Map<String, ManifestEntry> loadManifest() {
+        Map<String, ManifestEntry> entries = new HashMap<>();
+        String stored = prefs.getString(manifestKey, null);
+        if (stored == null) return entries;
+
+        for (String line : stored.split("\n")) {
+            String[] parts = line.split("\t");
+            if (parts.length != 4) continue;
+            try {
+                entries.put(parts[0], new ManifestEntry(Long.parseLong(parts[1]),
+                        Long.parseLong(parts[2]), Long.parseLong(parts[3])));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "⚠️ Entrada de manifiesto inválida: " + line);
+            }
+        }
+        return entries;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📁 CARPETA LOCAL
+    // ════════════════════════════════════════════════════════════════════
+
+    private Uri treeDocumentUri() {
+        return DocumentsContract.buildDocumentUriUsingTree(treeUri,
+                DocumentsContract.getTreeDocumentId(treeUri));
+    }
+
+    /**
+     * Archivos del primer nivel de la carpeta (sin subcarpetas)
+     */
+    private Map<String, LocalFile> listLocal() {
+        Map<String, LocalFile> files = new HashMap<>();
+        Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri,
+                DocumentsContract.getTreeDocumentId(treeUri));
+
+        try (Cursor cursor = context.getContentResolver().query(
+                children, LOCAL_COLUMNS, null, null, null)) {
+            if (cursor == null) return files;
+
+            while (cursor.moveToNext()) {
+                String mime = cursor.getString(4);
+                if (DocumentsContract.Document.MIME_TYPE_DIR.equals(mime)) continue;
+
+                String name = cursor.getString(1);
+                Uri uri = DocumentsContract.buildDocumentUriUsingTree(treeUri,
+                        cursor.getString(0));
+                long size = cursor.isNull(2) ? -1 : cursor.getLong(2);
+                long modified = cursor.isNull(3) ? 0 : cursor.getLong(3);
+                files.put(name, new LocalFile(name, size, modified, uri));
+            }
+        }
+        return files;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 GETTERS
+    // ════════════════════════════════════════════════════════════════════
+
+    boolean isActive() {
+        return phase != Phase.IDLE;
+    }
+
+    boolean isListing() {
+        return phase == Phase.LISTING;
+    }
+
+    boolean isDeleting() {
+        return phase == Phase.DELETING;
+    }
+
+    boolean isUploading() {
+        return phase == Phase.UPLOADING;
+    }
+
+    boolean isDownloading() {
+        return phase == Phase.DOWNLOADING;
+    }
+}
@@ -0,0 +1,315 @@
+package com.example.pruebable;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * ⛲ FountainCode - Código LT Sistemático para el Carrusel LoRa
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Genera símbolos de reparación sin tasa fija (LT, distribución Robust
+ * Soliton) para los archivos que difunde carrusel_tx_opt:
+ * - Símbolos 0..K-1 = chunks originales (los DATA que ya envía el TX)
+ * - Símbolos K.. = XOR de "grado" chunks elegidos por un PRNG determinista
+ * - El receptor termina con ~K(1+ε) símbolos cualesquiera, sin ACKs
+ *
+ * El teléfono sube "<nombre>.fec" a carrusel_tx_opt (HTTP), que intercala
+ * sus registros como paquetes REPAIR entre los DATA de cada vuelta. El
+ * .fec trae símbolos para REPAIR_ROUNDS vueltas y cada vuelta sigue donde
+ * se quedó la anterior (ESIs nuevos), así que el RX suma información;
+ * carrusel_rx_opt los decodifica por pelado y guarda los que recibió en su
+ * propio "<nombre>.fec" para CarouselRecovery.
+ *
+ * Cada registro lleva su grado: el ESP32 regenera los vecinos solo con el
+ * PRNG entero (xorshift32) a partir de (seed, esi), sin la tabla de grados.
+ * La semilla es el CRC32 de nombre + tamaño (seedFor), igual en TX y RX.
+ *
+ * Formato del archivo de reparación (little endian):
+ *   'L' 'T' version(1) reservado(1) fileSize(4) symbolSize(2) porVuelta(2)
+ *   K(4) seed(4) repairCount(4)
+ *   repairCount × [ esi(4) + grado(2) + reservado(2) + symbolSize bytes ]
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class FountainCode {
+
+    private static final String TAG = "FountainCode";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // Debe coincidir con CHUNK_SIZE de carrusel_tx_opt
+    static final int SYMBOL_SIZE = 240;
+
+    static final byte MAGIC_1 = 'L';
+    static final byte MAGIC_2 = 'T';
+    static final byte VERSION = 2;
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_HEADER_SIZE = 8;
+
+    // Extensión del archivo de reparación que se sube junto al original
+    static final String REPAIR_EXTENSION = ".fec";
+
+    // Overhead de reparación por vuelta por defecto (30%)
+    static final double DEFAULT_OVERHEAD = 0.30;
+
+    // Vueltas con símbolos distintos; a partir de ahí el TX los repite
+    static final int REPAIR_ROUNDS = 3;
+
+    // Parámetros Robust Soliton
+    private static final double SOLITON_C = 0.1;
+    private static final double SOLITON_DELTA = 0.5;
+
+    // La CDF de grados se guarda escalada a 2^20 para usar solo enteros
+    private static final int CDF_SCALE = 1 << 20;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    final int k;
+    final int seed;
+    private final int[] degreeCdf;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @param k Número de símbolos fuente
+     * @param seed Semilla del archivo (ver seedFor)
+     */
+    FountainCode(int k, int seed) {
+        this.k = k;
+        this.seed = seed;
+        this.degreeCdf = robustSolitonCdf(k);
+    }
+
+    /**
+     * Semilla derivada del nombre y tamaño, igual en TX y RX
+     */
+    static int seedFor(String fileName, long fileSize) {
+        CRC32 crc = new CRC32();
+        crc.update(fileName.getBytes(StandardCharsets.UTF_8));
+        crc.update(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(fileSize).array());
+        int seed = (int) crc.getValue();
+        return seed != 0 ? seed : 1;
+    }
+
+    static int symbolCount(long fileSize) {
+        return (int) ((fileSize + SYMBOL_SIZE - 1) / SYMBOL_SIZE);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🎲 VECINOS DE UN SÍMBOLO
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Índices de los símbolos fuente que componen el símbolo esi
+     *
+     * @param esi Identificador del símbolo codificado
+     * @return Índices distintos en [0, K)
+     */
+    int[] neighbors(int esi) {
+        if (esi < k) {
+            return new int[]{esi};
+        }
+        return neighbors(esi, degree(esi));
+    }
+
+    /**
+     * Grado del símbolo esi según la CDF (primer paso del PRNG)
+     */
+    int degree(int esi) {
+        if (esi < k) return 1;
+
+        int state = xorshift(initialState(esi));
+        int r = (state >>> 12) & (CDF_SCALE - 1);
+        int degree = 1;
+        while (degree < k && degreeCdf[degree] <= r) {
+            degree++;
+        }
+        return degree;
+    }
+
+    /**
+     * Vecinos de un símbolo de reparación con el grado ya conocido (el
+     * que viaja en el registro); lo mismo que ltNeighbors() del RX
+     */
+    int[] neighbors(int esi, int degree) {
+        // El primer paso del PRNG es el del grado
+        int state = xorshift(initialState(esi));
+
+        // Vecinos distintos por muestreo con rechazo
+        int[] result = new int[degree];
+        int count = 0;
+        while (count < degree) {
+            state = xorshift(state);
+            int candidate = (int) ((state & 0xFFFFFFFFL) % k);
+
+            boolean repeated = false;
+            for (int i = 0; i < count; i++) {
+                if (result[i] == candidate) {
+                    repeated = true;
+                    break;
+                }
+            }
+            if (!repeated) {
+                result[count++] = candidate;
+            }
+        }
+        return result;
+    }
+
+    private int initialState(int esi) {
+        int state = seed ^ (esi * 0x9E3779B1);
+        return state != 0 ? state : 0x6D2B79F5;
+    }
+
+    private static int xorshift(int x) {
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        return x;
+    }
+
+    /**
+     * CDF Robust Soliton: cdf[d] = P(grado <= d) escalada a CDF_SCALE
+     */
+    private static int[] robustSolitonCdf(int k) {
+        int[] cdf = new int[k + 1];
+        if (k <= 1) {
+            cdf[k] = CDF_SCALE;
+            return cdf;
+        }
+
+        double r = SOLITON_C * Math.log(k / SOLITON_DELTA) * Math.sqrt(k);
+        int spike = Math.max(1, Math.min(k, (int) Math.floor(k / r)));
+
+        double[] mass = new double[k + 1];
+        double total = 0;
+        for (int d = 1; d <= k; d++) {
+            double rho = d == 1 ? 1.0 / k : 1.0 / ((double) d * (d - 1));
+            double tau = 0;
+            if (d < spike) {
+                tau = r / ((double) d * k);
+            } else if (d == spike) {
+                tau = r * Math.log(r / SOLITON_DELTA) / k;
+            }
+            mass[d] = rho + Math.max(tau, 0);
+            total += mass[d];
+        }
+
+        double acc = 0;
+        for (int d = 1; d <= k; d++) {
+            acc += mass[d];
+            cdf[d] = (int) Math.min(CDF_SCALE, Math.round(acc / total * CDF_SCALE));
+        }
+        cdf[k] = CDF_SCALE;
+        return cdf;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📦 CODIFICAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Generar el archivo de reparación de un archivo
+     *
+     * @param input Contenido del archivo original (se lee completo)
+     * @param fileName Nombre con el que se difundirá
+     * @param fileSize Tamaño del archivo
+     * @param overhead Fracción de símbolos de reparación respecto a K en cada vuelta
+     * @param rounds Vueltas del carrusel que cubre el archivo sin repetir ESIs
+     * @param output Archivo de reparación a crear
+     * @return Número de símbolos de reparación escritos
+     */
+    static int encodeRepairFile(InputStream input, String fileName, long fileSize,
+                                double overhead, int rounds, File output)
+            throws IOException {
+        int k = symbolCount(fileSize);
+        if (k == 0) {
+            throw new IOException("Archivo vacío");
+        }
+
+        // Símbolos fuente con relleno de ceros en el último
+        byte[] source = new byte[k * SYMBOL_SIZE];
+        int offset = 0;
+        int read;
+        while (offset < fileSize &&
+                (read = input.read(source, offset, (int) (fileSize - offset))) > 0) {
+            offset += read;
+        }
+        if (offset != fileSize) {
+            throw new IOException("Leídos " + offset + " de " + fileSize + " bytes");
+        }
+
+        FountainCode code = new FountainCode(k, seedFor(fileName, fileSize));
+        int perRound = Math.min(0xFFFF, Math.max(1, (int) Math.ceil(k * overhead)));
+        int repairCount = perRound * Math.max(1, rounds);
+
+        Log.d(TAG, "⛲ Codificando " + fileName + ": K=" + k + ", reparación=" + repairCount +
+                " (" + perRound + " por vuelta)");
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC_1).put(MAGIC_2).put(VERSION).put((byte) 0);
+            header.putInt((int) fileSize);
+            header.putShort((short) SYMBOL_SIZE).putShort((short) perRound);
+            header.putInt(k).putInt(code.seed).putInt(repairCount);
+            out.write(header.array());
+
+            byte[] symbol = new byte[SYMBOL_SIZE];
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            for (int i = 0; i < repairCount; i++) {
+                int esi = k + i;
+                int degree = code.degree(esi);
+                code.encodeSymbol(source, code.neighbors(esi, degree), symbol);
+
+                record.clear();
+                record.putInt(esi).putShort((short) degree).putShort((short) 0);
+                out.write(record.array());
+                out.write(symbol);
+            }
+        }
+
+        Log.d(TAG, "✅ Archivo de reparación: " + output.getName() +
+                " (" + output.length() + " bytes)");
+        return repairCount;
+    }
+
+    /**
+     * Calcular un símbolo codificado
+     *
+     * @param source Símbolos fuente concatenados (K × SYMBOL_SIZE)
+     * @param neighbors Vecinos del símbolo (ver neighbors)
+     * @param out Destino (SYMBOL_SIZE bytes, se sobrescribe)
+     */
+    void encodeSymbol(byte[] source, int[] neighbors, byte[] out) {
+        Arrays.fill(out, (byte) 0);
+        for (int index : neighbors) {
+            int base = index * SYMBOL_SIZE;
+            for (int j = 0; j < SYMBOL_SIZE; j++) {
+                out[j] ^= source[base + j];
+            }
+        }
+    }
+}
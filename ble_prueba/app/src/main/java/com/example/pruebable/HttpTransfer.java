@@ -0,0 +1,686 @@
+package com.example.pruebable;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🌐 HttpTransfer - Transferencias HTTP Paralelas con los Nodos del Carrusel
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Usa el AsyncWebServer de carrusel_rx_opt / carrusel_tx_opt (softAP en
+ * 192.168.4.1) en lugar de BLE:
+ * - Descargar del RX: GET /download con Range, por segmentos en varias
+ *   conexiones a la vez, escritos directamente en su posición del archivo;
+ *   el archivo de estado guarda los segmentos terminados y el CRC32 que
+ *   dio /crc, y solo se reanuda si el nodo sigue dando el mismo
+ * - Subir al TX: /upload_begin (con el CRC32 del archivo) devuelve qué
+ *   segmentos ya tiene el nodo, POST /upload_part?offset=&crc= por
+ *   segmentos en paralelo y /upload_end comprueba el CRC32 completo
+ * - Al terminar, el CRC32 del archivo entero se compara en ambos sentidos
+ *
+ * Firmware sin Range (responde 200) o sin /upload_part (404): una sola
+ * conexión con el archivo completo, sin reanudación. Sin /crc: descarga
+ * por segmentos, sin reanudación ni comprobación final.
+ *
+ * Todos los métodos son bloqueantes: llamar desde un hilo de fondo.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class HttpTransfer {
+
+    private static final String TAG = "HttpTransfer";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // Conexiones a la vez (el ESP32 atiende pocas sin perder memoria)
+    static final int DEFAULT_CONNECTIONS = 3;
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 15000;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // Intentos por segmento (cada uno sigue desde el último byte recibido)
+    private static final int MAX_ATTEMPTS = 4;
+
+    private static final int STATE_MAGIC = 0x48545432; // "HTT2"
+    private static final String DOWNLOAD_STATE = ".get";
+
+    // CRC desconocido (firmware sin /crc)
+    private static final long NO_CRC = -1;
+
+    /**
+     * Progreso (desde los hilos de la transferencia)
+     */
+    interface Listener {
+        void onProgress(long done, long total);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final String baseUrl;
+    private final File stateDir;
+    private final int connections;
+    private final int segmentSize;
+
+    private volatile boolean cancelled = false;
+
+    // Bytes transferidos en la operación actual (todas las conexiones)
+    private final AtomicLong progress = new AtomicLong();
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @param host     "192.168.4.1" o "host:puerto"
+     * @param stateDir Carpeta para el estado de reanudación
+     */
+    HttpTransfer(String host, File stateDir, int connections, int segmentSize) {
+        this.baseUrl = "http://" + host;
+        this.stateDir = stateDir;
+        this.connections = connections;
+        this.segmentSize = segmentSize;
+    }
+
+    HttpTransfer(String host, File stateDir) {
+        this(host, stateDir, DEFAULT_CONNECTIONS, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Detener la transferencia en curso (el estado queda para reanudar)
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📥 DESCARGAR (nodo RX)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Descargar un archivo del nodo a target, reanudando si hay estado
+     *
+     * @return Tamaño del archivo
+     */
+    long download(String remoteName, File target, Listener listener) throws IOException {
+        cancelled = false;
+        String url = baseUrl + "/download?file=" + encode(remoteName);
+
+        long total = probeSize(url);
+        if (total < 0) {
+            Log.w(TAG, "⚠️ El nodo no admite Range: descarga completa en una conexión");
+            return downloadWhole(url, target, listener);
+        }
+        long crc = fetchCrc(remoteName);
+
+        // El estado solo vale si el nodo sigue teniendo el mismo archivo
+        File stateFile = new File(stateDir, target.getName() + DOWNLOAD_STATE);
+        int segments = segmentCount(total);
+        BitSet done = crc == NO_CRC ? null : loadState(stateFile, total, crc, segments);
+        if (done == null || !target.exists()) {
+            done = new BitSet(segments);
+        } else {
+            Log.d(TAG, "🔄 Reanudando " + remoteName + ": " + done.cardinality() + "/" +
+                    segments + " segmentos");
+        }
+
+        try (FileChannel channel = FileChannel.open(target.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > total) channel.truncate(total);
+
+            runSegments(total, done, stateFile, crc, listener,
+                    segment -> fetchSegment(url, channel, segment, total));
+            channel.force(false);
+        }
+
+        stateFile.delete();
+        if (crc != NO_CRC) {
+            long actual;
+            try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+                actual = crc32(channel, total);
+            }
+            if (actual != crc) {
+                throw new IOException("CRC distinto tras descargar " + remoteName);
+            }
+        }
+        Log.d(TAG, "✅ Descargado " + remoteName + " (" + total + " B)");
+        return total;
+    }
+
+    /**
+     * GET /crc?file= ("crc:tamaño")
+     *
+     * @return CRC32 del archivo en el nodo, o NO_CRC si el firmware no lo ofrece
+     */
+    private long fetchCrc(String remoteName) throws IOException {
+        checkCancelled();
+        HttpURLConnection connection = open(baseUrl + "/crc?file=" + encode(remoteName));
+
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) return NO_CRC;
+            if (code != HttpURLConnection.HTTP_OK) throw new IOException("crc: HTTP " + code);
+
+            String body = readBody(connection);
+            int colon = body.indexOf(':');
+            return Long.parseLong(colon < 0 ? body : body.substring(0, colon));
+        } catch (NumberFormatException e) {
+            throw new IOException("Respuesta de /crc inválida");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * GET con Range bytes=0-0
+     *
+     * @return Tamaño por Content-Range, o -1 si el nodo ignora Range
+     */
+    private long probeSize(String url) throws IOException {
+        HttpURLConnection connection = open(url);
+        connection.setRequestProperty("Range", "bytes=0-0");
+
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new IOException("No encontrado en el nodo");
+            }
+            if (code == HttpURLConnection.HTTP_OK) return -1;
+            if (code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP " + code);
+            }
+
+            // Content-Range: bytes 0-0/<total>
+            String range = connection.getHeaderField("Content-Range");
+            int slash = range == null ? -1 : range.lastIndexOf('/');
+            if (slash < 0) throw new IOException("Content-Range inválido: " + range);
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Content-Range inválido");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Descargar un segmento, continuando desde lo ya escrito si la
+     * conexión se corta
+     */
+    private void fetchSegment(String url, FileChannel channel, int segment, long total)
+            throws IOException {
+        long start = (long) segment * segmentSize;
+        long end = Math.min(total, start + segmentSize);
+        long position = start;
+        IOException lastError = null;
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && position < end; attempt++) {
+            checkCancelled();
+            HttpURLConnection connection = open(url);
+            connection.setRequestProperty("Range", "bytes=" + position + "-" + (end - 1));
+
+            try {
+                int code = connection.getResponseCode();
+                if (code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("HTTP " + code + " en el segmento " + segment);
+                }
+
+                try (InputStream in = connection.getInputStream()) {
+                    position = copyTo(in, channel, position, end);
+                }
+            } catch (IOException e) {
+                lastError = e;
+                Log.w(TAG, "⚠️ Segmento " + segment + " (intento " + (attempt + 1) + "): " +
+                        e.getMessage());
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        if (position < end) {
+            throw lastError != null ? lastError : new IOException("Segmento " + segment + " incompleto");
+        }
+    }
+
+    /**
+     * @return Posición tras lo copiado
+     */
+    private long copyTo(InputStream in, FileChannel channel, long position, long end)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+
+        while (position < end) {
+            checkCancelled();
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+            if (read < 0) break;
+
+            wrapped.clear().limit(read);
+            while (wrapped.hasRemaining()) {
+                position += channel.write(wrapped, position);
+            }
+            progress.addAndGet(read);
+        }
+        return position;
+    }
+
+    /**
+     * Servidor sin Range: todo en una conexión
+     */
+    private long downloadWhole(String url, File target, Listener listener) throws IOException {
+        HttpURLConnection connection = open(url);
+
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) throw new IOException("HTTP " + code);
+            long total = connection.getContentLengthLong();
+
+            long done = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new FileOutputStream(target)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    checkCancelled();
+                    out.write(buffer, 0, read);
+                    done += read;
+                    if (listener != null) listener.onProgress(done, total);
+                }
+            }
+
+            if (total >= 0 && done != total) {
+                throw new IOException("Descarga incompleta: " + done + "/" + total + " B");
+            }
+            return done;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📤 SUBIR (nodo TX)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Subir al nodo desde un canal con lectura posicional (archivo o
+     * descriptor del ContentResolver), reanudando con los segmentos que
+     * el nodo confirme tener de este mismo contenido
+     */
+    void upload(FileChannel source, long size, String remoteName, Listener listener)
+            throws IOException {
+        cancelled = false;
+        String name = encode(remoteName);
+        long crc = crc32(source, size);
+
+        BitSet done = beginUpload(name, size, crc);
+        if (done == null) {
+            Log.w(TAG, "⚠️ El nodo no admite /upload_part: subida en una conexión");
+            uploadWhole(source, size, remoteName, listener);
+            return;
+        }
+        if (!done.isEmpty()) {
+            Log.d(TAG, "🔄 Reanudando subida de " + remoteName + ": " + done.cardinality() +
+                    "/" + segmentCount(size) + " segmentos en el nodo");
+        }
+
+        runSegments(size, done, null, NO_CRC, listener,
+                segment -> putSegment(source, name, segment, size));
+
+        int code = request("GET", baseUrl + "/upload_end?file=" + name + "&size=" + size +
+                "&crc=" + crc);
+        if (code != HttpURLConnection.HTTP_OK) {
+            // Tamaño o CRC distinto: el nodo descarta la sesión y la próxima empieza de cero
+            throw new IOException("upload_end: HTTP " + code);
+        }
+
+        Log.d(TAG, "✅ Subido " + remoteName + " (" + size + " B)");
+    }
+
+    /**
+     * GET /upload_begin: el nodo abre la sesión o retoma la de este
+     * archivo, tamaño, segmento y CRC
+     *
+     * @return Segmentos que el nodo ya tiene, o null si no admite /upload_part
+     */
+    private BitSet beginUpload(String name, long size, long crc) throws IOException {
+        checkCancelled();
+        HttpURLConnection connection = open(baseUrl + "/upload_begin?file=" + name +
+                "&size=" + size + "&seg=" + segmentSize + "&crc=" + crc);
+
+        try {
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) return null;
+            if (code != HttpURLConnection.HTTP_OK) throw new IOException("upload_begin: HTTP " + code);
+
+            // Un carácter por segmento, '1' = ya escrito y comprobado en el nodo
+            String bitmap = readBody(connection).trim();
+            int segments = segmentCount(size);
+            BitSet done = new BitSet(segments);
+            if (bitmap.length() != segments) return done;
+            for (int i = 0; i < segments; i++) {
+                if (bitmap.charAt(i) == '1') done.set(i);
+            }
+            return done;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void putSegment(FileChannel source, String name, int segment, long total)
+            throws IOException {
+        long start = (long) segment * segmentSize;
+        int length = (int) Math.min(segmentSize, total - start);
+
+        ByteBuffer data = ByteBuffer.allocate(length);
+        while (data.hasRemaining()) {
+            if (source.read(data, start + data.position()) < 0) {
+                throw new IOException("Fin de archivo inesperado");
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, length);
+
+        IOException lastError = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            checkCancelled();
+            HttpURLConnection connection = open(baseUrl + "/upload_part?file=" + name +
+                    "&offset=" + start + "&crc=" + crc.getValue());
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(length);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+
+            try {
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(data.array(), 0, length);
+                }
+                int code = connection.getResponseCode();
+                if (code == HttpURLConnection.HTTP_OK) {
+                    progress.addAndGet(length);
+                    return;
+                }
+                lastError = new IOException("HTTP " + code + " en el segmento " + segment);
+            } catch (IOException e) {
+                lastError = e;
+            } finally {
+                connection.disconnect();
+            }
+            Log.w(TAG, "⚠️ Segmento " + segment + " (intento " + (attempt + 1) + "): " +
+                    lastError.getMessage());
+        }
+        throw lastError;
+    }
+
+    /**
+     * Firmware sin /upload_part: el formulario multipart de /upload
+     */
+    private void uploadWhole(FileChannel source, long size, String remoteName,
+                             Listener listener) throws IOException {
+        String boundary = "----HeltecBoundary" + System.currentTimeMillis();
+        byte[] head = ("--" + boundary + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"" + remoteName + "\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n").getBytes("UTF-8");
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes("UTF-8");
+
+        HttpURLConnection connection = open(baseUrl + "/upload");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setInstanceFollowRedirects(false);
+        connection.setFixedLengthStreamingMode(head.length + size + tail.length);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+
+        try {
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(head);
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long position = 0;
+                while (position < size) {
+                    checkCancelled();
+                    buffer.clear();
+                    int read = source.read(buffer, position);
+                    if (read < 0) throw new IOException("Fin de archivo inesperado");
+                    out.write(buffer.array(), 0, read);
+                    position += read;
+                    if (listener != null) listener.onProgress(position, size);
+                }
+                out.write(tail);
+            }
+
+            // /upload redirige a "/" al terminar
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK && code / 100 != 3) {
+                throw new IOException("upload: HTTP " + code);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ⚙️ SEGMENTOS EN PARALELO
+    // ════════════════════════════════════════════════════════════════════
+
+    private interface SegmentTask {
+        void run(int segment) throws IOException;
+    }
+
+    /**
+     * Repartir los segmentos pendientes entre las conexiones y guardar el
+     * estado tras cada uno (si hay archivo de estado)
+     */
+    private void runSegments(long total, BitSet done, File stateFile, long crc,
+                             Listener listener, SegmentTask task) throws IOException {
+        List<Integer> pending = new ArrayList<>();
+        long already = 0;
+        for (int i = 0; i < segmentCount(total); i++) {
+            if (done.get(i)) {
+                already += Math.min(segmentSize, total - (long) i * segmentSize);
+            } else {
+                pending.add(i);
+            }
+        }
+        progress.set(already);
+        if (listener != null) listener.onProgress(already, total);
+        if (pending.isEmpty()) return;
+
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(connections, pending.size());
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int w = 0; w < workers; w++) {
+                futures.add(executor.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < pending.size()) {
+                        int segment = pending.get(index);
+                        task.run(segment);
+                        synchronized (done) {
+                            done.set(segment);
+                            if (stateFile != null) saveState(stateFile, total, crc, done);
+                        }
+                        if (listener != null) listener.onProgress(progress.get(), total);
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            // Un segmento agotó sus intentos: parar el resto (estado guardado)
+            cancelled = true;
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+            throw new IOException("Transferencia interrumpida");
+        } finally {
+            executor.shutdown();
+            awaitWorkers(executor);
+        }
+    }
+
+    /**
+     * Esperar a que las demás conexiones vean la cancelación: ninguna
+     * debe seguir escribiendo cuando se reanude la transferencia
+     */
+    private static void awaitWorkers(ExecutorService executor) {
+        try {
+            if (!executor.awaitTermination(READ_TIMEOUT * 2L, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int segmentCount(long total) {
+        return (int) ((total + segmentSize - 1) / segmentSize);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 💾 ESTADO DE REANUDACIÓN
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return Segmentos terminados, o null si no hay estado válido para
+     *         este tamaño, tamaño de segmento y CRC del nodo
+     */
+    private BitSet loadState(File stateFile, long total, long crc, int segments) {
+        if (!stateFile.exists()) return null;
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(stateFile))) {
+            if (in.readInt() != STATE_MAGIC || in.readLong() != total ||
+                    in.readInt() != segmentSize || in.readLong() != crc) {
+                return null;
+            }
+            byte[] bits = new byte[in.readInt()];
+            in.readFully(bits);
+            BitSet done = BitSet.valueOf(bits);
+            return done.length() <= segments ? done : null;
+        } catch (IOException e) {
+            Log.w(TAG, "⚠️ Estado ilegible, empezando de cero: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void saveState(File stateFile, long total, long crc, BitSet done) throws IOException {
+        if (!stateDir.exists() && !stateDir.mkdirs()) {
+            throw new IOException("No se pudo crear " + stateDir);
+        }
+
+        // Escribir aparte y renombrar: un corte nunca deja estado a medias
+        File temp = new File(stateDir, stateFile.getName() + ".tmp");
+        byte[] bits = done.toByteArray();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+            out.writeInt(STATE_MAGIC);
+            out.writeLong(total);
+            out.writeInt(segmentSize);
+            out.writeLong(crc);
+            out.writeInt(bits.length);
+            out.write(bits);
+        }
+        if (!temp.renameTo(stateFile)) {
+            throw new IOException("No se pudo guardar el estado");
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 AUXILIARES
+    // ════════════════════════════════════════════════════════════════════
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return connection;
+    }
+
+    /**
+     * @return Código HTTP de una petición sin cuerpo
+     */
+    private int request(String method, String url) throws IOException {
+        checkCancelled();
+        HttpURLConnection connection = open(url);
+        connection.setRequestMethod(method);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * CRC32 de los primeros size bytes del canal (lectura posicional)
+     */
+    private static long crc32(FileChannel channel, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = 0;
+        while (position < size) {
+            buffer.clear().limit((int) Math.min(BUFFER_SIZE, size - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Fin de archivo inesperado");
+            crc.update(buffer.array(), 0, read);
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    private static String readBody(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        try (InputStream in = connection.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toString("UTF-8");
+    }
+
+    private void checkCancelled() throws IOException {
+        if (cancelled) throw new IOException("Cancelado");
+    }
+
+    private static String encode(String name) throws IOException {
+        return URLEncoder.encode(name, "UTF-8");
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.pruebable;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🎚️ LoRaAckController - Intervalo de ACK y Reintentos Adaptativos
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Observa los reintentos que reporta el TX (TX_STATUS o telemetría)
+ * durante una transmisión y ajusta entre ventanas:
+ * - Enlace limpio: ACK más espaciados (menos airtime de retorno)
+ * - Enlace con pérdidas: ACK más densos y más reintentos por fragmento
+ *
+ * Se envía CMD:SET_LINK:ack:reintentos; el TX lo aplica en el siguiente
+ * ACK tras confirmarlo con el RX por LoRa y responde LINK_SET con los
+ * valores efectivos. Firmware sin el comando: ERROR:UNKNOWN_COMMAND y el
+ * controlador queda desactivado hasta la próxima conexión.
+ *
+ * Todos los métodos se llaman desde el hilo principal.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class LoRaAckController {
+
+    private static final String TAG = "LoRaAckController";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // Escalera de intervalos (las opciones del diálogo de configuración)
+    private static final int[] ACK_INTERVALS = LoRaConfigOptimizer.ACK_INTERVALS;
+
+    // Reintentos por fragmento (MAX_RETRIES del firmware = 3)
+    static final int DEFAULT_RETRIES = 3;
+    private static final int LOSSY_RETRIES = 5;
+
+    // Reintentos por fragmento que mueven el intervalo
+    private static final double LOSSY_RATE = 0.10;   // un paso más denso
+    private static final double BAD_RATE = 0.25;     // dos pasos más denso
+
+    // Fragmentos mínimos observados antes de decidir (y entre cambios)
+    private static final int MIN_WINDOW_FRAGMENTS = 10;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final BLEManager bleManager;
+
+    private boolean supported = true;
+    private boolean active = false;
+    private boolean pending = false;
+
+    private int ackInterval;
+    private int maxRetries = DEFAULT_RETRIES;
+
+    // Ventana de observación actual
+    private int windowStartFragment;
+    private int windowStartRetries;
+    private int lastFragments;
+    private int lastRetries;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    LoRaAckController(BLEManager bleManager) {
+        this.bleManager = bleManager;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📨 EVENTOS (desde DeviceActivity)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * OK:TX_STARTING: el TX empieza cada archivo con el intervalo configurado
+     */
+    void start(int configuredAckInterval) {
+        active = supported;
+        pending = false;
+        ackInterval = configuredAckInterval;
+        maxRetries = DEFAULT_RETRIES;
+        windowStartFragment = 0;
+        windowStartRetries = 0;
+        lastFragments = 0;
+        lastRetries = 0;
+    }
+
+    /**
+     * Avance de la TX (reintentos acumulados desde el inicio)
+     */
+    void onStatus(int fragmentsDone, int retries) {
+        if (!active || fragmentsDone <= lastFragments) return;
+        lastFragments = fragmentsDone;
+        lastRetries = retries;
+
+        int fragments = fragmentsDone - windowStartFragment;
+        if (pending || fragments < Math.max(MIN_WINDOW_FRAGMENTS, 2 * ackInterval)) return;
+
+        double rate = (double) (retries - windowStartRetries) / fragments;
+        int step = indexOf(ackInterval);
+        int newStep;
+        int newRetries;
+
+        if (rate >= BAD_RATE) {
+            newStep = Math.max(0, step - 2);
+            newRetries = LOSSY_RETRIES;
+        } else if (rate >= LOSSY_RATE) {
+            newStep = Math.max(0, step - 1);
+            newRetries = LOSSY_RETRIES;
+        } else if (rate == 0) {
+            newStep = Math.min(ACK_INTERVALS.length - 1, step + 1);
+            newRetries = DEFAULT_RETRIES;
+        } else {
+            newStep = step;
+            newRetries = maxRetries;
+        }
+
+        restartWindow();
+        int newInterval = ACK_INTERVALS[newStep];
+        if (newInterval == ackInterval && newRetries == maxRetries) return;
+
+        Log.d(TAG, String.format(Locale.US, "🎚️ %.2f reintentos/fragmento: ACK %d → %d, reintentos %d → %d",
+                rate, ackInterval, newInterval, maxRetries, newRetries));
+        pending = true;
+        bleManager.sendCommand("CMD:SET_LINK:" + newInterval + ":" + newRetries);
+    }
+
+    /**
+     * LINK_SET:ack:reintentos (valores que el TX está usando ahora)
+     */
+    void onLinkSet(String args) {
+        pending = false;
+        String[] parts = args.split(":");
+        try {
+            ackInterval = Integer.parseInt(parts[0]);
+            maxRetries = Integer.parseInt(parts[1]);
+            Log.d(TAG, "✅ Enlace LoRa: ACK cada " + ackInterval + ", " + maxRetries + " reintentos");
+        } catch (RuntimeException e) {
+            Log.w(TAG, "⚠️ LINK_SET inválido: " + args);
+        }
+        restartWindow();
+    }
+
+    /**
+     * Respuesta de error a CMD:SET_LINK
+     *
+     * @return true si el error era para este controlador
+     */
+    boolean onError(String error) {
+        if (!pending) return false;
+
+        if (error.equals("UNKNOWN_COMMAND")) {
+            Log.w(TAG, "⚠️ El TX no soporta CMD:SET_LINK");
+            supported = false;
+            active = false;
+        } else if (!error.startsWith("LINK_")) {
+            return false; // Error de otra operación (subida en paralelo...)
+        }
+        pending = false;
+        return true;
+    }
+
+    /**
+     * TX_COMPLETE / TX_FAILED / desconexión
+     */
+    void stop() {
+        active = false;
+        pending = false;
+    }
+
+    /**
+     * Nueva conexión: volver a probar el comando
+     */
+    void reset() {
+        stop();
+        supported = true;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 AUXILIARES
+    // ════════════════════════════════════════════════════════════════════
+
+    private void restartWindow() {
+        windowStartFragment = lastFragments;
+        windowStartRetries = lastRetries;
+    }
+
+    /**
+     * @return Escalón más cercano por debajo (intervalos fuera de la escalera)
+     */
+    private static int indexOf(int interval) {
+        int index = 0;
+        for (int i = 0; i < ACK_INTERVALS.length; i++) {
+            if (ACK_INTERVALS[i] <= interval) index = i;
+        }
+        return index;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 GETTERS
+    // ════════════════════════════════════════════════════════════════════
+
+    int getAckInterval() {
+        return ackInterval;
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+}
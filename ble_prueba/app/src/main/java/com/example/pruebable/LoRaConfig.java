@@ -0,0 +1,110 @@
+package com.example.pruebable;
+
+import android.util.Log;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * ⚙️ LoRaConfig - Parámetros de Radio LoRa del Heltec
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Configuración que se envía con CMD:SET_LORA_CONFIG y se recibe en
+ * LORA_CONFIG:{json}. Compartida por DeviceActivity y LoRaConfigOptimizer.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class LoRaConfig {
+
+    private static final String TAG = "LoRaConfig";
+
+    int bandwidth;      // 125, 250, 500
+    int spreadingFactor; // 7, 9, 12
+    int codingRate;     // 5, 7, 8
+    int ackInterval;    // 3, 5, 7, 10, 15
+    int power;          // 10, 14, 17, 20
+
+    LoRaConfig() {
+        // Valores por defecto
+        bandwidth = 125;
+        spreadingFactor = 9;
+        codingRate = 7;
+        ackInterval = 5;
+        power = 17;
+    }
+
+    LoRaConfig(int bandwidth, int spreadingFactor, int codingRate, int ackInterval, int power) {
+        this.bandwidth = bandwidth;
+        this.spreadingFactor = spreadingFactor;
+        this.codingRate = codingRate;
+        this.ackInterval = ackInterval;
+        this.power = power;
+    }
+
+    /**
+     * @return Copia independiente de esta configuración
+     */
+    LoRaConfig copy() {
+        return new LoRaConfig(bandwidth, spreadingFactor, codingRate, ackInterval, power);
+    }
+
+    /**
+     * Clave compacta para indexar estadísticas por configuración
+     *
+     * @return Clave con formato "bw/sf/cr/ack/power"
+     */
+    String key() {
+        return bandwidth + "/" + spreadingFactor + "/" + codingRate + "/" +
+                ackInterval + "/" + power;
+    }
+
+    String toJson() {
+        return "{\"bw\":" + bandwidth +
+                ",\"sf\":" + spreadingFactor +
+                ",\"cr\":" + codingRate +
+                ",\"ack\":" + ackInterval +
+                ",\"power\":" + power + "}";
+    }
+
+    void fromJson(String json) {
+        try {
+            json = json.replace("{", "").replace("}", "").replace("\"", "");
+            String[] pairs = json.split(",");
+
+            for (String pair : pairs) {
+                String[] keyValue = pair.split(":");
+                if (keyValue.length == 2) {
+                    String key = keyValue[0].trim();
+                    int value = Integer.parseInt(keyValue[1].trim());
+
+                    switch (key) {
+                        case "bw":
+                            bandwidth = value;
+                            break;
+                        case "sf":
+                            spreadingFactor = value;
+                            break;
+                        case "cr":
+                            codingRate = value;
+                            break;
+                        case "ack":
+                            ackInterval = value;
+                            break;
+                        case "power":
+                            power = value;
+                            break;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error parseando LoRa config: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BW: " + bandwidth + " kHz, SF: " + spreadingFactor +
+                ", CR: 4/" + codingRate + ", ACK: " + ackInterval +
+                ", Power: " + power + " dBm";
+    }
+}
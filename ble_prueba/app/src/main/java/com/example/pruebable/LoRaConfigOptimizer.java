@@ -0,0 +1,434 @@
+package com.example.pruebable;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🎯 LoRaConfigOptimizer - Recomendador de Configuración LoRa
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Recomienda BW/SF/CR/ACK para transmitir un archivo dentro de un tiempo
+ * objetivo:
+ * - Modelo de airtime LoRa (Semtech AN1200.13) + delays del firmware
+ * - Estadísticas observadas por enlace y configuración (goodput, reintentos)
+ *   obtenidas de TX_STATUS / TX_COMPLETE / TX_FAILED
+ * - Persistencia en SharedPreferences
+ *
+ * Para configuraciones nunca probadas en un enlace, la tasa de pérdida se
+ * acota con las configuraciones observadas más y menos robustas (margen de
+ * enlace = potencia - sensibilidad).
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class LoRaConfigOptimizer {
+
+    private static final String TAG = "LoRaOptimizer";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES - deben coincidir con el firmware (BT_tx_ack)
+    // ════════════════════════════════════════════════════════════════════
+
+    static final int CHUNK_SIZE_LORA = 240;       // Bytes de datos por fragmento
+    private static final int FRAGMENT_HEADER = 4;  // índice(2) + total(2)
+    private static final int ACK_PACKET_SIZE = 5;  // "ACK" + número(2)
+    private static final int MAX_RETRIES = 3;
+    private static final int PREAMBLE_SYMBOLS = 8;
+    private static final int METADATA_DELAY_MS = 600;
+    private static final int ACK_WAIT_DELAY_MS = 200;
+    private static final int RETRY_DELAY_MS = 800;
+
+    // Opciones disponibles en el diálogo de configuración
+    static final int[] BANDWIDTHS = {125, 250, 500};
+    static final int[] SPREADING_FACTORS = {7, 9, 12};
+    static final int[] CODING_RATES = {5, 7, 8};
+    static final int[] ACK_INTERVALS = {3, 5, 7, 10, 15};
+
+    // Modelo estadístico
+    private static final double EWMA_ALPHA = 0.3;
+    private static final double DEFAULT_LOSS = 0.05;  // Pérdida supuesta sin datos
+    private static final double MIN_SUCCESS = 0.9;    // Probabilidad mínima aceptable
+
+    private static final String PREFS_NAME = "lora_link_stats";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final SharedPreferences prefs;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 CLASES DE DATOS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Estadísticas observadas de una configuración en un enlace
+     */
+    static class LinkStats {
+        int samples;         // Transmisiones registradas
+        int failures;        // Transmisiones fallidas
+        double goodputKbps;  // EWMA de velocidad efectiva (solo exitosas)
+        double lossRate;     // EWMA de probabilidad de fallo por intento
+
+        String serialize() {
+            return String.format(Locale.US, "%d,%d,%.4f,%.5f",
+                    samples, failures, goodputKbps, lossRate);
+        }
+
+        static LinkStats parse(String value) {
+            LinkStats stats = new LinkStats();
+            try {
+                String[] parts = value.split(",");
+                stats.samples = Integer.parseInt(parts[0]);
+                stats.failures = Integer.parseInt(parts[1]);
+                stats.goodputKbps = Double.parseDouble(parts[2]);
+                stats.lossRate = Double.parseDouble(parts[3]);
+            } catch (Exception e) {
+                Log.e(TAG, "Error parseando estadísticas: " + e.getMessage());
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Resultado de una recomendación
+     */
+    static class Recommendation {
+        final LoRaConfig config;
+        final double predictedSeconds;
+        final double successProbability;
+        final boolean meetsDeadline;
+        final int samples;
+
+        Recommendation(LoRaConfig config, double predictedSeconds,
+                       double successProbability, boolean meetsDeadline, int samples) {
+            this.config = config;
+            this.predictedSeconds = predictedSeconds;
+            this.successProbability = successProbability;
+            this.meetsDeadline = meetsDeadline;
+            this.samples = samples;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s | %.1f s | éxito %.0f%% | %d muestras",
+                    config.toString(), predictedSeconds, successProbability * 100, samples);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @param context Contexto de la aplicación
+     */
+    LoRaConfigOptimizer(Context context) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📝 REGISTRAR RESULTADOS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Registrar una transmisión completada (TX_COMPLETE)
+     *
+     * @param link Identificador del enlace (dirección MAC del TX)
+     * @param config Configuración usada
+     * @param fileSize Tamaño transmitido en bytes
+     * @param speedKbps Velocidad reportada por el firmware
+     * @param retries Reintentos acumulados (último TX_STATUS)
+     */
+    void recordSuccess(String link, LoRaConfig config, long fileSize,
+                       double speedKbps, int retries) {
+        int fragments = fragmentCount(fileSize);
+        double loss = (double) retries / (fragments + retries);
+        update(link, config, loss, speedKbps, false);
+    }
+
+    /**
+     * Registrar una transmisión fallida (TX_FAILED)
+     *
+     * @param link Identificador del enlace
+     * @param config Configuración usada
+     * @param fragmentsSent Fragmentos confirmados antes del fallo
+     * @param retries Reintentos acumulados
+     */
+    void recordFailure(String link, LoRaConfig config, int fragmentsSent, int retries) {
+        // Un fragmento agotó MAX_RETRIES: la pérdida real es al menos alta
+        double loss = Math.max(0.5, (double) retries / Math.max(1, fragmentsSent + retries));
+        update(link, config, Math.min(loss, 0.95), 0, true);
+    }
+
+    private void update(String link, LoRaConfig config, double loss,
+                        double speedKbps, boolean failed) {
+        String key = statsKey(link, config);
+        String stored = prefs.getString(key, null);
+        LinkStats stats = stored != null ? LinkStats.parse(stored) : new LinkStats();
+
+        if (stats.samples == 0) {
+            stats.lossRate = loss;
+            stats.goodputKbps = speedKbps;
+        } else {
+            stats.lossRate = EWMA_ALPHA * loss + (1 - EWMA_ALPHA) * stats.lossRate;
+            if (!failed) {
+                stats.goodputKbps = stats.goodputKbps > 0
+                        ? EWMA_ALPHA * speedKbps + (1 - EWMA_ALPHA) * stats.goodputKbps
+                        : speedKbps;
+            }
+        }
+
+        stats.samples++;
+        if (failed) stats.failures++;
+
+        prefs.edit().putString(key, stats.serialize()).apply();
+
+        Log.d(TAG, "📝 Estadística " + key + " -> " + stats.serialize());
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🎯 RECOMENDAR CONFIGURACIÓN
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Recomendar la configuración más rápida con probabilidad de éxito aceptable
+     *
+     * @param link Identificador del enlace
+     * @param fileName Nombre del archivo (afecta el tamaño del metadata)
+     * @param fileSize Tamaño del archivo en bytes
+     * @param deadlineSeconds Tiempo objetivo en segundos
+     * @param power Potencia a mantener (dBm)
+     * @return Recomendación (nunca null)
+     */
+    Recommendation recommend(String link, String fileName, long fileSize,
+                             double deadlineSeconds, int power) {
+        Map<String, ?> all = prefs.getAll();
+        List<Recommendation> candidates = new ArrayList<>();
+
+        for (int bw : BANDWIDTHS) {
+            for (int sf : SPREADING_FACTORS) {
+                for (int cr : CODING_RATES) {
+                    for (int ack : ACK_INTERVALS) {
+                        LoRaConfig config = new LoRaConfig(bw, sf, cr, ack, power);
+                        candidates.add(evaluate(link, config, fileName, fileSize,
+                                deadlineSeconds, all));
+                    }
+                }
+            }
+        }
+
+        Recommendation best = null;
+
+        // 1) Cumple plazo y probabilidad mínima -> la más rápida
+        for (Recommendation r : candidates) {
+            if (r.meetsDeadline && r.successProbability >= MIN_SUCCESS &&
+                    (best == null || r.predictedSeconds < best.predictedSeconds)) {
+                best = r;
+            }
+        }
+
+        // 2) Solo probabilidad mínima -> la más rápida
+        if (best == null) {
+            for (Recommendation r : candidates) {
+                if (r.successProbability >= MIN_SUCCESS &&
+                        (best == null || r.predictedSeconds < best.predictedSeconds)) {
+                    best = r;
+                }
+            }
+        }
+
+        // 3) Ninguna es fiable -> la más probable
+        if (best == null) {
+            for (Recommendation r : candidates) {
+                if (best == null || r.successProbability > best.successProbability) {
+                    best = r;
+                }
+            }
+        }
+
+        Log.d(TAG, "🎯 Recomendación para " + fileSize + " bytes en " +
+                deadlineSeconds + " s: " + best);
+        return best;
+    }
+
+    private Recommendation evaluate(String link, LoRaConfig config, String fileName,
+                                    long fileSize, double deadlineSeconds,
+                                    Map<String, ?> all) {
+        int fragments = fragmentCount(fileSize);
+
+        Object stored = all.get(statsKey(link, config));
+        LinkStats stats = stored instanceof String ? LinkStats.parse((String) stored) : null;
+
+        double loss = stats != null && stats.samples > 0
+                ? stats.lossRate
+                : estimateLoss(link, config, all);
+
+        // Tiempo modelado incluyendo el coste esperado de reintentos
+        double retriesPerFragment = loss / (1 - Math.min(loss, 0.95));
+        double modelSeconds = transmissionSeconds(config, fileName, fileSize) +
+                fragments * retriesPerFragment * retryCostSeconds(config);
+
+        double predicted = modelSeconds;
+        if (stats != null && stats.goodputKbps > 0) {
+            double observedSeconds = (fileSize * 8.0) / (stats.goodputKbps * 1000.0);
+            double weight = stats.samples / (stats.samples + 2.0);
+            predicted = weight * observedSeconds + (1 - weight) * modelSeconds;
+        }
+
+        // Un fragmento falla si agota MAX_RETRIES intentos
+        double fragmentFail = Math.pow(loss, MAX_RETRIES);
+        double success = Math.pow(1 - fragmentFail, fragments);
+
+        // Los fallos observados limitan la probabilidad de éxito
+        if (stats != null && stats.failures > 0) {
+            double empirical = (stats.samples - stats.failures + 1.0) / (stats.samples + 1.0);
+            success = Math.min(success, empirical);
+        }
+
+        return new Recommendation(config, predicted, success,
+                predicted <= deadlineSeconds, stats != null ? stats.samples : 0);
+    }
+
+    /**
+     * Estimar pérdida de una configuración sin datos usando las observadas:
+     * una más robusta da cota inferior, una menos robusta cota superior.
+     */
+    private double estimateLoss(String link, LoRaConfig config, Map<String, ?> all) {
+        double margin = linkMargin(config);
+        double lower = -1;
+        double upper = -1;
+        String prefix = link + "|";
+
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            if (!entry.getKey().startsWith(prefix) || !(entry.getValue() instanceof String)) {
+                continue;
+            }
+
+            LoRaConfig observed = new LoRaConfig();
+            String[] parts = entry.getKey().substring(prefix.length()).split("/");
+            if (parts.length != 5) continue;
+
+            try {
+                observed.bandwidth = Integer.parseInt(parts[0]);
+                observed.spreadingFactor = Integer.parseInt(parts[1]);
+                observed.power = Integer.parseInt(parts[4]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            LinkStats stats = LinkStats.parse((String) entry.getValue());
+            if (stats.samples == 0) continue;
+
+            double observedMargin = linkMargin(observed);
+            if (observedMargin >= margin) {
+                lower = Math.max(lower, stats.lossRate);
+            }
+            if (observedMargin <= margin) {
+                upper = upper < 0 ? stats.lossRate : Math.min(upper, stats.lossRate);
+            }
+        }
+
+        double loss = DEFAULT_LOSS;
+        if (upper >= 0) loss = Math.min(loss, upper);
+        if (lower >= 0) loss = Math.max(loss, lower);
+        return loss;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📐 MODELO DE AIRTIME
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Airtime de un paquete LoRa (header explícito, CRC activo)
+     *
+     * @param config Configuración de radio
+     * @param payloadBytes Tamaño del payload
+     * @return Tiempo en el aire en segundos
+     */
+    static double airtimeSeconds(LoRaConfig config, int payloadBytes) {
+        int sf = config.spreadingFactor;
+        double symbolTime = Math.pow(2, sf) / (config.bandwidth * 1000.0);
+        int lowDataRate = symbolTime > 0.016 ? 1 : 0;
+
+        double preamble = (PREAMBLE_SYMBOLS + 4.25) * symbolTime;
+        double numerator = 8.0 * payloadBytes - 4.0 * sf + 28 + 16;
+        double denominator = 4.0 * (sf - 2 * lowDataRate);
+        double payloadSymbols = 8 + Math.max(
+                Math.ceil(numerator / denominator) * config.codingRate, 0);
+
+        return preamble + payloadSymbols * symbolTime;
+    }
+
+    /**
+     * Tiempo de transmisión sin reintentos (metadata + fragmentos + ACKs)
+     */
+    static double transmissionSeconds(LoRaConfig config, String fileName, long fileSize) {
+        int fragments = fragmentCount(fileSize);
+        int nameLen = fileName != null ? Math.min(fileName.length(), 100) : 16;
+        int acks = (fragments + config.ackInterval - 1) / config.ackInterval;
+
+        double metadata = airtimeSeconds(config, 7 + nameLen) + METADATA_DELAY_MS / 1000.0;
+
+        long fullFragments = fileSize / CHUNK_SIZE_LORA;
+        int lastBytes = (int) (fileSize % CHUNK_SIZE_LORA);
+        double data = fullFragments * airtimeSeconds(config, CHUNK_SIZE_LORA + FRAGMENT_HEADER);
+        if (lastBytes > 0) {
+            data += airtimeSeconds(config, lastBytes + FRAGMENT_HEADER);
+        }
+        data += fragments * interPacketDelayMs(config) / 1000.0;
+
+        double ackTime = acks * (ACK_WAIT_DELAY_MS / 1000.0 +
+                airtimeSeconds(config, ACK_PACKET_SIZE));
+
+        return metadata + data + ackTime;
+    }
+
+    private static double retryCostSeconds(LoRaConfig config) {
+        return airtimeSeconds(config, CHUNK_SIZE_LORA + FRAGMENT_HEADER) +
+                (ackTimeoutMs(config) + RETRY_DELAY_MS) / 1000.0;
+    }
+
+    static int fragmentCount(long fileSize) {
+        return (int) ((fileSize + CHUNK_SIZE_LORA - 1) / CHUNK_SIZE_LORA);
+    }
+
+    /**
+     * Margen de enlace relativo: potencia - sensibilidad del receptor (dB)
+     */
+    private static double linkMargin(LoRaConfig config) {
+        double snrRequired = -2.5 * (config.spreadingFactor - 4);
+        double sensitivity = -174 + 10 * Math.log10(config.bandwidth * 1000.0) + 6 + snrRequired;
+        return config.power - sensitivity;
+    }
+
+    // Copias de getInterPacketDelay() / getACKTimeout() del firmware
+    private static int interPacketDelayMs(LoRaConfig config) {
+        int sf = config.spreadingFactor;
+        if (config.bandwidth >= 500) {
+            return sf <= 7 ? 80 : sf == 9 ? 120 : 150;
+        } else if (config.bandwidth >= 250) {
+            return sf <= 7 ? 100 : sf == 9 ? 150 : 180;
+        }
+        return sf <= 7 ? 120 : sf == 9 ? 150 : 200;
+    }
+
+    private static int ackTimeoutMs(LoRaConfig config) {
+        if (config.bandwidth >= 500 && config.spreadingFactor <= 9) return 800;
+        if (config.bandwidth >= 250 && config.spreadingFactor <= 9) return 1200;
+        if (config.spreadingFactor >= 12) return 2000;
+        return 1500;
+    }
+
+    private static String statsKey(String link, LoRaConfig config) {
+        return link + "|" + config.key();
+    }
+}
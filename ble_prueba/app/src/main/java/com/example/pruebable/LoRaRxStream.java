@@ -0,0 +1,253 @@
+package com.example.pruebable;
+
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📶 LoRaRxStream - Recepción LoRa Reenviada en Vivo al Teléfono
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Con CMD:RX_STREAM:1 el receptor reenvía cada fragmento LoRa por BLE
+ * (RX_FRAG:índice:base64) justo después de guardarlo:
+ * - Cada fragmento se escribe en su posición (índice × tamaño de
+ *   fragmento), en HeltecDownloads, mientras dura la recepción
+ * - Al llegar RX_COMPLETE el archivo ya está en el teléfono; los
+ *   fragmentos que se perdieron por BLE se piden con CMD:READ_RANGE
+ * - Sin segunda descarga completa: la latencia total es la del enlace LoRa
+ *
+ * Todos los métodos se llaman desde el hilo principal.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class LoRaRxStream {
+
+    private static final String TAG = "LoRaRxStream";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // CHUNK_SIZE_LORA del firmware (si RX_START no lo indica)
+    static final int DEFAULT_FRAGMENT_SIZE = 240;
+
+    /**
+     * Resultado de la recepción (hilo principal)
+     */
+    interface Listener {
+        /**
+         * @param file Archivo completo, o null si no se pudo completar
+         * @param repairedBytes Bytes que hubo que pedir por CMD:READ_RANGE
+         */
+        void onStreamFinished(File file, long repairedBytes);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final FileManager fileManager;
+    private final BLEManager bleManager;
+    private final Listener listener;
+
+    private String fileName;
+    private long fileSize;
+    private int fragmentSize;
+    private int fragmentCount;
+    private File file;
+    private RandomAccessFile output;
+    private final BitSet received = new BitSet();
+
+    // Rangos [offset, longitud] pendientes de reparar
+    private final List<long[]> repairs = new ArrayList<>();
+    private long repairedBytes = 0;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    LoRaRxStream(FileManager fileManager, BLEManager bleManager, Listener listener) {
+        this.fileManager = fileManager;
+        this.bleManager = bleManager;
+        this.listener = listener;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📨 EVENTOS DEL HELTEC (desde DeviceActivity)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * RX_START:nombre:tamaño[:fragmento]
+     */
+    void start(String name, long size, int fragSize) {
+        close(true);
+
+        fileName = name;
+        fileSize = size;
+        fragmentSize = fragSize > 0 ? fragSize : DEFAULT_FRAGMENT_SIZE;
+        fragmentCount = (int) ((size + fragmentSize - 1) / fragmentSize);
+        received.clear();
+        repairs.clear();
+        repairedBytes = 0;
+
+        file = fileManager.createDownloadFile(name);
+        if (file == null) return;
+
+        try {
+            output = new RandomAccessFile(file, "rw");
+            output.setLength(size);
+            Log.d(TAG, "📶 Recibiendo en vivo: " + name + " (" + fragmentCount + " fragmentos)");
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Error abriendo archivo: " + e.getMessage());
+            close(true);
+        }
+    }
+
+    /**
+     * RX_FRAG:índice:base64
+     */
+    void onFragment(String args) {
+        if (output == null) return;
+
+        int sep = args.indexOf(':');
+        try {
+            int index = Integer.parseInt(args.substring(0, sep));
+            if (index < 0 || index >= fragmentCount) return;
+
+            byte[] data = Base64.decode(args.substring(sep + 1), Base64.NO_WRAP);
+            write((long) index * fragmentSize, data);
+            received.set(index);
+            TransferLog.event(TransferLog.EV_CHUNK_RECEIVED, index, (long) index * fragmentSize);
+
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "❌ Fragmento inválido: " + e.getMessage());
+        }
+    }
+
+    /**
+     * RX_COMPLETE: pedir lo que falte y entregar el archivo
+     */
+    void onComplete() {
+        if (output == null) {
+            listener.onStreamFinished(null, 0);
+            return;
+        }
+
+        // Fragmentos perdidos por BLE agrupados en rangos contiguos
+        int missing = received.nextClearBit(0);
+        while (missing < fragmentCount) {
+            int end = received.nextSetBit(missing);
+            if (end < 0) end = fragmentCount;
+
+            long offset = (long) missing * fragmentSize;
+            long length = Math.min(fileSize, (long) end * fragmentSize) - offset;
+            repairs.add(new long[]{offset, length});
+            missing = received.nextClearBit(end);
+        }
+
+        if (!repairs.isEmpty()) {
+            Log.w(TAG, "⚠️ " + (fragmentCount - received.cardinality()) +
+                    " fragmento(s) sin llegar por BLE, pidiendo " + repairs.size() + " rango(s)");
+        }
+        nextRepair();
+    }
+
+    /**
+     * RX_FAILED: el Heltec ya borró el archivo incompleto
+     */
+    void onFailed() {
+        close(true);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔁 REPARAR HUECOS (CMD:READ_RANGE)
+    // ════════════════════════════════════════════════════════════════════
+
+    private void nextRepair() {
+        if (repairs.isEmpty()) {
+            File complete = file;
+            close(false);
+            Log.d(TAG, "✅ Recepción en vivo completa: " + complete.getName());
+            listener.onStreamFinished(complete, repairedBytes);
+            return;
+        }
+
+        long[] range = repairs.remove(0);
+        fileManager.requestRange(fileName, range[0], range[1], bleManager,
+                new FileManager.RangeCallback() {
+                    @Override
+                    public void onData(long offset, byte[] data) {
+                        try {
+                            write(offset, data);
+                            repairedBytes += data.length;
+                        } catch (IOException e) {
+                            Log.e(TAG, "❌ Error escribiendo rango: " + e.getMessage());
+                        }
+                    }
+
+                    @Override
+                    public void onComplete(long bytes) {
+                        nextRepair();
+                    }
+
+                    @Override
+                    public void onError(String error) {
+                        Log.e(TAG, "❌ No se pudo completar " + fileName + ": " + error);
+                        close(true);
+                        listener.onStreamFinished(null, repairedBytes);
+                    }
+                });
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 💾 ARCHIVO
+    // ════════════════════════════════════════════════════════════════════
+
+    private void write(long offset, byte[] data) throws IOException {
+        TransferTrace.begin(TransferTrace.DISK_WRITE);
+        try {
+            output.seek(offset);
+            output.write(data);
+        } finally {
+            TransferTrace.end();
+        }
+    }
+
+    /**
+     * @param discard true para borrar el archivo (recepción abortada)
+     */
+    private void close(boolean discard) {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                Log.w(TAG, "⚠️ Error cerrando archivo: " + e.getMessage());
+            }
+            output = null;
+        }
+        if (discard && file != null) {
+            file.delete();
+        }
+        file = null;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 GETTERS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return true si hay una recepción reenviándose al teléfono
+     */
+    boolean isActive() {
+        return output != null;
+    }
+}
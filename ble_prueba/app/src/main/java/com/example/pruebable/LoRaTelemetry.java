@@ -0,0 +1,126 @@
+package com.example.pruebable;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📟 LoRaTelemetry - Registro Binario de Telemetría (PROGRESS_UUID)
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Con CMD:TELEMETRY:1 el Heltec deja de mandar TX_STATUS/RX_STATUS en
+ * texto y envía por la característica de progreso un registro fijo de
+ * 24 bytes por fragmento (little endian):
+ *
+ *   off  tipo   campo
+ *    0   u8     versión (1)
+ *    1   u8     tipo (1 = TX LoRa, 2 = RX LoRa)
+ *    2   u8     porcentaje
+ *    3   u8     flags (bit 0 = último fragmento)
+ *    4   u16    índice de fragmento
+ *    6   u16    total de fragmentos
+ *    8   u32    bytes enviados/recibidos
+ *   12   u16    reintentos acumulados (TX) o duplicados (RX)
+ *   14   i16    RSSI (dBm) del último paquete (ACK en TX)
+ *   16   i16    SNR × 100 (dB)
+ *   18   u16    reservado
+ *   20   u32    µs desde el inicio de la transferencia
+ *
+ * decode() rellena los campos sin crear objetos: BLEManager reutiliza
+ * dos instancias (la del hilo BLE y la que se entrega en el principal).
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+final class LoRaTelemetry {
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    static final int VERSION = 1;
+    static final int SIZE = 24;
+
+    static final int KIND_TX = 1;
+    static final int KIND_RX = 2;
+
+    static final int FLAG_LAST = 0x01;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📋 CAMPOS
+    // ════════════════════════════════════════════════════════════════════
+
+    int kind;
+    int percentage;
+    int flags;
+    int fragmentIndex;
+    int fragmentTotal;
+    long bytes;
+    int retries;
+    int rssi;
+    int snrCentiDb;
+    long elapsedMicros;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔓 DECODIFICAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return false si no es un registro de esta versión
+     */
+    boolean decode(byte[] data) {
+        if (data == null || data.length < SIZE || (data[0] & 0xFF) != VERSION) {
+            return false;
+        }
+
+        kind = data[1] & 0xFF;
+        percentage = data[2] & 0xFF;
+        flags = data[3] & 0xFF;
+        fragmentIndex = u16(data, 4);
+        fragmentTotal = u16(data, 6);
+        bytes = u32(data, 8);
+        retries = u16(data, 12);
+        rssi = (short) u16(data, 14);
+        snrCentiDb = (short) u16(data, 16);
+        elapsedMicros = u32(data, 20);
+        return true;
+    }
+
+    void copyFrom(LoRaTelemetry other) {
+        kind = other.kind;
+        percentage = other.percentage;
+        flags = other.flags;
+        fragmentIndex = other.fragmentIndex;
+        fragmentTotal = other.fragmentTotal;
+        bytes = other.bytes;
+        retries = other.retries;
+        rssi = other.rssi;
+        snrCentiDb = other.snrCentiDb;
+        elapsedMicros = other.elapsedMicros;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 GETTERS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return Fragmentos terminados (índice + 1)
+     */
+    int getFragmentsDone() {
+        return fragmentIndex + 1;
+    }
+
+    float getSnr() {
+        return snrCentiDb / 100f;
+    }
+
+    boolean isLast() {
+        return (flags & FLAG_LAST) != 0;
+    }
+
+    private static int u16(byte[] data, int off) {
+        return (data[off] & 0xFF) | (data[off + 1] & 0xFF) << 8;
+    }
+
+    private static long u32(byte[] data, int off) {
+        return (u16(data, off) | (long) u16(data, off + 2) << 16) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.pruebable;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📡 LoRaTxQueue - Cola de Transmisión LoRa con Subida en Paralelo
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Acepta varios archivos y los transmite por LoRa uno tras otro:
+ * - Sube el archivo N+1 por BLE mientras el Heltec transmite N por LoRa
+ * - Envía CMD:TX_FILE en cuanto llega TX_COMPLETE/TX_FAILED del anterior
+ * - Archivos que ya están en el Heltec entran directamente listos para TX
+ *
+ * El firmware atiende BLE en su propia tarea y LoRa en loop(), así que
+ * ambos enlaces trabajan a la vez. Todos los métodos públicos se llaman
+ * desde el hilo principal.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class LoRaTxQueue {
+
+    private static final String TAG = "LoRaTxQueue";
+
+    // Espera tras UPLOAD_START antes de enviar chunks (igual que DeviceActivity)
+    private static final int UPLOAD_START_DELAY = 500;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 ESTADOS Y ELEMENTOS
+    // ════════════════════════════════════════════════════════════════════
+
+    enum State { PENDING, UPLOADING, READY, TRANSMITTING, DONE, FAILED }
+
+    /**
+     * Archivo en la cola
+     */
+    static class Item {
+        final String name;
+        final long size;
+        final Uri uri;       // null si el archivo ya está en el Heltec
+        State state;
+
+        Item(String name, long size, Uri uri) {
+            this.name = name;
+            this.size = size;
+            this.uri = uri;
+            this.state = uri != null ? State.PENDING : State.READY;
+        }
+    }
+
+    /**
+     * Eventos de la cola (se entregan en el hilo principal)
+     */
+    interface Listener {
+        /**
+         * Iniciar la transmisión LoRa de un archivo ya presente en el Heltec
+         * @param fileName Nombre del archivo
+         */
+        void onStartTransmission(String fileName);
+
+        /**
+         * Progreso de la subida BLE en curso
+         */
+        void onUploadProgress(Item item, int percentage);
+
+        /**
+         * La cola cambió (estado de algún elemento)
+         */
+        void onQueueChanged();
+
+        /**
+         * Todos los elementos terminaron
+         */
+        void onQueueFinished(int transmitted, int failed);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final Context context;
+    private final FileManager fileManager;
+    private final BLEManager bleManager;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final List<Item> items = new ArrayList<>();
+    private Item uploading;
+    private Item transmitting;
+    private boolean externalTransmission = false;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    LoRaTxQueue(Context context, FileManager fileManager, BLEManager bleManager,
+                Listener listener) {
+        this.context = context;
+        this.fileManager = fileManager;
+        this.bleManager = bleManager;
+        this.listener = listener;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ➕ ENCOLAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Encolar un archivo local: se sube por BLE y luego se transmite
+     */
+    void enqueueLocal(Uri uri, String name, long size) {
+        items.add(new Item(name, size, uri));
+        Log.d(TAG, "➕ Encolado (local): " + name);
+        advance();
+    }
+
+    /**
+     * Encolar un archivo que ya existe en el Heltec
+     */
+    void enqueueRemote(String name, long size) {
+        items.add(new Item(name, size, null));
+        Log.d(TAG, "➕ Encolado (remoto): " + name);
+        advance();
+    }
+
+    /**
+     * Descartar los elementos que aún no empezaron
+     */
+    void clearPending() {
+        for (Item item : items) {
+            if (item.state == State.PENDING || item.state == State.READY) {
+                item.state = State.FAILED;
+            }
+        }
+        listener.onQueueChanged();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📨 EVENTOS DEL HELTEC (desde DeviceActivity)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * OK:UPLOAD_COMPLETE recibido: el archivo está en LittleFS
+     */
+    void onUploadConfirmed() {
+        if (uploading == null) return;
+
+        Log.d(TAG, "✅ Subido: " + uploading.name);
+        uploading.state = State.READY;
+        uploading = null;
+        advance();
+    }
+
+    /**
+     * Marcar una TX iniciada fuera de la cola (botón 📡 individual)
+     *
+     * @param active true mientras esa TX esté en curso
+     */
+    void setExternalTransmission(boolean active) {
+        externalTransmission = active;
+        if (!active) advance();
+    }
+
+    /**
+     * TX_COMPLETE o TX_FAILED recibido
+     */
+    void onTransmissionFinished(boolean success) {
+        if (transmitting == null) return;
+
+        Log.d(TAG, (success ? "✅ Transmitido: " : "❌ Falló TX: ") + transmitting.name);
+        transmitting.state = success ? State.DONE : State.FAILED;
+        transmitting = null;
+        advance();
+    }
+
+    /**
+     * ERROR:* durante una subida de la cola
+     */
+    void onUploadError(String error) {
+        if (uploading == null) return;
+
+        Log.e(TAG, "❌ Error subiendo " + uploading.name + ": " + error);
+        uploading.state = State.FAILED;
+        uploading = null;
+        advance();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ⚙️ AVANZAR LA COLA
+    // ════════════════════════════════════════════════════════════════════
+
+    private void advance() {
+        // LoRa: siguiente archivo listo, en orden de llegada
+        if (transmitting == null && !externalTransmission) {
+            for (Item item : items) {
+                if (item.state == State.READY) {
+                    transmitting = item;
+                    item.state = State.TRANSMITTING;
+                    Log.d(TAG, "📡 TX: " + item.name);
+                    listener.onStartTransmission(item.name);
+                    break;
+                }
+                if (item.state == State.PENDING || item.state == State.UPLOADING) {
+                    break; // Mantener el orden: esperar a que termine de subirse
+                }
+            }
+        }
+
+        // BLE: subir el siguiente pendiente mientras LoRa transmite
+        if (uploading == null) {
+            for (Item item : items) {
+                if (item.state == State.PENDING) {
+                    startUpload(item);
+                    break;
+                }
+            }
+        }
+
+        listener.onQueueChanged();
+
+        if (!hasWork()) {
+            int done = 0;
+            int failed = 0;
+            for (Item item : items) {
+                if (item.state == State.DONE) done++;
+                else failed++;
+            }
+            if (!items.isEmpty()) {
+                Log.d(TAG, "🏁 Cola terminada: " + done + " OK, " + failed + " fallidos");
+                items.clear();
+                listener.onQueueFinished(done, failed);
+            }
+        }
+    }
+
+    private void startUpload(Item item) {
+        uploading = item;
+        item.state = State.UPLOADING;
+        Log.d(TAG, "📤 Subiendo: " + item.name);
+
+        bleManager.sendCommand("CMD:UPLOAD_START:" + item.name + ":" + item.size);
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(UPLOAD_START_DELAY);
+
+                UploadSource source = UploadSource.open(context, item.uri, item.size);
+
+                fileManager.uploadFileInChunks(source, bleManager.getBulkTransport(),
+                        new FileManager.UploadCallback() {
+                            @Override
+                            public void onProgress(int percentage) {
+                                handler.post(() -> listener.onUploadProgress(item, percentage));
+                            }
+
+                            @Override
+                            public void onComplete() {
+                                // Se espera OK:UPLOAD_COMPLETE del Heltec
+                            }
+
+                            @Override
+                            public void onError(String error) {
+                                handler.post(() -> onUploadError(error));
+                            }
+                        });
+
+            } catch (Exception e) {
+                handler.post(() -> onUploadError(e.getMessage()));
+            }
+        }).start();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 GETTERS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return true si queda algún elemento sin terminar
+     */
+    boolean hasWork() {
+        for (Item item : items) {
+            if (item.state != State.DONE && item.state != State.FAILED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true si hay una subida de la cola en curso
+     */
+    boolean isUploading() {
+        return uploading != null;
+    }
+
+    /**
+     * @return true si la TX LoRa en curso la inició la cola
+     */
+    boolean isTransmitting() {
+        return transmitting != null;
+    }
+
+    /**
+     * @return Resumen para la UI, ej: "Cola: 2/5 | ⬆️ b.bin | 📡 a.bin"
+     */
+    String summary() {
+        int finished = 0;
+        for (Item item : items) {
+            if (item.state == State.DONE || item.state == State.FAILED) finished++;
+        }
+        return "Cola: " + finished + "/" + items.size() +
+                (uploading != null ? " | ⬆️ " + uploading.name : "") +
+                (transmitting != null ? " | 📡 " + transmitting.name : "");
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.pruebable;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🔁 LoopbackTransport - Enlace en Memoria (Pruebas y Benchmarks)
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Par de Transport conectados entre sí sin radio, para medir FileManager
+ * y el protocolo sin Heltec:
+ * - Cola acotada por sentido (los créditos son el sitio libre)
+ * - Latencia fija y pérdida aleatoria opcionales
+ * - Entrega al Sink en un hilo propio, en orden
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class LoopbackTransport implements Transport {
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // Lo que espera un envío sin sitio antes de descartarse (como BLEManager)
+    private static final long PUT_TIMEOUT_MS = 5000;
+
+    // Trama que cierra el hilo de entrega
+    private static final byte[] POISON = new byte[0];
+
+    /**
+     * Trama en cola con su instante de entrega
+     */
+    private static final class Frame {
+        final byte[] data;
+        final long dueNanos;
+
+        Frame(byte[] data, long dueNanos) {
+            this.data = data;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final String name;
+    private final int mtu;
+    private final long latencyNanos;
+    private final double lossRate;
+    private final Random random;
+
+    private final BlockingQueue<Frame> inbox;
+    private final ExecutorService sender;
+    private final AtomicInteger pendingSends = new AtomicInteger();
+    private final Thread dispatcher;
+
+    private LoopbackTransport peer;
+    private volatile Transport.Sink sink;
+    private volatile boolean open = true;
+    private volatile long estimatedBytesPerSecond = Long.MAX_VALUE;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCCIÓN
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Crear dos extremos conectados
+     *
+     * @param capacity  Tramas en vuelo por sentido
+     * @param latencyMs Retardo de entrega de cada trama
+     * @param lossRate  Probabilidad de perder una trama (0 = ninguna)
+     * @param seed      Semilla de las pérdidas (reproducibles)
+     */
+    static LoopbackTransport[] pair(int mtu, int capacity, long latencyMs,
+                                    double lossRate, long seed) {
+        LoopbackTransport a = new LoopbackTransport("LOOP-A", mtu, capacity,
+                latencyMs, lossRate, new Random(seed));
+        LoopbackTransport b = new LoopbackTransport("LOOP-B", mtu, capacity,
+                latencyMs, lossRate, new Random(seed + 1));
+        a.peer = b;
+        b.peer = a;
+        return new LoopbackTransport[]{a, b};
+    }
+
+    private LoopbackTransport(String name, int mtu, int capacity, long latencyMs,
+                              double lossRate, Random random) {
+        this.name = name;
+        this.mtu = mtu;
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMs);
+        this.lossRate = lossRate;
+        this.random = random;
+        this.inbox = new ArrayBlockingQueue<>(capacity);
+        this.sender = Executors.newSingleThreadExecutor();
+
+        dispatcher = new Thread(this::dispatchLoop, name + "-Rx");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔌 TRANSPORT
+    // ════════════════════════════════════════════════════════════════════
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && peer.open;
+    }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public int getCredits() {
+        return isOpen() ? peer.inbox.remainingCapacity() : 0;
+    }
+
+    @Override
+    public long getEstimatedBytesPerSecond() {
+        return estimatedBytesPerSecond;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> send(byte[] frame) {
+        if (!isOpen() || frame.length > mtu) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        // Camino rápido solo si no hay envíos esperando (mantener el orden)
+        if (pendingSends.get() == 0) {
+            Boolean accepted = deliver(frame, false);
+            if (accepted != null) {
+                return CompletableFuture.completedFuture(accepted);
+            }
+        }
+
+        pendingSends.incrementAndGet();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return deliver(frame, true);
+            } finally {
+                pendingSends.decrementAndGet();
+            }
+        }, sender);
+    }
+
+    @Override
+    public void setSink(Transport.Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @param bytesPerSecond Velocidad que declarar a Transport.fastest()
+     */
+    void setEstimatedBytesPerSecond(long bytesPerSecond) {
+        estimatedBytesPerSecond = bytesPerSecond;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📨 ENTREGA
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return true si se aceptó (aunque se pierda), false si se descartó,
+     *         null si no había sitio y no se debía esperar
+     */
+    private Boolean deliver(byte[] frame, boolean wait) {
+        // La pérdida ocurre "en el aire": el enlace ya aceptó la trama
+        if (lossRate > 0) {
+            synchronized (random) {
+                if (random.nextDouble() < lossRate) return true;
+            }
+        }
+
+        Frame queued = new Frame(frame.clone(), System.nanoTime() + latencyNanos);
+        if (!wait) {
+            return peer.inbox.offer(queued) ? Boolean.TRUE : null;
+        }
+
+        try {
+            return peer.inbox.offer(queued, PUT_TIMEOUT_MS, TimeUnit.MILLISECONDS) && isOpen();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void dispatchLoop() {
+        try {
+            while (true) {
+                Frame frame = inbox.take();
+                if (frame.data == POISON) break;
+
+                long waitNanos = frame.dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+
+                Transport.Sink frameSink = sink;
+                if (frameSink != null) {
+                    frameSink.onFrame(frame.data);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔚 CIERRE
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Cerrar este extremo (el otro deja de estar abierto también)
+     */
+    void close() {
+        open = false;
+        sender.shutdown();
+        inbox.clear();
+        inbox.offer(new Frame(POISON, 0));
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.pruebable;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.Locale;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📊 ProgressAggregator - Progreso Agregado a Ritmo de Pantalla
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Desacopla el progreso de la velocidad de los chunks:
+ * - update() se llama desde cualquier hilo por cada chunk/notificación:
+ *   solo escribe dos volatile (sin lambdas, sin post, sin objetos)
+ * - El hilo principal muestrea el último valor cada intervalo
+ *   (o en cada frame con FRAME_INTERVAL) y solo pinta si cambió
+ * - Velocidad suavizada (EWMA) y tiempo restante estimado
+ *
+ * Con 100 chunks/s la UI sigue haciendo como mucho 1000/intervalo
+ * actualizaciones por segundo.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class ProgressAggregator {
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // Intervalo por defecto entre repintados (ms)
+    static final long DEFAULT_INTERVAL = 100;
+
+    // Intervalo especial: muestrear en cada frame (Choreographer)
+    static final long FRAME_INTERVAL = 0;
+
+    // Peso de la última medida en la media exponencial de velocidad
+    private static final double RATE_ALPHA = 0.25;
+
+    // Ventana mínima para medir velocidad (evita picos con intervalos cortos)
+    private static final long RATE_WINDOW_MS = 250;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📞 INTERFAZ DE PINTADO
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Pintado del progreso (siempre en el hilo principal)
+     */
+    interface Renderer {
+        /**
+         * @param progress Agregador con los valores muestreados
+         */
+        void render(ProgressAggregator progress);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final Renderer renderer;
+    private final long interval;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Escritos desde cualquier hilo
+    private volatile long done;
+    private volatile long total;
+
+    // Solo hilo principal
+    private boolean running = false;
+    private String label = "";
+    private long sampledDone = -1;
+    private long sampledTotal = -1;
+    private long rateDone;
+    private long rateTime;
+    private double rate;
+
+    // Tareas creadas una sola vez
+    private final Runnable tick = this::onTick;
+    private final Choreographer.FrameCallback frameTick = frameTimeNanos -> onTick();
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @param interval Ms entre muestreos, o FRAME_INTERVAL para cada frame
+     */
+    ProgressAggregator(Renderer renderer, long interval) {
+        this.renderer = renderer;
+        this.interval = interval;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ▶️ CICLO DE VIDA (hilo principal)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Empezar a muestrear una transferencia nueva
+     *
+     * @param label Texto fijo de la operación (ej: "Descargando a.bin")
+     */
+    void start(String label) {
+        stop();
+        this.label = label;
+        done = 0;
+        total = 0;
+        sampledDone = -1;
+        sampledTotal = -1;
+        rateDone = 0;
+        rateTime = SystemClock.elapsedRealtime();
+        rate = 0;
+        running = true;
+        schedule();
+    }
+
+    /**
+     * Dejar de muestrear (el último valor no se pinta)
+     */
+    void stop() {
+        if (!running) return;
+        running = false;
+        handler.removeCallbacks(tick);
+        Choreographer.getInstance().removeFrameCallback(frameTick);
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ➕ ACTUALIZAR (cualquier hilo)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Registrar el avance; barato, pensado para llamarse por chunk
+     *
+     * @param done Unidades completadas (bytes, fragmentos...)
+     * @param total Unidades totales
+     */
+    void update(long done, long total) {
+        this.total = total;
+        this.done = done;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ⏱️ MUESTREO
+    // ════════════════════════════════════════════════════════════════════
+
+    private void schedule() {
+        if (interval == FRAME_INTERVAL) {
+            Choreographer.getInstance().postFrameCallback(frameTick);
+        } else {
+            handler.postDelayed(tick, interval);
+        }
+    }
+
+    private void onTick() {
+        if (!running) return;
+
+        long currentDone = done;
+        long currentTotal = total;
+        long now = SystemClock.elapsedRealtime();
+
+        // Velocidad: media exponencial sobre ventanas de RATE_WINDOW_MS
+        long elapsed = now - rateTime;
+        if (elapsed >= RATE_WINDOW_MS) {
+            double instant = (currentDone - rateDone) * 1000.0 / elapsed;
+            rate = rate == 0 ? instant : RATE_ALPHA * instant + (1 - RATE_ALPHA) * rate;
+            rateDone = currentDone;
+            rateTime = now;
+        }
+
+        if (currentDone != sampledDone || currentTotal != sampledTotal) {
+            sampledDone = currentDone;
+            sampledTotal = currentTotal;
+            renderer.render(this);
+        }
+
+        schedule();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 GETTERS (valores del último muestreo)
+    // ════════════════════════════════════════════════════════════════════
+
+    String getLabel() {
+        return label;
+    }
+
+    long getDone() {
+        return sampledDone;
+    }
+
+    long getTotal() {
+        return sampledTotal;
+    }
+
+    /**
+     * @return Porcentaje (0-100)
+     */
+    int getPercentage() {
+        if (sampledTotal <= 0) return 0;
+        return (int) Math.min(100, sampledDone * 100 / sampledTotal);
+    }
+
+    /**
+     * @return Velocidad suavizada en unidades por segundo
+     */
+    double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return Segundos restantes estimados, o -1 si aún no se sabe
+     */
+    long getEtaSeconds() {
+        if (rate <= 0 || sampledTotal <= 0) return -1;
+        return (long) Math.ceil((sampledTotal - sampledDone) / rate);
+    }
+
+    /**
+     * @return ETA como "m:ss", o "--:--" si aún no se sabe
+     */
+    String formatEta() {
+        long eta = getEtaSeconds();
+        if (eta < 0) return "--:--";
+        return (eta / 60) + ":" + String.format(Locale.US, "%02d", eta % 60);
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.pruebable;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🏷️ RequestTracker - Peticiones con ID y Respuesta Correlacionada
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Convierte comandos sueltos en peticiones con futuro:
+ * - Cada petición sale como "#id:CMD:..." y el Heltec antepone "#id:"
+ *   a todas las líneas que envía mientras atiende ese comando
+ * - Las líneas con ID van a su petición (no al callback general); la
+ *   línea final (según la petición) o un "ERROR:..." la completan
+ * - Timeout y cancelación por petición: cancel() en el futuro la retira
+ * - Varias peticiones pueden estar en vuelo a la vez (consultas al
+ *   conectar sin postDelayed entre ellas)
+ *
+ * Firmware sin IDs: contesta "ERROR:UNKNOWN_COMMAND" sin etiqueta y en
+ * orden; mientras no haya llegado ninguna línea con ID, ese error falla
+ * la petición más antigua para que el llamador use el comando simple.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class RequestTracker {
+
+    private static final String TAG = "RequestTracker";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    private static final String TAG_PREFIX = "#";
+    private static final String ERROR_PREFIX = "ERROR:";
+    private static final String UNKNOWN_COMMAND = "ERROR:UNKNOWN_COMMAND";
+
+    // IDs de 1 a MAX_ID (caben en el prefijo sin alargar mucho la trama)
+    private static final int MAX_ID = 9999;
+
+    /**
+     * Respuesta "ERROR:..." del Heltec a una petición
+     */
+    static class ErrorResponse extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final String error;
+
+        ErrorResponse(String error) {
+            super("Error del Heltec: " + error);
+            this.error = error;
+        }
+
+        /**
+         * @return Código sin "ERROR:" (p. ej. "FILE_NOT_FOUND")
+         */
+        String getError() {
+            return error;
+        }
+
+        boolean isUnknownCommand() {
+            return UNKNOWN_COMMAND.equals(ERROR_PREFIX + error);
+        }
+    }
+
+    /**
+     * Petición en vuelo
+     */
+    private static final class Pending {
+        final String command;
+        final String lastPrefix;
+        final List<String> lines = new ArrayList<>();
+        final CompletableFuture<List<String>> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+
+        Pending(String command, String lastPrefix) {
+            this.command = command;
+            this.lastPrefix = lastPrefix;
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    // En orden de envío (el firmware sin IDs contesta en ese orden)
+    private final Map<Integer, Pending> pending = new LinkedHashMap<>();
+    private final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "RequestTimeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private int nextId = 1;
+
+    // Ya llegó alguna línea con ID: el firmware los entiende
+    private boolean tagsConfirmed = false;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📤 NUEVA PETICIÓN
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Registrar una petición
+     *
+     * @param command    Comando sin ID ("CMD:LIST")
+     * @param lastPrefix Prefijo de la línea que cierra la respuesta
+     *                   ("FILES_END"); null = la primera línea
+     * @param timeoutMs  Espera máxima de la respuesta completa
+     * @return Petición con el comando etiquetado que hay que enviar
+     */
+    synchronized Request register(String command, String lastPrefix, long timeoutMs) {
+        int id = nextId;
+        nextId = nextId >= MAX_ID ? 1 : nextId + 1;
+
+        Pending request = new Pending(command, lastPrefix);
+        pending.put(id, request);
+
+        request.timeout = timer.schedule(() -> fail(id,
+                new TimeoutException("Sin respuesta a " + command)),
+                timeoutMs, TimeUnit.MILLISECONDS);
+
+        // Cancelada o completada por cualquier vía: retirarla y parar el timer
+        request.future.whenComplete((lines, error) -> remove(id, request));
+
+        return new Request(id, TAG_PREFIX + id + ":" + command, request.future);
+    }
+
+    /**
+     * Comando etiquetado y su futuro (lista de líneas sin ID, la final
+     * incluida)
+     */
+    static final class Request {
+        final int id;
+        final String taggedCommand;
+        final CompletableFuture<List<String>> future;
+
+        Request(int id, String taggedCommand, CompletableFuture<List<String>> future) {
+            this.id = id;
+            this.taggedCommand = taggedCommand;
+            this.future = future;
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📥 LÍNEAS RECIBIDAS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Ofrecer una línea del Heltec (hilo del transporte)
+     *
+     * @return true si pertenecía a una petición (no entregarla al callback)
+     */
+    boolean onLine(String line) {
+        if (line.startsWith(TAG_PREFIX)) {
+            return onTaggedLine(line);
+        }
+        if (line.startsWith(UNKNOWN_COMMAND)) {
+            return onUntaggedUnknown();
+        }
+        return false;
+    }
+
+    private boolean onTaggedLine(String line) {
+        int sep = line.indexOf(':');
+        int id;
+        try {
+            id = sep > 1 ? Integer.parseInt(line.substring(1, sep)) : -1;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (id < 0) return false;
+
+        String body = line.substring(sep + 1);
+        Pending request;
+        boolean last;
+        synchronized (this) {
+            tagsConfirmed = true;
+            request = pending.get(id);
+            if (request == null) {
+                // Cancelada o vencida: la respuesta tardía se descarta
+                Log.d(TAG, "⏭️ Respuesta sin petición (#" + id + "): " + body);
+                return true;
+            }
+            request.lines.add(body);
+            last = request.lastPrefix == null
+                    || body.startsWith(request.lastPrefix)
+                    || body.startsWith(ERROR_PREFIX);
+        }
+
+        if (last) {
+            if (body.startsWith(ERROR_PREFIX)) {
+                fail(id, new ErrorResponse(body.substring(ERROR_PREFIX.length())));
+            } else {
+                request.future.complete(Collections.unmodifiableList(request.lines));
+            }
+        }
+        return true;
+    }
+
+    private boolean onUntaggedUnknown() {
+        Pending oldest;
+        int id;
+        synchronized (this) {
+            if (tagsConfirmed || pending.isEmpty()) return false;
+            Map.Entry<Integer, Pending> first = pending.entrySet().iterator().next();
+            id = first.getKey();
+            oldest = first.getValue();
+        }
+
+        Log.w(TAG, "⚠️ Firmware sin IDs de petición: " + oldest.command);
+        fail(id, new ErrorResponse(UNKNOWN_COMMAND.substring(ERROR_PREFIX.length())));
+        return true;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔚 FIN DE PETICIONES
+    // ════════════════════════════════════════════════════════════════════
+
+    private void fail(int id, Exception error) {
+        Pending request;
+        synchronized (this) {
+            request = pending.get(id);
+        }
+        if (request != null) {
+            request.future.completeExceptionally(error);
+        }
+    }
+
+    private synchronized void remove(int id, Pending request) {
+        if (pending.get(id) == request) {
+            pending.remove(id);
+        }
+        if (request.timeout != null) {
+            request.timeout.cancel(false);
+        }
+    }
+
+    /**
+     * Fallar todas las peticiones en vuelo (desconexión); la siguiente
+     * conexión vuelve a comprobar si el firmware entiende los IDs
+     */
+    void failAll(String reason) {
+        List<Pending> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(pending.values());
+            tagsConfirmed = false;
+        }
+
+        for (Pending request : failed) {
+            request.future.completeExceptionally(new IOException(reason));
+        }
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+}
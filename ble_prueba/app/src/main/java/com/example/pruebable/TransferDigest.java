@@ -0,0 +1,296 @@
+package com.example.pruebable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🔐 TransferDigest - Hash Incremental de una Transferencia
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Calcula mientras los bytes pasan (sin segunda lectura ni buffers):
+ * - SHA-256 de todo el archivo
+ * - CRC32C por segmento de SEGMENT_SIZE bytes
+ *
+ * Se compara con la respuesta de CMD:HASH del Heltec:
+ *   HASH_START:nombre:tamaño:segmento:segmentos
+ *   HASH_SEG:i:crc32c (hex)
+ *   HASH_END:sha256 (hex)
+ *
+ * Si algo no coincide, los segmentos con CRC distinto (o que llegaron con
+ * huecos) son los únicos que se vuelven a transferir.
+ *
+ * El CRC32C es propio (tabla de 256 entradas): java.util.zip.CRC32C no
+ * existe antes de API 34 y minSdk es 31.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class TransferDigest {
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // Múltiplo de los chunks BLE de 200 y 160 B; los de 96 B (BleLinkTuner,
+    // enlace lejano) sí cruzan segmentos y update() los reparte
+    static final int SEGMENT_SIZE = 4000;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🧮 CRC32C
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * CRC-32C (Castagnoli), reflejado: el mismo polinomio que
+     * crc32cUpdate() del firmware
+     */
+    static final class Crc32c {
+        private static final int POLYNOMIAL = 0x82F63B78;
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int c = i;
+                for (int k = 0; k < 8; k++) {
+                    c = (c >>> 1) ^ (POLYNOMIAL & -(c & 1));
+                }
+                TABLE[i] = c;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        void update(byte[] data, int off, int len) {
+            int c = crc;
+            for (int i = off; i < off + len; i++) {
+                c = (c >>> 8) ^ TABLE[(c ^ data[i]) & 0xFF];
+            }
+            crc = c;
+        }
+
+        long getValue() {
+            return ~crc & 0xFFFFFFFFL;
+        }
+
+        void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📋 HASH DEL HELTEC
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Respuesta de CMD:HASH, se va llenando línea a línea
+     */
+    static class Expected {
+        long size;
+        int segmentSize;
+        long[] segmentCrcs;
+        String sha256;
+
+        /**
+         * @param startArgs Contenido tras "HASH_START:" (nombre:tamaño:segmento:segmentos)
+         */
+        static Expected fromStart(String startArgs) {
+            String[] parts = startArgs.split(":");
+            int n = parts.length;
+            Expected expected = new Expected();
+            expected.size = Long.parseLong(parts[n - 3]);
+            expected.segmentSize = Integer.parseInt(parts[n - 2]);
+            expected.segmentCrcs = new long[Integer.parseInt(parts[n - 1])];
+            return expected;
+        }
+
+        /**
+         * @param segmentArgs Contenido tras "HASH_SEG:" (i:crc)
+         */
+        void addSegment(String segmentArgs) {
+            int sep = segmentArgs.indexOf(':');
+            int index = Integer.parseInt(segmentArgs.substring(0, sep));
+            if (index >= 0 && index < segmentCrcs.length) {
+                segmentCrcs[index] = Long.parseLong(segmentArgs.substring(sep + 1), 16);
+            }
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final long size;
+    private final long end;
+    private final MessageDigest sha256;
+    private final Crc32c crc = new Crc32c();
+    private final long[] segmentCrcs;
+    private final BitSet broken = new BitSet();
+
+    private long nextOffset;
+    private boolean sequential;
+    private String sha256Hex;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Digest del archivo completo
+     */
+    TransferDigest(long size) {
+        this(size, 0, size);
+    }
+
+    /**
+     * Digest de un rango [start, end) alineado a segmentos (re-descargas)
+     *
+     * @param size Tamaño total del archivo
+     */
+    TransferDigest(long size, long start, long end) {
+        this.size = size;
+        this.end = end;
+        this.nextOffset = start;
+        this.sequential = start == 0 && end == size;
+        this.segmentCrcs = new long[segmentCount(size)];
+
+        MessageDigest digest = null;
+        if (sequential) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                sequential = false;
+            }
+        }
+        this.sha256 = digest;
+    }
+
+    /**
+     * @return Tamaño total del archivo
+     */
+    long size() {
+        return size;
+    }
+
+    static int segmentCount(long size) {
+        return (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ➕ ACTUALIZAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Añadir bytes en su posición del archivo
+     *
+     * Los datos fuera de orden no se bufferizan: el hueco y el segmento
+     * afectado se marcan como rotos para volver a pedirlos.
+     */
+    void update(long offset, byte[] data, int off, int len) {
+        if (offset != nextOffset) {
+            sequential = false;
+            markBroken(nextOffset, offset + 1);
+            crc.reset();
+        }
+
+        while (len > 0 && offset < end) {
+            int segment = (int) (offset / SEGMENT_SIZE);
+            long segmentEnd = Math.min((long) (segment + 1) * SEGMENT_SIZE, size);
+            int n = (int) Math.min(len, segmentEnd - offset);
+
+            crc.update(data, off, n);
+            if (sha256 != null && sequential) {
+                sha256.update(data, off, n);
+            }
+
+            offset += n;
+            off += n;
+            len -= n;
+
+            if (offset == segmentEnd) {
+                segmentCrcs[segment] = crc.getValue();
+                crc.reset();
+            }
+        }
+        nextOffset = offset;
+    }
+
+    /**
+     * Cerrar el digest: lo que no llegó queda marcado como roto
+     */
+    void finish() {
+        if (nextOffset < end) {
+            sequential = false;
+            markBroken(nextOffset, end);
+        }
+    }
+
+    private void markBroken(long from, long to) {
+        if (to <= from) return;
+        int first = (int) (from / SEGMENT_SIZE);
+        int last = (int) Math.min((to - 1) / SEGMENT_SIZE, segmentCrcs.length - 1);
+        if (first <= last) broken.set(first, last + 1);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ⚖️ COMPARAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return SHA-256 en hex, o null si los datos no llegaron en orden
+     */
+    String sha256Hex() {
+        if (sha256 == null || !sequential) return null;
+        if (sha256Hex != null) return sha256Hex;
+
+        byte[] hash = sha256.digest();
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        sha256Hex = hex.toString();
+        return sha256Hex;
+    }
+
+    /**
+     * Segmentos del rango de este digest que no coinciden con el Heltec
+     */
+    BitSet mismatchedSegments(Expected expected, long start) {
+        BitSet bad = new BitSet();
+        int first = (int) (start / SEGMENT_SIZE);
+        int last = segmentCount(end) - 1;
+
+        if (expected.segmentSize != SEGMENT_SIZE || expected.size != size ||
+                expected.segmentCrcs.length != segmentCrcs.length) {
+            bad.set(first, last + 1);
+            return bad;
+        }
+
+        for (int i = first; i <= last; i++) {
+            if (broken.get(i) || segmentCrcs[i] != expected.segmentCrcs[i]) {
+                bad.set(i);
+            }
+        }
+        return bad;
+    }
+
+    /**
+     * Agrupar segmentos contiguos en rangos {offset, length}
+     */
+    static List<long[]> toRanges(BitSet segments, long size) {
+        List<long[]> ranges = new ArrayList<>();
+        int i = segments.nextSetBit(0);
+        while (i >= 0) {
+            int j = segments.nextClearBit(i);
+            long offset = (long) i * SEGMENT_SIZE;
+            long length = Math.min((long) j * SEGMENT_SIZE, size) - offset;
+            ranges.add(new long[]{offset, length});
+            i = segments.nextSetBit(j);
+        }
+        return ranges;
+    }
+}
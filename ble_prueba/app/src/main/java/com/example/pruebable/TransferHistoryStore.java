@@ -0,0 +1,392 @@
+package com.example.pruebable;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🗄️ TransferHistoryStore - Historial Persistente de Transferencias
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Guarda en SQLite cada transferencia BLE y LoRa:
+ * - Dispositivo, archivo, tamaño, configuración LoRa
+ * - Duración, velocidad, reintentos, RSSI
+ * - Inserciones agrupadas en una transacción, fuera del hilo principal
+ * - Consultas indexadas por dispositivo, tipo y configuración
+ * - Exportación a CSV recorriendo el Cursor (sin cargar todo en memoria)
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class TransferHistoryStore extends SQLiteOpenHelper {
+
+    private static final String TAG = "TransferHistory";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    private static final String DB_NAME = "transfer_history.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE = "transfers";
+
+    // Tamaño de lote y espera máxima antes de escribir
+    private static final int BATCH_SIZE = 32;
+    private static final long FLUSH_DELAY_MS = 2000;
+
+    // Tipos de transferencia
+    static final String TYPE_BLE_UPLOAD = "BLE_UPLOAD";
+    static final String TYPE_BLE_DOWNLOAD = "BLE_DOWNLOAD";
+    static final String TYPE_LORA_TX = "LORA_TX";
+    static final String TYPE_LORA_RX = "LORA_RX";
+    static final String TYPE_WIFI_UPLOAD = "WIFI_UPLOAD";
+    static final String TYPE_WIFI_DOWNLOAD = "WIFI_DOWNLOAD";
+    static final String TYPE_HTTP_UPLOAD = "HTTP_UPLOAD";
+    static final String TYPE_HTTP_DOWNLOAD = "HTTP_DOWNLOAD";
+
+    private static final String[] CSV_COLUMNS = {
+            "timestamp", "device", "type", "file", "size", "config",
+            "duration_ms", "speed_kbps", "retries", "rssi", "success"
+    };
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private static TransferHistoryStore instance;
+
+    // Un único hilo serializa todas las escrituras y consultas
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final List<Record> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 REGISTRO DE TRANSFERENCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Una transferencia completada o fallida
+     */
+    static class Record {
+        long timestamp = System.currentTimeMillis();
+        String device;
+        String type;
+        String file;
+        long size;
+        String config;        // LoRaConfig.key() o null para BLE
+        long durationMs;
+        double speedKbps;
+        int retries;
+        Integer rssi;         // null si no se conoce
+        boolean success = true;
+
+        Record(String device, String type, String file, long size) {
+            this.device = device;
+            this.type = type;
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Callback para recorrer resultados fila por fila
+     */
+    interface RowCallback {
+        void onRow(Cursor cursor);
+    }
+
+    /**
+     * Callback de exportación (se invoca en el hilo de la base de datos)
+     */
+    interface ExportCallback {
+        void onComplete(File file, int rows);
+
+        void onError(String error);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    private TransferHistoryStore(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    /**
+     * @param context Contexto (se usa el de aplicación)
+     * @return Instancia compartida del historial
+     */
+    static synchronized TransferHistoryStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransferHistoryStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "timestamp INTEGER NOT NULL, " +
+                "device TEXT NOT NULL, " +
+                "type TEXT NOT NULL, " +
+                "file TEXT, " +
+                "size INTEGER, " +
+                "config TEXT, " +
+                "duration_ms INTEGER, " +
+                "speed_kbps REAL, " +
+                "retries INTEGER, " +
+                "rssi INTEGER, " +
+                "success INTEGER NOT NULL)");
+
+        db.execSQL("CREATE INDEX idx_transfers_device_time ON " + TABLE + " (device, timestamp)");
+        db.execSQL("CREATE INDEX idx_transfers_type_time ON " + TABLE + " (type, timestamp)");
+        db.execSQL("CREATE INDEX idx_transfers_config ON " + TABLE + " (config, type)");
+
+        Log.d(TAG, "🗄️ Base de datos creada");
+    }
+
+    /**
+     * El historial es desechable (se exporta a CSV): al cambiar el esquema
+     * se borra y se crea de nuevo en vez de migrar
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.w(TAG, "⚠️ Esquema " + oldVersion + " -> " + newVersion + ", historial reiniciado");
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📝 INSERCIÓN POR LOTES
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Encolar un registro. Se escribe en lote al llegar a BATCH_SIZE
+     * o tras FLUSH_DELAY_MS.
+     *
+     * @param record Registro a guardar
+     */
+    void record(Record record) {
+        boolean flushNow;
+        boolean scheduleFlush = false;
+
+        Log.d(TAG, "📝 " + describe(record));
+
+        synchronized (pending) {
+            pending.add(record);
+            flushNow = pending.size() >= BATCH_SIZE;
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+
+        if (flushNow) {
+            executor.execute(this::flushPending);
+        } else if (scheduleFlush) {
+            executor.schedule(this::flushPending, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Forzar escritura de los registros pendientes (asíncrono)
+     */
+    void flush() {
+        executor.execute(this::flushPending);
+    }
+
+    private void flushPending() {
+        List<Record> batch;
+        synchronized (pending) {
+            flushScheduled = false;
+            if (pending.isEmpty()) return;
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE +
+                " (timestamp, device, type, file, size, config, duration_ms," +
+                " speed_kbps, retries, rssi, success) VALUES (?,?,?,?,?,?,?,?,?,?,?)");
+
+        db.beginTransaction();
+        try {
+            for (Record r : batch) {
+                insert.clearBindings();
+                insert.bindLong(1, r.timestamp);
+                insert.bindString(2, r.device != null ? r.device : "");
+                insert.bindString(3, r.type);
+                bindNullableString(insert, 4, r.file);
+                insert.bindLong(5, r.size);
+                bindNullableString(insert, 6, r.config);
+                insert.bindLong(7, r.durationMs);
+                insert.bindDouble(8, r.speedKbps);
+                insert.bindLong(9, r.retries);
+                if (r.rssi != null) {
+                    insert.bindLong(10, r.rssi);
+                } else {
+                    insert.bindNull(10);
+                }
+                insert.bindLong(11, r.success ? 1 : 0);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+            Log.d(TAG, "💾 " + batch.size() + " registro(s) guardados");
+        } catch (Exception e) {
+            Log.e(TAG, "❌ Error guardando historial: " + e.getMessage());
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    private static void bindNullableString(SQLiteStatement statement, int index, String value) {
+        if (value != null) {
+            statement.bindString(index, value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔍 CONSULTAS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Recorrer transferencias de un dispositivo (más recientes primero).
+     * El callback recibe el Cursor posicionado en cada fila.
+     *
+     * @param device Dirección del dispositivo
+     * @param sinceMillis Solo registros posteriores a este instante
+     * @param limit Máximo de filas (0 = sin límite)
+     * @param callback Se invoca por fila en el hilo de la base de datos
+     * @param done Se invoca al terminar (puede ser null)
+     */
+    void queryByDevice(String device, long sinceMillis, int limit,
+                       RowCallback callback, Runnable done) {
+        executor.execute(() -> {
+            flushPending();
+            String sql = "SELECT * FROM " + TABLE +
+                    " WHERE device = ? AND timestamp >= ? ORDER BY timestamp DESC" +
+                    (limit > 0 ? " LIMIT " + limit : "");
+            iterate(sql, new String[]{device, String.valueOf(sinceMillis)}, callback);
+            if (done != null) done.run();
+        });
+    }
+
+    /**
+     * Resumen por configuración LoRa de un dispositivo y un tipo de
+     * transferencia: columnas config, runs, failures, avg_speed, avg_retries
+     *
+     * @param device Dirección del dispositivo
+     * @param type TYPE_LORA_TX o TYPE_LORA_RX
+     * @param callback Se invoca por fila en el hilo de la base de datos
+     * @param done Se invoca al terminar (puede ser null)
+     */
+    void queryConfigSummary(String device, String type, RowCallback callback, Runnable done) {
+        executor.execute(() -> {
+            flushPending();
+            String sql = "SELECT config, COUNT(*) AS runs, " +
+                    "SUM(1 - success) AS failures, " +
+                    "AVG(CASE WHEN success = 1 THEN speed_kbps END) AS avg_speed, " +
+                    "AVG(retries) AS avg_retries " +
+                    "FROM " + TABLE + " WHERE device = ? AND type = ? AND config IS NOT NULL " +
+                    "GROUP BY config ORDER BY avg_speed DESC";
+            iterate(sql, new String[]{device, type}, callback);
+            if (done != null) done.run();
+        });
+    }
+
+    private void iterate(String sql, String[] args, RowCallback callback) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+            while (cursor.moveToNext()) {
+                callback.onRow(cursor);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "❌ Error consultando historial: " + e.getMessage());
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📤 EXPORTAR A CSV
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Exportar todo el historial a CSV fila por fila
+     *
+     * @param outputFile Archivo de destino
+     * @param callback Resultado (en el hilo de la base de datos)
+     */
+    void exportCsv(File outputFile, ExportCallback callback) {
+        executor.execute(() -> {
+            flushPending();
+            int rows = 0;
+
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
+                 Cursor cursor = getReadableDatabase().rawQuery(
+                         "SELECT " + String.join(", ", CSV_COLUMNS) + " FROM " + TABLE +
+                                 " ORDER BY timestamp", null)) {
+
+                writer.write(String.join(",", CSV_COLUMNS));
+                writer.newLine();
+
+                StringBuilder line = new StringBuilder();
+                while (cursor.moveToNext()) {
+                    line.setLength(0);
+                    for (int i = 0; i < CSV_COLUMNS.length; i++) {
+                        if (i > 0) line.append(',');
+                        if (!cursor.isNull(i)) {
+                            line.append(csvEscape(cursor.getString(i)));
+                        }
+                    }
+                    writer.write(line.toString());
+                    writer.newLine();
+                    rows++;
+                }
+
+                Log.d(TAG, "✅ Historial exportado: " + rows + " filas -> " +
+                        outputFile.getAbsolutePath());
+                callback.onComplete(outputFile, rows);
+
+            } catch (IOException e) {
+                Log.e(TAG, "❌ Error exportando CSV: " + e.getMessage());
+                callback.onError("Error exportando: " + e.getMessage());
+            }
+        });
+    }
+
+    private static String csvEscape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * @return Resumen legible de un registro para logs
+     */
+    static String describe(Record r) {
+        return String.format(Locale.US, "%s %s %s (%d B, %d ms, %.2f kbps, %d reintentos)",
+                r.type, r.device, r.file, r.size, r.durationMs, r.speedKbps, r.retries);
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.pruebable;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🪵 TransferLog - Log de Coste Cero para las Rutas Calientes
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Sustituye a Log.d con concatenación en chunks, escrituras y
+ * notificaciones:
+ * - Nivel fijado en compilación (BuildConfig.TRANSFER_LOG_LEVEL): en
+ *   release los d()/v() son código muerto y desaparecen
+ * - Mensajes con "{}": el String solo se arma si el nivel está activo
+ * - Sobrecargas con long para no crear Integer/Long por llamada
+ * - Anillo binario con los últimos eventos del protocolo (siempre
+ *   activo, 2 longs por evento) que se vuelca con dump() ante un error
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+final class TransferLog {
+
+    private static final String TAG = "TransferLog";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    // Constantes de compilación: javac/R8 eliminan las ramas desactivadas
+    static final int LEVEL = BuildConfig.TRANSFER_LOG_LEVEL;
+    static final boolean VERBOSE = LEVEL <= Log.VERBOSE;
+    static final boolean DEBUG = LEVEL <= Log.DEBUG;
+
+    // Eventos que caben en el anillo (potencia de 2)
+    private static final int RING_EVENTS = 1024;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏷️ TIPOS DE EVENTO
+    // ════════════════════════════════════════════════════════════════════
+
+    static final int EV_CMD_QUEUED = 1;      // a = cola, b = longitud
+    static final int EV_CMD_WRITTEN = 2;     // a = bytes, b = resultado GATT
+    static final int EV_WRITE_FAILED = 3;    // a = bytes, b = resultado GATT
+    static final int EV_NOTIFY = 4;          // a = bytes, b = 0
+    static final int EV_MESSAGE = 5;         // a = longitud, b = 0
+    static final int EV_PROGRESS = 6;        // a = porcentaje o fragmento, b = 0 o tamaño del registro
+    static final int EV_CHUNK_SENT = 7;      // a = chunk, b = bytes totales
+    static final int EV_CHUNK_RECEIVED = 8;  // a = chunk, b = offset
+    static final int EV_CONNECTION = 9;      // a = estado, b = status GATT
+    static final int EV_MTU = 10;            // a = mtu, b = status GATT
+    static final int EV_ERROR = 11;          // a = código libre, b = valor
+    static final int EV_LINK_LEVEL = 12;     // a = nivel BleLinkTuner, b = RSSI (dBm)
+
+    private static final String[] EVENT_NAMES = {
+            "?", "CMD_QUEUED", "CMD_WRITTEN", "WRITE_FAILED", "NOTIFY", "MESSAGE",
+            "PROGRESS", "CHUNK_SENT", "CHUNK_RECEIVED", "CONNECTION", "MTU", "ERROR",
+            "LINK_LEVEL"
+    };
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 ANILLO DE EVENTOS
+    // ════════════════════════════════════════════════════════════════════
+
+    // Por evento: [tiempo en µs | tipo(8) a(24) desplazado] y [b]
+    private static final long[] ring = new long[RING_EVENTS * 2];
+    private static final AtomicInteger next = new AtomicInteger();
+
+    private TransferLog() {
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📼 REGISTRAR EVENTOS (siempre activo)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Guardar un evento del protocolo; sin objetos ni Strings
+     *
+     * Dos hilos pueden pisar la misma ranura si el anillo da la vuelta
+     * entre ambos: aceptable para un registro de diagnóstico.
+     *
+     * @param type Uno de EV_*
+     * @param a Primer valor (24 bits)
+     * @param b Segundo valor
+     */
+    static void event(int type, int a, long b) {
+        int slot = (next.getAndIncrement() & (RING_EVENTS - 1)) * 2;
+        long micros = SystemClock.elapsedRealtimeNanos() / 1000;
+        ring[slot] = (micros & 0xFFFFFFFFL) << 32 | (long) (type & 0xFF) << 24 | (a & 0xFFFFFF);
+        ring[slot + 1] = b;
+    }
+
+    /**
+     * Volcar el anillo al log (del más antiguo al más reciente)
+     *
+     * @param reason Motivo del volcado (se llama ante errores)
+     */
+    static void dump(String reason) {
+        int end = next.get();
+        int count = Math.min(end, RING_EVENTS);
+
+        Log.e(TAG, "📼 Últimos " + count + " eventos (" + reason + "):");
+
+        long firstMicros = -1;
+        StringBuilder line = new StringBuilder(64);
+        for (int i = end - count; i < end; i++) {
+            int slot = (i & (RING_EVENTS - 1)) * 2;
+            long head = ring[slot];
+            long b = ring[slot + 1];
+
+            long micros = head >>> 32;
+            int type = (int) (head >>> 24) & 0xFF;
+            int a = (int) head & 0xFFFFFF;
+
+            if (firstMicros < 0) firstMicros = micros;
+
+            line.setLength(0);
+            line.append('+').append((micros - firstMicros) & 0xFFFFFFFFL).append("µs ")
+                    .append(type < EVENT_NAMES.length ? EVENT_NAMES[type] : "?")
+                    .append(" a=").append(a)
+                    .append(" b=").append(b);
+            Log.e(TAG, line.toString());
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📝 MENSAJES CON NIVEL
+    // ════════════════════════════════════════════════════════════════════
+
+    static void v(String tag, String message) {
+        if (VERBOSE) Log.v(tag, message);
+    }
+
+    static void v(String tag, String format, long a) {
+        if (VERBOSE) Log.v(tag, format(format, String.valueOf(a), null, null));
+    }
+
+    static void v(String tag, String format, long a, long b) {
+        if (VERBOSE) Log.v(tag, format(format, String.valueOf(a), String.valueOf(b), null));
+    }
+
+    static void d(String tag, String message) {
+        if (DEBUG) Log.d(tag, message);
+    }
+
+    static void d(String tag, String format, Object a) {
+        if (DEBUG) Log.d(tag, format(format, a, null, null));
+    }
+
+    static void d(String tag, String format, long a) {
+        if (DEBUG) Log.d(tag, format(format, String.valueOf(a), null, null));
+    }
+
+    static void d(String tag, String format, Object a, long b) {
+        if (DEBUG) Log.d(tag, format(format, a, String.valueOf(b), null));
+    }
+
+    static void d(String tag, String format, long a, long b) {
+        if (DEBUG) Log.d(tag, format(format, String.valueOf(a), String.valueOf(b), null));
+    }
+
+    static void d(String tag, String format, long a, long b, long c) {
+        if (DEBUG) {
+            Log.d(tag, format(format, String.valueOf(a), String.valueOf(b), String.valueOf(c)));
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🛠️ UTILIDADES
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Sustituir cada "{}" por el siguiente argumento
+     */
+    private static String format(String format, Object a, Object b, Object c) {
+        StringBuilder out = new StringBuilder(format.length() + 32);
+        Object[] args = {a, b, c};
+        int argIndex = 0;
+        int from = 0;
+        int at;
+        while ((at = format.indexOf("{}", from)) >= 0 && argIndex < args.length) {
+            out.append(format, from, at).append(args[argIndex++]);
+            from = at + 2;
+        }
+        out.append(format, from, format.length());
+        return out.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.pruebable;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🔬 TransferTrace - Secciones y Contadores para Perfetto/systrace
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Marca cada etapa de una transferencia en la traza del sistema:
+ * - Secciones: escritura GATT, notificación, parseo, Base64, lectura
+ *   del ContentResolver, escritura a disco y paso al hilo principal
+ * - Contadores: cola de comandos, escrituras en vuelo y bytes/s
+ *
+ * Captura: perfetto/systrace con la categoría "app" y la app como
+ * proceso (-a com.example.pruebable). Con el trazado apagado cada
+ * llamada es una comprobación de Trace.isEnabled().
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+final class TransferTrace {
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏷️ SECCIONES
+    // ════════════════════════════════════════════════════════════════════
+
+    static final String GATT_WRITE = "BLE:gattWrite";           // submit (síncrono)
+    static final String GATT_IN_FLIGHT = "BLE:writeInFlight";   // submit → onCharacteristicWrite
+    static final String NOTIFY = "BLE:notify";
+    static final String UI_POST = "BLE:uiPost";                 // post → ejecución en main
+    static final String PARSE = "App:parse";
+    static final String DECODE = "File:base64Decode";
+    static final String ENCODE = "File:base64Encode";
+    static final String READ = "File:read";
+    static final String DISK_WRITE = "File:diskWrite";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📈 CONTADORES
+    // ════════════════════════════════════════════════════════════════════
+
+    static final String COUNTER_QUEUE = "BLE:queueDepth";
+    static final String COUNTER_IN_FLIGHT = "BLE:inFlight";
+    static final String COUNTER_TX_RATE = "BLE:txBytesPerSec";
+    static final String COUNTER_RX_RATE = "BLE:rxBytesPerSec";
+
+    // Ventana de los contadores de bytes/s
+    private static final long RATE_WINDOW_MS = 1000;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 ESTADO
+    // ════════════════════════════════════════════════════════════════════
+
+    private static final AtomicInteger cookies = new AtomicInteger();
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final RateCounter txRate = new RateCounter(COUNTER_TX_RATE);
+    private static final RateCounter rxRate = new RateCounter(COUNTER_RX_RATE);
+
+    private TransferTrace() {
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ⏱️ SECCIONES
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Abrir una sección síncrona (cerrar en el mismo hilo con end())
+     */
+    static void begin(String section) {
+        Trace.beginSection(section);
+    }
+
+    static void end() {
+        Trace.endSection();
+    }
+
+    /**
+     * Abrir una sección que termina en otro hilo o callback
+     *
+     * @return Cookie para endAsync()
+     */
+    static int beginAsync(String section) {
+        int cookie = cookies.incrementAndGet();
+        Trace.beginAsyncSection(section, cookie);
+        return cookie;
+    }
+
+    static void endAsync(String section, int cookie) {
+        Trace.endAsyncSection(section, cookie);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📈 CONTADORES
+    // ════════════════════════════════════════════════════════════════════
+
+    static void queueDepth(int depth) {
+        if (Trace.isEnabled()) Trace.setCounter(COUNTER_QUEUE, depth);
+    }
+
+    /**
+     * Escritura GATT enviada al stack
+     */
+    static void writeSubmitted(int bytes) {
+        int current = inFlight.incrementAndGet();
+        if (Trace.isEnabled()) Trace.setCounter(COUNTER_IN_FLIGHT, current);
+        txRate.add(bytes);
+    }
+
+    /**
+     * onCharacteristicWrite recibido
+     */
+    static void writeCompleted() {
+        int current = inFlight.updateAndGet(n -> Math.max(0, n - 1));
+        if (Trace.isEnabled()) Trace.setCounter(COUNTER_IN_FLIGHT, current);
+    }
+
+    /**
+     * Bytes escritos fuera de GATT (canal L2CAP)
+     */
+    static void bytesSent(int bytes) {
+        txRate.add(bytes);
+    }
+
+    /**
+     * Bytes recibidos por notificación
+     */
+    static void bytesReceived(int bytes) {
+        rxRate.add(bytes);
+    }
+
+    /**
+     * Reiniciar contadores (desconexión)
+     */
+    static void reset() {
+        inFlight.set(0);
+        if (Trace.isEnabled()) {
+            Trace.setCounter(COUNTER_IN_FLIGHT, 0);
+            Trace.setCounter(COUNTER_QUEUE, 0);
+        }
+    }
+
+    /**
+     * Bytes por segundo publicados como contador una vez por ventana
+     */
+    private static class RateCounter {
+        private final String name;
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile long windowStart = SystemClock.elapsedRealtime();
+
+        RateCounter(String name) {
+            this.name = name;
+        }
+
+        void add(int count) {
+            if (!Trace.isEnabled()) return;
+
+            long total = bytes.addAndGet(count);
+            long now = SystemClock.elapsedRealtime();
+            long elapsed = now - windowStart;
+            if (elapsed >= RATE_WINDOW_MS) {
+                windowStart = now;
+                bytes.addAndGet(-total);
+                Trace.setCounter(name, total * 1000 / elapsed);
+            }
+        }
+    }
+}
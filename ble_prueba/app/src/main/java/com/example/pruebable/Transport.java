@@ -0,0 +1,104 @@
+package com.example.pruebable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 🔌 Transport - Enlace de Tramas con el Heltec
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Lo que FileManager necesita de un enlace, sin atarse a GATT:
+ * - send(): envío asíncrono de una trama (un comando del protocolo,
+ *   sin el "\n"); el futuro se completa cuando el enlace la acepta
+ * - Sink: tramas recibidas (una respuesta completa cada vez)
+ * - getMtu(): bytes por trama que el enlace admite ahora
+ * - getCredits(): tramas que caben ya sin esperar (control de flujo)
+ *
+ * Implementaciones: BLEManager (GATT), BleL2capChannel (L2CAP CoC) y
+ * LoopbackTransport (memoria, para pruebas y benchmarks sin Heltec).
+ * Cada una hace su propio entramado ("\n" en GATT, longitud en L2CAP...).
+ * Las transferencias por WiFi UDP van por UdpLink, que lleva su propia
+ * ventana y SACK en vez de tramas sueltas.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+interface Transport {
+
+    /**
+     * Receptor de tramas (hilo del transporte: no bloquearlo)
+     */
+    interface Sink {
+        void onFrame(byte[] frame);
+    }
+
+    /**
+     * @return Nombre corto para logs e historial ("BLE", "UDP"...)
+     */
+    String getName();
+
+    boolean isOpen();
+
+    /**
+     * @return Bytes máximos por trama en este momento
+     */
+    int getMtu();
+
+    /**
+     * @return Tramas que se pueden enviar ya sin esperar sitio
+     */
+    int getCredits();
+
+    /**
+     * @return Velocidad estimada (bytes/s) para elegir el enlace más rápido
+     */
+    long getEstimatedBytesPerSecond();
+
+    /**
+     * Enviar una trama sin bloquear al llamador
+     *
+     * @return Futuro que se completa con true cuando el enlace acepta la
+     *         trama, o false si se descartó (cerrado o sin sitio a tiempo)
+     */
+    CompletableFuture<Boolean> send(byte[] frame);
+
+    /**
+     * Enviar un comando de texto del protocolo
+     */
+    default CompletableFuture<Boolean> sendText(String command) {
+        return send(command.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param sink Receptor de tramas (null = ninguno)
+     */
+    void setSink(Sink sink);
+
+    /**
+     * Resultado de una verificación de integridad (para que el enlace
+     * se ajuste a la tasa de retransmisión)
+     */
+    default void onIntegrityCheck(long totalBytes, long resentBytes) {
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏁 ELEGIR ENLACE
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return El enlace abierto más rápido, o null si ninguno está abierto
+     */
+    static Transport fastest(Transport... candidates) {
+        Transport best = null;
+        for (Transport transport : candidates) {
+            if (transport == null || !transport.isOpen()) continue;
+            if (best == null ||
+                    transport.getEstimatedBytesPerSecond() > best.getEstimatedBytesPerSecond()) {
+                best = transport;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,558 @@
+package com.example.pruebable;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📈 UdpBenchmark - Receptor y Análisis de las Pruebas wifi_udp_tx2
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * El teléfono (unido a DATACAST_TX) hace de wifi_udp_rx_2, con más datos:
+ * - DatagramChannel no bloqueante + Selector, un único ByteBuffer
+ *   directo reutilizado para todos los paquetes
+ * - Decodifica la cabecera {magic, testId, seq, tx_us} (little endian)
+ * - Por testId: pérdida, duplicados, desorden (y su profundidad),
+ *   jitter entre llegadas (RFC 3550) y throughput total y por ventana
+ * - Histogramas de variación de retardo, separación entre llegadas y
+ *   profundidad de desorden, exportables a CSV
+ *
+ * El retardo es relativo (relojes sin sincronizar): tránsito menos el
+ * mínimo visto, como el "LatRel" del RX por Serial.
+ *
+ * Listener se llama desde el hilo del receptor una vez por ventana.
+ * UdpBenchmarkSender genera el mismo tráfico para probar sin ESP32.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class UdpBenchmark {
+
+    private static final String TAG = "UdpBenchmark";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES - deben coincidir con wifi_udp_tx2
+    // ════════════════════════════════════════════════════════════════════
+
+    static final int DEFAULT_PORT = 12345;
+    static final int MAGIC = 0xDCA5;
+    static final int HEADER_SIZE = 12;
+
+    // Mayor que cualquier datagrama WiFi (el TX usa 200..1200 de payload)
+    private static final int BUFFER_SIZE = 2048;
+
+    // Ventana de números de secuencia para detectar duplicados; un seq
+    // más viejo que esto es un TX reiniciado (seq vuelve a 0)
+    static final int SEQ_WINDOW = 4096;
+
+    private static final long REPORT_INTERVAL_MS = 1000;
+
+    // Límites inferiores de los intervalos de los histogramas
+    static final int[] DELAY_BINS_US = {0, 250, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000};
+    static final int[] GAP_BINS_US = DELAY_BINS_US;
+    static final int[] REORDER_BINS = {1, 2, 4, 8, 16, 32, 64, 128};
+
+    /**
+     * Estadísticas en vivo (hilo del receptor)
+     */
+    interface Listener {
+        void onStats(List<TestStats> tests);
+
+        void onError(String error);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 RESULTADOS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Foto de las estadísticas de un testId
+     */
+    static final class TestStats {
+        int testId;
+        long received;          // Paquetes recibidos (con duplicados)
+        long bytes;
+        long expected;          // Rango de seq visto (primero..mayor)
+        long lost;              // expected - únicos
+        long duplicates;
+        long reordered;         // Llegaron tras un seq mayor
+        long maxReorderDepth;
+        long restarts;          // Veces que el TX reinició la secuencia
+        double jitterUs;        // RFC 3550
+        long maxDelayUs;        // Variación de retardo máxima
+        double avgDelayUs;
+        double throughputBps;   // Desde el primer paquete
+        double windowBps;       // Última ventana
+        long durationMs;
+        long[] delayHistogram;
+        long[] gapHistogram;
+        long[] reorderHistogram;
+
+        double lossPercent() {
+            return expected == 0 ? 0 : 100.0 * lost / expected;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "test %d: %d rx, pérdida %.2f%% (%d), %d dup, %d desorden (máx %d), " +
+                            "jitter %.0f µs, %.1f kbps (ventana %.1f)",
+                    testId, received, lossPercent(), lost, duplicates, reordered,
+                    maxReorderDepth, jitterUs, throughputBps / 1000, windowBps / 1000);
+        }
+    }
+
+    /**
+     * Estado de análisis de un testId (solo lo toca el receptor; la
+     * exportación lo lee bajo el lock de trackers)
+     */
+    private static final class Tracker {
+        final int testId;
+
+        // Secuencias: bitmap circular de las SEQ_WINDOW últimas
+        final long[] seen = new long[SEQ_WINDOW / 64];
+        long firstSeq = -1;
+        long highestSeq;
+        long priorExpected;     // Esperados en secuencias anteriores al reinicio
+
+        long received;
+        long bytes;
+        long duplicates;
+        long reordered;
+        long maxReorderDepth;
+        long restarts;
+
+        // Tiempos (µs): tránsito = rx - tx con relojes distintos
+        long lastRxUs;
+        long lastTxUs;
+        long minTransitUs = Long.MAX_VALUE;
+        double jitterUs;
+        long maxDelayUs;
+        long sumDelayUs;
+
+        long firstRxUs;
+        long windowBytes;
+        long windowStartUs;
+        double windowBps;
+
+        final long[] delayHistogram = new long[DELAY_BINS_US.length];
+        final long[] gapHistogram = new long[GAP_BINS_US.length];
+        final long[] reorderHistogram = new long[REORDER_BINS.length];
+
+        Tracker(int testId) {
+            this.testId = testId;
+        }
+
+        void onPacket(long seq, long txUs, long rxUs, int length) {
+            if (firstSeq >= 0 && highestSeq - seq >= SEQ_WINDOW) {
+                Log.d(TAG, "🔄 Test " + testId + ": secuencia reiniciada en " + seq);
+                restart();
+            }
+
+            if (firstSeq < 0) {
+                firstSeq = seq;
+                highestSeq = seq;
+                if (firstRxUs == 0) {
+                    firstRxUs = rxUs;
+                    windowStartUs = rxUs;
+                }
+            } else if (seq > highestSeq) {
+                clearRange(highestSeq + 1, seq);
+                highestSeq = seq;
+            } else if (isSeen(seq)) {
+                duplicates++;
+                received++;
+                return;
+            } else {
+                long depth = highestSeq - seq;
+                reordered++;
+                maxReorderDepth = Math.max(maxReorderDepth, depth);
+                reorderHistogram[bin(REORDER_BINS, depth)]++;
+            }
+            markSeen(seq);
+
+            received++;
+            bytes += length;
+            windowBytes += length;
+
+            // Variación de retardo respecto al mínimo visto
+            long transit = rxUs - txUs;
+            if (transit < minTransitUs) minTransitUs = transit;
+            long delay = transit - minTransitUs;
+            maxDelayUs = Math.max(maxDelayUs, delay);
+            sumDelayUs += delay;
+            delayHistogram[bin(DELAY_BINS_US, delay)]++;
+
+            // Jitter entre llegadas consecutivas (RFC 3550, ganancia 1/16)
+            if (lastRxUs != 0) {
+                long d = (rxUs - lastRxUs) - (txUs - lastTxUs);
+                jitterUs += (Math.abs(d) - jitterUs) / 16.0;
+                gapHistogram[bin(GAP_BINS_US, rxUs - lastRxUs)]++;
+            }
+            lastRxUs = rxUs;
+            lastTxUs = txUs;
+        }
+
+        void closeWindow(long nowUs) {
+            long elapsed = nowUs - windowStartUs;
+            windowBps = elapsed > 0 ? windowBytes * 8_000_000.0 / elapsed : 0;
+            windowBytes = 0;
+            windowStartUs = nowUs;
+        }
+
+        TestStats snapshot() {
+            TestStats s = new TestStats();
+            s.testId = testId;
+            s.received = received;
+            s.bytes = bytes;
+            s.expected = priorExpected + (firstSeq < 0 ? 0 : highestSeq - firstSeq + 1);
+            s.lost = Math.max(0, s.expected - (received - duplicates));
+            s.duplicates = duplicates;
+            s.reordered = reordered;
+            s.maxReorderDepth = maxReorderDepth;
+            s.restarts = restarts;
+            s.jitterUs = jitterUs;
+            s.maxDelayUs = maxDelayUs;
+            long unique = received - duplicates;
+            s.avgDelayUs = unique > 0 ? (double) sumDelayUs / unique : 0;
+            long elapsedUs = lastRxUs - firstRxUs;
+            s.durationMs = elapsedUs / 1000;
+            s.throughputBps = elapsedUs > 0 ? bytes * 8_000_000.0 / elapsedUs : 0;
+            s.windowBps = windowBps;
+            s.delayHistogram = delayHistogram.clone();
+            s.gapHistogram = gapHistogram.clone();
+            s.reorderHistogram = reorderHistogram.clone();
+            return s;
+        }
+
+        /**
+         * El TX se reinició: empezar la secuencia de nuevo (se conservan
+         * los totales y los histogramas)
+         */
+        private void restart() {
+            restarts++;
+            priorExpected += highestSeq - firstSeq + 1;
+            Arrays.fill(seen, 0);
+            firstSeq = -1;
+            lastRxUs = 0;
+            minTransitUs = Long.MAX_VALUE;
+        }
+
+        private boolean isSeen(long seq) {
+            int slot = (int) (seq % SEQ_WINDOW);
+            return (seen[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        private void markSeen(long seq) {
+            int slot = (int) (seq % SEQ_WINDOW);
+            seen[slot >>> 6] |= 1L << slot;
+        }
+
+        private void clearRange(long from, long to) {
+            if (to - from + 1 >= SEQ_WINDOW) {
+                Arrays.fill(seen, 0);
+                return;
+            }
+            for (long seq = from; seq <= to; seq++) {
+                int slot = (int) (seq % SEQ_WINDOW);
+                seen[slot >>> 6] &= ~(1L << slot);
+            }
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final int port;
+    private final Listener listener;
+
+    // testId -> análisis (ordenado para informes y CSV estables)
+    private final Map<Integer, Tracker> trackers = new TreeMap<>();
+
+    private volatile boolean running = false;
+    private Thread thread;
+    private Selector selector;
+    private DatagramChannel channel;
+
+    private long ignoredPackets;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    UdpBenchmark(int port, Listener listener) {
+        this.port = port;
+        this.listener = listener;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ▶️ INICIAR / DETENER
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Abrir el puerto y empezar a recibir (difusión incluida)
+     */
+    synchronized void start() throws IOException {
+        if (running) return;
+
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 20);
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+
+        running = true;
+        thread = new Thread(this::receiveLoop, "UdpBenchmark");
+        thread.start();
+        Log.d(TAG, "📈 Escuchando pruebas UDP en el puerto " + port);
+    }
+
+    /**
+     * Detener y esperar al receptor (las estadísticas se conservan)
+     */
+    void stop() {
+        Thread current;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            current = thread;
+            selector.wakeup();
+        }
+
+        try {
+            current.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Olvidar todas las pruebas anteriores
+     */
+    void reset() {
+        synchronized (trackers) {
+            trackers.clear();
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return Dirección local real (el puerto si se pidió 0)
+     */
+    SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📥 RECEPCIÓN
+    // ════════════════════════════════════════════════════════════════════
+
+    private void receiveLoop() {
+        // Un único buffer directo: sin copia ni basura por paquete
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long nextReport = System.nanoTime() / 1000 + REPORT_INTERVAL_MS * 1000;
+
+        try {
+            while (running) {
+                long nowUs = System.nanoTime() / 1000;
+                long waitMs = Math.max(1, (nextReport - nowUs) / 1000);
+                selector.select(waitMs);
+                selector.selectedKeys().clear();
+
+                // Vaciar todo lo que haya en el socket
+                while (true) {
+                    buffer.clear();
+                    if (channel.receive(buffer) == null) break;
+                    long rxUs = System.nanoTime() / 1000;
+                    buffer.flip();
+                    onDatagram(buffer, rxUs);
+                }
+
+                nowUs = System.nanoTime() / 1000;
+                if (nowUs >= nextReport) {
+                    nextReport = nowUs + REPORT_INTERVAL_MS * 1000;
+                    List<TestStats> stats = closeWindow(nowUs);
+                    if (listener != null && !stats.isEmpty()) {
+                        listener.onStats(stats);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "❌ Error recibiendo: " + e.getMessage());
+            running = false;
+            if (listener != null) {
+                listener.onError("Error recibiendo: " + e.getMessage());
+            }
+        } finally {
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            Log.d(TAG, "📈 Receptor detenido (" + ignoredPackets + " paquetes ajenos)");
+        }
+    }
+
+    /**
+     * Decodificar una cabecera y pasarla a su testId
+     */
+    private void onDatagram(ByteBuffer packet, long rxUs) {
+        int length = packet.remaining();
+        if (length < HEADER_SIZE || (packet.getShort(0) & 0xFFFF) != MAGIC) {
+            ignoredPackets++;
+            return;
+        }
+
+        int testId = packet.getShort(2) & 0xFFFF;
+        long seq = packet.getInt(4) & 0xFFFFFFFFL;
+        long txUs = packet.getInt(8) & 0xFFFFFFFFL;
+
+        synchronized (trackers) {
+            Tracker tracker = trackers.get(testId);
+            if (tracker == null) {
+                tracker = new Tracker(testId);
+                trackers.put(testId, tracker);
+                Log.d(TAG, "📈 Nueva prueba: testId " + testId);
+            }
+            tracker.onPacket(seq, unwrapTx(tracker, txUs), rxUs, length);
+        }
+    }
+
+    /**
+     * tx_us es el micros() de 32 bits del ESP32 (vuelve a 0 cada ~71 min):
+     * extenderlo a partir del anterior
+     */
+    private static long unwrapTx(Tracker tracker, long txUs) {
+        if (tracker.lastRxUs == 0) return txUs;
+        long previous = tracker.lastTxUs;
+        int delta = (int) (txUs - (previous & 0xFFFFFFFFL));
+        return previous + delta;
+    }
+
+    private List<TestStats> closeWindow(long nowUs) {
+        List<TestStats> stats = new ArrayList<>();
+        synchronized (trackers) {
+            for (Tracker tracker : trackers.values()) {
+                tracker.closeWindow(nowUs);
+                stats.add(tracker.snapshot());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return Estadísticas actuales de todas las pruebas
+     */
+    List<TestStats> getStats() {
+        List<TestStats> stats = new ArrayList<>();
+        synchronized (trackers) {
+            for (Tracker tracker : trackers.values()) {
+                stats.add(tracker.snapshot());
+            }
+        }
+        return stats;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📤 EXPORTAR A CSV
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Exportar resumen e histogramas en formato largo:
+     * test_id,tipo,clave,valor (tipo = resumen o nombre del histograma,
+     * clave = métrica o límite inferior del intervalo)
+     *
+     * @return Pruebas exportadas
+     */
+    int exportCsv(File outputFile) throws IOException {
+        List<TestStats> stats = getStats();
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+            writer.write("test_id,tipo,clave,valor");
+            writer.newLine();
+
+            for (TestStats s : stats) {
+                row(writer, s.testId, "resumen", "recibidos", s.received);
+                row(writer, s.testId, "resumen", "bytes", s.bytes);
+                row(writer, s.testId, "resumen", "esperados", s.expected);
+                row(writer, s.testId, "resumen", "perdidos", s.lost);
+                row(writer, s.testId, "resumen", "perdida_pct", s.lossPercent());
+                row(writer, s.testId, "resumen", "duplicados", s.duplicates);
+                row(writer, s.testId, "resumen", "desordenados", s.reordered);
+                row(writer, s.testId, "resumen", "desorden_max", s.maxReorderDepth);
+                row(writer, s.testId, "resumen", "reinicios", s.restarts);
+                row(writer, s.testId, "resumen", "jitter_us", s.jitterUs);
+                row(writer, s.testId, "resumen", "retardo_medio_us", s.avgDelayUs);
+                row(writer, s.testId, "resumen", "retardo_max_us", s.maxDelayUs);
+                row(writer, s.testId, "resumen", "throughput_bps", s.throughputBps);
+                row(writer, s.testId, "resumen", "duracion_ms", s.durationMs);
+
+                histogram(writer, s.testId, "retardo_us", DELAY_BINS_US, s.delayHistogram);
+                histogram(writer, s.testId, "separacion_us", GAP_BINS_US, s.gapHistogram);
+                histogram(writer, s.testId, "desorden", REORDER_BINS, s.reorderHistogram);
+            }
+        }
+
+        Log.d(TAG, "✅ Benchmark exportado: " + stats.size() + " pruebas -> " +
+                outputFile.getAbsolutePath());
+        return stats.size();
+    }
+
+    private static void row(BufferedWriter writer, int testId, String type, String key,
+                            Object value) throws IOException {
+        String text = value instanceof Double
+                ? String.format(Locale.US, "%.3f", (Double) value)
+                : String.valueOf(value);
+        writer.write(testId + "," + type + "," + key + "," + text);
+        writer.newLine();
+    }
+
+    private static void histogram(BufferedWriter writer, int testId, String name,
+                                  int[] bins, long[] counts) throws IOException {
+        for (int i = 0; i < bins.length; i++) {
+            row(writer, testId, name, String.valueOf(bins[i]), counts[i]);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 AUXILIARES
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return Intervalo cuyo límite inferior es el mayor <= value
+     */
+    static int bin(int[] lowerBounds, long value) {
+        int index = 0;
+        for (int i = 0; i < lowerBounds.length; i++) {
+            if (lowerBounds[i] <= value) index = i;
+        }
+        return index;
+    }
+}
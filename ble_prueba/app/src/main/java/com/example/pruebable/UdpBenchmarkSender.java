@@ -0,0 +1,162 @@
+package com.example.pruebable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📤 UdpBenchmarkSender - Emisor de Pruebas como wifi_udp_tx2
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Genera el mismo tráfico que wifi_udp_tx2 (cabecera + relleno i & 0xFF
+ * a un ritmo fijo de paquetes por segundo) para probar UdpBenchmark en
+ * loopback o en la red local sin ESP32. Deterioros opcionales, con
+ * semilla para que los resultados sean reproducibles:
+ * - Pérdida: el paquete no se envía
+ * - Duplicado: se envía dos veces
+ * - Desorden: se retiene y sale detrás del siguiente
+ *
+ * send() es bloqueante: llamar desde un hilo de fondo.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class UdpBenchmarkSender implements Closeable {
+
+    private final DatagramChannel channel;
+    private final InetSocketAddress target;
+    private final int testId;
+    private final int pps;
+    private final ByteBuffer packet;
+
+    private double lossRate;
+    private double duplicateRate;
+    private double reorderRate;
+    private Random random = new Random();
+
+    private long seq = 0;
+
+    // Paquete retenido para salir detrás del siguiente (desorden)
+    private ByteBuffer held;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @param target       Destino (p. ej. 127.0.0.1 o la difusión de la red)
+     * @param payloadBytes Bytes de relleno tras la cabecera (PAYLOAD_BYTES)
+     * @param pps          Paquetes por segundo (PPS)
+     */
+    UdpBenchmarkSender(InetSocketAddress target, int testId, int payloadBytes, int pps)
+            throws IOException {
+        this.target = target;
+        this.testId = testId;
+        this.pps = pps;
+
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+
+        packet = ByteBuffer.allocateDirect(UdpBenchmark.HEADER_SIZE + payloadBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < payloadBytes; i++) {
+            packet.put(UdpBenchmark.HEADER_SIZE + i, (byte) i);
+        }
+    }
+
+    /**
+     * Deterioros simulados (probabilidades por paquete)
+     */
+    void setImpairments(double lossRate, double duplicateRate, double reorderRate, long seed) {
+        this.lossRate = lossRate;
+        this.duplicateRate = duplicateRate;
+        this.reorderRate = reorderRate;
+        this.random = new Random(seed);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📤 ENVÍO
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Enviar count paquetes al ritmo configurado
+     *
+     * @return Paquetes que salieron de verdad (sin perdidos, con duplicados)
+     */
+    int send(int count) throws IOException {
+        long periodNs = 1_000_000_000L / pps;
+        long next = System.nanoTime();
+        int sent = 0;
+
+        for (int i = 0; i < count && !Thread.currentThread().isInterrupted(); i++) {
+            packet.putShort(0, (short) UdpBenchmark.MAGIC);
+            packet.putShort(2, (short) testId);
+            packet.putInt(4, (int) seq++);
+            packet.putInt(8, (int) (System.nanoTime() / 1000));
+
+            if (random.nextDouble() >= lossRate) {
+                sent += emit();
+            }
+
+            // Ritmo fijo como el "busy wait" del TX, sin acumular deriva
+            next += periodNs;
+            long waitNs = next - System.nanoTime();
+            if (waitNs > 0) {
+                LockSupport.parkNanos(waitNs);
+            }
+        }
+
+        if (held != null) {
+            sent += write(held);
+            held = null;
+        }
+        return sent;
+    }
+
+    private int emit() throws IOException {
+        if (held == null && random.nextDouble() < reorderRate) {
+            held = copy(packet);
+            return 0;
+        }
+
+        int sent = write(packet);
+        if (random.nextDouble() < duplicateRate) {
+            sent += write(packet);
+        }
+        if (held != null) {
+            sent += write(held);
+            held = null;
+        }
+        return sent;
+    }
+
+    private int write(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        channel.send(buffer, target);
+        return 1;
+    }
+
+    private static ByteBuffer copy(ByteBuffer source) {
+        ByteBuffer copy = ByteBuffer.allocate(source.capacity());
+        source.clear();
+        copy.put(source);
+        return copy;
+    }
+
+    long getNextSeq() {
+        return seq;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,474 @@
+package com.example.pruebable;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📶 UdpLink - Transferencia de Archivos por WiFi UDP
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Mismas operaciones que FileManager (UPLOAD_START / DOWNLOAD) sobre un
+ * DatagramChannel contra el softAP del Heltec (CMD:WIFI):
+ * - Cabecera de wifi_udp_tx2 {magic, testId, seq, tx_us} + tipo;
+ *   testId identifica la transferencia y descarta paquetes viejos
+ * - CTRL: comandos de texto como por BLE, reenviados hasta su respuesta
+ *   (el Heltec repite la última respuesta si le llega un duplicado)
+ * - DATA: seq = número de chunk, escrito en seq × tamaño de chunk
+ * - SACK: acumulado + bitmap de los 64 chunks siguientes + tx_us del
+ *   último DATA (RTT); solo se reenvían los huecos confirmados
+ * - Ritmo: ventana y separación entre paquetes AIMD (crecen con cada
+ *   SACK limpio, se recortan con cada pérdida)
+ *
+ * Formato (little endian):
+ *   magic(2) testId(2) seq(4) tx_us(4) tipo(1) + payload
+ *   SACK: acumulado(4) bitmap(8) eco tx_us(4)
+ *
+ * Todos los métodos son bloqueantes: llamar desde un hilo de fondo.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class UdpLink implements Closeable {
+
+    private static final String TAG = "UdpLink";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES - deben coincidir con el firmware (📶 WIFI UDP)
+    // ════════════════════════════════════════════════════════════════════
+
+    static final int DEFAULT_PORT = 12346;
+    static final int MAGIC = 0xDCF1;
+    static final int HEADER_SIZE = 13;
+
+    static final int TYPE_CTRL = 1;
+    static final int TYPE_DATA = 2;
+    static final int TYPE_SACK = 3;
+
+    private static final int SACK_SIZE = 16;
+    private static final int MAX_PACKET = 1500;
+
+    // Control: reenvío hasta respuesta
+    private static final int CTRL_TIMEOUT_MS = 250;
+    private static final int CTRL_ATTEMPTS = 8;
+
+    // Ventana en chunks (el bitmap del SACK cubre 64 tras el acumulado)
+    private static final int MIN_WINDOW = 4;
+    private static final int INITIAL_WINDOW = 16;
+    private static final int MAX_WINDOW = 64;
+
+    // Separación entre paquetes nuevos (µs)
+    private static final int INITIAL_GAP_US = 1000;
+    private static final int MIN_GAP_US = 150;
+    private static final int MAX_GAP_US = 5000;
+
+    // Retransmisión por timeout y abandono
+    private static final int MIN_RTO_MS = 200;
+    private static final int MAX_TIMEOUTS = 20;
+
+    // Receptor: SACK cada N chunks o tras un silencio
+    private static final int SACK_EVERY = 8;
+    private static final int SACK_DELAY_MS = 20;
+    private static final int IDLE_TIMEOUT_MS = 5000;
+
+    /**
+     * Avance de la transferencia (hilo de la transferencia)
+     */
+    interface ProgressListener {
+        void onBytes(long done, long total);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_PACKET).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer out = ByteBuffer.allocate(MAX_PACKET).order(ByteOrder.LITTLE_ENDIAN);
+    private final Random random = new Random();
+
+    private int transferId;
+    private int ctrlSeq = 0;
+
+    // Último paquete recibido (válido hasta el siguiente poll)
+    private int inType;
+    private long inSeq;
+    private int inTxUs;
+
+    // Estadísticas de la última transferencia
+    private long retransmittedChunks;
+    private long srttUs = -1;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @param channel Canal ya conectado al Heltec (y ligado a su red)
+     */
+    UdpLink(DatagramChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 💬 CONTROL
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Enviar un comando y esperar su respuesta (mismo texto que por BLE)
+     */
+    String request(String command) throws IOException {
+        int seq = ++ctrlSeq;
+        byte[] text = command.getBytes(StandardCharsets.UTF_8);
+
+        for (int attempt = 0; attempt < CTRL_ATTEMPTS; attempt++) {
+            send(TYPE_CTRL, seq, text, 0, text.length);
+
+            long deadline = System.nanoTime() + CTRL_TIMEOUT_MS * 1_000_000L;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                if (!poll(remaining / 1_000_000L)) break;
+                if (inType == TYPE_CTRL && inSeq == seq) {
+                    return new String(in.array(), HEADER_SIZE, in.limit() - HEADER_SIZE,
+                            StandardCharsets.UTF_8).trim();
+                }
+            }
+        }
+        throw new IOException("Sin respuesta del Heltec (" + command + ")");
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📤 SUBIDA
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Subir un archivo (equivale a UPLOAD_START + chunks + confirmación)
+     *
+     * @param digest Se actualiza en orden mientras se lee (puede ser null)
+     */
+    void upload(String name, InputStream input, long size, TransferDigest digest,
+                ProgressListener progress) throws IOException {
+        beginTransfer();
+
+        String reply = request("CMD:UPLOAD_START:" + name + ":" + size);
+        if (!reply.startsWith("OK:UPLOAD_READY:")) {
+            throw new IOException(reply);
+        }
+        int chunkSize = Integer.parseInt(reply.substring(16));
+        int total = (int) ((size + chunkSize - 1) / chunkSize);
+
+        // Chunks en vuelo (anillo de MAX_WINDOW, se liberan al avanzar el acumulado)
+        byte[][] slots = new byte[MAX_WINDOW][chunkSize];
+        int[] lengths = new int[MAX_WINDOW];
+        long[] sentAt = new long[MAX_WINDOW];
+
+        int cum = 0;
+        int next = 0;
+        int window = INITIAL_WINDOW;
+        long gapNs = INITIAL_GAP_US * 1000L;
+        long nextSendNs = System.nanoTime();
+        long lastProgressNs = nextSendNs;
+        long lastLossNs = 0;
+        int timeouts = 0;
+        long readOffset = 0;
+
+        Log.d(TAG, "📤 UDP: " + name + " (" + total + " chunks de " + chunkSize + " B)");
+
+        while (cum < total) {
+            long now = System.nanoTime();
+            boolean canSend = next < total && next < cum + window;
+
+            // Chunk nuevo cuando toca según el ritmo
+            if (canSend && now >= nextSendNs) {
+                int slot = next % MAX_WINDOW;
+                int length = (int) Math.min(chunkSize, size - readOffset);
+                readFully(input, slots[slot], length);
+                if (digest != null) {
+                    digest.update(readOffset, slots[slot], 0, length);
+                }
+                readOffset += length;
+                lengths[slot] = length;
+
+                sentAt[slot] = now;
+                send(TYPE_DATA, next, slots[slot], 0, length);
+                next++;
+
+                // Sin acumular "crédito" tras una espera larga
+                nextSendNs = Math.max(nextSendNs, now - gapNs) + gapNs;
+                if (!poll(0)) continue;
+            } else {
+                long rtoNs = Math.max(MIN_RTO_MS * 1_000_000L, srttUs * 3000L);
+                long waitNs = canSend ? nextSendNs - now : lastProgressNs + rtoNs - now;
+
+                if (!poll(Math.max(0, waitNs / 1_000_000L))) {
+                    // Timeout: reenviar el primer chunk sin confirmar
+                    if (!canSend && System.nanoTime() - lastProgressNs >= rtoNs) {
+                        if (++timeouts > MAX_TIMEOUTS) {
+                            throw new IOException("El Heltec dejó de confirmar (chunk " + cum + ")");
+                        }
+                        int slot = cum % MAX_WINDOW;
+                        sentAt[slot] = System.nanoTime();
+                        send(TYPE_DATA, cum, slots[slot], 0, lengths[slot]);
+                        retransmittedChunks++;
+                        window = MIN_WINDOW;
+                        gapNs = Math.min(MAX_GAP_US * 1000L, gapNs * 2);
+                        lastProgressNs = System.nanoTime();
+                    }
+                    continue;
+                }
+            }
+
+            // Procesar los SACK que hayan llegado
+            do {
+                if (inType != TYPE_SACK) continue;
+
+                int newCum = (int) Math.min(in.getInt(HEADER_SIZE) & 0xFFFFFFFFL, next);
+                long bits = in.getLong(HEADER_SIZE + 4);
+                sampleRtt(in.getInt(HEADER_SIZE + 12));
+                now = System.nanoTime();
+
+                if (newCum > cum) {
+                    cum = newCum;
+                    lastProgressNs = now;
+                    timeouts = 0;
+                    window = Math.min(MAX_WINDOW, window + 1);
+                    gapNs = Math.max(MIN_GAP_US * 1000L, gapNs * 15 / 16);
+                    if (progress != null) {
+                        progress.onBytes(Math.min(size, (long) cum * chunkSize), size);
+                    }
+                } else if (newCum < cum) {
+                    continue; // SACK atrasado: su bitmap es relativo a otro acumulado
+                }
+
+                // Huecos por debajo del chunk más alto confirmado
+                if (bits != 0 && cum < total) {
+                    int highest = cum + 1 + (63 - Long.numberOfLeadingZeros(bits));
+                    long minAgeNs = Math.max(2_000_000L, srttUs * 1000L);
+                    boolean loss = false;
+
+                    for (int seq = cum; seq < highest && seq < next; seq++) {
+                        boolean acked = seq > cum && (bits & (1L << (seq - cum - 1))) != 0;
+                        int slot = seq % MAX_WINDOW;
+                        if (!acked && now - sentAt[slot] >= minAgeNs) {
+                            sentAt[slot] = now;
+                            send(TYPE_DATA, seq, slots[slot], 0, lengths[slot]);
+                            retransmittedChunks++;
+                            loss = true;
+                        }
+                    }
+
+                    // Una reducción por RTT como mucho
+                    if (loss && now - lastLossNs > Math.max(minAgeNs, srttUs * 1000L)) {
+                        window = Math.max(MIN_WINDOW, window * 7 / 10);
+                        gapNs = Math.min(MAX_GAP_US * 1000L, gapNs * 5 / 4);
+                        lastLossNs = now;
+                    }
+                }
+            } while (poll(0));
+        }
+
+        reply = request("CMD:UPLOAD_END");
+        if (!reply.startsWith("OK:UPLOAD_COMPLETE")) {
+            throw new IOException(reply);
+        }
+        Log.d(TAG, "✅ UDP: " + name + " subido (" + retransmittedChunks +
+                " reenvíos, RTT " + srttUs + " µs)");
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📥 DESCARGA
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Descargar un archivo escribiendo cada chunk en su posición
+     *
+     * @return Tamaño del archivo
+     */
+    long download(String name, RandomAccessFile output, ProgressListener progress)
+            throws IOException {
+        beginTransfer();
+
+        String reply = request("CMD:DOWNLOAD:" + name);
+        if (!reply.startsWith("OK:DOWNLOAD_READY:")) {
+            throw new IOException(reply);
+        }
+        String[] parts = reply.substring(18).split(":");
+        long size = Long.parseLong(parts[0]);
+        int chunkSize = Integer.parseInt(parts[1]);
+        int total = (int) ((size + chunkSize - 1) / chunkSize);
+
+        output.setLength(size);
+        BitSet received = new BitSet(total);
+        int cum = 0;
+        int sinceSack = 0;
+        long bytes = 0;
+        long lastDataNs = System.nanoTime();
+
+        Log.d(TAG, "📥 UDP: " + name + " (" + total + " chunks de " + chunkSize + " B)");
+
+        while (cum < total) {
+            if (!poll(SACK_DELAY_MS)) {
+                if (sinceSack > 0) {
+                    sendSack(cum, received);
+                    sinceSack = 0;
+                }
+                if (System.nanoTime() - lastDataNs > IDLE_TIMEOUT_MS * 1_000_000L) {
+                    throw new IOException("El Heltec dejó de enviar (chunk " + cum + ")");
+                }
+                continue;
+            }
+            if (inType != TYPE_DATA) continue;
+
+            lastDataNs = System.nanoTime();
+            int seq = (int) inSeq;
+            int length = in.limit() - HEADER_SIZE;
+            boolean inOrder = seq == cum;
+
+            if (seq < total && !received.get(seq)) {
+                output.seek((long) seq * chunkSize);
+                output.write(in.array(), HEADER_SIZE, length);
+                received.set(seq);
+                bytes += length;
+
+                cum = received.nextClearBit(cum);
+                if (progress != null) {
+                    progress.onBytes(bytes, size);
+                }
+            } else {
+                inOrder = false; // Duplicado: el emisor necesita saberlo ya
+            }
+
+            // Fuera de orden o duplicado: SACK inmediato para reenviar el hueco
+            if (!inOrder || ++sinceSack >= SACK_EVERY || cum >= total) {
+                sendSack(cum, received);
+                sinceSack = 0;
+            }
+        }
+
+        reply = request("CMD:DOWNLOAD_END");
+        if (!reply.startsWith("OK:DOWNLOAD_END")) {
+            Log.w(TAG, "⚠️ Fin de descarga sin confirmar: " + reply);
+        }
+        Log.d(TAG, "✅ UDP: " + name + " descargado (" + size + " bytes)");
+        return size;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📦 PAQUETES
+    // ════════════════════════════════════════════════════════════════════
+
+    private void beginTransfer() {
+        transferId = 1 + random.nextInt(0xFFFE);
+        retransmittedChunks = 0;
+    }
+
+    private void send(int type, long seq, byte[] payload, int off, int len) throws IOException {
+        out.clear();
+        out.putShort((short) MAGIC);
+        out.putShort((short) transferId);
+        out.putInt((int) seq);
+        out.putInt(nowMicros());
+        out.put((byte) type);
+        out.put(payload, off, len);
+        out.flip();
+        channel.write(out);
+    }
+
+    private void sendSack(int cum, BitSet received) throws IOException {
+        long bits = 0;
+        for (int i = 0; i < 64; i++) {
+            if (received.get(cum + 1 + i)) bits |= 1L << i;
+        }
+        ByteBuffer sack = ByteBuffer.allocate(SACK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        sack.putInt(cum).putLong(bits).putInt(inTxUs);
+        send(TYPE_SACK, cum, sack.array(), 0, SACK_SIZE);
+    }
+
+    /**
+     * Esperar un paquete válido de la transferencia actual
+     *
+     * @param timeoutMs 0 = no esperar
+     * @return false si no llegó ninguno a tiempo
+     */
+    private boolean poll(long timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (true) {
+            in.clear();
+            if (channel.read(in) > 0) {
+                in.flip();
+                if (in.limit() >= HEADER_SIZE &&
+                        (in.getShort(0) & 0xFFFF) == MAGIC &&
+                        (in.getShort(2) & 0xFFFF) == transferId) {
+                    inSeq = in.getInt(4) & 0xFFFFFFFFL;
+                    inTxUs = in.getInt(8);
+                    inType = in.get(12);
+                    return true;
+                }
+                continue; // De otra transferencia o ajeno
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            selector.select(Math.max(1, remaining / 1_000_000L));
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private void sampleRtt(int echoUs) {
+        long rtt = (nowMicros() - echoUs) & 0xFFFFFFFFL;
+        if (rtt > 5_000_000L) return; // Eco de otra época (vuelta del contador)
+        srttUs = srttUs < 0 ? rtt : (srttUs * 7 + rtt) / 8;
+    }
+
+    private static int nowMicros() {
+        return (int) (System.nanoTime() / 1000);
+    }
+
+    private static void readFully(InputStream input, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = input.read(buffer, read, length - read);
+            if (n < 0) throw new IOException("El archivo es más corto de lo esperado");
+            read += n;
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 GETTERS
+    // ════════════════════════════════════════════════════════════════════
+
+    long getRetransmittedChunks() {
+        return retransmittedChunks;
+    }
+
+    long getSrttMicros() {
+        return srttUs;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔄 CERRAR
+    // ════════════════════════════════════════════════════════════════════
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        channel.close();
+    }
+}
@@ -0,0 +1,356 @@
+package com.example.pruebable;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntSupplier;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📖 UploadSource - Lectura Anticipada y Codificación en Segundo Plano
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Prepara los comandos CMD:UPLOAD_CHUNK antes de que el radio los pida:
+ * - Archivo local (descriptor con tamaño): se mapea en memoria
+ *   (ParcelFileDescriptor + FileChannel.map), sin copias ni read()
+ * - Cualquier otro Uri: un hilo lector llena dos bloques reutilizables
+ *   de ~64 KB (doble búfer) mientras otro hilo codifica el anterior
+ * - El hilo codificador deja los comandos Base64 en una cola acotada:
+ *   el hilo que envía solo hace next() y nunca espera a disco ni Base64
+ * - El SHA-256/CRC32C (TransferDigest) se calcula al leer, en orden
+ * - El tamaño de chunk se consulta en cada comando (BleLinkTuner), así
+ *   que puede bajar a mitad de subida si empeora el enlace
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class UploadSource implements Closeable {
+
+    private static final String TAG = "UploadSource";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    static final String COMMAND_PREFIX = "CMD:UPLOAD_CHUNK:";
+
+    // Chunk máximo (buffer del firmware) y mínimo razonable
+    private static final int CHUNK_SIZE = FileManager.CHUNK_SIZE;
+    private static final int MIN_CHUNK_SIZE = 32;
+
+    // Bloque de lectura: >= 64 KB (328 × 200 = 65600)
+    private static final int BLOCK_SIZE = CHUNK_SIZE * 328;
+
+    // Bloques en circulación (uno se lee mientras el otro se codifica)
+    private static final int BLOCK_COUNT = 2;
+
+    // Comandos ya codificados esperando al radio
+    private static final int FRAME_QUEUE_SIZE = 128;
+
+    // Marca de fin en la cola de comandos (se compara por identidad)
+    private static final String END_OF_FRAMES = new String("END");
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📦 BLOQUES
+    // ════════════════════════════════════════════════════════════════════
+
+    private static class Block {
+        final byte[] data;
+        int length;
+
+        Block(int capacity) {
+            this.data = new byte[capacity];
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final long size;
+    private final TransferDigest digest;
+    private final InputStream input;
+    private final ParcelFileDescriptor descriptor;
+    private final MappedByteBuffer mapped;
+
+    private final BlockingQueue<Block> freeBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT);
+    private final BlockingQueue<Block> filledBlocks = new ArrayBlockingQueue<>(BLOCK_COUNT + 1);
+    private final Block endBlock = new Block(0);
+    private final BlockingQueue<String> frames = new ArrayBlockingQueue<>(FRAME_QUEUE_SIZE);
+
+    private volatile IntSupplier chunkSize = () -> CHUNK_SIZE;
+
+    private Thread reader;
+    private Thread encoder;
+    private volatile IOException failure;
+    private volatile boolean closed = false;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTORES
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Fuente sobre un stream cualquiera (lector + codificador)
+     */
+    UploadSource(InputStream input, long size) {
+        this.size = size;
+        this.digest = new TransferDigest(size);
+        this.input = input;
+        this.descriptor = null;
+        this.mapped = null;
+    }
+
+    /**
+     * Fuente sobre un archivo mapeado en memoria (solo codificador)
+     */
+    private UploadSource(ParcelFileDescriptor descriptor, MappedByteBuffer mapped, long size) {
+        this.size = size;
+        this.digest = new TransferDigest(size);
+        this.input = null;
+        this.descriptor = descriptor;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Abrir un Uri: mapeado si es un archivo local, si no por stream
+     */
+    static UploadSource open(Context context, Uri uri, long size) throws IOException {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+            if (descriptor != null && descriptor.getStatSize() == size && size > 0) {
+                FileChannel channel = new FileInputStream(descriptor.getFileDescriptor()).getChannel();
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                Log.d(TAG, "🗺️ Archivo mapeado en memoria (" + size + " bytes)");
+                return new UploadSource(descriptor, mapped, size);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Proveedores sin descriptor real (pipes, nube): usar stream
+            Log.d(TAG, "📖 Sin mapeo (" + e.getMessage() + "), leyendo por stream");
+        }
+        if (descriptor != null) {
+            descriptor.close();
+        }
+
+        InputStream input = context.getContentResolver().openInputStream(uri);
+        if (input == null) {
+            throw new IOException("No se pudo abrir el archivo");
+        }
+        return new UploadSource(input, size);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // ▶️ ARRANCAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Tamaño de chunk a usar (se consulta al codificar cada comando)
+     */
+    void setChunkSize(IntSupplier chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Empezar a leer y codificar en segundo plano
+     */
+    void start() {
+        if (mapped != null) {
+            encoder = new Thread(this::encodeMapped, "UploadSource-encode");
+        } else {
+            for (int i = 0; i < BLOCK_COUNT; i++) {
+                freeBlocks.add(new Block(BLOCK_SIZE));
+            }
+            reader = new Thread(this::readBlocks, "UploadSource-read");
+            encoder = new Thread(this::encodeBlocks, "UploadSource-encode");
+            reader.start();
+        }
+        encoder.start();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📤 CONSUMIR (hilo de envío)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return Siguiente comando CMD:UPLOAD_CHUNK, o null al terminar
+     * @throws IOException Si falló la lectura
+     */
+    String next() throws IOException, InterruptedException {
+        String frame = frames.take();
+        if (frame == END_OF_FRAMES) {
+            frames.put(END_OF_FRAMES); // Llamadas repetidas siguen viendo el fin
+            if (failure != null) throw failure;
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     * @return Bytes de la trama CMD:UPLOAD_CHUNK de un chunk de dataBytes
+     */
+    static int frameLength(int dataBytes) {
+        return COMMAND_PREFIX.length() + (dataBytes + 2) / 3 * 4;
+    }
+
+    /**
+     * @return Bytes de datos por chunk cuya trama cabe en mtu
+     *         (acotado a [MIN_CHUNK_SIZE, CHUNK_SIZE] del firmware)
+     */
+    static int chunkSizeFor(int mtu) {
+        int data = (mtu - COMMAND_PREFIX.length()) / 4 * 3;
+        return Math.max(MIN_CHUNK_SIZE, Math.min(CHUNK_SIZE, data));
+    }
+
+    /**
+     * @return Bytes de datos de un comando devuelto por next()
+     */
+    static int dataLength(String frame) {
+        int encoded = frame.length() - COMMAND_PREFIX.length();
+        int padding = frame.endsWith("==") ? 2 : frame.endsWith("=") ? 1 : 0;
+        return encoded / 4 * 3 - padding;
+    }
+
+    /**
+     * Digest de lo leído (completo tras el último next())
+     */
+    TransferDigest getDigest() {
+        return digest;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📖 HILO LECTOR (stream)
+    // ════════════════════════════════════════════════════════════════════
+
+    private void readBlocks() {
+        long offset = 0;
+        try {
+            while (!closed) {
+                Block block = freeBlocks.take();
+
+                TransferTrace.begin(TransferTrace.READ);
+                int length = 0;
+                try {
+                    int read;
+                    while (length < BLOCK_SIZE &&
+                            (read = input.read(block.data, length, BLOCK_SIZE - length)) > 0) {
+                        length += read;
+                    }
+                } finally {
+                    TransferTrace.end();
+                }
+
+                if (length == 0) break;
+
+                // Hash en el orden del archivo
+                digest.update(offset, block.data, 0, length);
+                offset += length;
+
+                block.length = length;
+                filledBlocks.put(block);
+
+                if (length < BLOCK_SIZE) break;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+        filledBlocks.offer(endBlock);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔤 HILO CODIFICADOR
+    // ════════════════════════════════════════════════════════════════════
+
+    private void encodeBlocks() {
+        try {
+            while (!closed) {
+                Block block = filledBlocks.take();
+                if (block == endBlock) break;
+
+                for (int off = 0; off < block.length; ) {
+                    int n = Math.min(nextChunkSize(), block.length - off);
+                    frames.put(encode(block.data, off, n));
+                    off += n;
+                }
+                freeBlocks.put(block);
+            }
+            frames.put(END_OF_FRAMES);
+        } catch (InterruptedException e) {
+            // close()
+        }
+    }
+
+    private void encodeMapped() {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long offset = 0;
+        try {
+            while (!closed && offset < size) {
+                int n = (int) Math.min(nextChunkSize(), size - offset);
+                mapped.get(chunk, 0, n);
+                digest.update(offset, chunk, 0, n);
+                offset += n;
+                frames.put(encode(chunk, 0, n));
+            }
+            frames.put(END_OF_FRAMES);
+        } catch (InterruptedException e) {
+            // close()
+        } catch (RuntimeException e) {
+            // Archivo truncado mientras estaba mapeado
+            failure = new IOException("Error leyendo archivo mapeado: " + e.getMessage());
+            frames.offer(END_OF_FRAMES);
+        }
+    }
+
+    private int nextChunkSize() {
+        return Math.max(MIN_CHUNK_SIZE, Math.min(CHUNK_SIZE, chunkSize.getAsInt()));
+    }
+
+    private static String encode(byte[] data, int off, int len) {
+        TransferTrace.begin(TransferTrace.ENCODE);
+        try {
+            // java.util.Base64 (API 26+): sin saltos de línea, igual que NO_WRAP
+            ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(data, off, len));
+            return COMMAND_PREFIX + new String(encoded.array(), 0, encoded.limit(),
+                    StandardCharsets.US_ASCII);
+        } finally {
+            TransferTrace.end();
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔄 CERRAR
+    // ════════════════════════════════════════════════════════════════════
+
+    @Override
+    public void close() {
+        closed = true;
+        if (reader != null) reader.interrupt();
+        if (encoder != null) encoder.interrupt();
+
+        try {
+            if (input != null) input.close();
+            if (descriptor != null) descriptor.close();
+        } catch (IOException e) {
+            Log.w(TAG, "⚠️ Error cerrando fuente: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.pruebable;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.Uri;
+import android.net.wifi.WifiNetworkSpecifier;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * ════════════════════════════════════════════════════════════════════════
+ * 📶 WifiTransport - Subidas y Descargas Rápidas por WiFi del Heltec
+ * ════════════════════════════════════════════════════════════════════════
+ *
+ * Los archivos grandes por BLE tardan minutos; con CMD:WIFI:1 el Heltec
+ * levanta un softAP y un servidor UDP de archivos (ver UdpLink):
+ * - El Heltec responde OK:WIFI:ssid:clave:ip:puerto por BLE
+ * - El teléfono se une solo a esa red (WifiNetworkSpecifier, sin
+ *   cambiar la red por defecto) y liga el socket UDP a ella
+ * - Subidas y descargas usan los mismos callbacks que FileManager;
+ *   la verificación posterior (CMD:HASH) sigue yendo por BLE
+ * - CMD:WIFI:0 (o desconectar) apaga el softAP
+ *
+ * Firmware sin WiFi responde ERROR:UNKNOWN_COMMAND y todo sigue por BLE.
+ * start/stop/on* se llaman desde el hilo principal; Listener también.
+ *
+ * @author alex127845
+ * @date 2025-01-21
+ * @version 2.0
+ */
+class WifiTransport {
+
+    private static final String TAG = "WifiTransport";
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 CONSTANTES
+    // ════════════════════════════════════════════════════════════════════
+
+    private static final int STATE_OFF = 0;
+    private static final int STATE_REQUESTED = 1;   // CMD:WIFI:1 enviado
+    private static final int STATE_JOINING = 2;     // Uniéndose al softAP
+    private static final int STATE_READY = 3;
+
+    // Tiempo para que el usuario acepte la red y el teléfono se una
+    private static final int JOIN_TIMEOUT_MS = 30000;
+
+    /**
+     * Cambios de estado (hilo principal)
+     */
+    interface Listener {
+        void onWifiReady(String ssid);
+
+        void onWifiStopped(String reason);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 VARIABLES DE INSTANCIA
+    // ════════════════════════════════════════════════════════════════════
+
+    private final Context context;
+    private final BLEManager bleManager;
+    private final FileManager fileManager;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private int state = STATE_OFF;
+    private String ssid;
+    private InetSocketAddress peer;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    private volatile UdpLink link;
+    private volatile boolean busy = false;
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🏗️ CONSTRUCTOR
+    // ════════════════════════════════════════════════════════════════════
+
+    WifiTransport(Context context, BLEManager bleManager, FileManager fileManager,
+                  Listener listener) {
+        this.context = context.getApplicationContext();
+        this.bleManager = bleManager;
+        this.fileManager = fileManager;
+        this.listener = listener;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔌 ENCENDER / APAGAR
+    // ════════════════════════════════════════════════════════════════════
+
+    void start() {
+        if (state != STATE_OFF) return;
+        state = STATE_REQUESTED;
+        bleManager.sendCommand("CMD:WIFI:1");
+    }
+
+    /**
+     * Apagar el softAP y soltar la red
+     */
+    void stop(String reason) {
+        if (state == STATE_OFF) return;
+        release();
+        if (bleManager.isConnected()) {
+            bleManager.sendCommand("CMD:WIFI:0");
+        }
+        listener.onWifiStopped(reason);
+    }
+
+    /**
+     * Desconexión BLE: el Heltec ya apagó el softAP por su cuenta
+     */
+    void onDisconnected() {
+        if (state == STATE_OFF) return;
+        release();
+        listener.onWifiStopped("Desconectado");
+    }
+
+    private void release() {
+        state = STATE_OFF;
+        handler.removeCallbacksAndMessages(null);
+
+        if (networkCallback != null) {
+            try {
+                connectivity().unregisterNetworkCallback(networkCallback);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "⚠️ Callback de red ya liberado");
+            }
+            networkCallback = null;
+        }
+
+        UdpLink current = link;
+        link = null;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                Log.w(TAG, "⚠️ Error cerrando UDP: " + e.getMessage());
+            }
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📨 RESPUESTAS BLE (desde DeviceActivity)
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * OK:WIFI:ssid:clave:ip:puerto
+     */
+    void onWifiInfo(String args) {
+        if (state != STATE_REQUESTED) return;
+
+        String[] parts = args.split(":");
+        if (parts.length < 4) {
+            Log.w(TAG, "⚠️ OK:WIFI inválido: " + args);
+            stop("Respuesta inválida del Heltec");
+            return;
+        }
+
+        try {
+            ssid = parts[0];
+            peer = new InetSocketAddress(parts[2], Integer.parseInt(parts[3]));
+        } catch (IllegalArgumentException e) {
+            stop("Respuesta inválida del Heltec");
+            return;
+        }
+
+        join(parts[1]);
+    }
+
+    /**
+     * Respuesta de error a CMD:WIFI
+     *
+     * @return true si el error era para este transporte
+     */
+    boolean onError(String error) {
+        if (state != STATE_REQUESTED) return false;
+
+        if (error.equals("UNKNOWN_COMMAND")) {
+            Log.w(TAG, "⚠️ El Heltec no soporta CMD:WIFI");
+            release();
+            listener.onWifiStopped("Este firmware no tiene WiFi");
+            return true;
+        }
+        if (error.startsWith("WIFI_")) {
+            release();
+            listener.onWifiStopped(error);
+            return true;
+        }
+        return false;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🌐 UNIRSE AL SOFTAP
+    // ════════════════════════════════════════════════════════════════════
+
+    private void join(String passphrase) {
+        state = STATE_JOINING;
+        Log.d(TAG, "📶 Uniéndose a " + ssid + " (" + peer + ")");
+
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .removeCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .setNetworkSpecifier(new WifiNetworkSpecifier.Builder()
+                        .setSsid(ssid)
+                        .setWpa2Passphrase(passphrase)
+                        .build())
+                .build();
+
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                // Hilo de ConnectivityManager: abrir el socket aquí
+                try {
+                    DatagramChannel channel = DatagramChannel.open();
+                    network.bindSocket(channel.socket());
+                    channel.connect(peer);
+                    UdpLink opened = new UdpLink(channel);
+                    handler.post(() -> onLinkOpened(opened));
+                } catch (IOException e) {
+                    Log.e(TAG, "❌ Error abriendo UDP: " + e.getMessage());
+                    handler.post(() -> stop("Error abriendo UDP: " + e.getMessage()));
+                }
+            }
+
+            @Override
+            public void onUnavailable() {
+                handler.post(() -> stop("No se pudo unir a " + ssid));
+            }
+
+            @Override
+            public void onLost(Network network) {
+                handler.post(() -> stop("Red WiFi perdida"));
+            }
+        };
+
+        connectivity().requestNetwork(request, networkCallback, JOIN_TIMEOUT_MS);
+    }
+
+    private void onLinkOpened(UdpLink opened) {
+        if (state != STATE_JOINING) {
+            try {
+                opened.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+
+        link = opened;
+        state = STATE_READY;
+        Log.d(TAG, "✅ WiFi listo: " + ssid);
+        listener.onWifiReady(ssid);
+    }
+
+    private ConnectivityManager connectivity() {
+        return (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📤 SUBIR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Subir por UDP (callbacks en el hilo de la transferencia, como
+     * FileManager.uploadFileInChunks; onDigest antes de onComplete)
+     */
+    void upload(Uri uri, String fileName, long fileSize, FileManager.UploadCallback callback) {
+        UdpLink current = acquire();
+        if (current == null) {
+            callback.onError("WiFi no disponible");
+            return;
+        }
+
+        new Thread(() -> {
+            TransferDigest digest = new TransferDigest(fileSize);
+
+            try (InputStream input = context.getContentResolver().openInputStream(uri)) {
+                if (input == null) {
+                    throw new IOException("No se pudo abrir el archivo");
+                }
+
+                current.upload(fileName, input, fileSize, digest, (done, total) -> {
+                    callback.onBytesSent(done, total);
+                    callback.onProgress(total > 0 ? (int) (done * 100 / total) : 100);
+                });
+
+                digest.finish();
+                busy = false;
+                callback.onDigest(digest);
+                callback.onComplete();
+
+            } catch (IOException e) {
+                Log.e(TAG, "❌ Error subiendo por WiFi: " + e.getMessage());
+                busy = false;
+                callback.onError(e.getMessage());
+            }
+        }, "WifiUpload").start();
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📥 DESCARGAR
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * Descargar por UDP a Descargas/HeltecDownloads (onComplete/onError en
+     * el hilo principal, como las descargas BLE)
+     */
+    void download(String fileName, FileManager.DownloadCallback callback) {
+        UdpLink current = acquire();
+        if (current == null) {
+            callback.onError("WiFi no disponible");
+            return;
+        }
+
+        new Thread(() -> {
+            File target = fileManager.createDownloadFile(fileName);
+            if (target == null) {
+                busy = false;
+                handler.post(() -> callback.onError("No se pudo crear el archivo"));
+                return;
+            }
+
+            try (RandomAccessFile output = new RandomAccessFile(target, "rw")) {
+                current.download(fileName, output, (done, total) -> {
+                    callback.onBytesReceived(done, total);
+                    callback.onProgress(total > 0 ? (int) (done * 100 / total) : 100);
+                });
+            } catch (IOException e) {
+                Log.e(TAG, "❌ Error descargando por WiFi: " + e.getMessage());
+                target.delete();
+                busy = false;
+                handler.post(() -> callback.onError(e.getMessage()));
+                return;
+            }
+
+            busy = false;
+            handler.post(() -> callback.onComplete(target));
+        }, "WifiDownload").start();
+    }
+
+    /**
+     * Reservar el enlace para una transferencia (una a la vez)
+     */
+    private synchronized UdpLink acquire() {
+        UdpLink current = link;
+        if (current == null || busy) return null;
+        busy = true;
+        return current;
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📊 GETTERS
+    // ════════════════════════════════════════════════════════════════════
+
+    /**
+     * @return true si hay enlace WiFi libre para una transferencia
+     */
+    boolean isReady() {
+        return state == STATE_READY && link != null && !busy;
+    }
+
+    boolean isActive() {
+        return state != STATE_OFF;
+    }
+
+    String getSsid() {
+        return ssid;
+    }
+}
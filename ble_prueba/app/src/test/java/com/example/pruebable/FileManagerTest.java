@@ -0,0 +1,194 @@
+package com.example.pruebable;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.example.pruebable.TestData.randomBytes;
+import static org.junit.Assert.*;
+
+/**
+ * FileManager.uploadFileInChunks sobre LoopbackTransport: el enlace se
+ * elige con Transport.fastest() como en BLEManager.getBulkTransport() y
+ * un Heltec falso en el otro extremo reconstruye el archivo
+ */
+public class FileManagerTest {
+
+    private static final int FILE_SIZE = 50_000 + 17;
+
+    private final List<LoopbackTransport> opened = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (LoopbackTransport transport : opened) transport.close();
+    }
+
+    @Test
+    public void uploadGoesOverFastestTransportByteExact() throws Exception {
+        LoopbackTransport[] slow = pair(240, 0, 10_000);
+        LoopbackTransport[] fast = pair(240, 0, 1_000_000);
+        FakeHeltec slowHeltec = new FakeHeltec(slow[1]);
+        FakeHeltec fastHeltec = new FakeHeltec(fast[1]);
+
+        Transport transport = Transport.fastest(slow[0], fast[0]);
+        assertEquals(fast[0].getName(), transport.getName());
+
+        byte[] data = randomBytes(FILE_SIZE, 1);
+        RecordingCallback callback = upload(data, transport);
+
+        assertNull(callback.error.get());
+        assertEquals(1, callback.completed.get());
+        assertArrayEquals(data, fastHeltec.await(data.length));
+        assertEquals(0, slowHeltec.frames.get());
+        assertEquals(sha256Hex(data), callback.digest.get().sha256Hex());
+    }
+
+    @Test
+    public void fastestSkipsClosedTransport() throws Exception {
+        LoopbackTransport[] slow = pair(240, 0, 10_000);
+        LoopbackTransport[] fast = pair(240, 0, 1_000_000);
+        FakeHeltec slowHeltec = new FakeHeltec(slow[1]);
+        fast[1].close();
+
+        Transport transport = Transport.fastest(slow[0], fast[0]);
+        assertEquals(slow[0].getName(), transport.getName());
+
+        byte[] data = randomBytes(FILE_SIZE, 2);
+        RecordingCallback callback = upload(data, transport);
+
+        assertNull(callback.error.get());
+        assertArrayEquals(data, slowHeltec.await(data.length));
+    }
+
+    @Test
+    public void chunksFollowTransportMtuWithLatencyAndBackpressure() throws Exception {
+        // MTU pequeño, 2 ms por trama y solo 4 en vuelo: el envío espera créditos
+        LoopbackTransport[] link = LoopbackTransport.pair(100, 4, 2, 0, 7);
+        opened.add(link[0]);
+        opened.add(link[1]);
+        FakeHeltec heltec = new FakeHeltec(link[1]);
+
+        byte[] data = randomBytes(4_000, 3);
+        RecordingCallback callback = upload(data, link[0]);
+
+        assertNull(callback.error.get());
+        assertArrayEquals(data, heltec.await(data.length));
+        assertTrue("trama mayor que el MTU", heltec.largestFrame.get() <= 100);
+        assertEquals(UploadSource.chunkSizeFor(100), heltec.largestChunk.get());
+    }
+
+    @Test
+    public void reportsErrorWhenLinkCloses() throws Exception {
+        LoopbackTransport[] link = pair(240, 0, 1_000_000);
+        link[1].close();
+
+        RecordingCallback callback = upload(randomBytes(FILE_SIZE, 4), link[0]);
+
+        assertNotNull(callback.error.get());
+        assertEquals(0, callback.completed.get());
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 AUXILIARES
+    // ════════════════════════════════════════════════════════════════════
+
+    private LoopbackTransport[] pair(int mtu, long latencyMs, long bytesPerSecond) {
+        LoopbackTransport[] link = LoopbackTransport.pair(mtu, 64, latencyMs, 0, 1);
+        link[0].setEstimatedBytesPerSecond(bytesPerSecond);
+        opened.add(link[0]);
+        opened.add(link[1]);
+        return link;
+    }
+
+    private static RecordingCallback upload(byte[] data, Transport transport) {
+        RecordingCallback callback = new RecordingCallback();
+        new FileManager(null).uploadFileInChunks(new ByteArrayInputStream(data), data.length,
+                transport, callback);
+        return callback;
+    }
+
+    private static String sha256Hex(byte[] data) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static final class RecordingCallback implements FileManager.UploadCallback {
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicReference<String> error = new AtomicReference<>();
+        final AtomicReference<TransferDigest> digest = new AtomicReference<>();
+
+        @Override
+        public void onProgress(int percentage) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public void onError(String message) {
+            error.set(message);
+        }
+
+        @Override
+        public void onDigest(TransferDigest transferDigest) {
+            digest.set(transferDigest);
+        }
+    }
+
+    /**
+     * Extremo del Heltec: decodifica cada CMD:UPLOAD_CHUNK en orden
+     */
+    private static final class FakeHeltec implements Transport.Sink {
+        final AtomicInteger frames = new AtomicInteger();
+        final AtomicInteger largestFrame = new AtomicInteger();
+        final AtomicInteger largestChunk = new AtomicInteger();
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        FakeHeltec(Transport transport) {
+            transport.setSink(this);
+        }
+
+        @Override
+        public void onFrame(byte[] frame) {
+            frames.incrementAndGet();
+            largestFrame.accumulateAndGet(frame.length, Math::max);
+
+            String command = new String(frame, StandardCharsets.US_ASCII);
+            assertTrue(command.startsWith(UploadSource.COMMAND_PREFIX));
+            byte[] chunk = Base64.getDecoder().decode(
+                    command.substring(UploadSource.COMMAND_PREFIX.length()));
+            largestChunk.accumulateAndGet(chunk.length, Math::max);
+            synchronized (received) {
+                received.write(chunk, 0, chunk.length);
+                received.notifyAll();
+            }
+        }
+
+        /**
+         * Esperar a que lleguen size bytes (la entrega va en otro hilo)
+         */
+        byte[] await(int size) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            synchronized (received) {
+                while (received.size() < size && System.currentTimeMillis() < deadline) {
+                    received.wait(100);
+                }
+                return received.toByteArray();
+            }
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package com.example.pruebable;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import static com.example.pruebable.TestData.randomBytes;
+import static org.junit.Assert.*;
+
+/**
+ * HttpTransfer contra un nodo falso (com.sun.net.httpserver) que imita
+ * los endpoints de carrusel_rx_opt / carrusel_tx_opt: Range en /download,
+ * /crc, /upload_begin + /upload_part + /upload_end con CRC32 y el
+ * formulario /upload de los firmwares antiguos
+ */
+public class HttpTransferTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int CONNECTIONS = 3;
+    private static final int FILE_SIZE = 10 * SEGMENT_SIZE + 123;
+    private static final int SEGMENTS = 11;
+
+    private FakeNode node;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        node = new FakeNode();
+        dir = Files.createTempDirectory("httptransfer").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        node.stop();
+        deleteRecursively(dir);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📥 DESCARGAR
+    // ════════════════════════════════════════════════════════════════════
+
+    @Test
+    public void downloadsSegmentsInParallelWithRange() throws IOException {
+        byte[] data = randomBytes(FILE_SIZE, 1);
+        node.files.put("a.bin", data);
+        node.delayMs = 20;
+
+        File target = new File(dir, "a.bin");
+        long size = transfer().download("a.bin", target, null);
+
+        assertEquals(FILE_SIZE, size);
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertEquals(SEGMENTS, node.rangeRequests.get());
+        assertTrue("más de una conexión a la vez", node.maxConcurrent.get() > 1);
+        assertFalse(new File(dir, "a.bin.get").exists());
+    }
+
+    @Test
+    public void resumesInterruptedDownload() throws IOException {
+        byte[] data = randomBytes(FILE_SIZE, 2);
+        node.files.put("a.bin", data);
+        File target = new File(dir, "a.bin");
+
+        node.failAfter(4);
+        try {
+            transfer().download("a.bin", target, null);
+            fail("la descarga debía cortarse");
+        } catch (IOException expected) {
+            // Estado guardado para reanudar
+        }
+        assertTrue(new File(dir, "a.bin.get").exists());
+
+        node.failAfter(Integer.MAX_VALUE);
+        node.rangeRequests.set(0);
+        transfer().download("a.bin", target, null);
+
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertEquals(SEGMENTS - 4, node.rangeRequests.get());
+    }
+
+    @Test
+    public void restartsDownloadWhenNodeFileChanged() throws IOException {
+        node.files.put("a.bin", randomBytes(FILE_SIZE, 3));
+        File target = new File(dir, "a.bin");
+
+        node.failAfter(4);
+        try {
+            transfer().download("a.bin", target, null);
+            fail("la descarga debía cortarse");
+        } catch (IOException expected) {
+            // Estado guardado para reanudar
+        }
+
+        // Mismo nombre y tamaño, otro contenido: el CRC de /crc ya no coincide
+        byte[] changed = randomBytes(FILE_SIZE, 4);
+        node.files.put("a.bin", changed);
+        node.failAfter(Integer.MAX_VALUE);
+        node.rangeRequests.set(0);
+        transfer().download("a.bin", target, null);
+
+        assertArrayEquals(changed, Files.readAllBytes(target.toPath()));
+        assertEquals(SEGMENTS, node.rangeRequests.get());
+    }
+
+    @Test
+    public void fallsBackToWholeDownloadWithoutRange() throws IOException {
+        byte[] data = randomBytes(FILE_SIZE, 5);
+        node.files.put("a.bin", data);
+        node.rangeSupported = false;
+
+        File target = new File(dir, "a.bin");
+        long size = transfer().download("a.bin", target, null);
+
+        assertEquals(FILE_SIZE, size);
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertEquals(0, node.rangeRequests.get());
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 📤 SUBIR
+    // ════════════════════════════════════════════════════════════════════
+
+    @Test
+    public void uploadsSegmentsInParallel() throws IOException {
+        byte[] data = randomBytes(FILE_SIZE, 6);
+        node.delayMs = 20;
+
+        upload(data, "b.bin");
+
+        assertArrayEquals(data, node.files.get("b.bin"));
+        assertEquals(SEGMENTS, node.partRequests.get());
+        assertTrue("más de una conexión a la vez", node.maxConcurrent.get() > 1);
+    }
+
+    @Test
+    public void resumesInterruptedUploadFromNodeBitmap() throws IOException {
+        byte[] data = randomBytes(FILE_SIZE, 7);
+
+        node.failAfter(5);
+        try {
+            upload(data, "b.bin");
+            fail("la subida debía cortarse");
+        } catch (IOException expected) {
+            // El nodo conserva los segmentos comprobados
+        }
+        assertNull(node.files.get("b.bin"));
+        int confirmed = node.session.done.cardinality();
+        assertEquals(5, confirmed);
+
+        node.failAfter(Integer.MAX_VALUE);
+        node.partRequests.set(0);
+        upload(data, "b.bin");
+
+        assertArrayEquals(data, node.files.get("b.bin"));
+        assertEquals(SEGMENTS - confirmed, node.partRequests.get());
+    }
+
+    @Test
+    public void restartsUploadWhenContentChanged() throws IOException {
+        node.failAfter(5);
+        try {
+            upload(randomBytes(FILE_SIZE, 8), "b.bin");
+            fail("la subida debía cortarse");
+        } catch (IOException expected) {
+            // Sesión abierta en el nodo con otro CRC
+        }
+
+        byte[] changed = randomBytes(FILE_SIZE, 9);
+        node.failAfter(Integer.MAX_VALUE);
+        node.partRequests.set(0);
+        upload(changed, "b.bin");
+
+        assertArrayEquals(changed, node.files.get("b.bin"));
+        assertEquals(SEGMENTS, node.partRequests.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUploadWhenNodeFileIsCorrupted() throws IOException {
+        // El nodo acepta las partes pero el archivo final no coincide
+        node.corruptOnEnd = true;
+        upload(randomBytes(FILE_SIZE, 10), "b.bin");
+    }
+
+    @Test
+    public void fallsBackToMultipartWithoutUploadPart() throws IOException {
+        byte[] data = randomBytes(FILE_SIZE, 11);
+        node.partsSupported = false;
+
+        upload(data, "b.bin");
+
+        assertArrayEquals(data, node.files.get("b.bin"));
+        assertEquals(0, node.partRequests.get());
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 AUXILIARES
+    // ════════════════════════════════════════════════════════════════════
+
+    private HttpTransfer transfer() {
+        return new HttpTransfer("127.0.0.1:" + node.port(), dir, CONNECTIONS, SEGMENT_SIZE);
+    }
+
+    private void upload(byte[] data, String name) throws IOException {
+        File source = new File(dir, "source-" + name);
+        Files.write(source.toPath(), data);
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            transfer().upload(channel, data.length, name, null);
+        }
+    }
+
+    private static long crc32(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * Nodo en proceso con la misma lógica de sesión que carrusel_tx_opt
+     */
+    private static final class FakeNode {
+
+        final Map<String, byte[]> files = new ConcurrentHashMap<>();
+        final AtomicInteger rangeRequests = new AtomicInteger();
+        final AtomicInteger partRequests = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        volatile boolean rangeSupported = true;
+        volatile boolean partsSupported = true;
+        volatile boolean corruptOnEnd = false;
+        volatile int delayMs = 0;
+
+        // Peticiones de datos que se atienden antes de empezar a fallar
+        private final AtomicInteger budget = new AtomicInteger(Integer.MAX_VALUE);
+        private final AtomicInteger concurrent = new AtomicInteger();
+
+        Session session;
+
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        static final class Session {
+            String name;
+            long size;
+            int segmentSize;
+            long crc;
+            byte[] data;
+            BitSet done = new BitSet();
+        }
+
+        FakeNode() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/download", this::download);
+            server.createContext("/crc", this::crc);
+            server.createContext("/upload_begin", this::uploadBegin);
+            server.createContext("/upload_part", this::uploadPart);
+            server.createContext("/upload_end", this::uploadEnd);
+            server.createContext("/upload", this::uploadForm);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        void failAfter(int requests) {
+            budget.set(requests);
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        private void download(HttpExchange exchange) throws IOException {
+            byte[] data = files.get(query(exchange).get("file"));
+            if (data == null) {
+                reply(exchange, 404, "No encontrado");
+                return;
+            }
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (!rangeSupported || range == null) {
+                exchange.sendResponseHeaders(200, data.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(data);
+                }
+                return;
+            }
+
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(bounds[0]);
+            int end = Integer.parseInt(bounds[1]);
+            boolean probe = start == 0 && end == 0;
+            if (!probe) {
+                rangeRequests.incrementAndGet();
+                if (!enter()) {
+                    reply(exchange, 500, "Fallo simulado");
+                    return;
+                }
+            }
+
+            try {
+                exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + start + "-" + end + "/" + data.length);
+                exchange.sendResponseHeaders(206, end - start + 1);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(data, start, end - start + 1);
+                }
+            } finally {
+                if (!probe) leave();
+            }
+        }
+
+        private void crc(HttpExchange exchange) throws IOException {
+            byte[] data = files.get(query(exchange).get("file"));
+            if (data == null) {
+                reply(exchange, 404, "No encontrado");
+                return;
+            }
+            reply(exchange, 200, crc32(data, 0, data.length) + ":" + data.length);
+        }
+
+        private synchronized void uploadBegin(HttpExchange exchange) throws IOException {
+            if (!partsSupported) {
+                reply(exchange, 404, "Not found");
+                return;
+            }
+            Map<String, String> params = query(exchange);
+            String name = params.get("file");
+            long size = Long.parseLong(params.get("size"));
+            int segmentSize = Integer.parseInt(params.get("seg"));
+            long crc = Long.parseLong(params.get("crc"));
+
+            boolean resume = session != null && session.name.equals(name) &&
+                    session.size == size && session.segmentSize == segmentSize &&
+                    session.crc == crc;
+            if (!resume) {
+                session = new Session();
+                session.name = name;
+                session.size = size;
+                session.segmentSize = segmentSize;
+                session.crc = crc;
+                session.data = new byte[(int) size];
+            }
+
+            int segments = (int) ((size + segmentSize - 1) / segmentSize);
+            StringBuilder bitmap = new StringBuilder();
+            for (int i = 0; i < segments; i++) {
+                bitmap.append(session.done.get(i) ? '1' : '0');
+            }
+            reply(exchange, 200, bitmap.toString());
+        }
+
+        private void uploadPart(HttpExchange exchange) throws IOException {
+            if (!partsSupported) {
+                reply(exchange, 404, "Not found");
+                return;
+            }
+            byte[] body = readAll(exchange.getRequestBody());
+            partRequests.incrementAndGet();
+            if (!enter()) {
+                reply(exchange, 500, "Fallo simulado");
+                return;
+            }
+
+            try {
+                Map<String, String> params = query(exchange);
+                int offset = Integer.parseInt(params.get("offset"));
+                long crc = Long.parseLong(params.get("crc"));
+
+                synchronized (this) {
+                    Session current = session;
+                    if (current == null || !current.name.equals(params.get("file")) ||
+                            offset % current.segmentSize != 0) {
+                        reply(exchange, 409, "Sin sesión");
+                        return;
+                    }
+                    int expected = (int) Math.min(current.segmentSize, current.size - offset);
+                    int segment = offset / current.segmentSize;
+                    if (body.length != expected || crc32(body, 0, body.length) != crc) {
+                        current.done.clear(segment);
+                        reply(exchange, 422, "Parte corrupta");
+                        return;
+                    }
+                    System.arraycopy(body, 0, current.data, offset, body.length);
+                    current.done.set(segment);
+                }
+                reply(exchange, 200, "OK");
+            } finally {
+                leave();
+            }
+        }
+
+        private synchronized void uploadEnd(HttpExchange exchange) throws IOException {
+            if (!partsSupported) {
+                reply(exchange, 404, "Not found");
+                return;
+            }
+            Map<String, String> params = query(exchange);
+            long crc = Long.parseLong(params.get("crc"));
+            Session current = session;
+            if (current == null || !current.name.equals(params.get("file"))) {
+                reply(exchange, 409, "Sin sesión");
+                return;
+            }
+
+            int segments = (int) ((current.size + current.segmentSize - 1) / current.segmentSize);
+            if (current.done.cardinality() != segments) {
+                reply(exchange, 409, "Faltan segmentos");
+                return;
+            }
+            if (corruptOnEnd) current.data[0] ^= 1;
+
+            session = null;
+            if (crc32(current.data, 0, current.data.length) != crc) {
+                reply(exchange, 409, "CRC distinto");
+                return;
+            }
+            files.put(current.name, current.data);
+            reply(exchange, 200, "OK");
+        }
+
+        /**
+         * Formulario multipart de /upload (un solo archivo)
+         */
+        private void uploadForm(HttpExchange exchange) throws IOException {
+            String type = exchange.getRequestHeaders().getFirst("Content-Type");
+            String boundary = type.substring(type.indexOf("boundary=") + "boundary=".length());
+            byte[] body = readAll(exchange.getRequestBody());
+            String text = new String(body, StandardCharsets.ISO_8859_1);
+
+            int nameStart = text.indexOf("filename=\"") + "filename=\"".length();
+            String name = text.substring(nameStart, text.indexOf('"', nameStart));
+            int start = text.indexOf("\r\n\r\n") + 4;
+            int end = text.lastIndexOf("\r\n--" + boundary + "--");
+
+            byte[] data = new byte[end - start];
+            System.arraycopy(body, start, data, 0, data.length);
+            files.put(name, data);
+
+            exchange.getResponseHeaders().add("Location", "/");
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+        }
+
+        /**
+         * @return false si la petición debe fallar (presupuesto agotado)
+         */
+        private boolean enter() {
+            if (budget.getAndDecrement() <= 0) return false;
+            int now = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(now, Math::max);
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return true;
+        }
+
+        private void leave() {
+            concurrent.decrementAndGet();
+        }
+
+        private static Map<String, String> query(HttpExchange exchange) throws IOException {
+            Map<String, String> params = new HashMap<>();
+            String raw = exchange.getRequestURI().getRawQuery();
+            if (raw == null) return params;
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+            return params;
+        }
+
+        private static byte[] readAll(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+
+        private static void reply(HttpExchange exchange, int code, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
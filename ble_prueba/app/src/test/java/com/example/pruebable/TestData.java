@@ -0,0 +1,21 @@
+package com.example.pruebable;
+
+import java.util.Random;
+
+/**
+ * Datos de prueba compartidos por los tests de transferencia
+ */
+final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * @return size bytes pseudoaleatorios, siempre los mismos para una semilla
+     */
+    static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
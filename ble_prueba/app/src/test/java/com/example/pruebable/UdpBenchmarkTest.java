@@ -0,0 +1,155 @@
+package com.example.pruebable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * UdpBenchmark recibiendo por loopback una secuencia conocida con huecos,
+ * duplicados y desorden (cabecera de wifi_udp_tx2 escrita a mano)
+ */
+public class UdpBenchmarkTest {
+
+    private static final int PAYLOAD = 100;
+
+    // Los tx_us van 20 ms separados y los paquetes salen seguidos: cada
+    // llegada difiere ~20 ms de lo esperado y el jitter sube hacia ahí
+    private static final long TX_STEP_US = 20_000;
+    private static final long TX_BASE_US = 1_000_000;
+
+    // Huecos: 7, 15, 16. Duplicados: 5, 12, 19. Desorden: 3 (prof. 1),
+    // 8 (prof. 2) y 14 (prof. 3)
+    private static final long[] ARRIVALS = {
+            0, 1, 2, 4, 3, 5, 5, 6, 9, 10, 8, 11, 12, 12, 13, 17, 14, 18, 19, 19, 20
+    };
+
+    private UdpBenchmark benchmark;
+    private DatagramChannel sender;
+    private InetSocketAddress target;
+
+    @Before
+    public void setUp() throws IOException {
+        benchmark = new UdpBenchmark(0, null);
+        benchmark.start();
+        int port = ((InetSocketAddress) benchmark.getLocalAddress()).getPort();
+        target = new InetSocketAddress("127.0.0.1", port);
+        sender = DatagramChannel.open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        benchmark.stop();
+        sender.close();
+    }
+
+    @Test
+    public void countsLossDuplicatesAndReordering() throws Exception {
+        for (long seq : ARRIVALS) send(7, seq, TX_BASE_US + seq * TX_STEP_US);
+
+        UdpBenchmark.TestStats s = awaitStats(7, ARRIVALS.length);
+
+        assertEquals(ARRIVALS.length, s.received);
+        assertEquals(21, s.expected);
+        assertEquals(3, s.lost);
+        assertEquals(100.0 * 3 / 21, s.lossPercent(), 1e-9);
+        assertEquals(3, s.duplicates);
+        assertEquals(3, s.reordered);
+        assertEquals(3, s.maxReorderDepth);
+        assertEquals(0, s.restarts);
+        assertEquals(18L * (UdpBenchmark.HEADER_SIZE + PAYLOAD), s.bytes);
+
+        // Desorden de profundidad 1, 2 y 3 en los intervalos [1], [2] y [2, 4)
+        assertEquals(1, s.reorderHistogram[UdpBenchmark.bin(UdpBenchmark.REORDER_BINS, 1)]);
+        assertEquals(2, s.reorderHistogram[UdpBenchmark.bin(UdpBenchmark.REORDER_BINS, 2)]);
+    }
+
+    @Test
+    public void jitterFollowsRfc3550() throws Exception {
+        for (long seq : ARRIVALS) send(7, seq, TX_BASE_US + seq * TX_STEP_US);
+
+        UdpBenchmark.TestStats s = awaitStats(7, ARRIVALS.length);
+
+        // Llegadas instantáneas: |D| = |diferencia de tx_us| para cada único
+        double expected = 0;
+        Set<Long> seen = new HashSet<>();
+        long lastTx = -1;
+        for (long seq : ARRIVALS) {
+            if (!seen.add(seq)) continue;
+            long tx = TX_BASE_US + seq * TX_STEP_US;
+            if (lastTx >= 0) expected += (Math.abs(tx - lastTx) - expected) / 16.0;
+            lastTx = tx;
+        }
+
+        // El tiempo real entre llegadas en loopback solo resta unos µs
+        assertTrue("jitter " + s.jitterUs + " frente a " + expected,
+                s.jitterUs <= expected + 1 && s.jitterUs >= expected - 3000);
+    }
+
+    @Test
+    public void keepsTestsApartAndDetectsRestart() throws Exception {
+        for (long seq = 0; seq < 5; seq++) send(8, seq, TX_BASE_US + seq * TX_STEP_US);
+        for (long seq : ARRIVALS) send(7, seq, TX_BASE_US + seq * TX_STEP_US);
+
+        // TX reiniciado: la secuencia vuelve a 0 tras superar la ventana
+        long high = UdpBenchmark.SEQ_WINDOW + 10;
+        send(8, high, TX_BASE_US);
+        send(8, 0, TX_BASE_US);
+        send(8, 1, TX_BASE_US + TX_STEP_US);
+
+        UdpBenchmark.TestStats clean = awaitStats(8, 8);
+        UdpBenchmark.TestStats impaired = awaitStats(7, ARRIVALS.length);
+
+        assertEquals(1, clean.restarts);
+        assertEquals(0, clean.duplicates);
+        assertEquals(0, clean.reordered);
+        // 0..high antes del reinicio (con los huecos 5..high-1) + 0..1 después
+        assertEquals(high + 1 + 2, clean.expected);
+        assertEquals(high + 1 - 6, clean.lost);
+        assertEquals(3, impaired.lost);
+        assertEquals(3, impaired.duplicates);
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 AUXILIARES
+    // ════════════════════════════════════════════════════════════════════
+
+    private void send(int testId, long seq, long txUs) throws IOException {
+        ByteBuffer packet = ByteBuffer.allocate(UdpBenchmark.HEADER_SIZE + PAYLOAD)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        packet.putShort((short) UdpBenchmark.MAGIC);
+        packet.putShort((short) testId);
+        packet.putInt((int) seq);
+        packet.putInt((int) txUs);
+        for (int i = 0; i < PAYLOAD; i++) packet.put((byte) i);
+        packet.flip();
+        sender.send(packet, target);
+    }
+
+    private UdpBenchmark.TestStats awaitStats(int testId, long received)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        UdpBenchmark.TestStats last = null;
+        while (System.currentTimeMillis() < deadline) {
+            List<UdpBenchmark.TestStats> stats = benchmark.getStats();
+            for (UdpBenchmark.TestStats s : stats) {
+                if (s.testId == testId) last = s;
+            }
+            if (last != null && last.received >= received) return last;
+            Thread.sleep(10);
+        }
+        fail("test " + testId + ": " + (last == null ? 0 : last.received) + "/" + received +
+                " paquetes");
+        return null;
+    }
+}
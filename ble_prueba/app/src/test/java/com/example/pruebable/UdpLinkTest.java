@@ -0,0 +1,592 @@
+package com.example.pruebable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.example.pruebable.TestData.randomBytes;
+import static org.junit.Assert.*;
+
+/**
+ * UdpLink contra un Heltec falso (mismo protocolo que el 📶 WIFI UDP de
+ * BT_tx_ack) detrás de un relé que pierde, duplica y reordena datagramas
+ * en los dos sentidos
+ */
+public class UdpLinkTest {
+
+    private static final int FILE_SIZE = 200 * 1024 + 77;
+
+    private FakeHeltec heltec;
+    private LossyRelay relay;
+    private UdpLink link;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        heltec = new FakeHeltec();
+        dir = Files.createTempDirectory("udplink").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (link != null) link.close();
+        if (relay != null) relay.stop();
+        heltec.stop();
+        for (File file : dir.listFiles()) file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void uploadIsByteExactOverCleanLink() throws IOException {
+        connect(0, 0, 0);
+        byte[] data = randomBytes(FILE_SIZE, 1);
+
+        link.upload("a.bin", new ByteArrayInputStream(data), data.length, null, null);
+
+        assertArrayEquals(data, heltec.files.get("/a.bin"));
+    }
+
+    @Test
+    public void uploadIsByteExactWithLossAndReordering() throws IOException {
+        connect(0.05, 0.10, 0.02);
+        byte[] data = randomBytes(FILE_SIZE, 2);
+
+        link.upload("a.bin", new ByteArrayInputStream(data), data.length, null, null);
+
+        assertArrayEquals(data, heltec.files.get("/a.bin"));
+        assertTrue("debía reenviar chunks perdidos", link.getRetransmittedChunks() > 0);
+        assertTrue(relay.dropped > 0 && relay.reordered > 0);
+    }
+
+    @Test
+    public void downloadIsByteExactWithLossAndReordering() throws IOException {
+        connect(0.05, 0.10, 0.02);
+        byte[] data = randomBytes(FILE_SIZE, 3);
+        heltec.files.put("/b.bin", data);
+
+        File target = new File(dir, "b.bin");
+        long size;
+        try (RandomAccessFile output = new RandomAccessFile(target, "rw")) {
+            size = link.download("b.bin", output, null);
+        }
+
+        assertEquals(FILE_SIZE, size);
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertTrue("el Heltec debía reenviar chunks perdidos", heltec.retransmitted > 0);
+        assertTrue(relay.dropped > 0 && relay.reordered > 0);
+    }
+
+    @Test
+    public void downloadOfEmptyFileFinishes() throws IOException {
+        connect(0.05, 0.10, 0);
+        heltec.files.put("/empty.bin", new byte[0]);
+
+        File target = new File(dir, "empty.bin");
+        try (RandomAccessFile output = new RandomAccessFile(target, "rw")) {
+            assertEquals(0, link.download("empty.bin", output, null));
+        }
+        assertEquals(0, target.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void reportsMissingFile() throws IOException {
+        connect(0, 0, 0);
+        try (RandomAccessFile output = new RandomAccessFile(new File(dir, "x"), "rw")) {
+            link.download("missing.bin", output, null);
+        }
+    }
+
+    // ════════════════════════════════════════════════════════════════════
+    // 🔧 AUXILIARES
+    // ════════════════════════════════════════════════════════════════════
+
+    private void connect(double drop, double reorder, double duplicate) throws IOException {
+        relay = new LossyRelay(heltec.address(), drop, reorder, duplicate, 42);
+        DatagramChannel channel = DatagramChannel.open();
+        channel.connect(relay.address());
+        link = new UdpLink(channel);
+    }
+
+    private static long micros() {
+        return System.nanoTime() / 1000;
+    }
+
+    /**
+     * Relé entre la app y el Heltec: cada datagrama se pierde, se duplica
+     * o se retiene hasta después del siguiente (reordenado) con una
+     * semilla fija
+     */
+    private static final class LossyRelay implements Runnable {
+
+        // Retenido más de esto sin otro paquete detrás: sale igualmente
+        private static final long HOLD_MAX_US = 5000;
+
+        private final DatagramChannel appSide;
+        private final DatagramChannel heltecSide;
+        private final Selector selector;
+        private final Thread thread;
+        private final Random random;
+        private final double drop;
+        private final double reorder;
+        private final double duplicate;
+
+        private volatile boolean running = true;
+        private SocketAddress app;
+
+        // Un paquete retenido por sentido
+        private ByteBuffer heldToHeltec;
+        private ByteBuffer heldToApp;
+        private long heldToHeltecUs;
+        private long heldToAppUs;
+
+        volatile int dropped;
+        volatile int reordered;
+
+        LossyRelay(SocketAddress heltec, double drop, double reorder, double duplicate, long seed)
+                throws IOException {
+            this.drop = drop;
+            this.reorder = reorder;
+            this.duplicate = duplicate;
+            random = new Random(seed);
+
+            appSide = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            heltecSide = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            heltecSide.connect(heltec);
+            appSide.configureBlocking(false);
+            heltecSide.configureBlocking(false);
+
+            selector = Selector.open();
+            appSide.register(selector, SelectionKey.OP_READ);
+            heltecSide.register(selector, SelectionKey.OP_READ);
+
+            thread = new Thread(this, "LossyRelay");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        SocketAddress address() throws IOException {
+            return appSide.getLocalAddress();
+        }
+
+        void stop() throws IOException {
+            running = false;
+            selector.wakeup();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            selector.close();
+            appSide.close();
+            heltecSide.close();
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(2048);
+            try {
+                while (running) {
+                    selector.select(1);
+                    selector.selectedKeys().clear();
+
+                    buffer.clear();
+                    SocketAddress from;
+                    while ((from = appSide.receive(buffer)) != null) {
+                        app = from;
+                        buffer.flip();
+                        heldToHeltec = impair(copy(buffer), heldToHeltec, true);
+                        buffer.clear();
+                    }
+                    while (heltecSide.read(buffer) > 0) {
+                        buffer.flip();
+                        heldToApp = impair(copy(buffer), heldToApp, false);
+                        buffer.clear();
+                    }
+
+                    long now = micros();
+                    if (heldToHeltec != null && now - heldToHeltecUs > HOLD_MAX_US) {
+                        forward(heldToHeltec, true);
+                        heldToHeltec = null;
+                    }
+                    if (heldToApp != null && now - heldToAppUs > HOLD_MAX_US) {
+                        forward(heldToApp, false);
+                        heldToApp = null;
+                    }
+                }
+            } catch (IOException e) {
+                // Canal cerrado al terminar la prueba
+            }
+        }
+
+        /**
+         * @return Paquete que queda retenido en este sentido (o null)
+         */
+        private ByteBuffer impair(ByteBuffer packet, ByteBuffer held, boolean toHeltec)
+                throws IOException {
+            double roll = random.nextDouble();
+            if (roll < drop) {
+                dropped++;
+                return held;
+            }
+            if (held == null && roll < drop + reorder) {
+                reordered++;
+                if (toHeltec) heldToHeltecUs = micros(); else heldToAppUs = micros();
+                return packet;
+            }
+
+            forward(packet, toHeltec);
+            if (roll < drop + reorder + duplicate) {
+                packet.rewind();
+                forward(packet, toHeltec);
+            }
+            if (held != null) forward(held, toHeltec);
+            return null;
+        }
+
+        private void forward(ByteBuffer packet, boolean toHeltec) throws IOException {
+            if (toHeltec) {
+                heltecSide.write(packet);
+            } else if (app != null) {
+                appSide.send(packet, app);
+            }
+        }
+
+        private static ByteBuffer copy(ByteBuffer buffer) {
+            ByteBuffer packet = ByteBuffer.allocate(buffer.remaining());
+            packet.put(buffer).flip();
+            return packet;
+        }
+    }
+
+    /**
+     * Port del servidor UDP de BT_tx_ack (handleUdp, receiveUdpChunk,
+     * serviceUdpSender, handleUdpSack) con los archivos en memoria
+     */
+    private static final class FakeHeltec implements Runnable {
+
+        private static final int CHUNK_SIZE = 1024;
+        private static final int WINDOW_MIN = 4;
+        private static final int WINDOW_INITIAL = 16;
+        private static final int WINDOW_MAX = 64;
+        private static final long GAP_MIN_US = 300;
+        private static final long GAP_INITIAL_US = 1000;
+        private static final long GAP_MAX_US = 5000;
+        private static final long RTO_MIN_US = 200000;
+        private static final int SACK_EVERY = 8;
+        private static final long SACK_DELAY_US = 20000;
+
+        private static final int IDLE = 0;
+        private static final int RECEIVING = 1;
+        private static final int SENDING = 2;
+
+        final Map<String, byte[]> files = new ConcurrentHashMap<>();
+        volatile int retransmitted;
+
+        private final DatagramChannel channel;
+        private final Selector selector;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        private final ByteBuffer rx = ByteBuffer.allocate(2048).order(ByteOrder.LITTLE_ENDIAN);
+        private final ByteBuffer tx = ByteBuffer.allocate(2048).order(ByteOrder.LITTLE_ENDIAN);
+
+        private SocketAddress peer;
+        private int transferId;
+        private long ctrlSeq = -1;
+        private String ctrlReply;
+
+        private int mode = IDLE;
+        private String fileName;
+        private byte[] file;
+        private int chunkCount;
+        private int cumulative;
+        private long lastActivityUs;
+
+        // Recepción
+        private BitSet received;
+        private int sinceSack;
+        private int echoUs;
+
+        // Envío
+        private int nextChunk;
+        private int window;
+        private long gapUs;
+        private long nextSendUs;
+        private long srttUs;
+        private long lastProgressUs;
+        private long lastLossUs;
+        private final long[] sentUs = new long[WINDOW_MAX];
+
+        FakeHeltec() throws IOException {
+            channel = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+
+            thread = new Thread(this, "FakeHeltec");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        SocketAddress address() throws IOException {
+            return channel.getLocalAddress();
+        }
+
+        void stop() throws IOException {
+            running = false;
+            selector.wakeup();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            selector.close();
+            channel.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(1);
+                    selector.selectedKeys().clear();
+                    handleUdp();
+                }
+            } catch (IOException e) {
+                // Canal cerrado al terminar la prueba
+            }
+        }
+
+        private void handleUdp() throws IOException {
+            SocketAddress from;
+            rx.clear();
+            while ((from = channel.receive(rx)) != null) {
+                rx.flip();
+                handlePacket(from);
+                rx.clear();
+            }
+
+            if (mode == RECEIVING && sinceSack > 0 && micros() - lastActivityUs >= SACK_DELAY_US) {
+                sendSack();
+            } else if (mode == SENDING) {
+                serviceSender();
+            }
+        }
+
+        private void handlePacket(SocketAddress from) throws IOException {
+            if (rx.limit() < UdpLink.HEADER_SIZE || (rx.getShort(0) & 0xFFFF) != UdpLink.MAGIC) {
+                return;
+            }
+            int testId = rx.getShort(2) & 0xFFFF;
+            long seq = rx.getInt(4) & 0xFFFFFFFFL;
+            int txUs = rx.getInt(8);
+            int type = rx.get(12);
+            int payloadLength = rx.limit() - UdpLink.HEADER_SIZE;
+
+            if (type == UdpLink.TYPE_CTRL) {
+                peer = from;
+
+                // Duplicado (se perdió la respuesta): repetirla sin re-ejecutar
+                boolean duplicate = testId == transferId && seq == ctrlSeq && ctrlReply != null;
+                if (!duplicate) {
+                    String command = new String(rx.array(), UdpLink.HEADER_SIZE, payloadLength,
+                            StandardCharsets.UTF_8).trim();
+                    transferId = testId;
+                    ctrlSeq = seq;
+                    ctrlReply = handleControl(command);
+                }
+                byte[] reply = ctrlReply.getBytes(StandardCharsets.UTF_8);
+                send(UdpLink.TYPE_CTRL, seq, reply, reply.length);
+            } else if (testId != transferId) {
+                return; // Paquete de una transferencia anterior
+            } else if (type == UdpLink.TYPE_DATA && mode == RECEIVING) {
+                byte[] data = Arrays.copyOfRange(rx.array(), UdpLink.HEADER_SIZE, rx.limit());
+                receiveChunk((int) seq, txUs, data);
+            } else if (type == UdpLink.TYPE_SACK && mode == SENDING && payloadLength >= 16) {
+                handleSack(rx.getInt(UdpLink.HEADER_SIZE) & 0xFFFFFFFFL,
+                        rx.getLong(UdpLink.HEADER_SIZE + 4), rx.getInt(UdpLink.HEADER_SIZE + 12));
+            }
+        }
+
+        private String handleControl(String command) {
+            if (command.startsWith("CMD:UPLOAD_START:")) {
+                int sep = command.indexOf(':', 17);
+                fileName = "/" + command.substring(17, sep);
+                file = new byte[Integer.parseInt(command.substring(sep + 1))];
+                chunkCount = (file.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+                received = new BitSet(chunkCount);
+                cumulative = 0;
+                sinceSack = 0;
+                lastActivityUs = micros();
+                mode = RECEIVING;
+                return "OK:UPLOAD_READY:" + CHUNK_SIZE;
+            }
+            if (command.equals("CMD:UPLOAD_END")) {
+                if (mode != RECEIVING) return "ERROR:NO_UPLOAD";
+                if (cumulative < chunkCount) return "ERROR:UPLOAD_INCOMPLETE";
+                files.put(fileName, file);
+                mode = IDLE;
+                return "OK:UPLOAD_COMPLETE:" + file.length;
+            }
+            if (command.startsWith("CMD:DOWNLOAD:")) {
+                byte[] data = files.get("/" + command.substring(13));
+                if (data == null) return "ERROR:FILE_NOT_FOUND";
+                file = data;
+                chunkCount = (file.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+                cumulative = 0;
+                nextChunk = 0;
+                window = WINDOW_INITIAL;
+                gapUs = GAP_INITIAL_US;
+                srttUs = 0;
+                nextSendUs = micros();
+                lastProgressUs = nextSendUs;
+                lastLossUs = nextSendUs;
+                mode = SENDING;
+                return "OK:DOWNLOAD_READY:" + file.length + ":" + CHUNK_SIZE;
+            }
+            if (command.equals("CMD:DOWNLOAD_END")) {
+                if (mode == SENDING) mode = IDLE;
+                return "OK:DOWNLOAD_END";
+            }
+            return "ERROR:UNKNOWN_COMMAND";
+        }
+
+        private void receiveChunk(int chunk, int txUs, byte[] data) throws IOException {
+            lastActivityUs = micros();
+            echoUs = txUs;
+            boolean inOrder = chunk == cumulative;
+
+            if (chunk < chunkCount && !received.get(chunk)) {
+                int offset = chunk * CHUNK_SIZE;
+                System.arraycopy(data, 0, file, offset, Math.min(data.length, file.length - offset));
+                received.set(chunk);
+                cumulative = received.nextClearBit(cumulative);
+            } else {
+                inOrder = false; // Duplicado: el emisor necesita saberlo ya
+            }
+
+            if (!inOrder || ++sinceSack >= SACK_EVERY || cumulative >= chunkCount) {
+                sendSack();
+            }
+        }
+
+        private void sendSack() throws IOException {
+            long bitmap = 0;
+            for (int i = 0; i < 64; i++) {
+                int chunk = cumulative + 1 + i;
+                if (chunk >= chunkCount) break;
+                if (received.get(chunk)) bitmap |= 1L << i;
+            }
+            byte[] sack = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(cumulative).putLong(bitmap).putInt(echoUs).array();
+            send(UdpLink.TYPE_SACK, cumulative, sack, sack.length);
+            sinceSack = 0;
+        }
+
+        private void sendChunk(int chunk) throws IOException {
+            int offset = chunk * CHUNK_SIZE;
+            int length = Math.min(CHUNK_SIZE, file.length - offset);
+            sentUs[chunk % WINDOW_MAX] = micros();
+            send(UdpLink.TYPE_DATA, chunk, Arrays.copyOfRange(file, offset, offset + length), length);
+        }
+
+        private void serviceSender() throws IOException {
+            long now = micros();
+
+            // Timeout: reenviar el primer chunk sin confirmar
+            long rto = Math.max(RTO_MIN_US, srttUs * 3);
+            if (cumulative < nextChunk && now - lastProgressUs >= rto) {
+                sendChunk(cumulative);
+                retransmitted++;
+                window = WINDOW_MIN;
+                gapUs = Math.min(GAP_MAX_US, gapUs * 2);
+                lastProgressUs = now;
+            }
+
+            // Chunks nuevos según el ritmo, sin pasar de la ventana
+            for (int burst = 0; burst < 8; burst++) {
+                if (nextChunk >= chunkCount || nextChunk >= cumulative + window) break;
+                now = micros();
+                if (now < nextSendUs) break;
+
+                sendChunk(nextChunk);
+                nextChunk++;
+                if (now - nextSendUs > gapUs) nextSendUs = now;
+                nextSendUs += gapUs;
+            }
+        }
+
+        private void handleSack(long sackCumulative, long bitmap, int echo) throws IOException {
+            long now = micros();
+            long rtt = ((int) now - echo) & 0xFFFFFFFFL;
+            if (rtt < 5_000_000L) {
+                srttUs = srttUs == 0 ? rtt : (srttUs * 7 + rtt) / 8;
+            }
+
+            int newCumulative = (int) Math.min(sackCumulative, nextChunk);
+            if (newCumulative > cumulative) {
+                cumulative = newCumulative;
+                lastProgressUs = now;
+                window = Math.min(WINDOW_MAX, window + 1);
+                gapUs = Math.max(GAP_MIN_US, gapUs * 15 / 16);
+            } else if (newCumulative < cumulative) {
+                return; // SACK atrasado: su bitmap es relativo a otro acumulado
+            }
+
+            if (bitmap == 0 || cumulative >= chunkCount) return;
+
+            // Huecos por debajo del chunk más alto confirmado
+            int highest = cumulative + 1 + (63 - Long.numberOfLeadingZeros(bitmap));
+            long minAge = Math.max(2000, srttUs);
+            boolean loss = false;
+
+            for (int chunk = cumulative; chunk < highest && chunk < nextChunk; chunk++) {
+                boolean acked = chunk > cumulative && (bitmap & (1L << (chunk - cumulative - 1))) != 0;
+                if (!acked && now - sentUs[chunk % WINDOW_MAX] >= minAge) {
+                    sendChunk(chunk);
+                    retransmitted++;
+                    loss = true;
+                }
+            }
+
+            if (loss && now - lastLossUs > minAge) {
+                window = Math.max(WINDOW_MIN, window * 7 / 10);
+                gapUs = Math.min(GAP_MAX_US, gapUs * 5 / 4);
+                lastLossUs = now;
+            }
+        }
+
+        private void send(int type, long seq, byte[] payload, int length) throws IOException {
+            if (peer == null) return;
+            tx.clear();
+            tx.putShort((short) UdpLink.MAGIC);
+            tx.putShort((short) transferId);
+            tx.putInt((int) seq);
+            tx.putInt((int) micros());
+            tx.put((byte) type);
+            tx.put(payload, 0, length);
+            tx.flip();
+            channel.send(tx, peer);
+        }
+    }
+}
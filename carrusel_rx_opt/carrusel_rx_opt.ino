@@ -15,6 +15,12 @@
 #define RX_TIMEOUT 120000        // ✅ 120s para archivos grandes
 #define MAX_CHUNKS 4096          // ✅ Soporta hasta 1MB (4096 * 240 bytes)
 #define FEC_BLOCK_SIZE 8
+#define INTERLEAVE_STRIDE 37     // ✅ Debe coincidir con carrusel_tx_opt (ENABLE_INTERLEAVING)
+#define PART_EXTENSION ".part"   // ✅ Bitmap + paridad de archivos incompletos (para la app)
+#define LT_EXTENSION ".fec"      // ✅ Símbolos LT recibidos (mismo formato que FountainCode)
+#define LT_VERSION 2
+#define LT_HEADER_SIZE 24
+#define LT_RECORD_HEADER 8       // esi(4) + grado(2) + reservado(2)
 
 // ✅ MAGIC BYTES para broadcast
 #define MANIFEST_MAGIC_1 0xAA
@@ -25,6 +31,8 @@
 #define PARITY_MAGIC_2 0xFF
 #define FILE_END_MAGIC_1 0x99
 #define FILE_END_MAGIC_2 0x88
+#define REPAIR_MAGIC_1 0x77
+#define REPAIR_MAGIC_2 0x66
 
 #define VEXT 36
 #define VEXT_ON LOW
@@ -62,6 +70,12 @@ struct FileSession {
   };
   FECBlock* parityBlocks = nullptr;
   uint16_t numParityBlocks = 0;
+  
+  // Símbolos LT (REPAIR): se guardan en fecTempName según llegan
+  uint32_t ltSeed = 0;
+  String fecTempName = "";
+  uint8_t* repairSeen = nullptr;   // bit (esi - K), para no guardar repetidos
+  uint32_t repairReceived = 0;
 };
 
 FileSession currentSession;
@@ -72,6 +86,7 @@ unsigned long lastFileCompletionTime = 0;
 
 // ✅ NUEVO: Archivo temporal abierto
 File currentTempFile;
+File currentFecFile;
 
 // Parámetros LoRa configurables
 float currentBW = 125.0;
@@ -85,6 +100,7 @@ uint32_t lastFileSize = 0;
 uint32_t totalPacketsReceived = 0;
 uint32_t totalCrcErrors = 0;
 uint32_t totalRecovered = 0;
+uint32_t totalLtRecovered = 0;
 uint32_t totalDuplicates = 0;
 
 // ============================================
@@ -104,6 +120,71 @@ uint16_t crc16_ccitt(const uint8_t* data, size_t len) {
   return crc;
 }
 
+// ============================================
+// ✅ CRC32 (semilla LT, igual que FountainCode.seedFor)
+// ============================================
+uint32_t crc32Update(uint32_t crc, const uint8_t* data, size_t len) {
+  crc = ~crc;
+  for (size_t i = 0; i < len; i++) {
+    crc ^= data[i];
+    for (uint8_t j = 0; j < 8; j++) {
+      crc = (crc >> 1) ^ (0xEDB88320 & (0 - (crc & 1)));
+    }
+  }
+  return ~crc;
+}
+
+uint32_t ltSeedFor(const String& fileName, uint32_t fileSize) {
+  uint32_t crc = crc32Update(0, (const uint8_t*)fileName.c_str(), fileName.length());
+  uint8_t size[8] = {0};
+  memcpy(size, &fileSize, 4);
+  crc = crc32Update(crc, size, 8);
+  return crc != 0 ? crc : 1;
+}
+
+// CRC32 del archivo completo (/crc: la app valida la reanudación y el resultado)
+uint32_t fileCrc32(const String& path) {
+  File file = LittleFS.open(path, "r");
+  if (!file) return 0;
+  uint8_t buffer[1024];
+  uint32_t crc = 0;
+  size_t read;
+  while ((read = file.read(buffer, sizeof(buffer))) > 0) {
+    crc = crc32Update(crc, buffer, read);
+  }
+  file.close();
+  return crc;
+}
+
+// ============================================
+// ✅ VECINOS LT (igual que FountainCode.neighbors(esi, grado))
+// ============================================
+uint32_t xorshift32(uint32_t x) {
+  x ^= x << 13;
+  x ^= x >> 17;
+  x ^= x << 5;
+  return x;
+}
+
+// El grado viene en el paquete; seen es un bitmap de K bits de trabajo
+void ltNeighbors(uint32_t seed, uint32_t esi, uint16_t degree, uint16_t k,
+                 uint16_t* out, uint8_t* seen) {
+  memset(seen, 0, (k + 7) / 8);
+  
+  uint32_t state = seed ^ (esi * 0x9E3779B1u);
+  if (state == 0) state = 0x6D2B79F5;
+  state = xorshift32(state);   // paso del grado
+  
+  uint16_t count = 0;
+  while (count < degree) {
+    state = xorshift32(state);
+    uint16_t candidate = state % k;
+    if (seen[candidate / 8] & (1 << (candidate % 8))) continue;
+    seen[candidate / 8] |= 1 << (candidate % 8);
+    out[count++] = candidate;
+  }
+}
+
 void enableVext(bool on) {
   pinMode(VEXT, OUTPUT);
   digitalWrite(VEXT, on ? VEXT_ON : !VEXT_ON);
@@ -135,6 +216,15 @@ bool initFileSession(uint32_t fileID, String fileName, uint32_t totalSize, uint1
   currentSession.startTime = millis();
   currentSession.chunksReceivedCount = 0;
   
+  // ✅ LT: semilla con el nombre sin "/" (como lo difunde el TX)
+  currentSession.ltSeed = ltSeedFor(fileName.substring(1), totalSize);
+  currentSession.fecTempName = fileName + LT_EXTENSION + ".tmp";
+  currentSession.repairReceived = 0;
+  currentSession.repairSeen = (uint8_t*)calloc(MAX_CHUNKS / 8, 1);
+  if (LittleFS.exists(currentSession.fecTempName)) {
+    LittleFS.remove(currentSession.fecTempName);
+  }
+  
   // ✅ Solo flags (1 byte por chunk)
   currentSession.chunkReceived = (bool*)calloc(totalChunks, sizeof(bool));
   
@@ -142,7 +232,7 @@ bool initFileSession(uint32_t fileID, String fileName, uint32_t totalSize, uint1
   currentSession.numParityBlocks = (totalChunks + FEC_BLOCK_SIZE - 1) / FEC_BLOCK_SIZE;
   currentSession.parityBlocks = new FileSession::FECBlock[currentSession.numParityBlocks];
   
-  if (!currentSession.chunkReceived || !currentSession.parityBlocks) {
+  if (!currentSession.chunkReceived || !currentSession.parityBlocks || !currentSession.repairSeen) {
     Serial.println("❌ Error de memoria");
     freeFileSession();
     return false;
@@ -219,6 +309,17 @@ void freeFileSession() {
     currentSession.parityBlocks = nullptr;
   }
   
+  // ✅ Cerrar símbolos LT
+  if (currentFecFile) {
+    currentFecFile.close();
+    currentFecFile = File();
+  }
+  if (currentSession.repairSeen) {
+    free(currentSession.repairSeen);
+    currentSession.repairSeen = nullptr;
+  }
+  currentSession.repairReceived = 0;
+  
   // ✅ Liberar chunk flags
   if (currentSession.chunkReceived) {
     Serial.println("  └─ Liberando chunk flags");
@@ -298,7 +399,62 @@ void applyLoRaConfig() {
   Serial.println("✅ Radio configurado\n");
 }
 
-// ✅ Web server (sin cambios, solo referencia)
+// ✅ Descarga parcial (Range: bytes=a-b) para la app: varias conexiones
+//    piden segmentos distintos y una descarga cortada sigue donde quedó
+bool parseRange(const String& header, size_t size, size_t& start, size_t& end) {
+  if (!header.startsWith("bytes=") || size == 0) return false;
+  int dash = header.indexOf('-', 6);
+  if (dash < 0) return false;
+
+  String first = header.substring(6, dash);
+  String last = header.substring(dash + 1);
+  first.trim();
+  last.trim();
+
+  if (first.length() == 0) {
+    // bytes=-N: los últimos N bytes
+    size_t suffix = last.toInt();
+    if (suffix == 0) return false;
+    start = suffix >= size ? 0 : size - suffix;
+    end = size - 1;
+  } else {
+    start = first.toInt();
+    end = last.length() == 0 ? size - 1 : (size_t)last.toInt();
+    if (end >= size) end = size - 1;
+  }
+  return start <= end && start < size;
+}
+
+void sendRange(AsyncWebServerRequest *request, const String& filename, const String& contentType) {
+  File file = LittleFS.open(filename, "r");
+  size_t size = file.size();
+  size_t start, end;
+
+  if (!parseRange(request->getHeader("Range")->value(), size, start, end)) {
+    file.close();
+    AsyncWebServerResponse *response = request->beginResponse(416, "text/plain", "Rango inválido");
+    response->addHeader("Content-Range", "bytes */" + String(size));
+    request->send(response);
+    return;
+  }
+
+  file.seek(start);
+  size_t length = end - start + 1;
+
+  // El File va dentro del lambda: se cierra al terminar la respuesta
+  AsyncWebServerResponse *response = request->beginResponse(contentType, length,
+    [file, length](uint8_t *buffer, size_t maxLen, size_t index) mutable -> size_t {
+      if (index >= length) return 0;
+      return file.read(buffer, min(maxLen, length - index));
+    });
+  response->setCode(206);
+  response->addHeader("Accept-Ranges", "bytes");
+  response->addHeader("Content-Range",
+                      "bytes " + String(start) + "-" + String(end) + "/" + String(size));
+  request->send(response);
+}
+
+// ✅ Web server
 void setupWebServer() {
   server.on("/", HTTP_GET, [](AsyncWebServerRequest *request){
     String html = "<!DOCTYPE html><html><head>";
@@ -524,6 +680,10 @@ void setupWebServer() {
         else if (filename.endsWith(".jpg") || filename.endsWith(".jpeg")) contentType = "image/jpeg";
         else if (filename.endsWith(".png")) contentType = "image/png";
         
+        if (request->hasHeader("Range")) {
+          sendRange(request, filename, contentType);
+          return;
+        }
         request->send(LittleFS, filename, contentType, true);
       } else {
         request->send(404, "text/plain", "No encontrado");
@@ -531,6 +691,26 @@ void setupWebServer() {
     }
   });
 
+  // ✅ CRC32 y tamaño de un archivo: la app comprueba que no cambió antes de
+  //    reanudar una descarga y verifica el archivo completo al terminar
+  server.on("/crc", HTTP_GET, [](AsyncWebServerRequest *request){
+    if (!request->hasParam("file")) {
+      request->send(400, "text/plain", "Faltan parámetros");
+      return;
+    }
+    String filename = request->getParam("file")->value();
+    if (!filename.startsWith("/")) filename = "/" + filename;
+    if (!LittleFS.exists(filename)) {
+      request->send(404, "text/plain", "No encontrado");
+      return;
+    }
+
+    File file = LittleFS.open(filename, "r");
+    size_t size = file.size();
+    file.close();
+    request->send(200, "text/plain", String(fileCrc32(filename)) + ":" + String(size));
+  });
+
   server.on("/delete", HTTP_GET, [](AsyncWebServerRequest *request){
     if (request->hasParam("file")) {
       String filename = request->getParam("file")->value();
@@ -599,6 +779,9 @@ void loop() {
       else if (buffer[0] == PARITY_MAGIC_1 && buffer[1] == PARITY_MAGIC_2) {
         processParityChunk(buffer, packetLen);
       }
+      else if (buffer[0] == REPAIR_MAGIC_1 && buffer[1] == REPAIR_MAGIC_2) {
+        processRepairChunk(buffer, packetLen);
+      }
       else if (buffer[0] == FILE_END_MAGIC_1 && buffer[1] == FILE_END_MAGIC_2) {
         processFileEnd(buffer, packetLen);
       }
@@ -781,6 +964,66 @@ void processParityChunk(uint8_t* data, size_t len) {
   yield();
 }
 
+// ============================================
+// ✅ PROCESAR REPAIR (símbolo LT)
+// ============================================
+// Formato: magic(2) fileID(4) esi(4) grado(2) símbolo(chunkSize) crc(2)
+// El símbolo se añade a fecTempName como registro de FountainCode
+void processRepairChunk(uint8_t* data, size_t len) {
+  if (!currentSession.active || len < 14) return;
+  
+  uint32_t fileID;
+  uint32_t esi;
+  uint16_t degree;
+  
+  size_t idx = 2;
+  memcpy(&fileID, data + idx, 4); idx += 4;
+  memcpy(&esi, data + idx, 4); idx += 4;
+  memcpy(&degree, data + idx, 2); idx += 2;
+  
+  if (fileID != currentSession.fileID) return;
+  currentSession.lastPacketTime = millis();
+  
+  // Ya completo: no hace falta guardar nada
+  if (currentSession.chunksReceivedCount == currentSession.totalChunks) return;
+  
+  uint32_t repairIndex = esi - currentSession.totalChunks;
+  if (esi < currentSession.totalChunks || repairIndex >= MAX_CHUNKS) return;
+  if (degree == 0 || degree > currentSession.totalChunks) return;
+  if (len - idx - 2 != currentSession.chunkSize) return;
+  
+  if (currentSession.repairSeen[repairIndex / 8] & (1 << (repairIndex % 8))) {
+    totalDuplicates++;
+    return;
+  }
+  
+  if (!currentFecFile) {
+    currentFecFile = LittleFS.open(currentSession.fecTempName, "w+");
+    if (!currentFecFile) {
+      Serial.println("❌ Error creando archivo de símbolos LT");
+      return;
+    }
+    uint8_t header[LT_HEADER_SIZE] = {0};   // se completa en finalizeFile()
+    currentFecFile.write(header, LT_HEADER_SIZE);
+  }
+  
+  uint8_t record[LT_RECORD_HEADER] = {0};
+  memcpy(record, &esi, 4);
+  memcpy(record + 4, &degree, 2);
+  
+  currentFecFile.seek(LT_HEADER_SIZE + currentSession.repairReceived * (LT_RECORD_HEADER + currentSession.chunkSize));
+  if (currentFecFile.write(record, LT_RECORD_HEADER) != LT_RECORD_HEADER ||
+      currentFecFile.write(data + idx, currentSession.chunkSize) != currentSession.chunkSize) {
+    Serial.println("❌ Error guardando símbolo LT");
+    return;
+  }
+  
+  currentSession.repairSeen[repairIndex / 8] |= 1 << (repairIndex % 8);
+  currentSession.repairReceived++;
+  
+  yield();
+}
+
 // ============================================
 // ✅ PROCESAR FILE_END (con espera)
 // ============================================
@@ -809,9 +1052,20 @@ void processFileEnd(uint8_t* data, size_t len) {
   finalizeFile();
 }
 
+// ============================================
+// ✅ POSICIÓN DE TX → ÍNDICE DE CHUNK
+// ============================================
+// El TX envía la posición i como chunk (i * 37) % total y calcula la
+// paridad del bloque i / FEC_BLOCK_SIZE sobre esas posiciones
+uint16_t chunkAtPosition(uint16_t position) {
+  return (uint16_t)(((uint32_t)position * INTERLEAVE_STRIDE) % currentSession.totalChunks);
+}
+
 // ============================================
 // ✅ FEC RECOVERY (con archivo abierto)
 // ============================================
+// Paridad XOR y símbolos LT alternados: cada chunk que recupera uno
+// puede dejar a otro con un solo hueco
 void attemptFECRecovery() {
   if (!currentSession.active) return;
   
@@ -822,6 +1076,19 @@ void attemptFECRecovery() {
     return;
   }
   
+  uint16_t before;
+  do {
+    before = currentSession.chunksReceivedCount;
+    xorRecoveryPass();
+    ltRecoveryPass();
+  } while (currentSession.chunksReceivedCount != before &&
+           currentSession.chunksReceivedCount < currentSession.totalChunks);
+  
+  currentTempFile.flush();
+}
+
+// Un hueco por bloque: chunk = paridad XOR resto del bloque
+void xorRecoveryPass() {
   for (uint16_t block = 0; block < currentSession.numParityBlocks; block++) {
     uint16_t blockStart = block * FEC_BLOCK_SIZE;
     uint16_t blockEnd = min((uint16_t)(blockStart + FEC_BLOCK_SIZE), currentSession.totalChunks);
@@ -829,7 +1096,8 @@ void attemptFECRecovery() {
     int missingCount = 0;
     int missingIndex = -1;
     
-    for (uint16_t i = blockStart; i < blockEnd; i++) {
+    for (uint16_t p = blockStart; p < blockEnd; p++) {
+      uint16_t i = chunkAtPosition(p);
       if (!currentSession.chunkReceived[i]) {
         missingCount++;
         missingIndex = i;
@@ -846,7 +1114,8 @@ void attemptFECRecovery() {
       memcpy(recovered, currentSession.parityBlocks[block].data, maxLen);
       
       uint8_t chunkBuffer[300];
-      for (uint16_t i = blockStart; i < blockEnd; i++) {
+      for (uint16_t p = blockStart; p < blockEnd; p++) {
+        uint16_t i = chunkAtPosition(p);
         if (currentSession.chunkReceived[i]) {
           uint32_t offset = (uint32_t)i * currentSession.chunkSize;
           currentTempFile.seek(offset);
@@ -875,8 +1144,160 @@ void attemptFECRecovery() {
     
     yield();
   }
+}
+
+// Pelado LT: un símbolo con un solo vecino sin recibir lo determina
+void ltRecoveryPass() {
+  if (!currentFecFile || currentSession.repairReceived == 0) return;
+  
+  uint16_t k = currentSession.totalChunks;
+  uint16_t chunkSize = currentSession.chunkSize;
+  uint16_t* neighbors = (uint16_t*)malloc(k * sizeof(uint16_t));
+  uint8_t* seen = (uint8_t*)malloc((k + 7) / 8);
+  uint8_t* symbol = (uint8_t*)malloc(chunkSize);
+  uint8_t* chunkBuffer = (uint8_t*)malloc(chunkSize);
+  if (!neighbors || !seen || !symbol || !chunkBuffer) {
+    Serial.println("❌ No RAM para decodificar LT");
+    free(neighbors); free(seen); free(symbol); free(chunkBuffer);
+    return;
+  }
   
-  currentTempFile.flush();
+  currentFecFile.flush();
+  
+  for (uint32_t r = 0; r < currentSession.repairReceived && currentSession.chunksReceivedCount < k; r++) {
+    uint8_t record[LT_RECORD_HEADER];
+    uint32_t recordOffset = LT_HEADER_SIZE + r * (LT_RECORD_HEADER + chunkSize);
+    currentFecFile.seek(recordOffset);
+    if (currentFecFile.read(record, LT_RECORD_HEADER) != LT_RECORD_HEADER) break;
+    
+    uint32_t esi;
+    uint16_t degree;
+    memcpy(&esi, record, 4);
+    memcpy(&degree, record + 4, 2);
+    
+    ltNeighbors(currentSession.ltSeed, esi, degree, k, neighbors, seen);
+    
+    int missingCount = 0;
+    int missingIndex = -1;
+    for (uint16_t n = 0; n < degree && missingCount < 2; n++) {
+      if (!currentSession.chunkReceived[neighbors[n]]) {
+        missingCount++;
+        missingIndex = neighbors[n];
+      }
+    }
+    if (missingCount != 1) continue;
+    
+    if (currentFecFile.read(symbol, chunkSize) != chunkSize) break;
+    
+    // Los chunks recibidos se restan; el último va con relleno de ceros
+    for (uint16_t n = 0; n < degree; n++) {
+      uint16_t i = neighbors[n];
+      if (i == missingIndex) continue;
+      memset(chunkBuffer, 0, chunkSize);
+      currentTempFile.seek((uint32_t)i * chunkSize);
+      currentTempFile.read(chunkBuffer, chunkSize);
+      for (uint16_t j = 0; j < chunkSize; j++) {
+        symbol[j] ^= chunkBuffer[j];
+      }
+      if (n % 16 == 0) yield();
+    }
+    
+    uint32_t offset = (uint32_t)missingIndex * chunkSize;
+    size_t length = min((uint32_t)chunkSize, currentSession.totalSize - offset);
+    currentTempFile.seek(offset);
+    if (currentTempFile.write(symbol, length) == length) {
+      currentSession.chunkReceived[missingIndex] = true;
+      currentSession.chunksReceivedCount++;
+      totalLtRecovered++;
+      Serial.printf("⛲ Chunk %u recuperado con LT (esi %u)\n", missingIndex, esi);
+    }
+    
+    yield();
+  }
+  
+  free(neighbors);
+  free(seen);
+  free(symbol);
+  free(chunkBuffer);
+}
+
+// ============================================
+// ✅ GUARDAR INFO PARCIAL (bitmap + paridad)
+// ============================================
+// Formato (little endian), se descarga con /download?file=<nombre>.part
+//   'P' 'R' version(1) reservado(1) fileID(4) totalSize(4)
+//   totalChunks(2) chunkSize(2) numParityBlocks(2) reservado(2)
+//   bitmap: ceil(totalChunks / 8) bytes, bit i = chunk i (LSB primero)
+//   numParityBlocks × [ length(2) + length bytes ]  (length 0 = no recibido)
+void savePartialInfo(const String& partName) {
+  File part = LittleFS.open(partName, "w");
+  if (!part) {
+    Serial.println("❌ Error creando archivo .part");
+    return;
+  }
+  
+  uint8_t header[20] = {'P', 'R', 1, 0};
+  memcpy(header + 4, &currentSession.fileID, 4);
+  memcpy(header + 8, &currentSession.totalSize, 4);
+  memcpy(header + 12, &currentSession.totalChunks, 2);
+  memcpy(header + 14, &currentSession.chunkSize, 2);
+  memcpy(header + 16, &currentSession.numParityBlocks, 2);
+  part.write(header, sizeof(header));
+  
+  uint8_t bits = 0;
+  for (uint16_t i = 0; i < currentSession.totalChunks; i++) {
+    if (currentSession.chunkReceived[i]) bits |= (1 << (i % 8));
+    if (i % 8 == 7 || i + 1 == currentSession.totalChunks) {
+      part.write(&bits, 1);
+      bits = 0;
+    }
+  }
+  
+  for (uint16_t b = 0; b < currentSession.numParityBlocks; b++) {
+    uint16_t length = currentSession.parityBlocks[b].received ? currentSession.parityBlocks[b].length : 0;
+    part.write((uint8_t*)&length, 2);
+    if (length > 0) {
+      part.write(currentSession.parityBlocks[b].data, length);
+    }
+    yield();
+  }
+  
+  part.close();
+  Serial.printf("💾 Info parcial guardada: %s\n", partName.c_str());
+}
+
+// ============================================
+// ✅ GUARDAR SÍMBOLOS LT ("<nombre>.fec")
+// ============================================
+// Cabecera de FountainCode con repairCount = símbolos recibidos; si el
+// archivo quedó completo (o no llegó ninguno) se borra el temporal
+void saveRepairSymbols(bool keep) {
+  String fecName = currentSession.fileName + LT_EXTENSION;
+  if (LittleFS.exists(fecName)) LittleFS.remove(fecName);
+  
+  if (!currentFecFile) return;
+  
+  if (keep && currentSession.repairReceived > 0) {
+    uint8_t header[LT_HEADER_SIZE] = {'L', 'T', LT_VERSION, 0};
+    uint32_t k = currentSession.totalChunks;
+    memcpy(header + 4, &currentSession.totalSize, 4);
+    memcpy(header + 8, &currentSession.chunkSize, 2);
+    memcpy(header + 12, &k, 4);
+    memcpy(header + 16, &currentSession.ltSeed, 4);
+    memcpy(header + 20, &currentSession.repairReceived, 4);
+    currentFecFile.seek(0);
+    currentFecFile.write(header, LT_HEADER_SIZE);
+  }
+  
+  currentFecFile.close();
+  currentFecFile = File();
+  
+  if (keep && currentSession.repairReceived > 0) {
+    LittleFS.rename(currentSession.fecTempName, fecName);
+    Serial.printf("💾 Símbolos LT guardados: %s (%u)\n", fecName.c_str(), currentSession.repairReceived);
+  } else {
+    LittleFS.remove(currentSession.fecTempName);
+  }
 }
 
 // ============================================
@@ -951,6 +1372,21 @@ void finalizeFile() {
   Serial.printf("📊 Total: %u paquetes RX | %u errores CRC\n", 
                 totalPacketsReceived, totalCrcErrors);
   
+  if (totalLtRecovered > 0) {
+    Serial.printf("⛲ %u chunks recuperados con símbolos LT\n", totalLtRecovered);
+  }
+  
+  // ✅ NUEVO: Guardar bitmap + paridad para que la app complete el archivo
+  String partName = currentSession.fileName + PART_EXTENSION;
+  if (chunksMissing > 0) {
+    savePartialInfo(partName);
+  } else if (LittleFS.exists(partName)) {
+    LittleFS.remove(partName);
+  }
+  
+  // ✅ Símbolos LT que no bastaron: la app los combina con el .part
+  saveRepairSymbols(chunksMissing > 0);
+  
   // ✅ NUEVO: Registrar FileID procesado
   lastProcessedFileID = currentSession.fileID;
   lastFileCompletionTime = millis();
@@ -30,7 +30,14 @@
 #define PARITY_MAGIC_2 0xFF
 #define FILE_END_MAGIC_1 0x99
 #define FILE_END_MAGIC_2 0x88
+#define REPAIR_MAGIC_1 0x77
+#define REPAIR_MAGIC_2 0x66
 #define FEC_BLOCK_SIZE 8
+#define LT_EXTENSION ".fec"       // ✅ Símbolos LT que codifica la app (FountainCode)
+#define LT_VERSION 2
+#define LT_HEADER_SIZE 24
+#define LT_RECORD_HEADER 8        // esi(4) + grado(2) + reservado(2)
+#define MAX_UPLOAD_SEGMENTS 512   // ✅ Segmentos de /upload_part por archivo
 #define MANIFEST_REPEAT 5
 #define MANIFEST_INTERVAL 50
 #define ENABLE_INTERLEAVING true  // ✅ Resistencia a pérdidas en ráfaga
@@ -63,6 +70,25 @@ uint32_t totalPacketsSent = 0;
 uint32_t totalRetries = 0;
 uint32_t currentFileID = 0;
 
+// ✅ Subida por partes en curso (reanudable mientras el nodo no se reinicie)
+struct UploadSession {
+  bool active;
+  String fileName;
+  uint32_t size;
+  uint32_t segmentSize;
+  uint32_t crc;
+  uint16_t segments;
+  uint8_t done[MAX_UPLOAD_SEGMENTS / 8];
+};
+UploadSession upload = {false, "", 0, 0, 0, 0, {0}};
+
+// Estado de cada POST /upload_part (request->_tempObject, lo libera la petición)
+struct UploadPart {
+  uint32_t crc;
+  size_t received;
+  bool writeOk;
+};
+
 // ============================================
 // ✅ CRC16-CCITT
 // ============================================
@@ -80,6 +106,42 @@ uint16_t crc16_ccitt(const uint8_t* data, size_t len) {
   return crc;
 }
 
+// ============================================
+// ✅ CRC32 (semilla LT, igual que FountainCode.seedFor)
+// ============================================
+uint32_t crc32Update(uint32_t crc, const uint8_t* data, size_t len) {
+  crc = ~crc;
+  for (size_t i = 0; i < len; i++) {
+    crc ^= data[i];
+    for (uint8_t j = 0; j < 8; j++) {
+      crc = (crc >> 1) ^ (0xEDB88320 & (0 - (crc & 1)));
+    }
+  }
+  return ~crc;
+}
+
+uint32_t ltSeedFor(const String& fileName, uint32_t fileSize) {
+  uint32_t crc = crc32Update(0, (const uint8_t*)fileName.c_str(), fileName.length());
+  uint8_t size[8] = {0};
+  memcpy(size, &fileSize, 4);
+  crc = crc32Update(crc, size, 8);
+  return crc != 0 ? crc : 1;
+}
+
+// CRC32 del archivo completo (comprobación final de /upload_end)
+uint32_t fileCrc32(const String& path) {
+  File file = LittleFS.open(path, "r");
+  if (!file) return 0;
+  uint8_t buffer[1024];
+  uint32_t crc = 0;
+  size_t read;
+  while ((read = file.read(buffer, sizeof(buffer))) > 0) {
+    crc = crc32Update(crc, buffer, read);
+  }
+  file.close();
+  return crc;
+}
+
 void enableVext(bool on) {
   pinMode(VEXT, OUTPUT);
   digitalWrite(VEXT, on ?  VEXT_ON : ! VEXT_ON);
@@ -264,6 +326,7 @@ void setupWebServer() {
     html += "<strong>ℹ️ OPTIMIZACIONES ACTIVAS:</strong><br>";
     html += "✅ Interleaving para resistir pérdidas en ráfaga<br>";
     html += "✅ FEC (Forward Error Correction) - 1 chunk de paridad por cada 8<br>";
+    html += "✅ Símbolos LT intercalados si existe '&lt;archivo&gt;.fec' (app: Subir + FEC)<br>";
     html += "✅ Manifest repetido para receptores tardíos<br>";
     html += "✅ Soporta archivos hasta 1 MB";
     html += "</div>";
@@ -444,6 +507,177 @@ void setupWebServer() {
     }
   });
 
+  // ✅ Subida por partes desde la app (segmentos en paralelo, reanudable):
+  //    /upload_begin abre la sesión (o la retoma y devuelve qué segmentos
+  //    ya tiene el nodo), cada /upload_part escribe su cuerpo en ?offset=
+  //    y se marca solo si llega entero y con su CRC32, y /upload_end
+  //    comprueba el CRC32 del archivo completo
+  server.on("/upload_begin", HTTP_GET, [](AsyncWebServerRequest *request){
+    if (!request->hasParam("file") || !request->hasParam("size") ||
+        !request->hasParam("seg") || !request->hasParam("crc")) {
+      request->send(400, "text/plain", "Faltan parámetros");
+      return;
+    }
+    if (transmitting) {
+      request->send(409, "text/plain", "Transmitiendo");
+      return;
+    }
+
+    String filename = request->getParam("file")->value();
+    if (!filename.startsWith("/")) filename = "/" + filename;
+    uint32_t size = strtoul(request->getParam("size")->value().c_str(), NULL, 10);
+    uint32_t segmentSize = strtoul(request->getParam("seg")->value().c_str(), NULL, 10);
+    uint32_t crc = strtoul(request->getParam("crc")->value().c_str(), NULL, 10);
+
+    if (segmentSize == 0) {
+      request->send(400, "text/plain", "Segmento inválido");
+      return;
+    }
+    uint32_t segments = (size + segmentSize - 1) / segmentSize;
+    if (segments > MAX_UPLOAD_SEGMENTS) {
+      request->send(413, "text/plain", "Demasiados segmentos");
+      return;
+    }
+
+    // Mismo archivo, tamaño, segmentos y contenido: retomar lo que ya hay
+    bool resume = upload.active && upload.fileName == filename && upload.size == size &&
+                  upload.segmentSize == segmentSize && upload.crc == crc &&
+                  LittleFS.exists(filename);
+
+    if (!resume) {
+      if (size > LittleFS.totalBytes() - LittleFS.usedBytes()) {
+        request->send(507, "text/plain", "Sin espacio");
+        return;
+      }
+      File file = LittleFS.open(filename, "w");
+      if (!file) {
+        request->send(500, "text/plain", "Error");
+        return;
+      }
+      file.close();
+
+      upload.active = true;
+      upload.fileName = filename;
+      upload.size = size;
+      upload.segmentSize = segmentSize;
+      upload.crc = crc;
+      upload.segments = segments;
+      memset(upload.done, 0, sizeof(upload.done));
+    }
+
+    // Un carácter por segmento: '1' = ya escrito y comprobado
+    String bitmap;
+    bitmap.reserve(segments);
+    uint16_t confirmed = 0;
+    for (uint16_t i = 0; i < segments; i++) {
+      bool done = upload.done[i / 8] & (1 << (i % 8));
+      bitmap += done ? '1' : '0';
+      if (done) confirmed++;
+    }
+    Serial.printf("📥 Subida por partes: %s (%u bytes, %u/%u segmentos)%s\n", filename.c_str(),
+                  size, confirmed, segments, resume ? " - reanudada" : "");
+    request->send(200, "text/plain", bitmap);
+  });
+
+  server.on("/upload_part", HTTP_POST, [](AsyncWebServerRequest *request){
+    if (!request->hasParam("file") || !request->hasParam("offset") || !request->hasParam("crc")) {
+      request->send(400, "text/plain", "Faltan parámetros");
+      return;
+    }
+    String filename = request->getParam("file")->value();
+    if (!filename.startsWith("/")) filename = "/" + filename;
+    uint32_t offset = strtoul(request->getParam("offset")->value().c_str(), NULL, 10);
+    uint32_t crc = strtoul(request->getParam("crc")->value().c_str(), NULL, 10);
+
+    if (!upload.active || upload.fileName != filename ||
+        offset % upload.segmentSize != 0 || offset >= upload.size) {
+      request->send(409, "text/plain", "Sin sesión para esta parte");
+      return;
+    }
+
+    // El cuerpo ya se escribió (abajo): marcar el segmento solo si llegó
+    // completo, se escribió entero y su CRC32 coincide
+    UploadPart *part = (UploadPart *) request->_tempObject;
+    size_t expected = min(upload.segmentSize, upload.size - offset);
+    uint16_t segment = offset / upload.segmentSize;
+    if (!part || !part->writeOk || part->received != expected || part->crc != crc) {
+      upload.done[segment / 8] &= ~(1 << (segment % 8));
+      request->send(422, "text/plain", "Parte incompleta o corrupta");
+      return;
+    }
+
+    upload.done[segment / 8] |= 1 << (segment % 8);
+    request->send(200, "text/plain", "OK");
+  }, NULL, [](AsyncWebServerRequest *request, uint8_t *data, size_t len, size_t index, size_t total){
+    if (!request->hasParam("file") || !request->hasParam("offset")) return;
+    String filename = request->getParam("file")->value();
+    if (!filename.startsWith("/")) filename = "/" + filename;
+    if (!upload.active || upload.fileName != filename) return;
+    size_t offset = strtoul(request->getParam("offset")->value().c_str(), NULL, 10);
+
+    if (index == 0) {
+      request->_tempObject = malloc(sizeof(UploadPart));
+      if (!request->_tempObject) return;
+      UploadPart *part = (UploadPart *) request->_tempObject;
+      part->crc = 0;
+      part->received = 0;
+      part->writeOk = true;
+    }
+    UploadPart *part = (UploadPart *) request->_tempObject;
+    if (!part) return;
+
+    // Abrir por trozo: las partes de varias conexiones llegan intercaladas
+    File file = LittleFS.open(filename, "r+");
+    if (!file || !file.seek(offset + index) || file.write(data, len) != len) {
+      part->writeOk = false;
+    }
+    if (file) file.close();
+
+    part->crc = crc32Update(part->crc, data, len);
+    part->received += len;
+  });
+
+  server.on("/upload_end", HTTP_GET, [](AsyncWebServerRequest *request){
+    if (!request->hasParam("file") || !request->hasParam("size") || !request->hasParam("crc")) {
+      request->send(400, "text/plain", "Faltan parámetros");
+      return;
+    }
+    String filename = request->getParam("file")->value();
+    if (!filename.startsWith("/")) filename = "/" + filename;
+    uint32_t size = strtoul(request->getParam("size")->value().c_str(), NULL, 10);
+    uint32_t crc = strtoul(request->getParam("crc")->value().c_str(), NULL, 10);
+
+    if (!upload.active || upload.fileName != filename || upload.size != size) {
+      request->send(409, "text/plain", "Sin sesión");
+      return;
+    }
+    for (uint16_t i = 0; i < upload.segments; i++) {
+      if (!(upload.done[i / 8] & (1 << (i % 8)))) {
+        request->send(409, "text/plain", "Falta el segmento " + String(i));
+        return;
+      }
+    }
+
+    File file = LittleFS.open(filename, "r");
+    size_t actual = file ? file.size() : 0;
+    if (file) file.close();
+
+    // Tamaño o contenido distinto: la próxima subida empieza de cero
+    uint32_t actualCrc = actual == size ? fileCrc32(filename) : 0;
+    if (actual != size || actualCrc != crc) {
+      upload.active = false;
+      Serial.printf("❌ Subida por partes inválida: %s (%u bytes, CRC %08X)\n",
+                    filename.c_str(), actual, actualCrc);
+      request->send(409, "text/plain", "Tamaño " + String(actual) + ", CRC " + String(actualCrc));
+      return;
+    }
+
+    upload.active = false;
+    Serial.printf("✅ Subido por partes: %s (%u bytes = %.2f KB, CRC %08X)\n",
+                  filename.c_str(), size, size / 1024.0, crc);
+    request->send(200, "text/plain", "OK");
+  });
+
   server.on("/send", HTTP_GET, [](AsyncWebServerRequest *request){
     // ✅ AGREGAR DEBUG:
     Serial.println("\n🔍 DEBUG: Endpoint /send llamado");
@@ -657,6 +891,93 @@ bool sendParityChunk(uint32_t fileID, uint16_t blockIndex, uint8_t* parityData,
   return true;
 }
 
+// ============================================
+// ✅ TRANSMITIR REPAIR (símbolo LT del .fec)
+// ============================================
+bool sendRepairChunk(uint32_t fileID, uint32_t esi, uint16_t degree, uint8_t* symbol, size_t len) {
+  uint8_t repairPkt[2 + 4 + 4 + 2 + CHUNK_SIZE + 2];
+  size_t idx = 0;
+  
+  repairPkt[idx++] = REPAIR_MAGIC_1;
+  repairPkt[idx++] = REPAIR_MAGIC_2;
+  memcpy(repairPkt + idx, &fileID, 4); idx += 4;
+  memcpy(repairPkt + idx, &esi, 4); idx += 4;
+  memcpy(repairPkt + idx, &degree, 2); idx += 2;
+  memcpy(repairPkt + idx, symbol, len); idx += len;
+  
+  uint16_t crc = crc16_ccitt(repairPkt, idx);
+  memcpy(repairPkt + idx, &crc, 2); idx += 2;
+  
+  int state = radio.transmit(repairPkt, idx);
+  if (state != RADIOLIB_ERR_NONE) {
+    Serial.printf("⚠️  Repair TX error: %d\n", state);
+    return false;
+  }
+  
+  return true;
+}
+
+// ============================================
+// ✅ ABRIR SÍMBOLOS LT ("<archivo>.fec")
+// ============================================
+// Formato de FountainCode (little endian):
+//   'L' 'T' version(1) reservado(1) fileSize(4) symbolSize(2) porVuelta(2)
+//   K(4) seed(4) repairCount(4)
+//   repairCount × [ esi(4) + grado(2) + reservado(2) + symbolSize bytes ]
+// Devuelve los registros utilizables (0 = sin .fec o no corresponde) y en
+// perRound cuántos se intercalan en cada vuelta
+uint32_t openRepairFile(File& fec, const char* path, const String& fileName,
+                        uint32_t totalSize, uint16_t totalChunks, uint32_t& perRound) {
+  String fecPath = String(path) + LT_EXTENSION;
+  if (!LittleFS.exists(fecPath)) return 0;
+  
+  fec = LittleFS.open(fecPath, "r");
+  if (!fec) return 0;
+  
+  uint8_t header[LT_HEADER_SIZE];
+  uint32_t fileSize = 0, k = 0, seed = 0, repairCount = 0;
+  uint16_t symbolSize = 0, roundCount = 0;
+  bool valid = fec.read(header, LT_HEADER_SIZE) == LT_HEADER_SIZE &&
+               header[0] == 'L' && header[1] == 'T' && header[2] == LT_VERSION;
+  if (valid) {
+    memcpy(&fileSize, header + 4, 4);
+    memcpy(&symbolSize, header + 8, 2);
+    memcpy(&roundCount, header + 10, 2);
+    memcpy(&k, header + 12, 4);
+    memcpy(&seed, header + 16, 4);
+    memcpy(&repairCount, header + 20, 4);
+    
+    // La semilla depende del nombre: un .fec de otro archivo no sirve
+    valid = fileSize == totalSize && symbolSize == CHUNK_SIZE && k == totalChunks &&
+            seed == ltSeedFor(fileName, totalSize);
+  }
+  
+  uint32_t available = (fec.size() - LT_HEADER_SIZE) / (LT_RECORD_HEADER + CHUNK_SIZE);
+  if (!valid || available == 0) {
+    Serial.printf("⚠️  %s no corresponde a este archivo, se ignora\n", fecPath.c_str());
+    fec.close();
+    return 0;
+  }
+  
+  uint32_t records = min(repairCount, available);
+  // Sin porVuelta (.fec antiguo) todos los registros van en cada vuelta
+  perRound = (roundCount > 0 && roundCount < records) ? roundCount : records;
+  return records;
+}
+
+// Leer el registro r del .fec y difundirlo
+bool sendRepairRecord(File& fec, uint32_t fileID, uint32_t r) {
+  uint8_t record[LT_RECORD_HEADER + CHUNK_SIZE];
+  fec.seek(LT_HEADER_SIZE + r * (LT_RECORD_HEADER + CHUNK_SIZE));
+  if (fec.read(record, sizeof(record)) != sizeof(record)) return false;
+  
+  uint32_t esi;
+  uint16_t degree;
+  memcpy(&esi, record, 4);
+  memcpy(&degree, record + 4, 2);
+  return sendRepairChunk(fileID, esi, degree, record + LT_RECORD_HEADER, CHUNK_SIZE);
+}
+
 // ============================================
 // ✅ TRANSMITIR FILE_END
 // ============================================
@@ -701,6 +1022,16 @@ bool sendFile(const char* path) {
   
   uint16_t totalChunks = (totalSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
   
+  // ✅ Símbolos LT de la app: se intercalan repartidos entre los DATA
+  File fec;
+  uint32_t repairPerRound = 0;
+  uint32_t repairCount = openRepairFile(fec, path, fileName, totalSize, totalChunks, repairPerRound);
+  uint16_t repairEvery = repairPerRound > 0 ? max(1, (int)(totalChunks / repairPerRound)) : 0;
+  
+  // ✅ Registro siguiente del .fec: cada vuelta sigue donde paró la anterior
+  // (ESIs nuevos para el RX) y solo vuelve al principio al agotarlos
+  uint32_t repairCursor = 0;
+  
   // ✅ File ID único
   currentFileID = (uint32_t)millis() ^ totalSize;
   
@@ -711,6 +1042,11 @@ bool sendFile(const char* path) {
   Serial.printf("║  🔁 Repeticiones: %u vueltas\n", currentREPEAT);
   Serial.printf("║  🔀 Interleaving: %s\n", ENABLE_INTERLEAVING ? "ACTIVADO" : "DESACTIVADO");
   Serial.printf("║  🆔 File ID: 0x%08X\n", currentFileID);
+  if (repairCount > 0) {
+    Serial.printf("║  ⛲ Símbolos LT: %u por vuelta (%u en el .fec)\n", repairPerRound, repairCount);
+  } else {
+    Serial.printf("║  ⛲ Símbolos LT: 0 (sin .fec)\n");
+  }
   
   // ✅ Calcular tiempo estimado
   float timePerChunk = 0.0;
@@ -741,6 +1077,7 @@ bool sendFile(const char* path) {
     for (int m = 0; m < MANIFEST_REPEAT; m++) {
       if (!sendManifest(currentFileID, totalSize, totalChunks, fileName)) {
         f.close();
+        if (fec) fec.close();
         return false;
       }
       delay(dynamicDelay + 50);
@@ -758,6 +1095,7 @@ bool sendFile(const char* path) {
     
     // ✅ Progress tracker
     uint16_t lastProgressPercent = 0;
+    uint32_t repairSent = 0;
     
     for (uint16_t i = 0; i < totalChunks; i++) {
       // ✅ INTERLEAVING: orden pseudoaleatorio
@@ -785,6 +1123,7 @@ bool sendFile(const char* path) {
       // ✅ Transmitir chunk
       if (!sendDataChunk(currentFileID, index, totalChunks, buffer, bytesRead)) {
         f.close();
+        if (fec) fec.close();
         return false;
       }
       
@@ -827,6 +1166,14 @@ bool sendFile(const char* path) {
         delay(dynamicDelay);
       }
       
+      // ✅ Símbolo LT cada repairEvery chunks
+      if (repairSent < repairPerRound && (i + 1) % repairEvery == 0) {
+        if (sendRepairRecord(fec, currentFileID, repairCursor)) totalPacketsSent++;
+        repairCursor = (repairCursor + 1) % repairCount;
+        repairSent++;
+        delay(dynamicDelay);
+      }
+      
       // ✅ Re-enviar manifest periódicamente
       if ((i + 1) % MANIFEST_INTERVAL == 0) {
         sendManifest(currentFileID, totalSize, totalChunks, fileName);
@@ -836,6 +1183,15 @@ bool sendFile(const char* path) {
       yield();  // ✅ Evitar WDT reset en archivos grandes
     }
     
+    // ✅ Símbolos LT que no cupieron entre los chunks
+    while (repairSent < repairPerRound) {
+      if (sendRepairRecord(fec, currentFileID, repairCursor)) totalPacketsSent++;
+      repairCursor = (repairCursor + 1) % repairCount;
+      repairSent++;
+      delay(dynamicDelay);
+      yield();
+    }
+    
     // ✅ FILE_END al terminar cada vuelta
     Serial.printf("\n🏁 Enviando FILE_END (vuelta %d)...\n", round);
     sendFileEnd(currentFileID, totalChunks);
@@ -843,6 +1199,7 @@ bool sendFile(const char* path) {
   }
 
   f.close();
+  if (fec) fec.close();
   
   Serial.println("\n╔════════════════════════════════════════╗");
   Serial.println("║     🎉 TRANSMISIÓN COMPLETA           ║");